@@ -43,7 +43,6 @@ import org.springframework.ai.chat.observation.ChatModelObservationDocumentation
 import org.springframework.ai.chat.observation.DefaultChatModelObservationConvention;
 import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.model.ModelOptionsUtils;
 import org.springaicommunity.qianfan.api.QianFanApi;
 import org.springaicommunity.qianfan.api.QianFanApi.ChatCompletion;
 import org.springaicommunity.qianfan.api.QianFanApi.ChatCompletionChunk;
@@ -51,6 +50,11 @@ import org.springaicommunity.qianfan.api.QianFanApi.ChatCompletionMessage;
 import org.springaicommunity.qianfan.api.QianFanApi.ChatCompletionMessage.Role;
 import org.springaicommunity.qianfan.api.QianFanApi.ChatCompletionRequest;
 import org.springaicommunity.qianfan.api.QianFanConstants;
+import org.springaicommunity.qianfan.cache.ChatResponseCacheTemplate;
+import org.springaicommunity.qianfan.cache.RequestCoalescer;
+import org.springaicommunity.qianfan.resilience.HedgedRequestExecutor;
+import org.springaicommunity.qianfan.metering.UsageMeter;
+import org.springaicommunity.qianfan.token.QianFanTokenEstimator;
 import org.springframework.ai.retry.RetryUtils;
 import org.springframework.http.ResponseEntity;
 import org.springframework.retry.support.RetryTemplate;
@@ -98,6 +102,32 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 	 */
 	private ChatModelObservationConvention observationConvention = DEFAULT_OBSERVATION_CONVENTION;
 
+	/**
+	 * Optional executor used to hedge slow non-streaming calls.
+	 */
+	private HedgedRequestExecutor hedgedRequestExecutor;
+
+	/**
+	 * Optional coalescer sharing a single upstream call between concurrent identical
+	 * deterministic requests.
+	 */
+	private RequestCoalescer requestCoalescer;
+
+	/**
+	 * Optional template serving repeated requests from a response cache.
+	 */
+	private ChatResponseCacheTemplate responseCacheTemplate;
+
+	/**
+	 * Estimator used to size requests before they are sent.
+	 */
+	private QianFanTokenEstimator tokenEstimator = QianFanTokenEstimator.DEFAULT;
+
+	/**
+	 * Optional meter recording the token usage and cost of the requests.
+	 */
+	private UsageMeter usageMeter;
+
 	/**
 	 * Creates an instance of the QianFanChatModel.
 	 * @param qianFanApi The QianFanApi instance to be used for interacting with the
@@ -154,6 +184,13 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 
 		ChatCompletionRequest request = createRequest(prompt, false);
 
+		if (this.responseCacheTemplate != null && isResponseCacheEnabled(prompt)) {
+			return this.responseCacheTemplate.execute(request, () -> this.internalCall(prompt, request));
+		}
+		return this.internalCall(prompt, request);
+	}
+
+	private ChatResponse internalCall(Prompt prompt, ChatCompletionRequest request) {
 		ChatModelObservationContext observationContext = ChatModelObservationContext.builder()
 			.prompt(prompt)
 			.provider(QianFanConstants.PROVIDER_NAME)
@@ -163,8 +200,8 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 			.observation(this.observationConvention, DEFAULT_OBSERVATION_CONVENTION, () -> observationContext,
 					this.observationRegistry)
 			.observe(() -> {
-				ResponseEntity<ChatCompletion> completionEntity = this.retryTemplate
-					.execute(ctx -> this.qianFanApi.chatCompletionEntity(request));
+				ResponseEntity<ChatCompletion> completionEntity = this.executeChatCompletion(request,
+						isDeterministic(prompt, request));
 
 				var chatCompletion = completionEntity.getBody();
 				if (chatCompletion == null) {
@@ -192,6 +229,7 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 
 		return Flux.deferContextual(contextView -> {
 			ChatCompletionRequest request = createRequest(prompt, true);
+			String tenant = (this.usageMeter != null) ? this.usageMeter.currentTenant() : null;
 
 			var completionChunks = this.qianFanApi.chatCompletionStream(request);
 
@@ -222,11 +260,64 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 				.doOnError(observation::error)
 				.doFinally(s -> observation.stop())
 				.contextWrite(ctx -> ctx.put(ObservationThreadLocalAccessor.KEY, observation));
-			return new MessageAggregator().aggregate(chatResponse, observationContext::setResponse);
+			return new MessageAggregator().aggregate(chatResponse, aggregatedResponse -> {
+				observationContext.setResponse(aggregatedResponse);
+				if (this.usageMeter != null) {
+					this.usageMeter.record(tenant, UsageMeter.Operation.STREAM, request.model(),
+							aggregatedResponse.getMetadata().getUsage());
+				}
+			});
 
 		});
 	}
 
+	private ResponseEntity<ChatCompletion> executeChatCompletion(ChatCompletionRequest request, boolean deterministic) {
+		if (this.requestCoalescer == null || !deterministic) {
+			return this.meteredChatCompletion(request);
+		}
+		// only the caller sending the request upstream meters it, the callers joining
+		// it share the same tokens
+		return this.requestCoalescer.execute("chat", request, () -> this.meteredChatCompletion(request));
+	}
+
+	private ResponseEntity<ChatCompletion> meteredChatCompletion(ChatCompletionRequest request) {
+		ResponseEntity<ChatCompletion> completionEntity = this.retryTemplate
+			.execute(ctx -> this.doChatCompletion(request));
+		ChatCompletion chatCompletion = completionEntity.getBody();
+		if (this.usageMeter != null && chatCompletion != null && chatCompletion.usage() != null) {
+			this.usageMeter.record(UsageMeter.Operation.CHAT, request.model(), getDefaultUsage(chatCompletion.usage()));
+		}
+		return completionEntity;
+	}
+
+	private boolean isDeterministic(Prompt prompt, ChatCompletionRequest request) {
+		Boolean deterministic = (prompt.getOptions() instanceof QianFanChatOptions options) ? options.getDeterministic()
+				: null;
+		if (deterministic == null) {
+			deterministic = this.defaultOptions.getDeterministic();
+		}
+		if (deterministic != null) {
+			return deterministic;
+		}
+		return request.temperature() != null && request.temperature() == 0;
+	}
+
+	private boolean isResponseCacheEnabled(Prompt prompt) {
+		Boolean enabled = (prompt.getOptions() instanceof QianFanChatOptions options)
+				? options.getResponseCacheEnabled() : null;
+		if (enabled == null) {
+			enabled = this.defaultOptions.getResponseCacheEnabled();
+		}
+		return enabled == null || enabled;
+	}
+
+	private ResponseEntity<ChatCompletion> doChatCompletion(ChatCompletionRequest request) {
+		if (this.hedgedRequestExecutor == null) {
+			return this.qianFanApi.chatCompletionEntity(request);
+		}
+		return this.hedgedRequestExecutor.execute("chat", () -> this.qianFanApi.chatCompletionEntity(request));
+	}
+
 	/**
 	 * Convert the ChatCompletionChunk into a ChatCompletion.
 	 * @param chunk the ChatCompletionChunk to convert
@@ -258,17 +349,33 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 		var request = new ChatCompletionRequest(userMessageList, systemMessage, stream);
 
 		if (this.defaultOptions != null) {
-			request = ModelOptionsUtils.merge(this.defaultOptions, request, ChatCompletionRequest.class);
+			request = QianFanOptionsMerger.apply(this.defaultOptions, request);
 		}
 
 		if (prompt.getOptions() != null) {
-			var updatedRuntimeOptions = ModelOptionsUtils.copyToTarget(prompt.getOptions(), ChatOptions.class,
-					QianFanChatOptions.class);
-			request = ModelOptionsUtils.merge(updatedRuntimeOptions, request, ChatCompletionRequest.class);
+			var updatedRuntimeOptions = QianFanOptionsMerger.toQianFanChatOptions(prompt.getOptions());
+			request = QianFanOptionsMerger.apply(updatedRuntimeOptions, request);
 		}
 		return request;
 	}
 
+	/**
+	 * Estimate the number of prompt tokens of the prompt, merged with the default
+	 * options, before sending it. The estimate is local and approximate, see
+	 * {@link QianFanTokenEstimator}.
+	 * @param prompt the prompt.
+	 * @return the estimated number of prompt tokens.
+	 */
+	public int estimatePromptTokens(Prompt prompt) {
+		ChatCompletionRequest request = createRequest(prompt, false);
+		int tokens = this.tokenEstimator
+			.estimateMessages(request.messages().stream().map(ChatCompletionMessage::content).toList());
+		if (request.system() != null) {
+			tokens += this.tokenEstimator.estimate(request.system()) + QianFanTokenEstimator.MESSAGE_OVERHEAD_TOKENS;
+		}
+		return tokens;
+	}
+
 	@Override
 	public ChatOptions getDefaultOptions() {
 		return QianFanChatOptions.fromOptions(this.defaultOptions);
@@ -304,4 +411,51 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 		this.observationConvention = observationConvention;
 	}
 
+	/**
+	 * Enable request hedging for {@link #call(Prompt)}. Streaming calls are never hedged.
+	 * @param hedgedRequestExecutor the executor to use, or {@code null} to disable
+	 * hedging.
+	 */
+	public void setHedgedRequestExecutor(HedgedRequestExecutor hedgedRequestExecutor) {
+		this.hedgedRequestExecutor = hedgedRequestExecutor;
+	}
+
+	/**
+	 * Enable coalescing of concurrent identical {@link #call(Prompt)} requests that are
+	 * deterministic, see {@link QianFanChatOptions#getDeterministic()}. The usage of a
+	 * coalesced request is metered once, for the caller sending it upstream.
+	 * @param requestCoalescer the coalescer to use, or {@code null} to disable
+	 * coalescing.
+	 */
+	public void setRequestCoalescer(RequestCoalescer requestCoalescer) {
+		this.requestCoalescer = requestCoalescer;
+	}
+
+	/**
+	 * Serve repeated {@link #call(Prompt)} requests from a response cache. Individual
+	 * requests opt out with {@link QianFanChatOptions#setResponseCacheEnabled(Boolean)}.
+	 * @param responseCacheTemplate the template to use, or {@code null} to disable
+	 * caching.
+	 */
+	public void setResponseCacheTemplate(ChatResponseCacheTemplate responseCacheTemplate) {
+		this.responseCacheTemplate = responseCacheTemplate;
+	}
+
+	/**
+	 * Set the estimator used by {@link #estimatePromptTokens(Prompt)}.
+	 * @param tokenEstimator the token estimator.
+	 */
+	public void setTokenEstimator(QianFanTokenEstimator tokenEstimator) {
+		Assert.notNull(tokenEstimator, "tokenEstimator must not be null");
+		this.tokenEstimator = tokenEstimator;
+	}
+
+	/**
+	 * Record the usage of the requests with the given meter.
+	 * @param usageMeter the meter to use, or {@code null} to disable metering.
+	 */
+	public void setUsageMeter(UsageMeter usageMeter) {
+		this.usageMeter = usageMeter;
+	}
+
 }
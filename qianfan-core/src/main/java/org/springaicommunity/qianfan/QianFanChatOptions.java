@@ -82,6 +82,22 @@ public class QianFanChatOptions implements ChatOptions {
 	private @JsonProperty("top_p") Double topP;
 	// @formatter:on
 
+	/**
+	 * Whether the response is fully determined by the request, so that concurrent
+	 * identical requests may share a single upstream call. When not set, requests with a
+	 * temperature of 0 are considered deterministic.
+	 */
+	@JsonIgnore
+	private Boolean deterministic;
+
+	/**
+	 * Whether the response of this request may be served from, and stored in, the
+	 * response cache of the chat model. Defaults to {@code true} when a cache is
+	 * configured.
+	 */
+	@JsonIgnore
+	private Boolean responseCacheEnabled;
+
 	public static Builder builder() {
 		return new Builder();
 	}
@@ -96,6 +112,8 @@ public class QianFanChatOptions implements ChatOptions {
 			.stop(fromOptions.getStop())
 			.temperature(fromOptions.getTemperature())
 			.topP(fromOptions.getTopP())
+			.deterministic(fromOptions.getDeterministic())
+			.responseCacheEnabled(fromOptions.getResponseCacheEnabled())
 			.build();
 	}
 
@@ -180,6 +198,22 @@ public class QianFanChatOptions implements ChatOptions {
 		this.topP = topP;
 	}
 
+	public Boolean getDeterministic() {
+		return this.deterministic;
+	}
+
+	public void setDeterministic(Boolean deterministic) {
+		this.deterministic = deterministic;
+	}
+
+	public Boolean getResponseCacheEnabled() {
+		return this.responseCacheEnabled;
+	}
+
+	public void setResponseCacheEnabled(Boolean responseCacheEnabled) {
+		this.responseCacheEnabled = responseCacheEnabled;
+	}
+
 	@Override
 	@JsonIgnore
 	public Integer getTopK() {
@@ -337,6 +371,16 @@ public class QianFanChatOptions implements ChatOptions {
 			return this;
 		}
 
+		public Builder deterministic(Boolean deterministic) {
+			this.options.deterministic = deterministic;
+			return this;
+		}
+
+		public Builder responseCacheEnabled(Boolean responseCacheEnabled) {
+			this.options.responseCacheEnabled = responseCacheEnabled;
+			return this;
+		}
+
 		public QianFanChatOptions build() {
 			return this.options;
 		}
@@ -16,6 +16,10 @@
 
 package org.springaicommunity.qianfan;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 import io.micrometer.observation.ObservationRegistry;
@@ -33,8 +37,12 @@ import org.springframework.ai.image.observation.ImageModelObservationContext;
 import org.springframework.ai.image.observation.ImageModelObservationConvention;
 import org.springframework.ai.image.observation.ImageModelObservationDocumentation;
 import org.springframework.ai.model.ModelOptionsUtils;
+import org.springaicommunity.qianfan.api.ImageSink;
 import org.springaicommunity.qianfan.api.QianFanConstants;
 import org.springaicommunity.qianfan.api.QianFanImageApi;
+import org.springaicommunity.qianfan.image.ImageBatchExecutor;
+import org.springaicommunity.qianfan.image.ImageBatchResult;
+import org.springaicommunity.qianfan.metering.UsageMeter;
 import org.springframework.ai.retry.RetryUtils;
 import org.springframework.http.ResponseEntity;
 import org.springframework.lang.Nullable;
@@ -79,6 +87,21 @@ public class QianFanImageModel implements ImageModel {
 	 */
 	private ImageModelObservationConvention observationConvention = DEFAULT_OBSERVATION_CONVENTION;
 
+	/**
+	 * Optional meter recording the token usage and cost of the requests.
+	 */
+	private UsageMeter usageMeter;
+
+	/**
+	 * Maximum number of images of a request of {@link #callBatch(List)}.
+	 */
+	private int maxImagesPerRequest = 4;
+
+	/**
+	 * Maximum number of requests in flight of {@link #callBatch(List)}.
+	 */
+	private int batchConcurrency = 4;
+
 	/**
 	 * Creates an instance of the QianFanImageModel.
 	 * @param qianFanImageApi The QianFanImageApi instance to be used for interacting with
@@ -135,9 +158,27 @@ public class QianFanImageModel implements ImageModel {
 
 	@Override
 	public ImageResponse call(ImagePrompt imagePrompt) {
+		return call(imagePrompt, null);
+	}
+
+	/**
+	 * Generate the images of many prompts concurrently, see {@link ImageBatchExecutor}.
+	 * Every instruction of a prompt is generated, and a prompt asking for more images
+	 * than a request generates is split into several requests.
+	 * @param imagePrompts the prompts.
+	 * @return the outcome of every prompt, in order, holding the images generated by the
+	 * successful requests and the failures of the others.
+	 */
+	public List<ImageBatchResult> callBatch(List<ImagePrompt> imagePrompts) {
+		Integer defaultImageCount = this.defaultOptions.getN();
+		return new ImageBatchExecutor(this.maxImagesPerRequest, this.batchConcurrency).execute(imagePrompts,
+				(defaultImageCount != null) ? defaultImageCount : 1, this::call);
+	}
+
+	private ImageResponse call(ImagePrompt imagePrompt, @Nullable Integer imageCount) {
 		QianFanImageOptions requestImageOptions = mergeOptions(imagePrompt.getOptions(), this.defaultOptions);
 
-		QianFanImageApi.QianFanImageRequest imageRequest = createRequest(imagePrompt, requestImageOptions);
+		QianFanImageApi.QianFanImageRequest imageRequest = createRequest(imagePrompt, requestImageOptions, imageCount);
 
 		var observationContext = ImageModelObservationContext.builder()
 			.imagePrompt(imagePrompt)
@@ -155,19 +196,93 @@ public class QianFanImageModel implements ImageModel {
 				ImageResponse imageResponse = convertResponse(imageResponseEntity, imageRequest);
 
 				observationContext.setResponse(imageResponse);
+				if (this.usageMeter != null) {
+					this.usageMeter.recordImages(imageRequest.model(), imageResponse.getResults().size());
+				}
 
 				return imageResponse;
 			});
 	}
 
+	/**
+	 * Generate images to files instead of memory. The images are decoded to new files of
+	 * the directory while the response is read, so that neither the response nor the
+	 * images are held in memory, and are returned as {@code file:} URLs.
+	 * @param imagePrompt the image prompt.
+	 * @param directory the directory of the image files.
+	 * @return the response, whose images reference the files.
+	 */
+	public ImageResponse callToFiles(ImagePrompt imagePrompt, Path directory) {
+		Assert.notNull(directory, "directory must not be null");
+		QianFanImageOptions requestImageOptions = mergeOptions(imagePrompt.getOptions(), this.defaultOptions);
+
+		QianFanImageApi.QianFanImageRequest imageRequest = createRequest(imagePrompt, requestImageOptions, null);
+
+		var observationContext = ImageModelObservationContext.builder()
+			.imagePrompt(imagePrompt)
+			.provider(QianFanConstants.PROVIDER_NAME)
+			.build();
+
+		return ImageModelObservationDocumentation.IMAGE_MODEL_OPERATION
+			.observation(this.observationConvention, DEFAULT_OBSERVATION_CONVENTION, () -> observationContext,
+					this.observationRegistry)
+			.observe(() -> {
+				List<Path> files = new ArrayList<>();
+				ImageSink sink = position -> {
+					Path file = Files.createTempFile(directory, "qianfan-image-", ".png");
+					files.add(file);
+					return Files.newOutputStream(file);
+				};
+
+				this.retryTemplate.execute(ctx -> {
+					try {
+						return this.qianFanImageApi.createImage(imageRequest, sink);
+					}
+					catch (RuntimeException ex) {
+						// do not leave the partial images of a failed attempt behind
+						deleteAll(files);
+						throw ex;
+					}
+				});
+
+				List<ImageGeneration> imageGenerationList = files.stream()
+					.map(file -> new ImageGeneration(new Image(file.toUri().toString(), null)))
+					.toList();
+				ImageResponse imageResponse = new ImageResponse(imageGenerationList);
+
+				observationContext.setResponse(imageResponse);
+				if (this.usageMeter != null) {
+					this.usageMeter.recordImages(imageRequest.model(), imageResponse.getResults().size());
+				}
+
+				return imageResponse;
+			});
+	}
+
+	private static void deleteAll(List<Path> files) {
+		for (Path file : files) {
+			try {
+				Files.deleteIfExists(file);
+			}
+			catch (IOException ex) {
+				logger.warn("Failed to delete partial image {}", file, ex);
+			}
+		}
+		files.clear();
+	}
+
 	private QianFanImageApi.QianFanImageRequest createRequest(ImagePrompt imagePrompt,
-			QianFanImageOptions requestImageOptions) {
+			QianFanImageOptions requestImageOptions, @Nullable Integer imageCount) {
 		String instructions = imagePrompt.getInstructions().get(0).getText();
 
-		QianFanImageApi.QianFanImageRequest imageRequest = new QianFanImageApi.QianFanImageRequest(instructions,
-				QianFanImageApi.DEFAULT_IMAGE_MODEL);
-
-		return ModelOptionsUtils.merge(requestImageOptions, imageRequest, QianFanImageApi.QianFanImageRequest.class);
+		QianFanImageApi.QianFanImageRequest imageRequest = QianFanOptionsMerger.apply(requestImageOptions,
+				new QianFanImageApi.QianFanImageRequest(instructions, QianFanImageApi.DEFAULT_IMAGE_MODEL));
+		if (imageCount == null) {
+			return imageRequest;
+		}
+		return new QianFanImageApi.QianFanImageRequest(imageRequest.model(), imageRequest.prompt(),
+				imageRequest.negativePrompt(), imageRequest.size(), imageCount, imageRequest.steps(),
+				imageRequest.seed(), imageRequest.style(), imageRequest.user());
 	}
 
 	private ImageResponse convertResponse(ResponseEntity<QianFanImageApi.QianFanImageResponse> imageResponseEntity,
@@ -194,8 +309,7 @@ public class QianFanImageModel implements ImageModel {
 	 */
 	private QianFanImageOptions mergeOptions(@Nullable ImageOptions runtimeImageOptions,
 			QianFanImageOptions defaultOptions) {
-		var runtimeOptionsForProvider = ModelOptionsUtils.copyToTarget(runtimeImageOptions, ImageOptions.class,
-				QianFanImageOptions.class);
+		var runtimeOptionsForProvider = QianFanOptionsMerger.toQianFanImageOptions(runtimeImageOptions);
 
 		if (runtimeOptionsForProvider == null) {
 			return defaultOptions;
@@ -216,4 +330,32 @@ public class QianFanImageModel implements ImageModel {
 		this.observationConvention = observationConvention;
 	}
 
+	/**
+	 * Record the usage of the requests with the given meter.
+	 * @param usageMeter the meter to use, or {@code null} to disable metering.
+	 */
+	public void setUsageMeter(UsageMeter usageMeter) {
+		this.usageMeter = usageMeter;
+	}
+
+	/**
+	 * Set the maximum number of images the model generates in a request, 4 by default.
+	 * Prompts of {@link #callBatch(List)} asking for more images are split.
+	 * @param maxImagesPerRequest the maximum number of images of a request.
+	 */
+	public void setMaxImagesPerRequest(int maxImagesPerRequest) {
+		Assert.isTrue(maxImagesPerRequest > 0, "maxImagesPerRequest must be positive");
+		this.maxImagesPerRequest = maxImagesPerRequest;
+	}
+
+	/**
+	 * Set the maximum number of requests in flight of {@link #callBatch(List)}, 4 by
+	 * default.
+	 * @param batchConcurrency the maximum number of concurrent requests.
+	 */
+	public void setBatchConcurrency(int batchConcurrency) {
+		Assert.isTrue(batchConcurrency > 0, "batchConcurrency must be positive");
+		this.batchConcurrency = batchConcurrency;
+	}
+
 }
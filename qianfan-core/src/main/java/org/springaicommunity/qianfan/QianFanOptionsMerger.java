@@ -0,0 +1,121 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan;
+
+import org.springaicommunity.qianfan.api.QianFanApi.ChatCompletionRequest;
+import org.springaicommunity.qianfan.api.QianFanImageApi;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.image.ImageOptions;
+import org.springframework.lang.Nullable;
+
+/**
+ * Field by field merging of the QianFan options into the API requests. Replaces the
+ * reflective, map based {@code ModelOptionsUtils.merge} and
+ * {@code ModelOptionsUtils.copyToTarget} on the request path: in every merge a non-null
+ * value of the higher precedence source wins, exactly as with {@code ModelOptionsUtils}.
+ *
+ * @since 1.0
+ */
+final class QianFanOptionsMerger {
+
+	private QianFanOptionsMerger() {
+
+	}
+
+	/**
+	 * Convert portable chat options to {@link QianFanChatOptions}, returning the given
+	 * instance when it already is one.
+	 */
+	@Nullable
+	static QianFanChatOptions toQianFanChatOptions(@Nullable ChatOptions options) {
+		if (options == null || options instanceof QianFanChatOptions) {
+			return (QianFanChatOptions) options;
+		}
+		return QianFanChatOptions.builder()
+			.model(options.getModel())
+			.frequencyPenalty(options.getFrequencyPenalty())
+			.maxTokens(options.getMaxTokens())
+			.presencePenalty(options.getPresencePenalty())
+			.stop(options.getStopSequences())
+			.temperature(options.getTemperature())
+			.topP(options.getTopP())
+			.build();
+	}
+
+	/**
+	 * Apply the request parameters of the options to the request.
+	 */
+	static ChatCompletionRequest apply(QianFanChatOptions options, ChatCompletionRequest request) {
+		return new ChatCompletionRequest(request.messages(), request.system(),
+				pick(options.getModel(), request.model()),
+				pick(options.getFrequencyPenalty(), request.frequencyPenalty()),
+				pick(options.getMaxTokens(), request.maxTokens()),
+				pick(options.getPresencePenalty(), request.presencePenalty()),
+				pick(options.getResponseFormat(), request.responseFormat()), pick(options.getStop(), request.stop()),
+				request.stream(), pick(options.getTemperature(), request.temperature()),
+				pick(options.getTopP(), request.topP()));
+	}
+
+	/**
+	 * Convert portable embedding options to {@link QianFanEmbeddingOptions}, returning
+	 * the given instance when it already is one.
+	 */
+	@Nullable
+	static QianFanEmbeddingOptions toQianFanEmbeddingOptions(@Nullable EmbeddingOptions options) {
+		if (options == null || options instanceof QianFanEmbeddingOptions) {
+			return (QianFanEmbeddingOptions) options;
+		}
+		return QianFanEmbeddingOptions.builder().model(options.getModel()).build();
+	}
+
+	/**
+	 * Convert portable image options to {@link QianFanImageOptions}, returning the given
+	 * instance when it already is one. The response format is not carried over: the API
+	 * has no such parameter and always returns the images as base64 data, and
+	 * {@code ModelOptionsUtils.copyToTarget} dropped it as well.
+	 */
+	@Nullable
+	static QianFanImageOptions toQianFanImageOptions(@Nullable ImageOptions options) {
+		if (options == null || options instanceof QianFanImageOptions) {
+			return (QianFanImageOptions) options;
+		}
+		return QianFanImageOptions.builder()
+			.N(options.getN())
+			.model(options.getModel())
+			.width(options.getWidth())
+			.height(options.getHeight())
+			.style(options.getStyle())
+			.build();
+	}
+
+	/**
+	 * Apply the request parameters of the options to the image request.
+	 */
+	static QianFanImageApi.QianFanImageRequest apply(QianFanImageOptions options,
+			QianFanImageApi.QianFanImageRequest request) {
+		return new QianFanImageApi.QianFanImageRequest(pick(options.getModel(), request.model()), request.prompt(),
+				request.negativePrompt(), pick(options.getSize(), request.size()), pick(options.getN(), request.n()),
+				request.steps(), request.seed(), pick(options.getStyle(), request.style()),
+				pick(options.getUser(), request.user()));
+	}
+
+	private static <T> T pick(@Nullable T preferred, @Nullable T fallback) {
+		return (preferred != null) ? preferred : fallback;
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.api;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+
+import org.springframework.util.Assert;
+
+/**
+ * Registry of the metadata of the QianFan embedding models, of both the v1 and the v2
+ * API, so that their dimensions are known without embedding a probe text. The metadata of
+ * other models can be registered, and the dimensions of models that are not registered
+ * are probed once and then cached.
+ *
+ * @since 1.0
+ */
+public final class EmbeddingModelRegistry {
+
+	private static final Map<String, EmbeddingModelMetadata> MODELS = new ConcurrentHashMap<>();
+
+	private static final Map<String, Integer> PROBED_DIMENSIONS = new ConcurrentHashMap<>();
+
+	static {
+		register("embedding-v1", new EmbeddingModelMetadata(384, 384, 16));
+		register("bge_large_zh", new EmbeddingModelMetadata(1024, 512, 16));
+		register("bge-large-zh", new EmbeddingModelMetadata(1024, 512, 16));
+		register("bge_large_en", new EmbeddingModelMetadata(1024, 512, 16));
+		register("bge-large-en", new EmbeddingModelMetadata(1024, 512, 16));
+		register("tao_8k", new EmbeddingModelMetadata(1024, 8192, 1));
+		register("tao-8k", new EmbeddingModelMetadata(1024, 8192, 1));
+		register("Qwen3-Embedding-0.6B", new EmbeddingModelMetadata(1024, 32768, 16));
+	}
+
+	private EmbeddingModelRegistry() {
+	}
+
+	/**
+	 * Register the metadata of a model, replacing any previous one.
+	 * @param model ID of the model.
+	 * @param metadata the metadata of the model.
+	 */
+	public static void register(String model, EmbeddingModelMetadata metadata) {
+		Assert.hasText(model, "model must not be empty");
+		Assert.notNull(metadata, "metadata must not be null");
+		MODELS.put(model, metadata);
+	}
+
+	/**
+	 * Return the metadata of a model.
+	 * @param model ID of the model.
+	 * @return the metadata, or {@code null} when the model is not registered.
+	 */
+	public static EmbeddingModelMetadata get(String model) {
+		return (model != null) ? MODELS.get(model) : null;
+	}
+
+	/**
+	 * Return the dimensions of the embeddings of a model, probing them the first time
+	 * when the model is not registered.
+	 * @param model ID of the model.
+	 * @param probe embeds a probe text and returns the dimensions of its embedding.
+	 * @return the dimensions of the embeddings.
+	 */
+	public static int dimensions(String model, IntSupplier probe) {
+		EmbeddingModelMetadata metadata = get(model);
+		if (metadata != null) {
+			return metadata.dimensions();
+		}
+		if (model == null) {
+			return probe.getAsInt();
+		}
+		return PROBED_DIMENSIONS.computeIfAbsent(model, key -> probe.getAsInt());
+	}
+
+	/**
+	 * Metadata of an embedding model.
+	 *
+	 * @param dimensions the dimensions of the embeddings.
+	 * @param maxInputTokens the maximum number of tokens of an input text.
+	 * @param maxBatchSize the maximum number of input texts of a request.
+	 */
+	public record EmbeddingModelMetadata(int dimensions, int maxInputTokens, int maxBatchSize) {
+
+		public EmbeddingModelMetadata {
+			Assert.isTrue(dimensions > 0, "dimensions must be positive");
+			Assert.isTrue(maxInputTokens > 0, "maxInputTokens must be positive");
+			Assert.isTrue(maxBatchSize > 0, "maxBatchSize must be positive");
+		}
+
+	}
+
+}
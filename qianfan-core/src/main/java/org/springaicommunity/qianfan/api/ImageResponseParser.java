@@ -0,0 +1,111 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Incremental parser of the responses of the text to image endpoint, decoding the
+ * {@code b64_image} of every image straight to an {@link ImageSink} with the streaming
+ * base64 decoder of Jackson. Only a buffer of the response is in memory at any time,
+ * instead of the whole body, the base64 strings and the decoded images.
+ *
+ * @since 1.0
+ */
+final class ImageResponseParser {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private ImageResponseParser() {
+	}
+
+	/**
+	 * Parse a response, decoding its images to the sink.
+	 * @param body the body of the response.
+	 * @param sink the destination of the images.
+	 * @return the response, whose data holds the indices of the images but not their
+	 * content.
+	 * @throws IOException if the response cannot be read or an image cannot be written.
+	 */
+	static QianFanImageApi.QianFanImageResponse parse(InputStream body, ImageSink sink) throws IOException {
+		try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("Expected a JSON object but got " + parser.currentToken());
+			}
+			String id = null;
+			Long created = null;
+			List<QianFanImageApi.Data> data = new ArrayList<>();
+			String errorCode = null;
+			String errorMessage = null;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.currentName();
+				JsonToken value = parser.nextToken();
+				if (value == JsonToken.VALUE_NULL) {
+					continue;
+				}
+				switch (name) {
+					case "id" -> id = parser.getValueAsString();
+					case "created" -> created = parser.getValueAsLong();
+					case "data" -> readData(parser, sink, data);
+					case "error_code" -> errorCode = parser.getValueAsString();
+					case "error_msg" -> errorMessage = parser.getValueAsString();
+					default -> parser.skipChildren();
+				}
+			}
+			if (errorMessage != null) {
+				throw new RuntimeException(
+						"Image generation failed: error code:" + errorCode + ", message:" + errorMessage);
+			}
+			return new QianFanImageApi.QianFanImageResponse(id, created, data);
+		}
+	}
+
+	private static void readData(JsonParser parser, ImageSink sink, List<QianFanImageApi.Data> data)
+			throws IOException {
+		if (parser.currentToken() != JsonToken.START_ARRAY) {
+			throw new IOException("Expected the data to be an array but got " + parser.currentToken());
+		}
+		while (parser.nextToken() == JsonToken.START_OBJECT) {
+			Integer index = null;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.currentName();
+				JsonToken value = parser.nextToken();
+				if ("index".equals(name) && value != JsonToken.VALUE_NULL) {
+					index = parser.getIntValue();
+				}
+				else if ("b64_image".equals(name) && value == JsonToken.VALUE_STRING) {
+					try (OutputStream output = sink.open(data.size())) {
+						parser.readBinaryValue(output);
+					}
+				}
+				else {
+					parser.skipChildren();
+				}
+			}
+			data.add(new QianFanImageApi.Data(index, null));
+		}
+	}
+
+}
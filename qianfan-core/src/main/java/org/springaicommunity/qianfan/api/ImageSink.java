@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.IntFunction;
+
+import org.springframework.util.Assert;
+
+/**
+ * Destination of the images decoded while the response of
+ * {@link QianFanImageApi#createImage(QianFanImageApi.QianFanImageRequest, ImageSink)} is
+ * read, so that neither the base64 encoded images nor the decoded ones are held in
+ * memory.
+ *
+ * @since 1.0
+ */
+@FunctionalInterface
+public interface ImageSink {
+
+	/**
+	 * Open the stream the next image of the response is decoded to. The stream is closed
+	 * once the image is decoded.
+	 * @param position the position of the image in the response, starting at 0.
+	 * @return the stream to write the image to.
+	 * @throws IOException if the stream cannot be opened.
+	 */
+	OutputStream open(int position) throws IOException;
+
+	/**
+	 * Create a sink writing the images to channels.
+	 * @param channels returns the channel of the image at the given position, closed once
+	 * the image is decoded.
+	 * @return the sink.
+	 */
+	static ImageSink channels(IntFunction<WritableByteChannel> channels) {
+		Assert.notNull(channels, "channels must not be null");
+		return position -> Channels.newOutputStream(channels.apply(position));
+	}
+
+}
@@ -18,6 +18,7 @@ package org.springaicommunity.qianfan.api;
 
 import java.util.List;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
@@ -26,8 +27,10 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import org.springaicommunity.qianfan.api.auth.AuthApi;
+import org.springaicommunity.qianfan.resilience.CircuitBreakerRegistry;
 import org.springframework.ai.retry.RetryUtils;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
@@ -51,10 +54,18 @@ public class QianFanApi extends AuthApi {
 	private static final Predicate<ChatCompletionChunk> SSE_DONE_PREDICATE = ChatCompletionChunk::end;
 
 
+	private static final String CHAT_ENDPOINT = "/v1/wenxinworkshop/chat";
+
+	private static final String EMBEDDINGS_ENDPOINT = "/v1/wenxinworkshop/embeddings";
+
 	private final RestClient restClient;
 
 	private final WebClient webClient;
 
+	private CircuitBreakerRegistry circuitBreakerRegistry;
+
+	private RequestFragments requestFragments;
+
 	/**
 	 * Create a new chat completion api with default base URL.
 	 *
@@ -138,11 +149,10 @@ public class QianFanApi extends AuthApi {
 		Assert.notNull(chatRequest, "The request body can not be null.");
 		Assert.isTrue(!chatRequest.stream(), "Request must set the stream property to false.");
 
-		return this.restClient.post()
-				.uri("/v1/wenxinworkshop/chat/{model}?access_token={token}", chatRequest.model, getAccessToken())
-				.body(chatRequest)
+		return guarded(chatRequest.model(), CHAT_ENDPOINT, () -> withBody(this.restClient.post()
+				.uri("/v1/wenxinworkshop/chat/{model}?access_token={token}", chatRequest.model, getAccessToken()), chatRequest)
 				.retrieve()
-				.toEntity(ChatCompletion.class);
+				.toEntity(ChatCompletion.class));
 	}
 
 	/**
@@ -155,12 +165,11 @@ public class QianFanApi extends AuthApi {
 		Assert.notNull(chatRequest, "The request body can not be null.");
 		Assert.isTrue(chatRequest.stream(), "Request must set the stream property to true.");
 
-		return this.webClient.post()
-				.uri("/v1/wenxinworkshop/chat/{model}?access_token={token}", chatRequest.model, getAccessToken())
-				.body(Mono.just(chatRequest), ChatCompletionRequest.class)
+		return guardedStream(chatRequest.model(), CHAT_ENDPOINT, Flux.defer(() -> withBody(this.webClient.post()
+				.uri("/v1/wenxinworkshop/chat/{model}?access_token={token}", chatRequest.model, getAccessToken()), chatRequest)
 				.retrieve()
 				.bodyToFlux(ChatCompletionChunk.class)
-				.takeUntil(SSE_DONE_PREDICATE);
+				.takeUntil(SSE_DONE_PREDICATE)));
 	}
 
 	/**
@@ -182,13 +191,77 @@ public class QianFanApi extends AuthApi {
 		Assert.isTrue(!CollectionUtils.isEmpty(embeddingRequest.texts()), "The input list can not be empty.");
 		Assert.isTrue(embeddingRequest.texts().size() <= 16, "The list must be 16 dimensions or less");
 
-		return this.restClient.post()
+		return guarded(embeddingRequest.model(), EMBEDDINGS_ENDPOINT, () -> this.restClient.post()
 				.uri("/v1/wenxinworkshop/embeddings/{model}?access_token={token}", embeddingRequest.model, getAccessToken())
 				.body(embeddingRequest)
 				.retrieve()
-				.toEntity(new ParameterizedTypeReference<>() {
+				.toEntity(new ParameterizedTypeReference<EmbeddingList>() {
+
+				}));
+	}
+
+	/**
+	 * Reactive variant of {@link #embeddings(EmbeddingRequest)}, sending the request with
+	 * the non-blocking {@link WebClient}.
+	 * @param embeddingRequest The embedding request.
+	 * @return Returns a {@link Mono} of the {@link EmbeddingList}.
+	 */
+	public Mono<EmbeddingList> embeddingsReactive(EmbeddingRequest embeddingRequest) {
+		Assert.notNull(embeddingRequest, "The request body can not be null.");
+		Assert.isTrue(!CollectionUtils.isEmpty(embeddingRequest.texts()), "The input list can not be empty.");
+		Assert.isTrue(embeddingRequest.texts().size() <= 16, "The list must be 16 dimensions or less");
+
+		return guardedStream(embeddingRequest.model(), EMBEDDINGS_ENDPOINT, Flux.defer(() -> this.webClient.post()
+				.uri("/v1/wenxinworkshop/embeddings/{model}?access_token={token}", embeddingRequest.model, getAccessToken())
+				.bodyValue(embeddingRequest)
+				.retrieve()
+				.bodyToMono(EmbeddingList.class)
+				.flux()))
+			.single();
+	}
+
+	/**
+	 * Guard the chat and embedding calls with per model circuit breakers. Calls to a
+	 * model whose breaker is open fail fast with a
+	 * {@link org.springaicommunity.qianfan.resilience.CircuitBreakerOpenException}.
+	 *
+	 * @param circuitBreakerRegistry the registry holding the circuit breakers, or {@code null} to disable them.
+	 */
+	public void setCircuitBreakerRegistry(CircuitBreakerRegistry circuitBreakerRegistry) {
+		this.circuitBreakerRegistry = circuitBreakerRegistry;
+	}
 
-				});
+	/**
+	 * Splice pre-serialized static fragments, such as a large system prompt or the tool
+	 * schemas, into the chat request bodies instead of serializing them on every request.
+	 *
+	 * @param requestFragments the registered fragments, or {@code null} to serialize the requests as a whole.
+	 */
+	public void setRequestFragments(RequestFragments requestFragments) {
+		this.requestFragments = requestFragments;
+	}
+
+	private RestClient.RequestBodySpec withBody(RestClient.RequestBodySpec request, Object body) {
+		RequestFragments fragments = this.requestFragments;
+		return (fragments != null) ? request.contentType(MediaType.APPLICATION_JSON).body(fragments.write(body))
+				: request.body(body);
+	}
+
+	private WebClient.RequestHeadersSpec<?> withBody(WebClient.RequestBodySpec request, ChatCompletionRequest body) {
+		RequestFragments fragments = this.requestFragments;
+		return (fragments != null)
+				? request.contentType(MediaType.APPLICATION_JSON).body(Mono.fromCallable(() -> fragments.write(body)), byte[].class)
+				: request.body(Mono.just(body), ChatCompletionRequest.class);
+	}
+
+	private <T> T guarded(String model, String endpoint, Supplier<T> call) {
+		CircuitBreakerRegistry registry = this.circuitBreakerRegistry;
+		return (registry != null) ? registry.execute(model, endpoint, call) : call.get();
+	}
+
+	private <T> Flux<T> guardedStream(String model, String endpoint, Flux<T> stream) {
+		CircuitBreakerRegistry registry = this.circuitBreakerRegistry;
+		return (registry != null) ? registry.executeStream(model, endpoint, stream) : stream;
 	}
 
 	/**
@@ -196,35 +269,60 @@ public class QianFanApi extends AuthApi {
 	 * <a href="https://cloud.baidu.com/doc/WENXINWORKSHOP/s/Nlks5zkzu#%E5%AF%B9%E8%AF%9Dchat">QianFan Model</a>.
 	 */
 	public enum ChatModel {
-		ERNIE_4_0_8K("completions_pro"),
-		ERNIE_4_0_8K_Preview("ernie-4.0-8k-preview"),
-		ERNIE_4_0_8K_Preview_0518("completions_adv_pro"),
-		ERNIE_4_0_8K_0329("ernie-4.0-8k-0329"),
-		ERNIE_4_0_8K_0104("ernie-4.0-8k-0104"),
-		ERNIE_3_5_8K("completions"),
-		ERNIE_3_5_128K("ernie-3.5-128k"),
-		ERNIE_3_5_8K_Preview("ernie-3.5-8k-preview"),
-		ERNIE_3_5_8K_0205("ernie-3.5-8k-0205"),
-		ERNIE_3_5_8K_0329("ernie-3.5-8k-0329"),
-		ERNIE_3_5_8K_1222("ernie-3.5-8k-1222"),
-		ERNIE_3_5_4K_0205("ernie-3.5-4k-0205"),
-
-		ERNIE_Lite_8K_0922("eb-instant"),
-		ERNIE_Lite_8K_0308("ernie-lite-8k"),
-		ERNIE_Speed_8K("ernie_speed"),
-		ERNIE_Speed_128K("ernie-speed-128k"),
-		ERNIE_Tiny_8K("ernie-tiny-8k"),
-		ERNIE_FUNC_8K("ernie-func-8k");
+		ERNIE_4_0_8K("completions_pro", 8192),
+		ERNIE_4_0_8K_Preview("ernie-4.0-8k-preview", 8192),
+		ERNIE_4_0_8K_Preview_0518("completions_adv_pro", 8192),
+		ERNIE_4_0_8K_0329("ernie-4.0-8k-0329", 8192),
+		ERNIE_4_0_8K_0104("ernie-4.0-8k-0104", 8192),
+		ERNIE_3_5_8K("completions", 8192),
+		ERNIE_3_5_128K("ernie-3.5-128k", 131072),
+		ERNIE_3_5_8K_Preview("ernie-3.5-8k-preview", 8192),
+		ERNIE_3_5_8K_0205("ernie-3.5-8k-0205", 8192),
+		ERNIE_3_5_8K_0329("ernie-3.5-8k-0329", 8192),
+		ERNIE_3_5_8K_1222("ernie-3.5-8k-1222", 8192),
+		ERNIE_3_5_4K_0205("ernie-3.5-4k-0205", 4096),
+
+		ERNIE_Lite_8K_0922("eb-instant", 8192),
+		ERNIE_Lite_8K_0308("ernie-lite-8k", 8192),
+		ERNIE_Speed_8K("ernie_speed", 8192),
+		ERNIE_Speed_128K("ernie-speed-128k", 131072),
+		ERNIE_Tiny_8K("ernie-tiny-8k", 8192),
+		ERNIE_FUNC_8K("ernie-func-8k", 8192);
 
 		public final String  value;
 
-		ChatModel(String value) {
+		/**
+		 * Maximum number of tokens of the prompt and the completion together.
+		 */
+		public final int contextWindow;
+
+		ChatModel(String value, int contextWindow) {
 			this.value = value;
+			this.contextWindow = contextWindow;
 		}
 
 		public String getValue() {
 			return this.value;
 		}
+
+		public int getContextWindow() {
+			return this.contextWindow;
+		}
+
+		/**
+		 * Find the model with the given ID.
+		 *
+		 * @param value ID of the model.
+		 * @return the model, or {@code null} when the ID is not a known chat model.
+		 */
+		public static ChatModel fromValue(String value) {
+			for (ChatModel chatModel : values()) {
+				if (chatModel.value.equals(value)) {
+					return chatModel;
+				}
+			}
+			return null;
+		}
 	}
 
 	/**
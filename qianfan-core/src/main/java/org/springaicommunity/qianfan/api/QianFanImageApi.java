@@ -40,6 +40,8 @@ public class QianFanImageApi extends AuthApi {
 
 	private final RestClient restClient;
 
+	private final ResponseErrorHandler responseErrorHandler;
+
 	/**
 	 * Create a new QianFan Image api with default base URL.
 	 * @param apiKey QianFan api key.
@@ -72,6 +74,7 @@ public class QianFanImageApi extends AuthApi {
 			ResponseErrorHandler responseErrorHandler) {
 		super(apiKey, secretKey);
 
+		this.responseErrorHandler = responseErrorHandler;
 		this.restClient = restClientBuilder.baseUrl(baseUrl)
 			.defaultHeaders(QianFanUtils.defaultHeaders())
 			.defaultStatusHandler(responseErrorHandler)
@@ -90,6 +93,32 @@ public class QianFanImageApi extends AuthApi {
 			.toEntity(QianFanImageResponse.class);
 	}
 
+	/**
+	 * Create images, decoding them to the sink while the response is read instead of
+	 * holding the response in memory.
+	 * @param qianFanImageRequest the image request.
+	 * @param sink the destination of the images.
+	 * @return the response, whose data holds the indices of the images but not their
+	 * content.
+	 */
+	public ResponseEntity<QianFanImageResponse> createImage(QianFanImageRequest qianFanImageRequest, ImageSink sink) {
+		Assert.notNull(qianFanImageRequest, "Image request cannot be null.");
+		Assert.hasLength(qianFanImageRequest.prompt(), "Prompt cannot be empty.");
+		Assert.notNull(sink, "Image sink cannot be null.");
+
+		return this.restClient.post()
+			.uri("/v1/wenxinworkshop/text2image/{model}?access_token={token}", qianFanImageRequest.model(),
+					getAccessToken())
+			.body(qianFanImageRequest)
+			.exchange((request, response) -> {
+				if (this.responseErrorHandler.hasError(response)) {
+					this.responseErrorHandler.handleError(request.getURI(), request.getMethod(), response);
+				}
+				QianFanImageResponse body = ImageResponseParser.parse(response.getBody(), sink);
+				return ResponseEntity.status(response.getStatusCode()).headers(response.getHeaders()).body(body);
+			});
+	}
+
 	/**
 	 * QianFan Image API model.
 	 */
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.Assert;
+
+/**
+ * Registry of static request fragments, such as a large system prompt, the tool schemas
+ * or the response format, that are serialized once to UTF-8 JSON and spliced as is into
+ * the request bodies. Requests sending the same fragments over and over then only pay for
+ * serializing what changes between them.
+ * <p>
+ * Fragments are matched against the values of the {@code messages}, {@code system},
+ * {@code tools} and {@code response_format} request properties, first by identity and
+ * then by equality. A list property is spliced as a whole when the list is registered,
+ * and element by element otherwise, so a registered system message is spliced into any
+ * conversation. A fragment is a value object of the request, for instance:
+ * <pre class="code">
+ * RequestFragments fragments = new RequestFragments();
+ * fragments.register(new ChatCompletionMessage(systemPrompt, Role.system));
+ * fragments.register(functionTools);
+ * qianFanApi.setRequestFragments(fragments);
+ * </pre>
+ *
+ * @since 1.0
+ */
+public class RequestFragments {
+
+	private static final Set<String> FRAGMENT_PROPERTIES = Set.of("messages", "system", "tools", "response_format");
+
+	private final ObjectMapper fragmentMapper;
+
+	private final ObjectMapper requestMapper;
+
+	private final Map<IdentityKey, SerializableString> byIdentity = new ConcurrentHashMap<>();
+
+	private final Map<Object, SerializableString> byValue = new ConcurrentHashMap<>();
+
+	public RequestFragments() {
+		this(Jackson2ObjectMapperBuilder.json().build());
+	}
+
+	/**
+	 * Accessible for testing.
+	 * @param fragmentMapper the mapper serializing the registered fragments.
+	 */
+	RequestFragments(ObjectMapper fragmentMapper) {
+		this.fragmentMapper = fragmentMapper;
+		this.requestMapper = Jackson2ObjectMapperBuilder.json()
+			.modulesToInstall(new SimpleModule().setSerializerModifier(new FragmentSerializerModifier()))
+			.build();
+	}
+
+	/**
+	 * Serialize the fragment once and splice it into the requests sending it from now on.
+	 * @param fragment the request value to register.
+	 */
+	public void register(Object fragment) {
+		Assert.notNull(fragment, "fragment must not be null");
+		SerializedString json;
+		try {
+			json = new SerializedString(this.fragmentMapper.writeValueAsString(fragment));
+		}
+		catch (JsonProcessingException ex) {
+			throw new IllegalArgumentException("Unable to serialize request fragment " + fragment, ex);
+		}
+		// encode once, the generator then copies the bytes
+		json.asUnquotedUTF8();
+		this.byIdentity.put(new IdentityKey(fragment), json);
+		this.byValue.put(fragment, json);
+	}
+
+	/**
+	 * Remove all the registered fragments.
+	 */
+	public void clear() {
+		this.byIdentity.clear();
+		this.byValue.clear();
+	}
+
+	/**
+	 * Serialize a request body, splicing the registered fragments into it.
+	 * @param request the request.
+	 * @return the UTF-8 JSON body.
+	 */
+	public byte[] write(Object request) {
+		try {
+			return this.requestMapper.writeValueAsBytes(request);
+		}
+		catch (JsonProcessingException ex) {
+			throw new IllegalStateException("Unable to serialize request " + request.getClass().getName(), ex);
+		}
+	}
+
+	SerializableString lookup(Object value) {
+		if (this.byValue.isEmpty()) {
+			return null;
+		}
+		SerializableString json = this.byIdentity.get(new IdentityKey(value));
+		return (json != null) ? json : this.byValue.get(value);
+	}
+
+	private final class FragmentSerializerModifier extends BeanSerializerModifier {
+
+		@Override
+		public List<BeanPropertyWriter> changeProperties(SerializationConfig config, BeanDescription beanDesc,
+				List<BeanPropertyWriter> beanProperties) {
+			List<BeanPropertyWriter> properties = new ArrayList<>(beanProperties.size());
+			for (BeanPropertyWriter property : beanProperties) {
+				properties.add(FRAGMENT_PROPERTIES.contains(property.getName()) ? new FragmentPropertyWriter(property)
+						: property);
+			}
+			return properties;
+		}
+
+	}
+
+	private final class FragmentPropertyWriter extends BeanPropertyWriter {
+
+		FragmentPropertyWriter(BeanPropertyWriter base) {
+			super(base);
+		}
+
+		@Override
+		public void serializeAsField(Object bean, JsonGenerator gen, SerializerProvider prov) throws Exception {
+			Object value = get(bean);
+			SerializableString json = (value != null) ? lookup(value) : null;
+			if (json != null) {
+				gen.writeFieldName(getName());
+				gen.writeRawValue(json);
+			}
+			else if (value instanceof List<?> list && !RequestFragments.this.byValue.isEmpty()) {
+				gen.writeFieldName(getName());
+				gen.writeStartArray(list, list.size());
+				for (Object element : list) {
+					SerializableString elementJson = (element != null) ? lookup(element) : null;
+					if (elementJson != null) {
+						gen.writeRawValue(elementJson);
+					}
+					else {
+						prov.defaultSerializeValue(element, gen);
+					}
+				}
+				gen.writeEndArray();
+			}
+			else {
+				super.serializeAsField(bean, gen, prov);
+			}
+		}
+
+	}
+
+	private record IdentityKey(Object target) {
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof IdentityKey identityKey && identityKey.target == this.target;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this.target);
+		}
+
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.cache;
+
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.lang.Nullable;
+
+/**
+ * Storage of cached chat responses, keyed by the canonical request key computed by
+ * {@link RequestKeys}. Implementations are responsible for their own eviction and
+ * expiration policy and must be thread-safe.
+ *
+ * @since 1.0
+ * @see InMemoryChatResponseCache
+ * @see ChatResponseCacheTemplate
+ */
+public interface ChatResponseCache {
+
+	/**
+	 * Return the response cached for the given key.
+	 * @param key the canonical request key.
+	 * @return the cached response, or {@code null} if there is none or it expired.
+	 */
+	@Nullable
+	ChatResponse get(String key);
+
+	/**
+	 * Cache a response.
+	 * @param key the canonical request key.
+	 * @param response the response to cache.
+	 */
+	void put(String key, ChatResponse response);
+
+	/**
+	 * Remove the response cached for the given key, if any.
+	 * @param key the canonical request key.
+	 */
+	void evict(String key);
+
+	/**
+	 * Remove all cached responses.
+	 */
+	void clear();
+
+}
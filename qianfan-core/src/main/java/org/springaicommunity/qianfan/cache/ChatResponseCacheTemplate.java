@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.cache;
+
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.util.Assert;
+
+/**
+ * Serves chat responses from a {@link ChatResponseCache} when the exact same request was
+ * answered before. Responses are marked with the {@value #CACHE_HIT_METADATA} metadata
+ * key. Responses without generations or requesting tool calls are never cached, since
+ * replaying them would skip the tool execution side effects.
+ * <p>
+ * The {@code qianfan.cache.requests} counter is published, tagged with {@code cache}
+ * ({@code chat}) and {@code result} ({@code hit} or {@code miss}); the hit rate is the
+ * ratio of hits to all requests.
+ *
+ * @since 1.0
+ */
+public class ChatResponseCacheTemplate {
+
+	public static final String REQUESTS_METRIC = "qianfan.cache.requests";
+
+	/**
+	 * Metadata key of the {@link ChatResponse} telling whether it was served from the
+	 * cache.
+	 */
+	public static final String CACHE_HIT_METADATA = "cache-hit";
+
+	private static final String OPERATION = "chat";
+
+	private final ChatResponseCache cache;
+
+	private final Counter hits;
+
+	private final Counter misses;
+
+	public ChatResponseCacheTemplate(ChatResponseCache cache) {
+		this(cache, Metrics.globalRegistry);
+	}
+
+	public ChatResponseCacheTemplate(ChatResponseCache cache, MeterRegistry meterRegistry) {
+		Assert.notNull(cache, "cache must not be null");
+		Assert.notNull(meterRegistry, "meterRegistry must not be null");
+		this.cache = cache;
+		this.hits = counter(meterRegistry, "hit");
+		this.misses = counter(meterRegistry, "miss");
+	}
+
+	/**
+	 * Return the cached response of the request, or execute the call and cache its
+	 * response.
+	 * @param request the API request, used to compute the canonical key.
+	 * @param call the call producing the response.
+	 * @return the response.
+	 */
+	public ChatResponse execute(Object request, Supplier<ChatResponse> call) {
+		String key = RequestKeys.canonicalKey(OPERATION, request);
+		ChatResponse cached = this.cache.get(key);
+		if (cached != null) {
+			this.hits.increment();
+			return ChatResponse.builder().from(cached).metadata(CACHE_HIT_METADATA, true).build();
+		}
+		this.misses.increment();
+		ChatResponse response = call.get();
+		if (isCacheable(response)) {
+			this.cache.put(key, response);
+			return ChatResponse.builder().from(response).metadata(CACHE_HIT_METADATA, false).build();
+		}
+		return response;
+	}
+
+	public ChatResponseCache getCache() {
+		return this.cache;
+	}
+
+	private static boolean isCacheable(ChatResponse response) {
+		return response != null && !response.getResults().isEmpty() && !response.hasToolCalls();
+	}
+
+	private static Counter counter(MeterRegistry meterRegistry, String result) {
+		return Counter.builder(REQUESTS_METRIC).tag("cache", OPERATION).tag("result", result).register(meterRegistry);
+	}
+
+}
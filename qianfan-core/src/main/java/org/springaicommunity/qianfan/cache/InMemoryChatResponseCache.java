@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.cache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ChatResponseCache} keeping the responses in memory. The cache holds at most
+ * {@code maximumSize} responses, evicting the least recently used one when full, and each
+ * response expires {@code timeToLive} after it was cached.
+ *
+ * @since 1.0
+ */
+public class InMemoryChatResponseCache implements ChatResponseCache {
+
+	private final int maximumSize;
+
+	private final Duration timeToLive;
+
+	private final Clock clock;
+
+	private final LinkedHashMap<String, Entry> entries;
+
+	public InMemoryChatResponseCache(int maximumSize, Duration timeToLive) {
+		this(maximumSize, timeToLive, Clock.systemUTC());
+	}
+
+	public InMemoryChatResponseCache(int maximumSize, Duration timeToLive, Clock clock) {
+		Assert.isTrue(maximumSize > 0, "maximumSize must be positive");
+		Assert.notNull(timeToLive, "timeToLive must not be null");
+		Assert.isTrue(!timeToLive.isNegative() && !timeToLive.isZero(), "timeToLive must be positive");
+		Assert.notNull(clock, "clock must not be null");
+		this.maximumSize = maximumSize;
+		this.timeToLive = timeToLive;
+		this.clock = clock;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > InMemoryChatResponseCache.this.maximumSize;
+			}
+
+		};
+	}
+
+	@Override
+	public synchronized ChatResponse get(String key) {
+		Entry entry = this.entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (!this.clock.instant().isBefore(entry.expiresAt())) {
+			this.entries.remove(key);
+			return null;
+		}
+		return entry.response();
+	}
+
+	@Override
+	public synchronized void put(String key, ChatResponse response) {
+		Assert.notNull(response, "response must not be null");
+		this.entries.put(key, new Entry(response, this.clock.instant().plus(this.timeToLive)));
+	}
+
+	@Override
+	public synchronized void evict(String key) {
+		this.entries.remove(key);
+	}
+
+	@Override
+	public synchronized void clear() {
+		this.entries.clear();
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	private record Entry(ChatResponse response, Instant expiresAt) {
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.cache;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+import org.springframework.util.Assert;
+
+/**
+ * Collapses concurrent identical requests into a single upstream call. The first caller
+ * for a given {@link RequestKeys canonical request key} executes the call, callers that
+ * arrive while it is in flight wait for it and receive the same result, or the same
+ * exception. Nothing is retained once the call completes, so this is not a cache.
+ * <p>
+ * Only requests whose response does not depend on sampling should be coalesced, e.g.
+ * embeddings or chat completions with a temperature of 0.
+ * <p>
+ * The {@code qianfan.coalescer.requests} counter is published, tagged with
+ * {@code operation} and {@code role} ({@code leader} for calls sent upstream,
+ * {@code follower} for calls that joined an in-flight request).
+ *
+ * @since 1.0
+ */
+public class RequestCoalescer {
+
+	public static final String REQUESTS_METRIC = "qianfan.coalescer.requests";
+
+	private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+	private final MeterRegistry meterRegistry;
+
+	public RequestCoalescer() {
+		this(Metrics.globalRegistry);
+	}
+
+	public RequestCoalescer(MeterRegistry meterRegistry) {
+		Assert.notNull(meterRegistry, "meterRegistry must not be null");
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * Execute the call, or join the identical call that is already in flight.
+	 * @param operation the operation name, e.g. {@code chat} or {@code embedding}.
+	 * @param request the request, used to compute the canonical key.
+	 * @param call the upstream call.
+	 * @param <T> the result type.
+	 * @return the result of the upstream call.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T execute(String operation, Object request, Supplier<T> call) {
+		Assert.hasText(operation, "operation must not be empty");
+		Assert.notNull(call, "call must not be null");
+		String key = RequestKeys.canonicalKey(operation, request);
+
+		CompletableFuture<Object> future = new CompletableFuture<>();
+		CompletableFuture<Object> existing = this.inFlight.putIfAbsent(key, future);
+		if (existing != null) {
+			counter(operation, "follower").increment();
+			try {
+				return (T) existing.join();
+			}
+			catch (CompletionException ex) {
+				if (ex.getCause() instanceof RuntimeException runtimeException) {
+					throw runtimeException;
+				}
+				if (ex.getCause() instanceof Error error) {
+					throw error;
+				}
+				throw ex;
+			}
+		}
+
+		counter(operation, "leader").increment();
+		try {
+			T result = call.get();
+			future.complete(result);
+			return result;
+		}
+		catch (RuntimeException | Error ex) {
+			future.completeExceptionally(ex);
+			throw ex;
+		}
+		finally {
+			this.inFlight.remove(key, future);
+		}
+	}
+
+	/**
+	 * Return the number of distinct requests currently in flight.
+	 * @return the number of in-flight requests.
+	 */
+	public int getInFlightCount() {
+		return this.inFlight.size();
+	}
+
+	private Counter counter(String operation, String role) {
+		return Counter.builder(REQUESTS_METRIC)
+			.tag("operation", operation)
+			.tag("role", role)
+			.register(this.meterRegistry);
+	}
+
+}
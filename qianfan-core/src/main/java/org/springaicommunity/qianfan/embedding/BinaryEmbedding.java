@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import java.util.Arrays;
+
+import org.springframework.util.Assert;
+
+/**
+ * An embedding quantized to the sign of every dimension, packed 64 dimensions per long.
+ * Binary embeddings are compared by Hamming distance, typically to shortlist candidates
+ * that are then ranked on more precise embeddings.
+ *
+ * @param bits the bits of the embedding, set for the positive dimensions.
+ * @param dimensions the number of dimensions of the embedding.
+ * @since 1.0
+ */
+public record BinaryEmbedding(long[] bits, int dimensions) implements CompactEmbedding {
+
+	public BinaryEmbedding {
+		Assert.notNull(bits, "bits must not be null");
+		Assert.isTrue(bits.length == words(dimensions), "bits must hold the given dimensions");
+	}
+
+	/**
+	 * Quantize an embedding.
+	 * @param embedding the embedding to quantize.
+	 * @return the quantized embedding.
+	 */
+	public static BinaryEmbedding of(float[] embedding) {
+		long[] bits = new long[words(embedding.length)];
+		for (int i = 0; i < embedding.length; i++) {
+			if (embedding[i] > 0) {
+				bits[i >>> 6] |= 1L << i;
+			}
+		}
+		return new BinaryEmbedding(bits, embedding.length);
+	}
+
+	/**
+	 * Return the number of dimensions whose sign differs between the embeddings.
+	 * @param other an embedding of the same dimensions.
+	 * @return the Hamming distance of the embeddings.
+	 */
+	public int hammingDistance(BinaryEmbedding other) {
+		Assert.isTrue(this.dimensions == other.dimensions, "Embeddings must have the same dimensions");
+		int distance = 0;
+		for (int i = 0; i < this.bits.length; i++) {
+			distance += Long.bitCount(this.bits[i] ^ other.bits[i]);
+		}
+		return distance;
+	}
+
+	@Override
+	public EmbeddingFormat format() {
+		return EmbeddingFormat.BINARY;
+	}
+
+	@Override
+	public int sizeInBytes() {
+		return this.bits.length * Long.BYTES;
+	}
+
+	/**
+	 * Return the embedding as 1 for the positive dimensions and -1 for the others.
+	 */
+	@Override
+	public float[] toFloatArray() {
+		float[] embedding = new float[this.dimensions];
+		for (int i = 0; i < this.dimensions; i++) {
+			embedding[i] = ((this.bits[i >>> 6] & (1L << i)) != 0) ? 1f : -1f;
+		}
+		return embedding;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return (this == other) || (other instanceof BinaryEmbedding that && this.dimensions == that.dimensions
+				&& Arrays.equals(this.bits, that.bits));
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(this.bits) + this.dimensions;
+	}
+
+	@Override
+	public String toString() {
+		return "BinaryEmbedding[bits=" + Arrays.toString(this.bits) + ", dimensions=" + this.dimensions + "]";
+	}
+
+	private static int words(int dimensions) {
+		return (dimensions + Long.SIZE - 1) / Long.SIZE;
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import org.springframework.util.Assert;
+
+/**
+ * An embedding stored in one of the {@link EmbeddingFormat formats}, for caches and
+ * indexes holding many embeddings in memory.
+ *
+ * @since 1.0
+ */
+public interface CompactEmbedding {
+
+	/**
+	 * Return the format of the embedding.
+	 * @return the format.
+	 */
+	EmbeddingFormat format();
+
+	/**
+	 * Return the number of dimensions of the embedding.
+	 * @return the dimensions.
+	 */
+	int dimensions();
+
+	/**
+	 * Return the size of the stored values, in bytes.
+	 * @return the size of the embedding.
+	 */
+	int sizeInBytes();
+
+	/**
+	 * Return the embedding as floats, approximating the original embedding for the lossy
+	 * formats.
+	 * @return a new array of {@link #dimensions()} floats.
+	 */
+	float[] toFloatArray();
+
+	/**
+	 * Convert an embedding to the given format.
+	 * @param embedding the embedding, as returned by the API.
+	 * @param format the format to convert it to.
+	 * @return the converted embedding.
+	 */
+	static CompactEmbedding of(float[] embedding, EmbeddingFormat format) {
+		Assert.notNull(embedding, "embedding must not be null");
+		Assert.notNull(format, "format must not be null");
+		return switch (format) {
+			case FLOAT32 -> new FloatEmbedding(embedding.clone(), false);
+			case NORMALIZED_FLOAT32 -> FloatEmbedding.normalized(embedding);
+			case FLOAT16 -> Float16Embedding.of(embedding);
+			case INT8 -> Int8Embedding.of(embedding);
+			case BINARY -> BinaryEmbedding.of(embedding);
+		};
+	}
+
+}
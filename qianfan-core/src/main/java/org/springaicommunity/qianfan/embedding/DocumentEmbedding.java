@@ -0,0 +1,30 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import org.springframework.ai.document.Document;
+
+/**
+ * A document along with its embedding, as emitted by the reactive embedding pipelines.
+ *
+ * @param document the embedded document.
+ * @param embedding the embedding of the document.
+ * @since 1.0
+ */
+public record DocumentEmbedding(Document document, float[] embedding) {
+
+}
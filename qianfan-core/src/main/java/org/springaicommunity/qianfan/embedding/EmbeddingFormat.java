@@ -0,0 +1,55 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+/**
+ * Output formats of the embeddings, see {@link CompactEmbedding}. The compact formats
+ * shrink the 4 bytes of every dimension of the embeddings returned by the API, at the
+ * cost of some precision.
+ *
+ * @since 1.0
+ */
+public enum EmbeddingFormat {
+
+	/**
+	 * The embeddings as returned by the API, 4 bytes per dimension.
+	 */
+	FLOAT32,
+
+	/**
+	 * The embeddings scaled to unit length, 4 bytes per dimension. The dot product of
+	 * normalized embeddings is their cosine similarity.
+	 */
+	NORMALIZED_FLOAT32,
+
+	/**
+	 * Half precision floats, 2 bytes per dimension.
+	 */
+	FLOAT16,
+
+	/**
+	 * Signed bytes scaled by the largest magnitude of every embedding, 1 byte per
+	 * dimension plus the scale.
+	 */
+	INT8,
+
+	/**
+	 * The sign of every dimension, 1 bit per dimension, compared by Hamming distance.
+	 */
+	BINARY
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * The distinct texts of an embedding request, shared by the v1 and v2 embedding models.
+ * Chunkers often produce the same boilerplate chunk several times within a batch, and the
+ * API rejects a whole request holding an empty text. Only the distinct texts are
+ * therefore sent, their embeddings being fanned back out to the positions of the original
+ * texts.
+ * <p>
+ * Blank texts are rejected unless zero vectors are explicitly requested for them. A zero
+ * vector has no direction, so its cosine similarity to any other vector is undefined and
+ * stores computing it would rank the blank texts with {@code NaN} scores.
+ *
+ * @since 1.0
+ */
+public final class EmbeddingInputs {
+
+	private final List<String> texts;
+
+	/**
+	 * Index in {@link #texts} of every original text, -1 for blank texts.
+	 */
+	private final int[] positions;
+
+	private EmbeddingInputs(List<String> texts, int[] positions) {
+		this.texts = texts;
+		this.positions = positions;
+	}
+
+	/**
+	 * Deduplicate the texts of a request, none of which may be blank.
+	 * @param texts the texts of the request.
+	 * @return the distinct texts.
+	 * @throws IllegalArgumentException if a text is blank.
+	 */
+	public static EmbeddingInputs of(List<String> texts) {
+		return of(texts, false);
+	}
+
+	/**
+	 * Deduplicate the texts of a request.
+	 * @param texts the texts of the request.
+	 * @param zeroVectorsForBlankTexts whether blank texts are given a zero vector rather
+	 * than rejected.
+	 * @return the distinct texts.
+	 * @throws IllegalArgumentException if a text is blank and zero vectors are not
+	 * requested for blank texts.
+	 */
+	public static EmbeddingInputs of(List<String> texts, boolean zeroVectorsForBlankTexts) {
+		Assert.notNull(texts, "texts must not be null");
+		List<String> distinct = new ArrayList<>(texts.size());
+		Map<String, Integer> indices = new HashMap<>();
+		int[] positions = new int[texts.size()];
+		for (int i = 0; i < texts.size(); i++) {
+			String text = texts.get(i);
+			if (!StringUtils.hasText(text)) {
+				if (!zeroVectorsForBlankTexts) {
+					throw new IllegalArgumentException("Text at index " + i + " is blank, QianFan cannot embed it");
+				}
+				positions[i] = -1;
+				continue;
+			}
+			Integer index = indices.putIfAbsent(text, distinct.size());
+			if (index == null) {
+				index = distinct.size();
+				distinct.add(text);
+			}
+			positions[i] = index;
+		}
+		return new EmbeddingInputs(distinct, positions);
+	}
+
+	/**
+	 * Return the distinct non-blank texts to send, in the order they first appear.
+	 * @return the texts to embed, possibly empty.
+	 */
+	public List<String> texts() {
+		return this.texts;
+	}
+
+	/**
+	 * Return the number of original texts.
+	 * @return the size of the original request.
+	 */
+	public int size() {
+		return this.positions.length;
+	}
+
+	/**
+	 * Fan the embeddings of the distinct texts back out to the original texts. Duplicate
+	 * texts are given copies of the embedding, so that the returned vectors can be
+	 * modified independently.
+	 * @param embeddings the embeddings of {@link #texts()}, in order.
+	 * @param dimensions returns the dimensions of the zero vector of blank texts, only
+	 * called when no text was embedded.
+	 * @return the embeddings of the original texts, in order.
+	 */
+	public List<float[]> expand(List<float[]> embeddings, IntSupplier dimensions) {
+		Assert.isTrue(embeddings.size() == this.texts.size(),
+				() -> "Expected " + this.texts.size() + " embeddings but got " + embeddings.size());
+		List<float[]> results = new ArrayList<>(this.positions.length);
+		boolean[] used = new boolean[embeddings.size()];
+		int blankDimensions = -1;
+		for (int position : this.positions) {
+			if (position < 0) {
+				if (blankDimensions < 0) {
+					blankDimensions = embeddings.isEmpty() ? dimensions.getAsInt() : embeddings.get(0).length;
+				}
+				results.add(new float[blankDimensions]);
+			}
+			else {
+				float[] embedding = embeddings.get(position);
+				results.add(used[position] ? embedding.clone() : embedding);
+				used[position] = true;
+			}
+		}
+		return results;
+	}
+
+}
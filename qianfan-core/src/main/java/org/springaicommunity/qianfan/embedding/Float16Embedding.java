@@ -0,0 +1,149 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import java.util.Arrays;
+
+import org.springframework.util.Assert;
+
+/**
+ * An embedding of IEEE 754 half precision floats, stored as their bits. Embeddings rarely
+ * exceed the range of half precision, its 11 bits of precision being enough for
+ * similarity search.
+ *
+ * @param values the bits of the half precision values.
+ * @since 1.0
+ */
+public record Float16Embedding(short[] values) implements CompactEmbedding {
+
+	public Float16Embedding {
+		Assert.notNull(values, "values must not be null");
+	}
+
+	/**
+	 * Convert an embedding to half precision, rounding to the nearest value.
+	 * @param embedding the embedding to convert.
+	 * @return the converted embedding.
+	 */
+	public static Float16Embedding of(float[] embedding) {
+		short[] values = new short[embedding.length];
+		for (int i = 0; i < embedding.length; i++) {
+			values[i] = toFloat16(embedding[i]);
+		}
+		return new Float16Embedding(values);
+	}
+
+	@Override
+	public EmbeddingFormat format() {
+		return EmbeddingFormat.FLOAT16;
+	}
+
+	@Override
+	public int dimensions() {
+		return this.values.length;
+	}
+
+	@Override
+	public int sizeInBytes() {
+		return this.values.length * Short.BYTES;
+	}
+
+	@Override
+	public float[] toFloatArray() {
+		float[] embedding = new float[this.values.length];
+		for (int i = 0; i < this.values.length; i++) {
+			embedding[i] = toFloat(this.values[i]);
+		}
+		return embedding;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return (this == other) || (other instanceof Float16Embedding that && Arrays.equals(this.values, that.values));
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(this.values);
+	}
+
+	@Override
+	public String toString() {
+		return "Float16Embedding[values=" + Arrays.toString(this.values) + "]";
+	}
+
+	/**
+	 * Convert a float to the bits of the nearest half precision value, ties rounding to
+	 * even.
+	 * @param value the value to convert.
+	 * @return the bits of the half precision value.
+	 */
+	static short toFloat16(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = (bits >>> 23) & 0xff;
+		int mantissa = bits & 0x7fffff;
+		if (exponent == 0xff) {
+			// infinity, or NaN keeping a quiet bit
+			return (short) (sign | 0x7c00 | ((mantissa != 0) ? 0x200 : 0));
+		}
+		int halfExponent = exponent - 127 + 15;
+		if (halfExponent >= 0x1f) {
+			return (short) (sign | 0x7c00);
+		}
+		if (halfExponent <= 0) {
+			if (halfExponent < -10) {
+				return (short) sign;
+			}
+			// subnormal, shifting the mantissa along with its implicit bit
+			return (short) (sign | round(mantissa | 0x800000, 14 - halfExponent));
+		}
+		// a carry out of the mantissa rightly increments the exponent
+		return (short) (sign | round((halfExponent << 23) | mantissa, 13));
+	}
+
+	/**
+	 * Convert the bits of a half precision value to a float, exactly.
+	 * @param half the bits of the half precision value.
+	 * @return the value.
+	 */
+	static float toFloat(short half) {
+		int bits = half & 0xffff;
+		int sign = (bits & 0x8000) << 16;
+		int exponent = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+		if (exponent == 0x1f) {
+			return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+		}
+		if (exponent == 0) {
+			float value = mantissa * 0x1p-24f;
+			return (sign != 0) ? -value : value;
+		}
+		return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+	}
+
+	private static int round(int value, int shift) {
+		int result = value >>> shift;
+		int remainder = value & ((1 << shift) - 1);
+		int halfway = 1 << (shift - 1);
+		if (remainder > halfway || (remainder == halfway && (result & 1) != 0)) {
+			result++;
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import java.util.Arrays;
+
+import org.springframework.util.Assert;
+
+/**
+ * An embedding of single precision floats, possibly {@link #normalized(float[])
+ * normalized}.
+ *
+ * @param values the values of the embedding.
+ * @param normalized whether the embedding has unit length.
+ * @since 1.0
+ */
+public record FloatEmbedding(float[] values, boolean normalized) implements CompactEmbedding {
+
+	public FloatEmbedding {
+		Assert.notNull(values, "values must not be null");
+	}
+
+	/**
+	 * Scale an embedding to unit length. A zero embedding is kept as is.
+	 * @param embedding the embedding to normalize.
+	 * @return the normalized copy of the embedding.
+	 */
+	public static FloatEmbedding normalized(float[] embedding) {
+		double sum = 0;
+		for (float value : embedding) {
+			sum += (double) value * value;
+		}
+		float[] values = embedding.clone();
+		if (sum > 0) {
+			float factor = (float) (1 / Math.sqrt(sum));
+			for (int i = 0; i < values.length; i++) {
+				values[i] *= factor;
+			}
+		}
+		return new FloatEmbedding(values, true);
+	}
+
+	@Override
+	public EmbeddingFormat format() {
+		return this.normalized ? EmbeddingFormat.NORMALIZED_FLOAT32 : EmbeddingFormat.FLOAT32;
+	}
+
+	@Override
+	public int dimensions() {
+		return this.values.length;
+	}
+
+	@Override
+	public int sizeInBytes() {
+		return this.values.length * Float.BYTES;
+	}
+
+	@Override
+	public float[] toFloatArray() {
+		return this.values.clone();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return (this == other) || (other instanceof FloatEmbedding that && this.normalized == that.normalized
+				&& Arrays.equals(this.values, that.values));
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(this.values) + Boolean.hashCode(this.normalized);
+	}
+
+	@Override
+	public String toString() {
+		return "FloatEmbedding[values=" + Arrays.toString(this.values) + ", normalized=" + this.normalized + "]";
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import java.util.Arrays;
+
+import org.springframework.util.Assert;
+
+/**
+ * An embedding scalar quantized to signed bytes, every value being the original value
+ * divided by the scale of the embedding and rounded. The scale maps the largest magnitude
+ * of the embedding to 127.
+ *
+ * @param values the quantized values.
+ * @param scale the value of a quantization step.
+ * @since 1.0
+ */
+public record Int8Embedding(byte[] values, float scale) implements CompactEmbedding {
+
+	public Int8Embedding {
+		Assert.notNull(values, "values must not be null");
+		Assert.isTrue(scale >= 0, "scale must not be negative");
+	}
+
+	/**
+	 * Quantize an embedding.
+	 * @param embedding the embedding to quantize.
+	 * @return the quantized embedding.
+	 */
+	public static Int8Embedding of(float[] embedding) {
+		float max = 0;
+		for (float value : embedding) {
+			max = Math.max(max, Math.abs(value));
+		}
+		float scale = max / Byte.MAX_VALUE;
+		byte[] values = new byte[embedding.length];
+		if (scale > 0) {
+			for (int i = 0; i < embedding.length; i++) {
+				int value = Math.round(embedding[i] / scale);
+				values[i] = (byte) Math.max(-Byte.MAX_VALUE, Math.min(Byte.MAX_VALUE, value));
+			}
+		}
+		return new Int8Embedding(values, scale);
+	}
+
+	/**
+	 * Return the dot product of the dequantized embeddings, accumulated on integers.
+	 * @param other an embedding of the same dimensions.
+	 * @return the approximate dot product of the original embeddings.
+	 */
+	public float dot(Int8Embedding other) {
+		Assert.isTrue(this.values.length == other.values.length, "Embeddings must have the same dimensions");
+		int sum = 0;
+		for (int i = 0; i < this.values.length; i++) {
+			sum += this.values[i] * other.values[i];
+		}
+		return sum * this.scale * other.scale;
+	}
+
+	@Override
+	public EmbeddingFormat format() {
+		return EmbeddingFormat.INT8;
+	}
+
+	@Override
+	public int dimensions() {
+		return this.values.length;
+	}
+
+	@Override
+	public int sizeInBytes() {
+		return this.values.length + Float.BYTES;
+	}
+
+	@Override
+	public float[] toFloatArray() {
+		float[] embedding = new float[this.values.length];
+		for (int i = 0; i < this.values.length; i++) {
+			embedding[i] = this.values[i] * this.scale;
+		}
+		return embedding;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return (this == other) || (other instanceof Int8Embedding that && Float.compare(this.scale, that.scale) == 0
+				&& Arrays.equals(this.values, that.values));
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(this.values) + Float.hashCode(this.scale);
+	}
+
+	@Override
+	public String toString() {
+		return "Int8Embedding[values=" + Arrays.toString(this.values) + ", scale=" + this.scale + "]";
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springaicommunity.qianfan.api.EmbeddingModelRegistry;
+import org.springaicommunity.qianfan.api.EmbeddingModelRegistry.EmbeddingModelMetadata;
+import org.springaicommunity.qianfan.token.QianFanTokenEstimator;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.util.Assert;
+
+/**
+ * {@link BatchingStrategy} packing documents to the real per request limits of a QianFan
+ * embedding model, see {@link EmbeddingModelRegistry}: every batch holds as many texts as
+ * the model accepts, within an optional budget of tokens per request. Documents exceeding
+ * the input limit of the model are truncated to it, the batches holding truncated copies
+ * that keep the id and metadata of the original documents. Documents are not split, since
+ * the embeddings of a batch map one to one to its documents; over-long documents are best
+ * split beforehand by a document transformer.
+ *
+ * @since 1.0
+ */
+public class QianFanBatchingStrategy implements BatchingStrategy {
+
+	/**
+	 * Limits assumed for models missing from the {@link EmbeddingModelRegistry}.
+	 */
+	private static final EmbeddingModelMetadata DEFAULT_LIMITS = new EmbeddingModelMetadata(1024, 384, 16);
+
+	private final int maxBatchSize;
+
+	private final int maxInputTokens;
+
+	private final int maxRequestTokens;
+
+	private final QianFanTokenEstimator tokenEstimator;
+
+	private final MetadataMode metadataMode;
+
+	/**
+	 * Create a batching strategy for the limits of the given model.
+	 * @param model ID of the embedding model.
+	 */
+	public QianFanBatchingStrategy(String model) {
+		this(limits(model).maxBatchSize(), limits(model).maxInputTokens(), 0, QianFanTokenEstimator.DEFAULT,
+				MetadataMode.EMBED);
+	}
+
+	/**
+	 * Create a batching strategy.
+	 * @param maxBatchSize the maximum number of texts of a request.
+	 * @param maxInputTokens the maximum number of tokens of a text.
+	 * @param maxRequestTokens the maximum number of tokens of a request, unlimited when
+	 * 0.
+	 * @param tokenEstimator the estimator sizing the texts.
+	 * @param metadataMode the metadata mode used to size the documents.
+	 */
+	public QianFanBatchingStrategy(int maxBatchSize, int maxInputTokens, int maxRequestTokens,
+			QianFanTokenEstimator tokenEstimator, MetadataMode metadataMode) {
+		Assert.isTrue(maxBatchSize > 0, "maxBatchSize must be positive");
+		Assert.isTrue(maxInputTokens > 0, "maxInputTokens must be positive");
+		Assert.isTrue(maxRequestTokens >= 0, "maxRequestTokens must not be negative");
+		Assert.notNull(tokenEstimator, "tokenEstimator must not be null");
+		Assert.notNull(metadataMode, "metadataMode must not be null");
+		this.maxBatchSize = maxBatchSize;
+		this.maxInputTokens = maxInputTokens;
+		this.maxRequestTokens = maxRequestTokens;
+		this.tokenEstimator = tokenEstimator;
+		this.metadataMode = metadataMode;
+	}
+
+	@Override
+	public List<List<Document>> batch(List<Document> documents) {
+		List<List<Document>> batches = new ArrayList<>();
+		List<Document> batch = new ArrayList<>(Math.min(documents.size(), this.maxBatchSize));
+		long batchTokens = 0;
+		for (Document document : documents) {
+			int tokens = this.tokenEstimator.estimate(document.getFormattedContent(this.metadataMode));
+			if (tokens > this.maxInputTokens) {
+				document = truncate(document);
+				tokens = this.maxInputTokens;
+			}
+			boolean full = batch.size() >= this.maxBatchSize
+					|| (this.maxRequestTokens > 0 && batchTokens + tokens > this.maxRequestTokens);
+			if (full && !batch.isEmpty()) {
+				batches.add(batch);
+				batch = new ArrayList<>(this.maxBatchSize);
+				batchTokens = 0;
+			}
+			batch.add(document);
+			batchTokens += tokens;
+		}
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+		return batches;
+	}
+
+	/**
+	 * Truncate the text of the document to the longest prefix within the input limit,
+	 * accounting for the metadata embedded along with it.
+	 */
+	private Document truncate(Document document) {
+		String text = (document.getText() != null) ? document.getText() : "";
+		int overhead = this.tokenEstimator.estimate(document.getFormattedContent(this.metadataMode))
+				- this.tokenEstimator.estimate(text);
+		int budget = Math.max(1, this.maxInputTokens - Math.max(0, overhead));
+		int low = 0;
+		int high = text.length();
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (this.tokenEstimator.estimate(text.subSequence(0, middle)) <= budget) {
+				low = middle;
+			}
+			else {
+				high = middle - 1;
+			}
+		}
+		if (low > 0 && Character.isHighSurrogate(text.charAt(low - 1))) {
+			low--;
+		}
+		return Document.builder()
+			.id(document.getId())
+			.text(text.substring(0, low))
+			.metadata(document.getMetadata())
+			.score(document.getScore())
+			.build();
+	}
+
+	private static EmbeddingModelMetadata limits(String model) {
+		EmbeddingModelMetadata metadata = EmbeddingModelRegistry.get(model);
+		return (metadata != null) ? metadata : DEFAULT_LIMITS;
+	}
+
+}
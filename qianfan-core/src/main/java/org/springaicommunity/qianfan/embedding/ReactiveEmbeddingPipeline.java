@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.util.Assert;
+
+/**
+ * Non-blocking embedding of a stream of documents, shared by the v1 and v2 embedding
+ * models. The documents are buffered to the batch size of the model and packed by the
+ * batching strategy, then up to {@code concurrency} requests are in flight at a time.
+ * Documents are only requested from upstream as batches complete, so a slow embedding API
+ * slows down the producer instead of buffering it in memory. The embeddings are emitted
+ * in the order of the documents, along with the original documents.
+ *
+ * @since 1.0
+ */
+public final class ReactiveEmbeddingPipeline {
+
+	private final int batchSize;
+
+	private final BatchingStrategy batchingStrategy;
+
+	private final int concurrency;
+
+	private final MetadataMode metadataMode;
+
+	/**
+	 * Create a pipeline.
+	 * @param batchSize the maximum number of documents of a request.
+	 * @param batchingStrategy the strategy packing and truncating the buffered documents.
+	 * @param concurrency the maximum number of requests in flight.
+	 * @param metadataMode the metadata mode of the embedded content.
+	 */
+	public ReactiveEmbeddingPipeline(int batchSize, BatchingStrategy batchingStrategy, int concurrency,
+			MetadataMode metadataMode) {
+		Assert.isTrue(batchSize > 0, "batchSize must be positive");
+		Assert.notNull(batchingStrategy, "batchingStrategy must not be null");
+		Assert.isTrue(concurrency > 0, "concurrency must be positive");
+		Assert.notNull(metadataMode, "metadataMode must not be null");
+		this.batchSize = batchSize;
+		this.batchingStrategy = batchingStrategy;
+		this.concurrency = concurrency;
+		this.metadataMode = metadataMode;
+	}
+
+	/**
+	 * Embed the documents.
+	 * @param documents the documents to embed.
+	 * @param embedder sends a request for the given texts and returns their embeddings,
+	 * in order.
+	 * @return the documents along with their embeddings.
+	 */
+	public Flux<DocumentEmbedding> embed(Flux<Document> documents,
+			Function<List<String>, Mono<List<float[]>>> embedder) {
+		return documents.buffer(this.batchSize)
+			.concatMapIterable(this::pack)
+			.flatMapSequential(batch -> embed(batch, embedder), this.concurrency, 1);
+	}
+
+	private Flux<DocumentEmbedding> embed(Batch batch, Function<List<String>, Mono<List<float[]>>> embedder) {
+		List<String> texts = new ArrayList<>(batch.prepared().size());
+		for (Document document : batch.prepared()) {
+			texts.add(document.getFormattedContent(this.metadataMode));
+		}
+		return embedder.apply(texts).flatMapIterable(embeddings -> {
+			Assert.state(embeddings.size() == texts.size(),
+					() -> "Expected " + texts.size() + " embeddings but got " + embeddings.size());
+			List<DocumentEmbedding> results = new ArrayList<>(embeddings.size());
+			for (int i = 0; i < embeddings.size(); i++) {
+				results.add(new DocumentEmbedding(batch.originals().get(i), embeddings.get(i)));
+			}
+			return results;
+		});
+	}
+
+	/**
+	 * Pack the buffered documents into requests, keeping track of the original documents
+	 * of the possibly truncated copies.
+	 */
+	private List<Batch> pack(List<Document> documents) {
+		List<Batch> batches = new ArrayList<>();
+		int offset = 0;
+		for (List<Document> prepared : this.batchingStrategy.batch(documents)) {
+			batches.add(new Batch(documents.subList(offset, offset + prepared.size()), prepared));
+			offset += prepared.size();
+		}
+		return batches;
+	}
+
+	private record Batch(List<Document> originals, List<Document> prepared) {
+	}
+
+}
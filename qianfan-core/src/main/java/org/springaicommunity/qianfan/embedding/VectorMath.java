@@ -0,0 +1,221 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.springframework.ai.document.Document;
+import org.springframework.util.Assert;
+
+/**
+ * Similarity of embeddings computed locally, to re-rank candidates without another
+ * request. The loops are unrolled over independent accumulators, which breaks the
+ * dependency chain of a single sum so that several additions are in flight at once. The
+ * JIT does not vectorize floating point sums, whose result depends on the order of the
+ * additions, so the gain comes from instruction level parallelism rather than SIMD. The
+ * candidates of a query can be packed row after row into one contiguous array, avoiding
+ * an object and a bounds check per candidate.
+ *
+ * @since 1.0
+ */
+public final class VectorMath {
+
+	private VectorMath() {
+	}
+
+	/**
+	 * Return the dot product of two embeddings.
+	 * @param a an embedding.
+	 * @param b an embedding of the same dimensions.
+	 * @return the dot product.
+	 */
+	public static float dot(float[] a, float[] b) {
+		Assert.isTrue(a.length == b.length, "Embeddings must have the same dimensions");
+		return dot(a, 0, b, 0, a.length);
+	}
+
+	/**
+	 * Return the dot product of an embedding and a row of packed embeddings.
+	 * @param a an embedding.
+	 * @param rows embeddings of the dimensions of {@code a}, packed one after the other.
+	 * @param offset the offset of the row in {@code rows}.
+	 * @return the dot product.
+	 */
+	public static float dot(float[] a, float[] rows, int offset) {
+		Assert.isTrue(offset >= 0 && offset + a.length <= rows.length, "The row must be within the packed rows");
+		return dot(a, 0, rows, offset, a.length);
+	}
+
+	/**
+	 * Return the Euclidean norm of an embedding.
+	 * @param a an embedding.
+	 * @return the norm.
+	 */
+	public static float norm(float[] a) {
+		return norm(a, 0, a.length);
+	}
+
+	/**
+	 * Return the cosine similarity of two embeddings, 0 when one of them is zero.
+	 * @param a an embedding.
+	 * @param b an embedding of the same dimensions.
+	 * @return the cosine similarity.
+	 */
+	public static float cosine(float[] a, float[] b) {
+		Assert.isTrue(a.length == b.length, "Embeddings must have the same dimensions");
+		return cosine(dot(a, 0, b, 0, a.length), norm(a), norm(b));
+	}
+
+	/**
+	 * Return the {@code k} candidates most similar to the query by cosine similarity.
+	 * @param query the embedding of the query.
+	 * @param candidates the embeddings of the candidates, of the dimensions of the query.
+	 * @param k the maximum number of matches.
+	 * @return the matches, most similar first.
+	 */
+	public static List<Match> topK(float[] query, List<float[]> candidates, int k) {
+		Assert.isTrue(k >= 0, "k must not be negative");
+		float queryNorm = norm(query);
+		TopK topK = new TopK(k, candidates.size());
+		for (int i = 0; i < candidates.size(); i++) {
+			float[] candidate = candidates.get(i);
+			Assert.isTrue(candidate.length == query.length, "Embeddings must have the same dimensions");
+			topK.offer(i, cosine(dot(query, 0, candidate, 0, query.length), queryNorm, norm(candidate)));
+		}
+		return topK.matches();
+	}
+
+	/**
+	 * Return the {@code k} packed candidates most similar to the query by cosine
+	 * similarity.
+	 * @param query the embedding of the query.
+	 * @param rows the embeddings of the candidates, of the dimensions of the query,
+	 * packed one after the other.
+	 * @param k the maximum number of matches.
+	 * @return the matches, indexed by row, most similar first.
+	 */
+	public static List<Match> topK(float[] query, float[] rows, int k) {
+		Assert.isTrue(k >= 0, "k must not be negative");
+		Assert.isTrue(query.length > 0 && rows.length % query.length == 0,
+				"rows must pack embeddings of the dimensions of the query");
+		float queryNorm = norm(query);
+		TopK topK = new TopK(k, rows.length / query.length);
+		for (int row = 0, offset = 0; offset < rows.length; row++, offset += query.length) {
+			float rowNorm = norm(rows, offset, query.length);
+			topK.offer(row, cosine(dot(query, 0, rows, offset, query.length), queryNorm, rowNorm));
+		}
+		return topK.matches();
+	}
+
+	/**
+	 * Re-rank embedded documents by cosine similarity to the query, setting their score
+	 * to the similarity.
+	 * @param query the embedding of the query.
+	 * @param candidates the embedded documents.
+	 * @param k the maximum number of documents to return.
+	 * @return the {@code k} most similar documents, most similar first.
+	 */
+	public static List<Document> rerank(float[] query, List<DocumentEmbedding> candidates, int k) {
+		List<float[]> embeddings = new ArrayList<>(candidates.size());
+		for (DocumentEmbedding candidate : candidates) {
+			embeddings.add(candidate.embedding());
+		}
+		List<Document> documents = new ArrayList<>();
+		for (Match match : topK(query, embeddings, k)) {
+			Document document = candidates.get(match.index()).document();
+			documents.add(document.mutate().score((double) match.score()).build());
+		}
+		return documents;
+	}
+
+	private static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+		int bound = length & ~3;
+		float s0 = 0;
+		float s1 = 0;
+		float s2 = 0;
+		float s3 = 0;
+		int i = 0;
+		for (; i < bound; i += 4) {
+			s0 += a[aOffset + i] * b[bOffset + i];
+			s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+			s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+			s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+		}
+		for (; i < length; i++) {
+			s0 += a[aOffset + i] * b[bOffset + i];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	private static float norm(float[] a, int offset, int length) {
+		return (float) Math.sqrt(dot(a, offset, a, offset, length));
+	}
+
+	private static float cosine(float dot, float normA, float normB) {
+		return (normA == 0 || normB == 0) ? 0 : dot / (normA * normB);
+	}
+
+	/**
+	 * A candidate matching a query.
+	 *
+	 * @param index the index of the candidate.
+	 * @param score the similarity of the candidate to the query.
+	 */
+	public record Match(int index, float score) {
+
+	}
+
+	/**
+	 * Bounded min-heap of the best matches, ties keeping the first candidates.
+	 */
+	private static final class TopK {
+
+		private final int k;
+
+		private final PriorityQueue<Match> heap;
+
+		TopK(int k, int candidateCount) {
+			this.k = k;
+			this.heap = new PriorityQueue<>(Math.max(1, Math.min(k, candidateCount)), (a, b) -> (a.score() != b.score())
+					? Float.compare(a.score(), b.score()) : Integer.compare(b.index(), a.index()));
+		}
+
+		void offer(int index, float score) {
+			if (this.k == 0) {
+				return;
+			}
+			if (this.heap.size() < this.k) {
+				this.heap.add(new Match(index, score));
+			}
+			else if (score > this.heap.peek().score()) {
+				this.heap.poll();
+				this.heap.add(new Match(index, score));
+			}
+		}
+
+		List<Match> matches() {
+			List<Match> matches = new ArrayList<>(this.heap);
+			matches.sort((a, b) -> (a.score() != b.score()) ? Float.compare(b.score(), a.score())
+					: Integer.compare(a.index(), b.index()));
+			return matches;
+		}
+
+	}
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.util.Assert;
+
+/**
+ * Local store of images, addressed by the SHA-256 hash of their content so that an image
+ * downloaded twice is stored once. Images are streamed to disk while being hashed, and
+ * the least recently used images are evicted once the store exceeds its maximum size.
+ * Images already in the directory are picked up on creation, in the order they were last
+ * modified.
+ * <p>
+ * The file of an evicted image is deleted, so consumers should copy or upload the images
+ * they keep rather than hold on to their paths.
+ *
+ * @since 1.0
+ */
+public class ContentAddressedImageStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(ContentAddressedImageStore.class);
+
+	private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+	private final Path directory;
+
+	private final long maxBytes;
+
+	/**
+	 * Sizes of the stored images by hash, least recently used first.
+	 */
+	private final Map<String, Long> images = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long totalBytes;
+
+	/**
+	 * Create a store.
+	 * @param directory the directory of the images, created if needed.
+	 * @param maxBytes the maximum total size of the images.
+	 */
+	public ContentAddressedImageStore(Path directory, long maxBytes) {
+		Assert.notNull(directory, "directory must not be null");
+		Assert.isTrue(maxBytes > 0, "maxBytes must be positive");
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		try {
+			Files.createDirectories(directory);
+			List<Path> files;
+			try (Stream<Path> stream = Files.list(directory)) {
+				files = new ArrayList<>(stream.filter(file -> HASH.matcher(file.getFileName().toString()).matches())
+					.filter(Files::isRegularFile)
+					.toList());
+			}
+			files.sort(Comparator.comparing(ContentAddressedImageStore::lastModified));
+			for (Path file : files) {
+				long size = Files.size(file);
+				this.images.put(file.getFileName().toString(), size);
+				this.totalBytes += size;
+			}
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException("Failed to open the image store " + directory, ex);
+		}
+		synchronized (this) {
+			evict(null);
+		}
+	}
+
+	/**
+	 * Store an image, streaming it to disk.
+	 * @param input the content of the image, read to its end but not closed.
+	 * @return the stored image.
+	 */
+	public StoredImage store(InputStream input) {
+		Path temporary = null;
+		try {
+			temporary = Files.createTempFile(this.directory, ".download-", ".tmp");
+			MessageDigest digest = sha256();
+			long size;
+			try (OutputStream output = new DigestOutputStream(Files.newOutputStream(temporary), digest)) {
+				size = input.transferTo(output);
+			}
+			String hash = HexFormat.of().formatHex(digest.digest());
+			Path file = this.directory.resolve(hash);
+			synchronized (this) {
+				if (this.images.get(hash) != null) {
+					Files.delete(temporary);
+				}
+				else {
+					Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					this.images.put(hash, size);
+					this.totalBytes += size;
+					evict(hash);
+				}
+			}
+			return new StoredImage(hash, file, size);
+		}
+		catch (IOException ex) {
+			deleteQuietly(temporary);
+			throw new UncheckedIOException("Failed to store an image in " + this.directory, ex);
+		}
+	}
+
+	/**
+	 * Return a stored image, marking it as recently used.
+	 * @param hash the SHA-256 hash of the image.
+	 * @return the image, or {@code null} when it is not stored.
+	 */
+	public synchronized StoredImage get(String hash) {
+		Long size = this.images.get(hash);
+		return (size != null) ? new StoredImage(hash, this.directory.resolve(hash), size) : null;
+	}
+
+	/**
+	 * Return the total size of the stored images.
+	 * @return the size in bytes.
+	 */
+	public synchronized long getTotalBytes() {
+		return this.totalBytes;
+	}
+
+	/**
+	 * Evict the least recently used images until the store fits its maximum size, keeping
+	 * the given image.
+	 */
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, Long>> iterator = this.images.entrySet().iterator();
+		while (this.totalBytes > this.maxBytes && iterator.hasNext()) {
+			Map.Entry<String, Long> image = iterator.next();
+			if (image.getKey().equals(keep)) {
+				continue;
+			}
+			iterator.remove();
+			this.totalBytes -= image.getValue();
+			deleteQuietly(this.directory.resolve(image.getKey()));
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		if (file == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(file);
+		}
+		catch (IOException ex) {
+			logger.warn("Failed to delete {}", file, ex);
+		}
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private static long lastModified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file).toMillis();
+		}
+		catch (IOException ex) {
+			return 0;
+		}
+	}
+
+}
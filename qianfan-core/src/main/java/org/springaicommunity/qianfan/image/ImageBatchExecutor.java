@@ -0,0 +1,133 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.ai.image.ImageGeneration;
+import org.springframework.ai.image.ImageMessage;
+import org.springframework.ai.image.ImagePrompt;
+import org.springframework.ai.image.ImageResponse;
+import org.springframework.util.Assert;
+
+/**
+ * Generates the images of many prompts concurrently, shared by the v1 and v2 image
+ * models. Every instruction of a prompt is a variant generated by its own requests, and
+ * the images a prompt asks for are split into requests of at most the number of images
+ * the model generates at once. Up to {@code concurrency} requests are in flight, and a
+ * failed request only fails the images it was generating.
+ *
+ * @since 1.0
+ */
+public final class ImageBatchExecutor {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImageBatchExecutor.class);
+
+	private final int maxImagesPerRequest;
+
+	private final int concurrency;
+
+	/**
+	 * Create an executor.
+	 * @param maxImagesPerRequest the maximum number of images of a request.
+	 * @param concurrency the maximum number of requests in flight.
+	 */
+	public ImageBatchExecutor(int maxImagesPerRequest, int concurrency) {
+		Assert.isTrue(maxImagesPerRequest > 0, "maxImagesPerRequest must be positive");
+		Assert.isTrue(concurrency > 0, "concurrency must be positive");
+		this.maxImagesPerRequest = maxImagesPerRequest;
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Generate the images of the prompts.
+	 * @param prompts the prompts.
+	 * @param defaultImageCount the number of images of a prompt whose options do not set
+	 * it.
+	 * @param call generates the given number of images of a single instruction prompt.
+	 * @return the outcome of every prompt, in order.
+	 */
+	public List<ImageBatchResult> execute(List<ImagePrompt> prompts, int defaultImageCount,
+			BiFunction<ImagePrompt, Integer, ImageResponse> call) {
+		Assert.notNull(prompts, "prompts must not be null");
+		List<Request> requests = new ArrayList<>();
+		for (int i = 0; i < prompts.size(); i++) {
+			ImagePrompt prompt = prompts.get(i);
+			Integer n = (prompt.getOptions() != null) ? prompt.getOptions().getN() : null;
+			int imageCount = (n != null) ? n : defaultImageCount;
+			for (ImageMessage instruction : prompt.getInstructions()) {
+				ImagePrompt variant = new ImagePrompt(List.of(instruction), prompt.getOptions());
+				for (int remaining = imageCount; remaining > 0; remaining -= this.maxImagesPerRequest) {
+					requests.add(new Request(i, variant, Math.min(remaining, this.maxImagesPerRequest)));
+				}
+			}
+		}
+
+		List<Outcome> outcomes = Flux.fromIterable(requests)
+			.flatMapSequential(
+					request -> Mono.fromCallable(() -> execute(request, call)).subscribeOn(Schedulers.boundedElastic()),
+					this.concurrency)
+			.collectList()
+			.block();
+
+		List<List<ImageGeneration>> generations = new ArrayList<>(prompts.size());
+		List<List<RuntimeException>> errors = new ArrayList<>(prompts.size());
+		for (int i = 0; i < prompts.size(); i++) {
+			generations.add(new ArrayList<>());
+			errors.add(new ArrayList<>());
+		}
+		for (Outcome outcome : outcomes) {
+			int index = outcome.request().promptIndex();
+			if (outcome.error() != null) {
+				errors.get(index).add(outcome.error());
+			}
+			else if (outcome.response() != null) {
+				generations.get(index).addAll(outcome.response().getResults());
+			}
+		}
+		List<ImageBatchResult> results = new ArrayList<>(prompts.size());
+		for (int i = 0; i < prompts.size(); i++) {
+			results.add(new ImageBatchResult(prompts.get(i), new ImageResponse(generations.get(i)), errors.get(i)));
+		}
+		return results;
+	}
+
+	private static Outcome execute(Request request, BiFunction<ImagePrompt, Integer, ImageResponse> call) {
+		try {
+			return new Outcome(request, call.apply(request.prompt(), request.imageCount()), null);
+		}
+		catch (RuntimeException ex) {
+			logger.warn("Failed to generate {} images of prompt {}", request.imageCount(), request.promptIndex(), ex);
+			return new Outcome(request, null, ex);
+		}
+	}
+
+	private record Request(int promptIndex, ImagePrompt prompt, int imageCount) {
+	}
+
+	private record Outcome(Request request, ImageResponse response, RuntimeException error) {
+	}
+
+}
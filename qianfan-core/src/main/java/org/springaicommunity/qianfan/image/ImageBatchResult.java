@@ -0,0 +1,44 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.image;
+
+import java.util.List;
+
+import org.springframework.ai.image.ImagePrompt;
+import org.springframework.ai.image.ImageResponse;
+
+/**
+ * The outcome of a prompt of a batch, see {@link ImageBatchExecutor}. A prompt whose
+ * requests partly failed holds the images of the successful requests along with the
+ * failures.
+ *
+ * @param prompt the prompt.
+ * @param response the generated images, possibly fewer than requested.
+ * @param errors the failures of the requests of the prompt, empty when all succeeded.
+ * @since 1.0
+ */
+public record ImageBatchResult(ImagePrompt prompt, ImageResponse response, List<RuntimeException> errors) {
+
+	/**
+	 * Return whether all the requests of the prompt succeeded.
+	 * @return {@code true} when no request failed.
+	 */
+	public boolean isSuccess() {
+		return this.errors.isEmpty();
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.image;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.util.Assert;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Downloads generated images to a {@link ContentAddressedImageStore} as soon as their
+ * URLs are returned, several at a time, so that consumers read local files instead of
+ * downloading every image themselves. The images are streamed to the store rather than
+ * buffered in memory.
+ *
+ * @since 1.0
+ */
+public class ImagePrefetcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImagePrefetcher.class);
+
+	private final ContentAddressedImageStore store;
+
+	private final RestClient restClient;
+
+	/**
+	 * Maximum number of downloads in flight.
+	 */
+	private int concurrency = 4;
+
+	public ImagePrefetcher(ContentAddressedImageStore store) {
+		this(store, RestClient.create());
+	}
+
+	public ImagePrefetcher(ContentAddressedImageStore store, RestClient restClient) {
+		Assert.notNull(store, "store must not be null");
+		Assert.notNull(restClient, "restClient must not be null");
+		this.store = store;
+		this.restClient = restClient;
+	}
+
+	/**
+	 * Download the images concurrently. An image that fails to download is logged and
+	 * left to the URL alone.
+	 * @param urls the URLs of the images.
+	 * @return the stored images in the order of the URLs, {@code null} for the images
+	 * that could not be downloaded.
+	 */
+	public List<StoredImage> prefetch(List<String> urls) {
+		List<Optional<StoredImage>> images = Flux.range(0, urls.size())
+			.flatMapSequential(i -> Mono.fromCallable(() -> Optional.ofNullable(download(urls.get(i))))
+				.subscribeOn(Schedulers.boundedElastic())
+				.onErrorResume(ex -> {
+					logger.warn("Failed to prefetch the image {}", urls.get(i), ex);
+					return Mono.just(Optional.empty());
+				}), this.concurrency)
+			.collectList()
+			.block();
+		return images.stream().map(image -> image.orElse(null)).toList();
+	}
+
+	private StoredImage download(String url) {
+		if (url == null) {
+			return null;
+		}
+		// the URLs are presigned, they are used as is rather than encoded again
+		return this.restClient.get().uri(URI.create(url)).exchange((request, response) -> {
+			if (response.getStatusCode().isError()) {
+				throw new IllegalStateException("Download failed with status " + response.getStatusCode());
+			}
+			return this.store.store(response.getBody());
+		});
+	}
+
+	/**
+	 * Set the maximum number of downloads in flight, 4 by default.
+	 * @param concurrency the maximum number of concurrent downloads.
+	 */
+	public void setConcurrency(int concurrency) {
+		Assert.isTrue(concurrency > 0, "concurrency must be positive");
+		this.concurrency = concurrency;
+	}
+
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.image;
+
+import java.nio.file.Path;
+
+/**
+ * An image of a {@link ContentAddressedImageStore}.
+ *
+ * @param hash the SHA-256 hash of the image, in lowercase hexadecimal.
+ * @param path the file of the image.
+ * @param size the size of the image, in bytes.
+ * @since 1.0
+ */
+public record StoredImage(String hash, Path path, long size) {
+
+}
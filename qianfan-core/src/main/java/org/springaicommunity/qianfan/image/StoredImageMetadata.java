@@ -0,0 +1,29 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.image;
+
+import org.springframework.ai.image.ImageGenerationMetadata;
+
+/**
+ * Metadata of a generated image that was downloaded to a local store, along with its URL.
+ *
+ * @param storedImage the local copy of the image.
+ * @since 1.0
+ */
+public record StoredImageMetadata(StoredImage storedImage) implements ImageGenerationMetadata {
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.metering;
+
+/**
+ * Usage of one tenant over a rolling window, kept in a ring of fixed time buckets. A
+ * bucket is reset when the ring wraps around to it, so the window slides by one bucket at
+ * a time.
+ *
+ * @since 1.0
+ */
+final class RollingUsageWindow {
+
+	private final long bucketMillis;
+
+	private final Bucket[] buckets;
+
+	RollingUsageWindow(long windowMillis, int bucketCount) {
+		this.bucketMillis = Math.max(1, windowMillis / bucketCount);
+		this.buckets = new Bucket[bucketCount];
+		for (int i = 0; i < bucketCount; i++) {
+			this.buckets[i] = new Bucket();
+		}
+	}
+
+	synchronized void add(long nowMillis, long promptTokens, long completionTokens, long totalTokens, long images,
+			double cost) {
+		long epoch = nowMillis / this.bucketMillis;
+		Bucket bucket = this.buckets[(int) (epoch % this.buckets.length)];
+		if (bucket.epoch != epoch) {
+			bucket.reset(epoch);
+		}
+		bucket.requests++;
+		bucket.promptTokens += promptTokens;
+		bucket.completionTokens += completionTokens;
+		bucket.totalTokens += totalTokens;
+		bucket.images += images;
+		bucket.cost += cost;
+	}
+
+	synchronized UsageSnapshot snapshot(long nowMillis) {
+		long epoch = nowMillis / this.bucketMillis;
+		long oldest = epoch - this.buckets.length + 1;
+		long requests = 0;
+		long promptTokens = 0;
+		long completionTokens = 0;
+		long totalTokens = 0;
+		long images = 0;
+		double cost = 0;
+		for (Bucket bucket : this.buckets) {
+			if (bucket.epoch >= oldest && bucket.epoch <= epoch) {
+				requests += bucket.requests;
+				promptTokens += bucket.promptTokens;
+				completionTokens += bucket.completionTokens;
+				totalTokens += bucket.totalTokens;
+				images += bucket.images;
+				cost += bucket.cost;
+			}
+		}
+		return new UsageSnapshot(requests, promptTokens, completionTokens, totalTokens, images, cost);
+	}
+
+	private static final class Bucket {
+
+		private long epoch = Long.MIN_VALUE;
+
+		private long requests;
+
+		private long promptTokens;
+
+		private long completionTokens;
+
+		private long totalTokens;
+
+		private long images;
+
+		private double cost;
+
+		void reset(long epoch) {
+			this.epoch = epoch;
+			this.requests = 0;
+			this.promptTokens = 0;
+			this.completionTokens = 0;
+			this.totalTokens = 0;
+			this.images = 0;
+			this.cost = 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.metering;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.util.Assert;
+
+/**
+ * Meters the token usage and the estimated cost of the QianFan models, per model,
+ * operation and tenant. The tenant of a request is supplied by the caller through the
+ * tenant resolver, typically reading it from the security or request context.
+ * <p>
+ * The following counters are published, tagged with {@code model}, {@code operation}
+ * ({@code chat}, {@code stream}, {@code embedding} or {@code image}) and {@code tenant}:
+ * <ul>
+ * <li>{@code qianfan.usage.tokens} - additionally tagged with {@code type}
+ * ({@code prompt}, {@code completion} or {@code total})</li>
+ * <li>{@code qianfan.usage.images} - generated images</li>
+ * <li>{@code qianfan.usage.cost} - estimated cost, see {@link UsagePricing}</li>
+ * </ul>
+ * In addition the usage of every tenant over the last {@link Builder#window(Duration)} is
+ * kept in memory and returned by {@link #getUsage(String)}, to enforce per tenant
+ * budgets. Tenant keys are used as tag values and map keys, so they should come from a
+ * bounded set.
+ *
+ * @since 1.0
+ */
+public class UsageMeter {
+
+	public static final String TOKENS_METRIC = "qianfan.usage.tokens";
+
+	public static final String IMAGES_METRIC = "qianfan.usage.images";
+
+	public static final String COST_METRIC = "qianfan.usage.cost";
+
+	/**
+	 * Tenant of the requests when the resolver does not supply one.
+	 */
+	public static final String DEFAULT_TENANT = "default";
+
+	/**
+	 * The metered operations.
+	 */
+	public enum Operation {
+
+		CHAT("chat"), STREAM("stream"), EMBEDDING("embedding"), RERANK("rerank"), IMAGE("image");
+
+		private final String value;
+
+		Operation(String value) {
+			this.value = value;
+		}
+
+		public String getValue() {
+			return this.value;
+		}
+
+	}
+
+	private final MeterRegistry meterRegistry;
+
+	private final UsagePricing pricing;
+
+	private final Supplier<String> tenantResolver;
+
+	private final Duration window;
+
+	private final int windowBuckets;
+
+	private final Clock clock;
+
+	private final Map<MeterKey, Meters> meters = new ConcurrentHashMap<>();
+
+	private final Map<String, RollingUsageWindow> windows = new ConcurrentHashMap<>();
+
+	private UsageMeter(Builder builder) {
+		Assert.notNull(builder.meterRegistry, "meterRegistry must not be null");
+		Assert.notNull(builder.pricing, "pricing must not be null");
+		Assert.notNull(builder.tenantResolver, "tenantResolver must not be null");
+		Assert.isTrue(builder.window != null && !builder.window.isNegative() && !builder.window.isZero(),
+				"window must be positive");
+		Assert.isTrue(builder.windowBuckets > 0, "windowBuckets must be positive");
+		Assert.notNull(builder.clock, "clock must not be null");
+		this.meterRegistry = builder.meterRegistry;
+		this.pricing = builder.pricing;
+		this.tenantResolver = builder.tenantResolver;
+		this.window = builder.window;
+		this.windowBuckets = builder.windowBuckets;
+		this.clock = builder.clock;
+	}
+
+	/**
+	 * Record the token usage of a request for the tenant supplied by the resolver.
+	 * @param operation the metered operation.
+	 * @param model ID of the model.
+	 * @param usage the usage reported by the API, ignored when {@code null}.
+	 */
+	public void record(Operation operation, String model, Usage usage) {
+		record(currentTenant(), operation, model, usage);
+	}
+
+	/**
+	 * Record the token usage of a request.
+	 * @param tenant the tenant key.
+	 * @param operation the metered operation.
+	 * @param model ID of the model.
+	 * @param usage the usage reported by the API, ignored when {@code null}.
+	 */
+	public void record(String tenant, Operation operation, String model, Usage usage) {
+		Assert.isTrue(operation != Operation.IMAGE, "Image usage is recorded with recordImages");
+		if (usage == null) {
+			return;
+		}
+		tenant = (tenant != null) ? tenant : DEFAULT_TENANT;
+		long promptTokens = tokens(usage.getPromptTokens());
+		long completionTokens = tokens(usage.getCompletionTokens());
+		long totalTokens = (usage.getTotalTokens() != null) ? usage.getTotalTokens() : promptTokens + completionTokens;
+		double cost = this.pricing.tokenCost(model, promptTokens, completionTokens);
+
+		Meters meters = meters(tenant, operation, model);
+		meters.promptTokens().increment(promptTokens);
+		meters.completionTokens().increment(completionTokens);
+		meters.totalTokens().increment(totalTokens);
+		meters.cost().increment(cost);
+		window(tenant).add(this.clock.millis(), promptTokens, completionTokens, totalTokens, 0, cost);
+	}
+
+	/**
+	 * Record generated images for the tenant supplied by the resolver.
+	 * @param model ID of the image model.
+	 * @param images number of generated images.
+	 */
+	public void recordImages(String model, int images) {
+		recordImages(currentTenant(), model, images);
+	}
+
+	/**
+	 * Record generated images.
+	 * @param tenant the tenant key.
+	 * @param model ID of the image model.
+	 * @param images number of generated images.
+	 */
+	public void recordImages(String tenant, String model, int images) {
+		tenant = (tenant != null) ? tenant : DEFAULT_TENANT;
+		double cost = this.pricing.imageCost(model, images);
+		Meters meters = meters(tenant, Operation.IMAGE, model);
+		meters.images().increment(images);
+		meters.cost().increment(cost);
+		window(tenant).add(this.clock.millis(), 0, 0, 0, images, cost);
+	}
+
+	/**
+	 * Return the usage of the tenant over the rolling window.
+	 * @param tenant the tenant key.
+	 * @return the usage, empty when the tenant has no recorded usage.
+	 */
+	public UsageSnapshot getUsage(String tenant) {
+		RollingUsageWindow usageWindow = this.windows.get(tenant);
+		return (usageWindow != null) ? usageWindow.snapshot(this.clock.millis()) : UsageSnapshot.EMPTY;
+	}
+
+	/**
+	 * Return the tenant of the current request, as supplied by the tenant resolver.
+	 * @return the tenant key, {@value #DEFAULT_TENANT} when none is supplied.
+	 */
+	public String currentTenant() {
+		String tenant = this.tenantResolver.get();
+		return (tenant != null) ? tenant : DEFAULT_TENANT;
+	}
+
+	private RollingUsageWindow window(String tenant) {
+		return this.windows.computeIfAbsent(tenant,
+				key -> new RollingUsageWindow(this.window.toMillis(), this.windowBuckets));
+	}
+
+	private Meters meters(String tenant, Operation operation, String model) {
+		MeterKey key = new MeterKey(tenant, operation, (model != null) ? model : "unknown");
+		return this.meters.computeIfAbsent(key, this::register);
+	}
+
+	private Meters register(MeterKey key) {
+		Counter cost = counter(COST_METRIC, key).register(this.meterRegistry);
+		if (key.operation() == Operation.IMAGE) {
+			return new Meters(null, null, null, counter(IMAGES_METRIC, key).register(this.meterRegistry), cost);
+		}
+		return new Meters(tokens(key, "prompt"), tokens(key, "completion"), tokens(key, "total"), null, cost);
+	}
+
+	private Counter tokens(MeterKey key, String type) {
+		return counter(TOKENS_METRIC, key).tag("type", type).baseUnit("tokens").register(this.meterRegistry);
+	}
+
+	private static Counter.Builder counter(String name, MeterKey key) {
+		return Counter.builder(name)
+			.tag("model", key.model())
+			.tag("operation", key.operation().getValue())
+			.tag("tenant", key.tenant());
+	}
+
+	private static long tokens(Integer tokens) {
+		return (tokens != null) ? tokens : 0;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	private record MeterKey(String tenant, Operation operation, String model) {
+	}
+
+	private record Meters(Counter promptTokens, Counter completionTokens, Counter totalTokens, Counter images,
+			Counter cost) {
+	}
+
+	public static class Builder {
+
+		private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+		private UsagePricing pricing = UsagePricing.NONE;
+
+		private Supplier<String> tenantResolver = () -> DEFAULT_TENANT;
+
+		private Duration window = Duration.ofHours(1);
+
+		private int windowBuckets = 60;
+
+		private Clock clock = Clock.systemUTC();
+
+		public Builder meterRegistry(MeterRegistry meterRegistry) {
+			this.meterRegistry = meterRegistry;
+			return this;
+		}
+
+		public Builder pricing(UsagePricing pricing) {
+			this.pricing = pricing;
+			return this;
+		}
+
+		/**
+		 * Set the resolver supplying the tenant of the current request.
+		 */
+		public Builder tenantResolver(Supplier<String> tenantResolver) {
+			this.tenantResolver = tenantResolver;
+			return this;
+		}
+
+		/**
+		 * Set the duration of the rolling window queried by
+		 * {@link UsageMeter#getUsage(String)}, one hour by default.
+		 */
+		public Builder window(Duration window) {
+			this.window = window;
+			return this;
+		}
+
+		/**
+		 * Set the number of buckets the rolling window slides by, 60 by default.
+		 */
+		public Builder windowBuckets(int windowBuckets) {
+			this.windowBuckets = windowBuckets;
+			return this;
+		}
+
+		public Builder clock(Clock clock) {
+			this.clock = clock;
+			return this;
+		}
+
+		public UsageMeter build() {
+			return new UsageMeter(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.metering;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+/**
+ * Prices of the QianFan models, used to estimate the cost of the metered usage. Token
+ * prices are per thousand tokens and image prices per generated image, in the billing
+ * currency of the account. Models without a price cost nothing.
+ *
+ * @since 1.0
+ */
+public final class UsagePricing {
+
+	/**
+	 * Pricing without any price, every request costs nothing.
+	 */
+	public static final UsagePricing NONE = builder().build();
+
+	private final Map<String, TokenPrice> tokenPrices;
+
+	private final Map<String, Double> imagePrices;
+
+	private UsagePricing(Map<String, TokenPrice> tokenPrices, Map<String, Double> imagePrices) {
+		this.tokenPrices = Map.copyOf(tokenPrices);
+		this.imagePrices = Map.copyOf(imagePrices);
+	}
+
+	/**
+	 * Return the cost of the tokens used with the model.
+	 * @param model ID of the model.
+	 * @param promptTokens number of prompt tokens.
+	 * @param completionTokens number of completion tokens.
+	 * @return the cost.
+	 */
+	public double tokenCost(String model, long promptTokens, long completionTokens) {
+		TokenPrice price = (model != null) ? this.tokenPrices.get(model) : null;
+		if (price == null) {
+			return 0;
+		}
+		return (promptTokens * price.prompt() + completionTokens * price.completion()) / 1000;
+	}
+
+	/**
+	 * Return the cost of the images generated with the model.
+	 * @param model ID of the model.
+	 * @param images number of generated images.
+	 * @return the cost.
+	 */
+	public double imageCost(String model, long images) {
+		Double price = (model != null) ? this.imagePrices.get(model) : null;
+		return (price != null) ? images * price : 0;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	private record TokenPrice(double prompt, double completion) {
+	}
+
+	public static class Builder {
+
+		private final Map<String, TokenPrice> tokenPrices = new HashMap<>();
+
+		private final Map<String, Double> imagePrices = new HashMap<>();
+
+		/**
+		 * Set the token prices of a chat or embedding model.
+		 * @param model ID of the model.
+		 * @param promptPrice price of a thousand prompt (or input) tokens.
+		 * @param completionPrice price of a thousand completion tokens.
+		 */
+		public Builder tokenPrice(String model, double promptPrice, double completionPrice) {
+			Assert.hasText(model, "model must not be empty");
+			Assert.isTrue(promptPrice >= 0 && completionPrice >= 0, "prices must not be negative");
+			this.tokenPrices.put(model, new TokenPrice(promptPrice, completionPrice));
+			return this;
+		}
+
+		/**
+		 * Set the price of an image generated by an image model.
+		 * @param model ID of the model.
+		 * @param price price of a generated image.
+		 */
+		public Builder imagePrice(String model, double price) {
+			Assert.hasText(model, "model must not be empty");
+			Assert.isTrue(price >= 0, "price must not be negative");
+			this.imagePrices.put(model, price);
+			return this;
+		}
+
+		public UsagePricing build() {
+			return new UsagePricing(this.tokenPrices, this.imagePrices);
+		}
+
+	}
+
+}
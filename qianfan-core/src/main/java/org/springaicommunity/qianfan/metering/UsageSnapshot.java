@@ -0,0 +1,35 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.metering;
+
+/**
+ * Usage of a tenant over the rolling window of a {@link UsageMeter}.
+ *
+ * @param requests number of metered requests.
+ * @param promptTokens number of prompt (or input) tokens.
+ * @param completionTokens number of completion tokens.
+ * @param totalTokens total number of tokens.
+ * @param images number of generated images.
+ * @param cost estimated cost, see {@link UsagePricing}.
+ * @since 1.0
+ */
+public record UsageSnapshot(long requests, long promptTokens, long completionTokens, long totalTokens, long images,
+		double cost) {
+
+	public static final UsageSnapshot EMPTY = new UsageSnapshot(0, 0, 0, 0, 0, 0);
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.resilience;
+
+import java.time.Duration;
+
+import org.springframework.util.Assert;
+
+/**
+ * Count based circuit breaker guarding a single model endpoint. The breaker records the
+ * outcome of the last {@code slidingWindowSize} calls and opens when either the failure
+ * rate or the slow call rate reaches its threshold. After {@code waitDurationInOpenState}
+ * a limited number of probe calls are permitted; the breaker closes again if the probes
+ * are healthy and re-opens otherwise.
+ *
+ * @since 1.0
+ * @see CircuitBreakerRegistry
+ */
+public class CircuitBreaker {
+
+	/**
+	 * The state of a circuit breaker.
+	 */
+	public enum State {
+
+		/**
+		 * Calls are permitted and their outcome is recorded.
+		 */
+		CLOSED,
+
+		/**
+		 * Calls are rejected with a {@link CircuitBreakerOpenException}.
+		 */
+		OPEN,
+
+		/**
+		 * A limited number of probe calls are permitted.
+		 */
+		HALF_OPEN
+
+	}
+
+	private final String model;
+
+	private final String endpoint;
+
+	private final CircuitBreakerRegistry.Config config;
+
+	private final boolean[] failures;
+
+	private final boolean[] slowCalls;
+
+	private State state = State.CLOSED;
+
+	private int position;
+
+	private int recordedCalls;
+
+	private int failedCalls;
+
+	private int slowCallCount;
+
+	private long openedAtNanos;
+
+	private int halfOpenPermits;
+
+	private int halfOpenCalls;
+
+	private int halfOpenFailures;
+
+	private int halfOpenSlowCalls;
+
+	CircuitBreaker(String model, String endpoint, CircuitBreakerRegistry.Config config) {
+		Assert.notNull(config, "config must not be null");
+		this.model = model;
+		this.endpoint = endpoint;
+		this.config = config;
+		this.failures = new boolean[config.slidingWindowSize()];
+		this.slowCalls = new boolean[config.slidingWindowSize()];
+	}
+
+	/**
+	 * Try to obtain a permission to execute a call.
+	 * @return {@code true} if the call may proceed.
+	 */
+	public synchronized boolean tryAcquirePermission() {
+		if (this.state == State.OPEN) {
+			if (System.nanoTime() - this.openedAtNanos < this.config.waitDurationInOpenState().toNanos()) {
+				return false;
+			}
+			transitionToHalfOpen();
+		}
+		if (this.state == State.HALF_OPEN) {
+			if (this.halfOpenPermits == 0) {
+				return false;
+			}
+			this.halfOpenPermits--;
+		}
+		return true;
+	}
+
+	/**
+	 * Give back a permission that was acquired for a call which never completed, e.g. a
+	 * cancelled stream.
+	 */
+	public synchronized void releasePermission() {
+		if (this.state == State.HALF_OPEN
+				&& this.halfOpenPermits + this.halfOpenCalls < this.config.permittedCallsInHalfOpenState()) {
+			this.halfOpenPermits++;
+		}
+	}
+
+	/**
+	 * Record the outcome of a permitted call.
+	 * @param duration the duration of the call.
+	 * @param failed whether the call failed.
+	 */
+	public synchronized void onResult(Duration duration, boolean failed) {
+		boolean slow = duration.compareTo(this.config.slowCallDurationThreshold()) > 0;
+		if (this.state == State.HALF_OPEN) {
+			this.halfOpenCalls++;
+			this.halfOpenFailures += failed ? 1 : 0;
+			this.halfOpenSlowCalls += slow ? 1 : 0;
+			if (this.halfOpenCalls >= this.config.permittedCallsInHalfOpenState()) {
+				if (exceedsThresholds(this.halfOpenCalls, this.halfOpenFailures, this.halfOpenSlowCalls)) {
+					transitionToOpen();
+				}
+				else {
+					transitionToClosed();
+				}
+			}
+			return;
+		}
+		if (this.state == State.OPEN) {
+			// A call that was started before the breaker opened.
+			return;
+		}
+
+		if (this.recordedCalls == this.failures.length) {
+			this.failedCalls -= this.failures[this.position] ? 1 : 0;
+			this.slowCallCount -= this.slowCalls[this.position] ? 1 : 0;
+		}
+		else {
+			this.recordedCalls++;
+		}
+		this.failures[this.position] = failed;
+		this.slowCalls[this.position] = slow;
+		this.failedCalls += failed ? 1 : 0;
+		this.slowCallCount += slow ? 1 : 0;
+		this.position = (this.position + 1) % this.failures.length;
+
+		if (this.recordedCalls >= this.config.minimumNumberOfCalls()
+				&& exceedsThresholds(this.recordedCalls, this.failedCalls, this.slowCallCount)) {
+			transitionToOpen();
+		}
+	}
+
+	private boolean exceedsThresholds(int calls, int failed, int slow) {
+		float failureRate = failed * 100.0f / calls;
+		float slowCallRate = slow * 100.0f / calls;
+		return failureRate >= this.config.failureRateThreshold() || slowCallRate >= this.config.slowCallRateThreshold();
+	}
+
+	private void transitionToOpen() {
+		this.state = State.OPEN;
+		this.openedAtNanos = System.nanoTime();
+		resetWindow();
+	}
+
+	private void transitionToHalfOpen() {
+		this.state = State.HALF_OPEN;
+		this.halfOpenPermits = this.config.permittedCallsInHalfOpenState();
+		this.halfOpenCalls = 0;
+		this.halfOpenFailures = 0;
+		this.halfOpenSlowCalls = 0;
+	}
+
+	private void transitionToClosed() {
+		this.state = State.CLOSED;
+		resetWindow();
+	}
+
+	private void resetWindow() {
+		this.position = 0;
+		this.recordedCalls = 0;
+		this.failedCalls = 0;
+		this.slowCallCount = 0;
+	}
+
+	public synchronized State getState() {
+		return this.state;
+	}
+
+	public String getModel() {
+		return this.model;
+	}
+
+	public String getEndpoint() {
+		return this.endpoint;
+	}
+
+}
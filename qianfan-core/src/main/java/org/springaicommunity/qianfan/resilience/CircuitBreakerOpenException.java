@@ -0,0 +1,56 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.resilience;
+
+import org.springframework.ai.retry.NonTransientAiException;
+
+/**
+ * Thrown when a call is rejected because the circuit breaker of the target model endpoint
+ * is open. The exception is non-transient so that the retry template fails fast instead
+ * of waiting on a degraded endpoint.
+ *
+ * @since 1.0
+ */
+public class CircuitBreakerOpenException extends NonTransientAiException {
+
+	private final String model;
+
+	private final String endpoint;
+
+	private final CircuitBreaker.State state;
+
+	public CircuitBreakerOpenException(String model, String endpoint, CircuitBreaker.State state) {
+		super("Circuit breaker for model '" + model + "' on endpoint '" + endpoint + "' is " + state
+				+ ", call not permitted");
+		this.model = model;
+		this.endpoint = endpoint;
+		this.state = state;
+	}
+
+	public String getModel() {
+		return this.model;
+	}
+
+	public String getEndpoint() {
+		return this.endpoint;
+	}
+
+	public CircuitBreaker.State getState() {
+		return this.state;
+	}
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.resilience;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import reactor.core.publisher.Flux;
+
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.util.Assert;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+/**
+ * Holds one {@link CircuitBreaker} per model and endpoint, so that a degraded model fails
+ * fast without affecting calls to healthy models.
+ * <p>
+ * The following meters are published, tagged with {@code model} and {@code endpoint}:
+ * <ul>
+ * <li>{@code qianfan.circuitbreaker.state} - gauge, 0 closed, 1 open, 2 half-open</li>
+ * <li>{@code qianfan.circuitbreaker.calls} - counter, additionally tagged with
+ * {@code outcome} ({@code successful}, {@code failed} or {@code not_permitted})</li>
+ * </ul>
+ *
+ * @since 1.0
+ */
+public class CircuitBreakerRegistry {
+
+	public static final String STATE_METRIC = "qianfan.circuitbreaker.state";
+
+	public static final String CALLS_METRIC = "qianfan.circuitbreaker.calls";
+
+	private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+	private final Config config;
+
+	private final Predicate<Throwable> recordFailurePredicate;
+
+	private final MeterRegistry meterRegistry;
+
+	protected CircuitBreakerRegistry(Config config, Predicate<Throwable> recordFailurePredicate,
+			MeterRegistry meterRegistry) {
+		Assert.notNull(config, "config must not be null");
+		Assert.notNull(recordFailurePredicate, "recordFailurePredicate must not be null");
+		Assert.notNull(meterRegistry, "meterRegistry must not be null");
+		this.config = config;
+		this.recordFailurePredicate = recordFailurePredicate;
+		this.meterRegistry = meterRegistry;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Return the circuit breaker of the given model endpoint, creating it if necessary.
+	 * @param model the model name.
+	 * @param endpoint the API endpoint.
+	 * @return the circuit breaker.
+	 */
+	public CircuitBreaker circuitBreaker(String model, String endpoint) {
+		String resolvedModel = String.valueOf(model);
+		return this.circuitBreakers.computeIfAbsent(resolvedModel + " " + endpoint, key -> {
+			CircuitBreaker circuitBreaker = new CircuitBreaker(resolvedModel, endpoint, this.config);
+			Gauge.builder(STATE_METRIC, circuitBreaker, breaker -> breaker.getState().ordinal())
+				.description("State of the QianFan circuit breaker: 0 closed, 1 open, 2 half-open")
+				.tag("model", resolvedModel)
+				.tag("endpoint", endpoint)
+				.register(this.meterRegistry);
+			return circuitBreaker;
+		});
+	}
+
+	/**
+	 * Execute a blocking call guarded by the circuit breaker of the model endpoint.
+	 * @param model the model name.
+	 * @param endpoint the API endpoint.
+	 * @param call the call to execute.
+	 * @param <T> the result type.
+	 * @return the call result.
+	 * @throws CircuitBreakerOpenException if the circuit breaker does not permit the
+	 * call.
+	 */
+	public <T> T execute(String model, String endpoint, Supplier<T> call) {
+		CircuitBreaker circuitBreaker = acquirePermission(model, endpoint);
+		long start = System.nanoTime();
+		try {
+			T result = call.get();
+			onResult(circuitBreaker, start, null);
+			return result;
+		}
+		catch (RuntimeException ex) {
+			onResult(circuitBreaker, start, ex);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Guard a streaming call with the circuit breaker of the model endpoint. The outcome
+	 * is recorded when the first element, the completion or the error arrives, so the
+	 * slow call threshold applies to the time to first token.
+	 * @param model the model name.
+	 * @param endpoint the API endpoint.
+	 * @param stream the stream to guard.
+	 * @param <T> the element type.
+	 * @return the guarded stream.
+	 */
+	public <T> Flux<T> executeStream(String model, String endpoint, Flux<T> stream) {
+		return Flux.defer(() -> {
+			CircuitBreaker circuitBreaker = acquirePermission(model, endpoint);
+			long start = System.nanoTime();
+			AtomicBoolean recorded = new AtomicBoolean();
+			return stream.doOnNext(element -> {
+				if (recorded.compareAndSet(false, true)) {
+					onResult(circuitBreaker, start, null);
+				}
+			}).doOnComplete(() -> {
+				if (recorded.compareAndSet(false, true)) {
+					onResult(circuitBreaker, start, null);
+				}
+			}).doOnError(ex -> {
+				if (recorded.compareAndSet(false, true)) {
+					onResult(circuitBreaker, start, ex);
+				}
+			}).doOnCancel(() -> {
+				if (recorded.compareAndSet(false, true)) {
+					circuitBreaker.releasePermission();
+				}
+			});
+		});
+	}
+
+	private CircuitBreaker acquirePermission(String model, String endpoint) {
+		CircuitBreaker circuitBreaker = circuitBreaker(model, endpoint);
+		if (!circuitBreaker.tryAcquirePermission()) {
+			counter(circuitBreaker, "not_permitted").increment();
+			throw new CircuitBreakerOpenException(circuitBreaker.getModel(), endpoint, circuitBreaker.getState());
+		}
+		return circuitBreaker;
+	}
+
+	private void onResult(CircuitBreaker circuitBreaker, long start, Throwable error) {
+		boolean failed = error != null && this.recordFailurePredicate.test(error);
+		circuitBreaker.onResult(Duration.ofNanos(System.nanoTime() - start), failed);
+		counter(circuitBreaker, failed ? "failed" : "successful").increment();
+	}
+
+	private Counter counter(CircuitBreaker circuitBreaker, String outcome) {
+		return Counter.builder(CALLS_METRIC)
+			.tag("model", circuitBreaker.getModel())
+			.tag("endpoint", circuitBreaker.getEndpoint())
+			.tag("outcome", outcome)
+			.register(this.meterRegistry);
+	}
+
+	/**
+	 * Default failure classification: server errors, I/O errors and timeouts count as
+	 * failures, client errors such as an invalid request do not.
+	 * @param error the error thrown by the call.
+	 * @return {@code true} if the error indicates a degraded endpoint.
+	 */
+	public static boolean isServerSideFailure(Throwable error) {
+		return error instanceof TransientAiException || error instanceof ResourceAccessException
+				|| error instanceof HttpServerErrorException || error instanceof WebClientRequestException
+				|| error instanceof TimeoutException || (error instanceof WebClientResponseException responseException
+						&& responseException.getStatusCode().is5xxServerError());
+	}
+
+	/**
+	 * Circuit breaker configuration.
+	 *
+	 * @param slidingWindowSize number of most recent calls used to compute the rates.
+	 * @param minimumNumberOfCalls calls required before the rates are evaluated.
+	 * @param failureRateThreshold failure rate in percent that opens the breaker.
+	 * @param slowCallRateThreshold slow call rate in percent that opens the breaker.
+	 * @param slowCallDurationThreshold duration above which a call is considered slow.
+	 * @param waitDurationInOpenState time the breaker stays open before probing.
+	 * @param permittedCallsInHalfOpenState number of probe calls in half-open state.
+	 */
+	public record Config(int slidingWindowSize, int minimumNumberOfCalls, float failureRateThreshold,
+			float slowCallRateThreshold, Duration slowCallDurationThreshold, Duration waitDurationInOpenState,
+			int permittedCallsInHalfOpenState) {
+
+		public Config {
+			Assert.isTrue(slidingWindowSize > 0, "slidingWindowSize must be positive");
+			Assert.isTrue(minimumNumberOfCalls > 0, "minimumNumberOfCalls must be positive");
+			Assert.isTrue(failureRateThreshold > 0 && failureRateThreshold <= 100,
+					"failureRateThreshold must be between 0 and 100");
+			Assert.isTrue(slowCallRateThreshold > 0 && slowCallRateThreshold <= 100,
+					"slowCallRateThreshold must be between 0 and 100");
+			Assert.notNull(slowCallDurationThreshold, "slowCallDurationThreshold must not be null");
+			Assert.notNull(waitDurationInOpenState, "waitDurationInOpenState must not be null");
+			Assert.isTrue(permittedCallsInHalfOpenState > 0, "permittedCallsInHalfOpenState must be positive");
+		}
+
+	}
+
+	public static class Builder {
+
+		private int slidingWindowSize = 50;
+
+		private int minimumNumberOfCalls = 20;
+
+		private float failureRateThreshold = 50;
+
+		private float slowCallRateThreshold = 80;
+
+		private Duration slowCallDurationThreshold = Duration.ofSeconds(30);
+
+		private Duration waitDurationInOpenState = Duration.ofSeconds(30);
+
+		private int permittedCallsInHalfOpenState = 3;
+
+		private Predicate<Throwable> recordFailurePredicate = CircuitBreakerRegistry::isServerSideFailure;
+
+		private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+		public Builder slidingWindowSize(int slidingWindowSize) {
+			this.slidingWindowSize = slidingWindowSize;
+			return this;
+		}
+
+		public Builder minimumNumberOfCalls(int minimumNumberOfCalls) {
+			this.minimumNumberOfCalls = minimumNumberOfCalls;
+			return this;
+		}
+
+		public Builder failureRateThreshold(float failureRateThreshold) {
+			this.failureRateThreshold = failureRateThreshold;
+			return this;
+		}
+
+		public Builder slowCallRateThreshold(float slowCallRateThreshold) {
+			this.slowCallRateThreshold = slowCallRateThreshold;
+			return this;
+		}
+
+		public Builder slowCallDurationThreshold(Duration slowCallDurationThreshold) {
+			this.slowCallDurationThreshold = slowCallDurationThreshold;
+			return this;
+		}
+
+		public Builder waitDurationInOpenState(Duration waitDurationInOpenState) {
+			this.waitDurationInOpenState = waitDurationInOpenState;
+			return this;
+		}
+
+		public Builder permittedCallsInHalfOpenState(int permittedCallsInHalfOpenState) {
+			this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+			return this;
+		}
+
+		public Builder recordFailurePredicate(Predicate<Throwable> recordFailurePredicate) {
+			this.recordFailurePredicate = recordFailurePredicate;
+			return this;
+		}
+
+		public Builder meterRegistry(MeterRegistry meterRegistry) {
+			this.meterRegistry = meterRegistry;
+			return this;
+		}
+
+		public CircuitBreakerRegistry build() {
+			Config config = new Config(this.slidingWindowSize, this.minimumNumberOfCalls, this.failureRateThreshold,
+					this.slowCallRateThreshold, this.slowCallDurationThreshold, this.waitDurationInOpenState,
+					this.permittedCallsInHalfOpenState);
+			return new CircuitBreakerRegistry(config, this.recordFailurePredicate, this.meterRegistry);
+		}
+
+	}
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.resilience;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Executes blocking QianFan calls with request hedging: when the primary attempt has not
+ * completed after {@link Builder#hedgeDelay(Duration)}, a duplicate attempt is started
+ * and the first successful result wins. The losing attempt is cancelled.
+ * <p>
+ * The number of hedges is capped at {@link Builder#budgetPercent(double)} percent of the
+ * executed requests so that a slow upstream does not double the load. A non-zero budget
+ * starts with one hedge, so that the first slow request can be hedged before the budget
+ * accrues. The following counters are published, tagged with {@code operation}:
+ * <ul>
+ * <li>{@code qianfan.hedge.requests} - requests executed through the executor</li>
+ * <li>{@code qianfan.hedge.sent} - hedged attempts started</li>
+ * <li>{@code qianfan.hedge.wins} - requests answered by the hedged attempt</li>
+ * </ul>
+ *
+ * @since 1.0
+ */
+public class HedgedRequestExecutor {
+
+	public static final String REQUESTS_METRIC = "qianfan.hedge.requests";
+
+	public static final String HEDGES_METRIC = "qianfan.hedge.sent";
+
+	public static final String WINS_METRIC = "qianfan.hedge.wins";
+
+	private final Duration hedgeDelay;
+
+	private final double budgetRatio;
+
+	private final ExecutorService executor;
+
+	private final MeterRegistry meterRegistry;
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong hedges = new AtomicLong();
+
+	protected HedgedRequestExecutor(Duration hedgeDelay, double budgetPercent, ExecutorService executor,
+			MeterRegistry meterRegistry) {
+		Assert.notNull(hedgeDelay, "hedgeDelay must not be null");
+		Assert.isTrue(!hedgeDelay.isNegative(), "hedgeDelay must not be negative");
+		Assert.isTrue(budgetPercent >= 0 && budgetPercent <= 100, "budgetPercent must be between 0 and 100");
+		Assert.notNull(executor, "executor must not be null");
+		Assert.notNull(meterRegistry, "meterRegistry must not be null");
+		this.hedgeDelay = hedgeDelay;
+		this.budgetRatio = budgetPercent / 100.0;
+		this.executor = executor;
+		this.meterRegistry = meterRegistry;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Execute the given action, hedging it if it is slower than the configured delay.
+	 * @param operation the operation name used to tag the metrics, e.g. {@code chat}.
+	 * @param action the blocking call to execute. Must be safe to run twice.
+	 * @param <T> the result type.
+	 * @return the result of the first attempt that completed successfully.
+	 */
+	public <T> T execute(String operation, Supplier<T> action) {
+		Assert.hasText(operation, "operation must not be empty");
+		Assert.notNull(action, "action must not be null");
+
+		long requestCount = this.requests.incrementAndGet();
+		counter(REQUESTS_METRIC, operation).increment();
+
+		CompletionService<T> completionService = new ExecutorCompletionService<>(this.executor);
+		List<Future<T>> attempts = new ArrayList<>(2);
+		attempts.add(completionService.submit(action::get));
+		try {
+			Future<T> completed = completionService.poll(this.hedgeDelay.toNanos(), TimeUnit.NANOSECONDS);
+			if (completed == null) {
+				if (tryAcquireHedge(requestCount)) {
+					attempts.add(completionService.submit(action::get));
+					counter(HEDGES_METRIC, operation).increment();
+				}
+				completed = completionService.take();
+			}
+
+			Throwable failure = null;
+			for (int pending = attempts.size() - 1;; pending--) {
+				try {
+					T result = completed.get();
+					if (attempts.size() > 1 && completed == attempts.get(1)) {
+						counter(WINS_METRIC, operation).increment();
+					}
+					return result;
+				}
+				catch (ExecutionException ex) {
+					failure = ex.getCause();
+				}
+				if (pending == 0) {
+					break;
+				}
+				completed = completionService.take();
+			}
+			throw propagate(failure);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the QianFan response", ex);
+		}
+		finally {
+			attempts.forEach(attempt -> attempt.cancel(true));
+		}
+	}
+
+	private boolean tryAcquireHedge(long requestCount) {
+		if (this.budgetRatio == 0) {
+			return false;
+		}
+		// seeded with one hedge, else the first 1 / budgetRatio requests cannot hedge
+		long allowed = 1 + (long) (requestCount * this.budgetRatio);
+		while (true) {
+			long current = this.hedges.get();
+			if (current >= allowed) {
+				return false;
+			}
+			if (this.hedges.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private Counter counter(String name, String operation) {
+		return Counter.builder(name).tag("operation", operation).register(this.meterRegistry);
+	}
+
+	private static RuntimeException propagate(Throwable failure) {
+		if (failure instanceof RuntimeException runtimeException) {
+			return runtimeException;
+		}
+		if (failure instanceof Error error) {
+			throw error;
+		}
+		return new IllegalStateException("QianFan request failed", failure);
+	}
+
+	public Duration getHedgeDelay() {
+		return this.hedgeDelay;
+	}
+
+	public double getBudgetPercent() {
+		return this.budgetRatio * 100.0;
+	}
+
+	public static class Builder {
+
+		private Duration hedgeDelay = Duration.ofMillis(500);
+
+		private double budgetPercent = 5.0;
+
+		private ExecutorService executor;
+
+		private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+		/**
+		 * The delay after which a duplicate request is sent, typically the observed p95
+		 * latency of the model.
+		 */
+		public Builder hedgeDelay(Duration hedgeDelay) {
+			this.hedgeDelay = hedgeDelay;
+			return this;
+		}
+
+		/**
+		 * The maximum share of requests, in percent, that may be hedged.
+		 */
+		public Builder budgetPercent(double budgetPercent) {
+			this.budgetPercent = budgetPercent;
+			return this;
+		}
+
+		public Builder executor(ExecutorService executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		public Builder meterRegistry(MeterRegistry meterRegistry) {
+			this.meterRegistry = meterRegistry;
+			return this;
+		}
+
+		public HedgedRequestExecutor build() {
+			ExecutorService executorService = this.executor;
+			if (executorService == null) {
+				CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("qianfan-hedge-");
+				threadFactory.setDaemon(true);
+				executorService = Executors.newCachedThreadPool(threadFactory);
+			}
+			return new HedgedRequestExecutor(this.hedgeDelay, this.budgetPercent, executorService, this.meterRegistry);
+		}
+
+	}
+
+}
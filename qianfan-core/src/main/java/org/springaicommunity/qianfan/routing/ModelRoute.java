@@ -0,0 +1,193 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.routing;
+
+import org.springaicommunity.qianfan.api.QianFanApi;
+import org.springaicommunity.qianfanv2.ContextWindowBudgeter;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.util.Assert;
+
+/**
+ * A model the {@link RoutingChatModel} can route requests to: the chat model bound to it,
+ * its context window, its price and its quota.
+ *
+ * @since 1.0
+ */
+public final class ModelRoute {
+
+	private final String model;
+
+	private final ChatModel chatModel;
+
+	private final int contextWindow;
+
+	private final double promptPrice;
+
+	private final double completionPrice;
+
+	private final int requestsPerMinute;
+
+	private final long tokensPerMinute;
+
+	private ModelRoute(Builder builder) {
+		Assert.hasText(builder.model, "model must not be empty");
+		Assert.notNull(builder.chatModel, "chatModel must not be null");
+		Integer contextWindow = (builder.contextWindow != null) ? builder.contextWindow
+				: knownContextWindow(builder.model);
+		Assert.isTrue(contextWindow != null && contextWindow > 0,
+				() -> "contextWindow must be set for model " + builder.model);
+		Assert.isTrue(builder.promptPrice >= 0 && builder.completionPrice >= 0, "prices must not be negative");
+		Assert.isTrue(builder.requestsPerMinute >= 0 && builder.tokensPerMinute >= 0, "quotas must not be negative");
+		this.model = builder.model;
+		this.chatModel = builder.chatModel;
+		this.contextWindow = contextWindow;
+		this.promptPrice = builder.promptPrice;
+		this.completionPrice = builder.completionPrice;
+		this.requestsPerMinute = builder.requestsPerMinute;
+		this.tokensPerMinute = builder.tokensPerMinute;
+	}
+
+	public String getModel() {
+		return this.model;
+	}
+
+	public ChatModel getChatModel() {
+		return this.chatModel;
+	}
+
+	public int getContextWindow() {
+		return this.contextWindow;
+	}
+
+	public double getPromptPrice() {
+		return this.promptPrice;
+	}
+
+	public double getCompletionPrice() {
+		return this.completionPrice;
+	}
+
+	public int getRequestsPerMinute() {
+		return this.requestsPerMinute;
+	}
+
+	public long getTokensPerMinute() {
+		return this.tokensPerMinute;
+	}
+
+	/**
+	 * Return the estimated cost of a request.
+	 * @param promptTokens the estimated prompt tokens.
+	 * @param completionTokens the expected completion tokens.
+	 * @return the estimated cost.
+	 */
+	double estimateCost(long promptTokens, long completionTokens) {
+		return (promptTokens * this.promptPrice + completionTokens * this.completionPrice) / 1000;
+	}
+
+	private static Integer knownContextWindow(String model) {
+		QianFanApi.ChatModel chatModel = QianFanApi.ChatModel.fromValue(model);
+		return (chatModel != null) ? Integer.valueOf(chatModel.getContextWindow())
+				: ContextWindowBudgeter.contextWindow(model);
+	}
+
+	@Override
+	public String toString() {
+		return "ModelRoute[" + this.model + "]";
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static class Builder {
+
+		private String model;
+
+		private ChatModel chatModel;
+
+		private Integer contextWindow;
+
+		private double promptPrice;
+
+		private double completionPrice;
+
+		private int requestsPerMinute;
+
+		private long tokensPerMinute;
+
+		/**
+		 * Set the ID of the model, as reported in the usage and matched against the model
+		 * of the prompt options.
+		 */
+		public Builder model(String model) {
+			this.model = model;
+			return this;
+		}
+
+		/**
+		 * Set the chat model serving the requests routed to the model, typically a
+		 * QianFan chat model whose default options select the model.
+		 */
+		public Builder chatModel(ChatModel chatModel) {
+			this.chatModel = chatModel;
+			return this;
+		}
+
+		/**
+		 * Set the context window of the model in tokens. Defaults to the context window
+		 * of the known QianFan v1 and v2 models, then to the size in the suffix of the
+		 * model ID, e.g. {@code -32k}; other models must set it.
+		 */
+		public Builder contextWindow(int contextWindow) {
+			this.contextWindow = contextWindow;
+			return this;
+		}
+
+		/**
+		 * Set the price of the model per 1000 prompt and completion tokens.
+		 */
+		public Builder price(double promptPrice, double completionPrice) {
+			this.promptPrice = promptPrice;
+			this.completionPrice = completionPrice;
+			return this;
+		}
+
+		/**
+		 * Set the number of requests per minute the model quota allows, unlimited when 0.
+		 */
+		public Builder requestsPerMinute(int requestsPerMinute) {
+			this.requestsPerMinute = requestsPerMinute;
+			return this;
+		}
+
+		/**
+		 * Set the number of tokens per minute the model quota allows, unlimited when 0.
+		 */
+		public Builder tokensPerMinute(long tokensPerMinute) {
+			this.tokensPerMinute = tokensPerMinute;
+			return this;
+		}
+
+		public ModelRoute build() {
+			return new ModelRoute(this);
+		}
+
+	}
+
+}
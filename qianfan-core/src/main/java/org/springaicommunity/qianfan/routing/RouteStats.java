@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.routing;
+
+/**
+ * Live statistics of a route: exponentially weighted latency and error rate, and the
+ * requests and tokens consumed in the current minute against the route quota.
+ *
+ * @since 1.0
+ */
+final class RouteStats {
+
+	private static final double ALPHA = 0.2;
+
+	private static final long MINUTE_MILLIS = 60_000;
+
+	private long latencyNanos = -1;
+
+	private double errorRate;
+
+	private long lastFailureMillis;
+
+	private long minuteStartMillis;
+
+	private int minuteRequests;
+
+	private long minuteTokens;
+
+	/**
+	 * Reserve quota for a request, unless the quota of the current minute is exhausted.
+	 * @return whether the request fits in the quota.
+	 */
+	synchronized boolean tryAcquire(ModelRoute route, long tokens, long nowMillis) {
+		if (nowMillis - this.minuteStartMillis >= MINUTE_MILLIS || nowMillis < this.minuteStartMillis) {
+			this.minuteStartMillis = nowMillis;
+			this.minuteRequests = 0;
+			this.minuteTokens = 0;
+		}
+		if (route.getRequestsPerMinute() > 0 && this.minuteRequests >= route.getRequestsPerMinute()) {
+			return false;
+		}
+		if (route.getTokensPerMinute() > 0 && this.minuteTokens + tokens > route.getTokensPerMinute()) {
+			return false;
+		}
+		this.minuteRequests++;
+		this.minuteTokens += tokens;
+		return true;
+	}
+
+	/**
+	 * Correct the reserved tokens with the tokens actually used.
+	 */
+	synchronized void adjustTokens(long delta) {
+		this.minuteTokens = Math.max(0, this.minuteTokens + delta);
+	}
+
+	synchronized void recordSuccess(long latencyNanos) {
+		if (latencyNanos >= 0) {
+			this.latencyNanos = (this.latencyNanos < 0) ? latencyNanos
+					: (long) (ALPHA * latencyNanos + (1 - ALPHA) * this.latencyNanos);
+		}
+		this.errorRate = (1 - ALPHA) * this.errorRate;
+	}
+
+	synchronized void recordFailure(long nowMillis) {
+		this.errorRate = ALPHA + (1 - ALPHA) * this.errorRate;
+		this.lastFailureMillis = nowMillis;
+	}
+
+	/**
+	 * Return the average latency, or -1 before the first successful call.
+	 */
+	synchronized long getLatencyNanos() {
+		return this.latencyNanos;
+	}
+
+	synchronized double getErrorRate() {
+		return this.errorRate;
+	}
+
+	/**
+	 * Whether the route is failing: its error rate exceeds the threshold and it failed
+	 * within the cooldown. Past the cooldown the route is tried again.
+	 */
+	synchronized boolean isFailing(double errorRateThreshold, long cooldownMillis, long nowMillis) {
+		return this.errorRate > errorRateThreshold && nowMillis - this.lastFailureMillis < cooldownMillis;
+	}
+
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.routing;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springaicommunity.qianfan.token.QianFanTokenEstimator;
+import reactor.core.publisher.Flux;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ChatModel} routing every request to one of several models, so that cheap prompts
+ * are served by fast and cheap models and only the others escalate to larger ones. The
+ * candidate routes of a request are the routes whose context window fits the estimated
+ * prompt plus the expected completion. They are tried in order:
+ * <ol>
+ * <li>routes that are healthy and meet the latency SLO, cheapest first,</li>
+ * <li>then the failing or slow routes, cheapest first, as a last resort.</li>
+ * </ol>
+ * A route whose quota of the current minute is exhausted is skipped. When a route fails,
+ * the request falls back to the next candidate; a stream only falls back when it fails
+ * before emitting anything.
+ * <p>
+ * A prompt whose options select the model of a route is pinned to that route. Otherwise
+ * the model of the prompt options should be left unset, the chat model of each route
+ * selecting its model.
+ *
+ * @since 1.0
+ */
+public class RoutingChatModel implements ChatModel {
+
+	private static final Logger logger = LoggerFactory.getLogger(RoutingChatModel.class);
+
+	private final Map<String, ModelRoute> routes;
+
+	private final Map<String, RouteStats> stats = new LinkedHashMap<>();
+
+	private final Duration latencySlo;
+
+	private final double errorRateThreshold;
+
+	private final Duration failureCooldown;
+
+	private final int completionReserve;
+
+	private final QianFanTokenEstimator tokenEstimator;
+
+	private final Clock clock;
+
+	private RoutingChatModel(Builder builder) {
+		Assert.notEmpty(builder.routes, "routes must not be empty");
+		Assert.isTrue(builder.latencySlo == null || !builder.latencySlo.isNegative(),
+				"latencySlo must not be negative");
+		Assert.isTrue(builder.errorRateThreshold > 0 && builder.errorRateThreshold <= 1,
+				"errorRateThreshold must be in (0, 1]");
+		Assert.notNull(builder.failureCooldown, "failureCooldown must not be null");
+		Assert.isTrue(builder.completionReserve >= 0, "completionReserve must not be negative");
+		Assert.notNull(builder.tokenEstimator, "tokenEstimator must not be null");
+		Assert.notNull(builder.clock, "clock must not be null");
+		Map<String, ModelRoute> routes = new LinkedHashMap<>();
+		for (ModelRoute route : builder.routes) {
+			Assert.isTrue(routes.put(route.getModel(), route) == null,
+					() -> "Duplicate route for model " + route.getModel());
+			this.stats.put(route.getModel(), new RouteStats());
+		}
+		this.routes = routes;
+		this.latencySlo = builder.latencySlo;
+		this.errorRateThreshold = builder.errorRateThreshold;
+		this.failureCooldown = builder.failureCooldown;
+		this.completionReserve = builder.completionReserve;
+		this.tokenEstimator = builder.tokenEstimator;
+		this.clock = builder.clock;
+	}
+
+	@Override
+	public ChatResponse call(Prompt prompt) {
+		long tokens = estimateTokens(prompt);
+		RuntimeException failure = null;
+		for (ModelRoute route : select(prompt, tokens)) {
+			RouteStats routeStats = this.stats.get(route.getModel());
+			if (!routeStats.tryAcquire(route, tokens, this.clock.millis())) {
+				logger.debug("Quota of {} exhausted, skipping it", route.getModel());
+				continue;
+			}
+			long start = System.nanoTime();
+			try {
+				ChatResponse response = route.getChatModel().call(prompt);
+				routeStats.recordSuccess(System.nanoTime() - start);
+				routeStats.adjustTokens(usedTokens(response, tokens) - tokens);
+				return response;
+			}
+			catch (RuntimeException ex) {
+				routeStats.recordFailure(this.clock.millis());
+				logger.warn("Call to {} failed, falling back to the next route", route.getModel(), ex);
+				if (failure != null) {
+					ex.addSuppressed(failure);
+				}
+				failure = ex;
+			}
+		}
+		throw (failure != null) ? failure : quotaExhausted();
+	}
+
+	@Override
+	public Flux<ChatResponse> stream(Prompt prompt) {
+		return Flux.defer(() -> {
+			long tokens = estimateTokens(prompt);
+			return stream(prompt, tokens, select(prompt, tokens), 0, null);
+		});
+	}
+
+	private Flux<ChatResponse> stream(Prompt prompt, long tokens, List<ModelRoute> candidates, int index,
+			RuntimeException failure) {
+		for (int i = index; i < candidates.size(); i++) {
+			ModelRoute route = candidates.get(i);
+			RouteStats routeStats = this.stats.get(route.getModel());
+			if (!routeStats.tryAcquire(route, tokens, this.clock.millis())) {
+				logger.debug("Quota of {} exhausted, skipping it", route.getModel());
+				continue;
+			}
+			int next = i + 1;
+			AtomicBoolean emitted = new AtomicBoolean();
+			AtomicLong usedTokens = new AtomicLong(tokens);
+			// streams are not timed, their latency depends on the completion length
+			return Flux.defer(() -> route.getChatModel().stream(prompt)).doOnNext(response -> {
+				emitted.set(true);
+				// the usage is reported by the last chunks
+				usedTokens.set(usedTokens(response, usedTokens.get()));
+			}).doOnComplete(() -> {
+				routeStats.recordSuccess(-1);
+				routeStats.adjustTokens(usedTokens.get() - tokens);
+			}).onErrorResume(RuntimeException.class, ex -> {
+				routeStats.recordFailure(this.clock.millis());
+				if (emitted.get()) {
+					return Flux.error(ex);
+				}
+				logger.warn("Stream of {} failed, falling back to the next route", route.getModel(), ex);
+				if (failure != null) {
+					ex.addSuppressed(failure);
+				}
+				return stream(prompt, tokens, candidates, next, ex);
+			});
+		}
+		return Flux.error((failure != null) ? failure : quotaExhausted());
+	}
+
+	/**
+	 * Return the candidate routes of a prompt in the order they are tried. Accessible for
+	 * testing.
+	 * @param prompt the prompt.
+	 * @return the candidate routes.
+	 */
+	List<ModelRoute> select(Prompt prompt) {
+		return select(prompt, estimateTokens(prompt));
+	}
+
+	private List<ModelRoute> select(Prompt prompt, long tokens) {
+		String model = (prompt.getOptions() != null) ? prompt.getOptions().getModel() : null;
+		ModelRoute pinned = (model != null) ? this.routes.get(model) : null;
+		if (pinned != null) {
+			return List.of(pinned);
+		}
+		long nowMillis = this.clock.millis();
+		long promptTokens = tokens - completionTokens(prompt);
+		List<ModelRoute> preferred = new ArrayList<>();
+		List<ModelRoute> degraded = new ArrayList<>();
+		for (ModelRoute route : this.routes.values()) {
+			if (route.getContextWindow() < tokens) {
+				continue;
+			}
+			RouteStats routeStats = this.stats.get(route.getModel());
+			boolean failing = routeStats.isFailing(this.errorRateThreshold, this.failureCooldown.toMillis(), nowMillis);
+			boolean slow = this.latencySlo != null && routeStats.getLatencyNanos() > this.latencySlo.toNanos();
+			(failing || slow ? degraded : preferred).add(route);
+		}
+		if (preferred.isEmpty() && degraded.isEmpty()) {
+			throw new IllegalArgumentException(
+					"A prompt of about " + tokens + " tokens exceeds the context window of every route");
+		}
+		Comparator<ModelRoute> cheapest = Comparator
+			.comparingDouble(route -> route.estimateCost(promptTokens, completionTokens(prompt)));
+		Comparator<ModelRoute> order = cheapest
+			.thenComparingLong(route -> Math.max(0, this.stats.get(route.getModel()).getLatencyNanos()));
+		preferred.sort(order);
+		degraded.sort(order);
+		List<ModelRoute> candidates = new ArrayList<>(preferred);
+		candidates.addAll(degraded);
+		return candidates;
+	}
+
+	private long estimateTokens(Prompt prompt) {
+		List<String> contents = new ArrayList<>();
+		for (Message message : prompt.getInstructions()) {
+			contents.add((message.getText() != null) ? message.getText() : "");
+		}
+		return this.tokenEstimator.estimateMessages(contents) + completionTokens(prompt);
+	}
+
+	private int completionTokens(Prompt prompt) {
+		ChatOptions options = prompt.getOptions();
+		return (options != null && options.getMaxTokens() != null) ? options.getMaxTokens() : this.completionReserve;
+	}
+
+	private static long usedTokens(ChatResponse response, long estimatedTokens) {
+		Usage usage = (response != null) ? response.getMetadata().getUsage() : null;
+		return (usage != null && usage.getTotalTokens() != null && usage.getTotalTokens() > 0) ? usage.getTotalTokens()
+				: estimatedTokens;
+	}
+
+	private static IllegalStateException quotaExhausted() {
+		return new IllegalStateException("The quota of every candidate route is exhausted");
+	}
+
+	/**
+	 * Return the options shared by the routes, taken from the default options of the
+	 * first route without its model, so that prompts built from them, e.g. by a
+	 * {@code ChatClient}, are not pinned to the first route.
+	 * @return the default options.
+	 */
+	@Override
+	public ChatOptions getDefaultOptions() {
+		ChatOptions options = this.routes.values().iterator().next().getChatModel().getDefaultOptions();
+		if (options == null) {
+			return ChatOptions.builder().build();
+		}
+		return ChatOptions.builder()
+			.frequencyPenalty(options.getFrequencyPenalty())
+			.maxTokens(options.getMaxTokens())
+			.presencePenalty(options.getPresencePenalty())
+			.stopSequences(options.getStopSequences())
+			.temperature(options.getTemperature())
+			.topK(options.getTopK())
+			.topP(options.getTopP())
+			.build();
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static class Builder {
+
+		private final List<ModelRoute> routes = new ArrayList<>();
+
+		private Duration latencySlo;
+
+		private double errorRateThreshold = 0.5;
+
+		private Duration failureCooldown = Duration.ofSeconds(30);
+
+		private int completionReserve = 1024;
+
+		private QianFanTokenEstimator tokenEstimator = QianFanTokenEstimator.DEFAULT;
+
+		private Clock clock = Clock.systemUTC();
+
+		public Builder route(ModelRoute route) {
+			this.routes.add(route);
+			return this;
+		}
+
+		public Builder routes(List<ModelRoute> routes) {
+			this.routes.addAll(routes);
+			return this;
+		}
+
+		/**
+		 * Set the latency SLO of the calls. Routes whose average call latency exceeds it
+		 * are only tried after the others. Unset by default.
+		 */
+		public Builder latencySlo(Duration latencySlo) {
+			this.latencySlo = latencySlo;
+			return this;
+		}
+
+		/**
+		 * Set the average error rate above which a route is considered failing, 0.5 by
+		 * default.
+		 */
+		public Builder errorRateThreshold(double errorRateThreshold) {
+			this.errorRateThreshold = errorRateThreshold;
+			return this;
+		}
+
+		/**
+		 * Set how long a failing route is only tried as a last resort after its last
+		 * failure, 30 seconds by default.
+		 */
+		public Builder failureCooldown(Duration failureCooldown) {
+			this.failureCooldown = failureCooldown;
+			return this;
+		}
+
+		/**
+		 * Set the number of completion tokens expected when the prompt options do not set
+		 * the maximum tokens, 1024 by default.
+		 */
+		public Builder completionReserve(int completionReserve) {
+			this.completionReserve = completionReserve;
+			return this;
+		}
+
+		public Builder tokenEstimator(QianFanTokenEstimator tokenEstimator) {
+			this.tokenEstimator = tokenEstimator;
+			return this;
+		}
+
+		public Builder clock(Clock clock) {
+			this.clock = clock;
+			return this;
+		}
+
+		public RoutingChatModel build() {
+			return new RoutingChatModel(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.tool;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.execution.DefaultToolExecutionExceptionProcessor;
+import org.springframework.ai.tool.execution.ToolExecutionException;
+import org.springframework.ai.tool.execution.ToolExecutionExceptionProcessor;
+import org.springframework.ai.tool.resolution.DelegatingToolCallbackResolver;
+import org.springframework.ai.tool.resolution.ToolCallbackResolver;
+import org.springframework.util.Assert;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * {@link ToolCallingManager} running the tool calls of a response concurrently on an
+ * {@link Executor}, so that a turn requesting several I/O bound tools waits for the
+ * slowest tool rather than for their sum. Each tool call is bounded by the tool timeout;
+ * a call that times out is cancelled and answered with an error message the model can
+ * react to. The tool responses keep the order of the tool calls.
+ * <p>
+ * Tool definitions are resolved like the default Spring AI manager: from the tool
+ * callbacks of the options first, then by name with the {@link ToolCallbackResolver}.
+ *
+ * @since 1.0
+ */
+public class ParallelToolCallingManager implements ToolCallingManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(ParallelToolCallingManager.class);
+
+	private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new ToolThreadFactory());
+
+	private final ToolCallingManager definitionResolver;
+
+	private final ToolCallbackResolver toolCallbackResolver;
+
+	private final ToolExecutionExceptionProcessor exceptionProcessor;
+
+	private final Executor executor;
+
+	private final Duration toolTimeout;
+
+	private ParallelToolCallingManager(Builder builder) {
+		Assert.notNull(builder.toolCallbackResolver, "toolCallbackResolver must not be null");
+		Assert.notNull(builder.exceptionProcessor, "exceptionProcessor must not be null");
+		Assert.notNull(builder.executor, "executor must not be null");
+		Assert.isTrue(builder.toolTimeout != null && !builder.toolTimeout.isNegative() && !builder.toolTimeout.isZero(),
+				"toolTimeout must be positive");
+		this.toolCallbackResolver = builder.toolCallbackResolver;
+		this.exceptionProcessor = builder.exceptionProcessor;
+		this.executor = builder.executor;
+		this.toolTimeout = builder.toolTimeout;
+		this.definitionResolver = ToolCallingManager.builder()
+			.toolCallbackResolver(builder.toolCallbackResolver)
+			.toolExecutionExceptionProcessor(builder.exceptionProcessor)
+			.build();
+	}
+
+	@Override
+	public List<ToolDefinition> resolveToolDefinitions(ToolCallingChatOptions chatOptions) {
+		return this.definitionResolver.resolveToolDefinitions(chatOptions);
+	}
+
+	@Override
+	public ToolExecutionResult executeToolCalls(Prompt prompt, ChatResponse chatResponse) {
+		Assert.notNull(prompt, "prompt must not be null");
+		Assert.notNull(chatResponse, "chatResponse must not be null");
+		AssistantMessage assistantMessage = chatResponse.getResults()
+			.stream()
+			.map(Generation::getOutput)
+			.filter(AssistantMessage::hasToolCalls)
+			.findFirst()
+			.orElseThrow(() -> new IllegalStateException("No tool call requested by the chat model"));
+
+		List<ToolCallback> toolCallbacks = (prompt.getOptions() instanceof ToolCallingChatOptions options)
+				? options.getToolCallbacks() : List.of();
+		ToolContext toolContext = buildToolContext(prompt, assistantMessage);
+
+		List<AssistantMessage.ToolCall> toolCalls = assistantMessage.getToolCalls();
+		List<ToolCallback> callbacks = new ArrayList<>(toolCalls.size());
+		boolean returnDirect = true;
+		for (AssistantMessage.ToolCall toolCall : toolCalls) {
+			ToolCallback callback = resolve(toolCall.name(), toolCallbacks);
+			callbacks.add(callback);
+			returnDirect = returnDirect && callback.getToolMetadata().returnDirect();
+		}
+
+		List<FutureTask<String>> tasks = new ArrayList<>(toolCalls.size());
+		for (int i = 0; i < toolCalls.size(); i++) {
+			ToolCallback callback = callbacks.get(i);
+			AssistantMessage.ToolCall toolCall = toolCalls.get(i);
+			FutureTask<String> task = new FutureTask<>(() -> call(callback, toolCall, toolContext));
+			this.executor.execute(task);
+			tasks.add(task);
+		}
+		// all the calls started together, so they share the deadline
+		long deadline = System.nanoTime() + this.toolTimeout.toNanos();
+		List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(toolCalls.size());
+		try {
+			for (int i = 0; i < toolCalls.size(); i++) {
+				responses.add(response(toolCalls.get(i), await(tasks.get(i), toolCalls.get(i), deadline)));
+			}
+		}
+		catch (RuntimeException ex) {
+			// a failed or interrupted turn must not leave the sibling tools running
+			tasks.forEach((task) -> task.cancel(true));
+			throw ex;
+		}
+
+		List<Message> conversationHistory = new ArrayList<>(prompt.copy().getInstructions());
+		conversationHistory.add(assistantMessage);
+		conversationHistory.add(new ToolResponseMessage(responses, Map.of()));
+		return ToolExecutionResult.builder()
+			.conversationHistory(conversationHistory)
+			.returnDirect(returnDirect)
+			.build();
+	}
+
+	private ToolCallback resolve(String toolName, List<ToolCallback> toolCallbacks) {
+		if (toolCallbacks != null) {
+			for (ToolCallback toolCallback : toolCallbacks) {
+				if (toolName.equals(toolCallback.getToolDefinition().name())) {
+					return toolCallback;
+				}
+			}
+		}
+		ToolCallback toolCallback = this.toolCallbackResolver.resolve(toolName);
+		if (toolCallback == null) {
+			throw new IllegalStateException("No ToolCallback found for tool name: " + toolName);
+		}
+		return toolCallback;
+	}
+
+	private String call(ToolCallback callback, AssistantMessage.ToolCall toolCall, ToolContext toolContext) {
+		String arguments = StringUtils.hasText(toolCall.arguments()) ? toolCall.arguments() : "{}";
+		try {
+			return callback.call(arguments, toolContext);
+		}
+		catch (ToolExecutionException ex) {
+			return this.exceptionProcessor.process(ex);
+		}
+	}
+
+	private String await(FutureTask<String> future, AssistantMessage.ToolCall toolCall, long deadline) {
+		try {
+			return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+		catch (TimeoutException ex) {
+			future.cancel(true);
+			logger.warn("Tool {} timed out after {}", toolCall.name(), this.toolTimeout);
+			return "Tool " + toolCall.name() + " timed out after " + this.toolTimeout.toMillis() + " ms";
+		}
+		catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new IllegalStateException("Tool " + toolCall.name() + " failed", ex.getCause());
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for tool " + toolCall.name(), ex);
+		}
+	}
+
+	private static ToolResponseMessage.ToolResponse response(AssistantMessage.ToolCall toolCall, String result) {
+		return new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(), (result != null) ? result : "");
+	}
+
+	private static ToolContext buildToolContext(Prompt prompt, AssistantMessage assistantMessage) {
+		Map<String, Object> toolContext = Map.of();
+		if (prompt.getOptions() instanceof ToolCallingChatOptions options
+				&& !CollectionUtils.isEmpty(options.getToolContext())) {
+			List<Message> history = new ArrayList<>(prompt.copy().getInstructions());
+			history.add(assistantMessage);
+			toolContext = new HashMap<>(options.getToolContext());
+			toolContext.put(ToolContext.TOOL_CALL_HISTORY, history);
+		}
+		return new ToolContext(toolContext);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	private static final class ToolThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "qianfan-tool-" + this.count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+	public static class Builder {
+
+		private ToolCallbackResolver toolCallbackResolver = new DelegatingToolCallbackResolver(List.of());
+
+		private ToolExecutionExceptionProcessor exceptionProcessor = DefaultToolExecutionExceptionProcessor.builder()
+			.build();
+
+		private Executor executor = DEFAULT_EXECUTOR;
+
+		private Duration toolTimeout = Duration.ofSeconds(60);
+
+		public Builder toolCallbackResolver(ToolCallbackResolver toolCallbackResolver) {
+			this.toolCallbackResolver = toolCallbackResolver;
+			return this;
+		}
+
+		public Builder exceptionProcessor(ToolExecutionExceptionProcessor exceptionProcessor) {
+			this.exceptionProcessor = exceptionProcessor;
+			return this;
+		}
+
+		/**
+		 * Set the executor running the tool calls. Defaults to a shared cached pool of
+		 * daemon threads, since tools are typically I/O bound.
+		 */
+		public Builder executor(Executor executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		/**
+		 * Set the maximum duration of a tool call, 60 seconds by default.
+		 */
+		public Builder toolTimeout(Duration toolTimeout) {
+			this.toolTimeout = toolTimeout;
+			return this;
+		}
+
+		public ParallelToolCallingManager build() {
+			return new ParallelToolCallingManager(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToIntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springaicommunity.qianfan.token.QianFanTokenEstimator;
+import org.springaicommunity.qianfanv2.api.QianFanApi;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionMessage;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionMessage.Role;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionRequest;
+import org.springframework.util.Assert;
+
+/**
+ * Trims the oldest turns of a conversation so that the request fits the context window of
+ * its model. The system message and the latest turn are always kept, and an assistant
+ * message requesting tool calls is dropped together with the tool messages answering it,
+ * so the trimmed conversation stays a valid role sequence. The prompt size is estimated
+ * locally; the completion budget is the {@code maxTokens} of the request or, when unset,
+ * the configured reserve. Sizes are estimated with the {@link QianFanTokenEstimator} by
+ * default.
+ * <p>
+ * The context window of a model comes from {@link QianFanApi.ChatModel}, or from the
+ * {@code -8k}/{@code -128k} suffix of unknown model IDs. Requests for models whose
+ * context window is unknown are left unchanged.
+ *
+ * @since 1.0
+ */
+public class ContextWindowBudgeter {
+
+	private static final Logger logger = LoggerFactory.getLogger(ContextWindowBudgeter.class);
+
+	private static final int DEFAULT_COMPLETION_RESERVE = 2048;
+
+	private static final Pattern CONTEXT_WINDOW_SUFFIX = Pattern.compile("-(\\d+)k(?:-|$)");
+
+	private final ToIntFunction<String> tokenEstimator;
+
+	private final int completionReserve;
+
+	public ContextWindowBudgeter() {
+		this(QianFanTokenEstimator.DEFAULT::estimate, DEFAULT_COMPLETION_RESERVE);
+	}
+
+	/**
+	 * Create a new budgeter.
+	 * @param tokenEstimator estimates the number of tokens of a text.
+	 * @param completionReserve tokens kept free for the completion when the request does
+	 * not set {@code maxTokens}.
+	 */
+	public ContextWindowBudgeter(ToIntFunction<String> tokenEstimator, int completionReserve) {
+		Assert.notNull(tokenEstimator, "tokenEstimator must not be null");
+		Assert.isTrue(completionReserve >= 0, "completionReserve must not be negative");
+		this.tokenEstimator = tokenEstimator;
+		this.completionReserve = completionReserve;
+	}
+
+	/**
+	 * Return the request with the oldest turns removed until it fits the context window
+	 * of its model, or the request itself when it already fits.
+	 * @param request the chat completion request.
+	 * @return the request fitting the context window.
+	 */
+	public ChatCompletionRequest fit(ChatCompletionRequest request) {
+		Integer contextWindow = contextWindow(request.model());
+		if (contextWindow == null) {
+			return request;
+		}
+		int completionTokens = (request.maxTokens() != null) ? request.maxTokens() : this.completionReserve;
+		List<ChatCompletionMessage> messages = fit(request.messages(), contextWindow - completionTokens);
+		if (messages.size() == request.messages().size()) {
+			return request;
+		}
+		logger.debug("Dropped {} messages to fit the {} tokens context window of {}",
+				request.messages().size() - messages.size(), contextWindow, request.model());
+		return new ChatCompletionRequest(messages, request.model(), request.frequencyPenalty(), request.maxTokens(),
+				request.presencePenalty(), request.responseFormat(), request.stop(), request.stream(),
+				request.temperature(), request.topP(), request.tools(), request.toolChoice(), request.streamOptions());
+	}
+
+	/**
+	 * Remove the oldest turns of the messages until their estimated size is within the
+	 * budget.
+	 * @param messages the conversation, optionally starting with a system message.
+	 * @param promptBudget the maximum number of prompt tokens.
+	 * @return the remaining messages.
+	 */
+	public List<ChatCompletionMessage> fit(List<ChatCompletionMessage> messages, int promptBudget) {
+		int total = estimate(messages);
+		if (total <= promptBudget) {
+			return messages;
+		}
+		int start = (!messages.isEmpty() && messages.get(0).role() == Role.system) ? 1 : 0;
+		int lastTurn = lastUserMessage(messages, start);
+		int cut = start;
+		while (total > promptBudget && cut < lastTurn) {
+			int next = nextTurn(messages, cut, lastTurn);
+			for (int i = cut; i < next; i++) {
+				total -= estimate(messages.get(i));
+			}
+			cut = next;
+		}
+		if (total > promptBudget) {
+			logger.warn("The latest turn alone exceeds the prompt budget of {} tokens", promptBudget);
+		}
+		List<ChatCompletionMessage> fitted = new ArrayList<>(messages.size() - cut + start);
+		fitted.addAll(messages.subList(0, start));
+		fitted.addAll(messages.subList(cut, messages.size()));
+		return fitted;
+	}
+
+	/**
+	 * Return the context window of the model.
+	 * @param model ID of the model.
+	 * @return the context window in tokens, or {@code null} when unknown.
+	 */
+	public static Integer contextWindow(String model) {
+		if (model == null) {
+			return null;
+		}
+		QianFanApi.ChatModel chatModel = QianFanApi.ChatModel.fromValue(model);
+		if (chatModel != null) {
+			return chatModel.getContextWindow();
+		}
+		Matcher matcher = CONTEXT_WINDOW_SUFFIX.matcher(model.toLowerCase(Locale.ROOT));
+		return matcher.find() ? Integer.parseInt(matcher.group(1)) * 1024 : null;
+	}
+
+	/**
+	 * Estimate the number of prompt tokens of the messages.
+	 * @param messages the conversation.
+	 * @return the estimated number of tokens, including the per message overhead.
+	 */
+	public int estimate(List<ChatCompletionMessage> messages) {
+		int total = 0;
+		for (ChatCompletionMessage message : messages) {
+			total += estimate(message);
+		}
+		return total;
+	}
+
+	private int estimate(ChatCompletionMessage message) {
+		int tokens = QianFanTokenEstimator.MESSAGE_OVERHEAD_TOKENS;
+		if (message.rawContent() instanceof String content) {
+			tokens += this.tokenEstimator.applyAsInt(content);
+		}
+		if (message.toolCalls() != null) {
+			for (QianFanApi.ToolCalls toolCall : message.toolCalls()) {
+				if (toolCall.function() != null) {
+					tokens += QianFanTokenEstimator.MESSAGE_OVERHEAD_TOKENS;
+					for (String value : toolCall.function().values()) {
+						tokens += (value != null) ? this.tokenEstimator.applyAsInt(value) : 0;
+					}
+				}
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Index of the message starting the turn after the one starting at {@code from}: the
+	 * next user message, so that assistant tool calls and their tool responses leave
+	 * together.
+	 */
+	private static int nextTurn(List<ChatCompletionMessage> messages, int from, int limit) {
+		int next = from + 1;
+		while (next < limit && messages.get(next).role() != Role.user) {
+			next++;
+		}
+		return next;
+	}
+
+	private static int lastUserMessage(List<ChatCompletionMessage> messages, int start) {
+		for (int i = messages.size() - 1; i > start; i--) {
+			if (messages.get(i).role() == Role.user) {
+				return i;
+			}
+		}
+		return start;
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.springaicommunity.qianfanv2.api.QianFanApi;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.util.Assert;
+
+/**
+ * Caches the {@link QianFanApi.FunctionTool} list built for a tool set, so that repeated
+ * requests with the same tools neither resolve the tool definitions nor parse their JSON
+ * schemas again. A tool set is identified by its tool callbacks, compared by identity,
+ * their input schemas and the requested tool names. At most {@code maximumSize} tool sets
+ * are cached, the least recently used one being evicted when full.
+ *
+ * @since 1.0
+ */
+final class FunctionToolCache {
+
+	private static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+	private final int maximumSize;
+
+	private final LinkedHashMap<Key, List<QianFanApi.FunctionTool>> cache;
+
+	FunctionToolCache() {
+		this(DEFAULT_MAXIMUM_SIZE);
+	}
+
+	FunctionToolCache(int maximumSize) {
+		Assert.isTrue(maximumSize > 0, "maximumSize must be positive");
+		this.maximumSize = maximumSize;
+		this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, List<QianFanApi.FunctionTool>> eldest) {
+				return size() > FunctionToolCache.this.maximumSize;
+			}
+
+		};
+	}
+
+	/**
+	 * Return the function tools of the options, building them on the first use of the
+	 * tool set.
+	 * @param options the request options holding the tool callbacks and names.
+	 * @param builder builds the function tools of a tool set that is not cached.
+	 * @return the unmodifiable function tools.
+	 */
+	List<QianFanApi.FunctionTool> getFunctionTools(ToolCallingChatOptions options,
+			Function<ToolCallingChatOptions, List<QianFanApi.FunctionTool>> builder) {
+		Key key = Key.of(options);
+		List<QianFanApi.FunctionTool> functionTools = get(key);
+		if (functionTools != null) {
+			return functionTools;
+		}
+		// built outside the lock, concurrent misses of a tool set build it twice
+		functionTools = List.copyOf(builder.apply(options));
+		synchronized (this.cache) {
+			this.cache.put(key, functionTools);
+		}
+		return functionTools;
+	}
+
+	private List<QianFanApi.FunctionTool> get(Key key) {
+		synchronized (this.cache) {
+			return this.cache.get(key);
+		}
+	}
+
+	int size() {
+		synchronized (this.cache) {
+			return this.cache.size();
+		}
+	}
+
+	private record Key(List<IdentityKey> toolCallbacks, List<String> inputSchemas, Set<String> toolNames) {
+
+		static Key of(ToolCallingChatOptions options) {
+			List<ToolCallback> callbacks = (options.getToolCallbacks() != null) ? options.getToolCallbacks()
+					: Collections.emptyList();
+			List<IdentityKey> identities = new ArrayList<>(callbacks.size());
+			List<String> inputSchemas = new ArrayList<>(callbacks.size());
+			for (ToolCallback callback : callbacks) {
+				identities.add(new IdentityKey(callback));
+				inputSchemas.add(callback.getToolDefinition().inputSchema());
+			}
+			Set<String> toolNames = (options.getToolNames() != null) ? Set.copyOf(options.getToolNames())
+					: Collections.emptySet();
+			return new Key(identities, inputSchemas, toolNames);
+		}
+
+	}
+
+	private record IdentityKey(Object target) {
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof IdentityKey identityKey && identityKey.target == this.target;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this.target);
+		}
+
+	}
+
+}
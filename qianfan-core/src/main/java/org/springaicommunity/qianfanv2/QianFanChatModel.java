@@ -16,7 +16,6 @@
 
 package org.springaicommunity.qianfanv2;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.micrometer.observation.Observation;
@@ -31,8 +30,15 @@ import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionMessage;
 import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionMessage.Role;
 import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionRequest;
 import org.springaicommunity.qianfanv2.api.QianFanConstants;
+import org.springaicommunity.qianfan.cache.ChatResponseCacheTemplate;
+import org.springaicommunity.qianfan.cache.RequestCoalescer;
+import org.springaicommunity.qianfan.resilience.HedgedRequestExecutor;
+import org.springaicommunity.qianfan.metering.UsageMeter;
+import org.springaicommunity.qianfan.token.QianFanTokenEstimator;
+import org.springaicommunity.qianfan.tool.ParallelToolCallingManager;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
 import org.springframework.ai.chat.metadata.ChatResponseMetadata;
 import org.springframework.ai.chat.metadata.DefaultUsage;
 import org.springframework.ai.chat.metadata.EmptyUsage;
@@ -53,6 +59,7 @@ import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.*;
 
@@ -73,7 +80,7 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 
 	private static final ChatModelObservationConvention DEFAULT_OBSERVATION_CONVENTION = new DefaultChatModelObservationConvention();
 
-	private static final ToolCallingManager DEFAULT_TOOL_CALLING_MANAGER = ToolCallingManager.builder().build();
+	private static final int DEFAULT_MAX_TOOL_ITERATIONS = 10;
 
 	/**
 	 * The retry template used to retry the QianFan API calls.
@@ -100,6 +107,52 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 	 */
 	private ChatModelObservationConvention observationConvention = DEFAULT_OBSERVATION_CONVENTION;
 
+	/**
+	 * Optional executor used to hedge slow non-streaming calls.
+	 */
+	private HedgedRequestExecutor hedgedRequestExecutor;
+
+	/**
+	 * Optional coalescer sharing a single upstream call between concurrent identical
+	 * deterministic requests.
+	 */
+	private RequestCoalescer requestCoalescer;
+
+	/**
+	 * Optional template serving repeated requests from a response cache.
+	 */
+	private ChatResponseCacheTemplate responseCacheTemplate;
+
+	/**
+	 * Function tools already built for the tool sets seen so far.
+	 */
+	private final FunctionToolCache functionToolCache = new FunctionToolCache();
+
+	/**
+	 * Optional budgeter trimming the oldest turns to fit the model context window.
+	 */
+	private ContextWindowBudgeter contextWindowBudgeter;
+
+	/**
+	 * Estimates the size of the requests before they are sent.
+	 */
+	private QianFanTokenEstimator tokenEstimator = QianFanTokenEstimator.DEFAULT;
+
+	/**
+	 * Optional meter recording the token usage and cost of the requests.
+	 */
+	private UsageMeter usageMeter;
+
+	/**
+	 * Manager resolving and executing the tools requested by the model.
+	 */
+	private ToolCallingManager toolCallingManager = ParallelToolCallingManager.builder().build();
+
+	/**
+	 * Maximum number of tool rounds of a single {@link #call(Prompt)}.
+	 */
+	private int maxToolIterations = DEFAULT_MAX_TOOL_ITERATIONS;
+
 	private final ToolExecutionEligibilityPredicate toolExecutionEligibilityPredicate = new DefaultToolExecutionEligibilityPredicate();
 
 	/**
@@ -155,17 +208,22 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 
 	@Override
 	public ChatResponse call(Prompt prompt) {
+		return this.call(prompt, 1);
+	}
+
+	private ChatResponse call(Prompt prompt, int iteration) {
 		Prompt requestPrompt = this.buildRequestPrompt(prompt);
 		ChatCompletionRequest request = createRequest(requestPrompt, false);
-		ObjectMapper objectMapper = new ObjectMapper();
-		try {
-			// 对象转JSON字符串
-			String json = objectMapper.writeValueAsString(request);
-			logger.info("request:{}", json);
-		}
-		catch (JsonProcessingException e) {
-			e.printStackTrace();
+		if (this.responseCacheTemplate != null && isResponseCacheEnabled(requestPrompt)
+				&& CollectionUtils.isEmpty(request.tools())) {
+			return this.responseCacheTemplate.execute(request,
+					() -> this.internalCall(prompt, requestPrompt, request, iteration));
 		}
+		return this.internalCall(prompt, requestPrompt, request, iteration);
+	}
+
+	private ChatResponse internalCall(Prompt prompt, Prompt requestPrompt, ChatCompletionRequest request,
+			int iteration) {
 		ChatModelObservationContext observationContext = ChatModelObservationContext.builder()
 			.prompt(prompt)
 			.provider(QianFanConstants.PROVIDER_NAME)
@@ -175,8 +233,8 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 			.observation(this.observationConvention, DEFAULT_OBSERVATION_CONVENTION, () -> observationContext,
 					this.observationRegistry)
 			.observe(() -> {
-				ResponseEntity<ChatCompletion> completionEntity = this.retryTemplate
-					.execute(ctx -> this.qianFanApi.chatCompletionEntity(request));
+				ResponseEntity<ChatCompletion> completionEntity = this.executeChatCompletion(request,
+						isDeterministic(requestPrompt, request));
 
 				var chatCompletion = completionEntity.getBody();
 				if (chatCompletion == null) {
@@ -189,14 +247,6 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 						"id", chatCompletion.id(),
 						"role", Role.assistant
 					);
-
-				try {
-					// 对象转JSON字符串
-					String json = objectMapper.writeValueAsString(chatCompletion);
-					logger.info("response:{}", json);
-				} catch (JsonProcessingException e) {
-					e.printStackTrace();
-				}
 					// @formatter:on
 				String content = chatCompletion.choices().get(0).message().content();
 				List<QianFanApi.ToolCalls> toolCallsParam = chatCompletion.choices().get(0).message().toolCalls();
@@ -206,7 +256,8 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 						Map<String, String> function = ele.function();
 						String name = function.get("name");
 						String arguments = function.get("arguments");
-						AssistantMessage.ToolCall toolCall = new AssistantMessage.ToolCall(name, ele.type(), name,
+						String id = (ele.id() != null) ? ele.id() : name;
+						AssistantMessage.ToolCall toolCall = new AssistantMessage.ToolCall(id, ele.type(), name,
 								arguments);
 						toolCalls.add(toolCall);
 					}
@@ -227,21 +278,9 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 				ChatResponse chatResponse = new ChatResponse(generations, from(chatCompletion, request.model()));
 				observationContext.setResponse(chatResponse);
 
-				if (this.toolExecutionEligibilityPredicate.isToolExecutionRequired(prompt.getOptions(), chatResponse)) {
-					logger.info("执行tools");
-					ToolExecutionResult toolExecutionResult = this.DEFAULT_TOOL_CALLING_MANAGER.executeToolCalls(prompt,
-							chatResponse);
-					return ChatResponse.builder()
-						.from(chatResponse)
-						.generations(ToolExecutionResult.buildGenerations(toolExecutionResult))
-						.build();
-					// return toolExecutionResult.returnDirect()
-					// ? ChatResponse.builder()
-					// .from(chatResponse)
-					// .generations(ToolExecutionResult.buildGenerations(toolExecutionResult))
-					// .build()
-					// : this.call(new Prompt(toolExecutionResult.conversationHistory(),
-					// prompt.getOptions()));
+				if (this.toolExecutionEligibilityPredicate.isToolExecutionRequired(requestPrompt.getOptions(),
+						chatResponse)) {
+					return this.handleToolCalls(requestPrompt, chatResponse, iteration);
 				}
 				else {
 					return chatResponse;
@@ -250,11 +289,42 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 			});
 	}
 
+	private ChatResponse handleToolCalls(Prompt requestPrompt, ChatResponse chatResponse, int iteration) {
+		if (logger.isDebugEnabled()) {
+			List<String> toolNames = chatResponse.getResults()
+				.stream()
+				.flatMap(generation -> generation.getOutput().getToolCalls().stream())
+				.map(AssistantMessage.ToolCall::name)
+				.toList();
+			logger.debug("Executing tools {} in tool iteration {}", toolNames, iteration);
+		}
+		ToolExecutionResult toolExecutionResult = this.toolCallingManager.executeToolCalls(requestPrompt, chatResponse);
+		if (toolExecutionResult.returnDirect()) {
+			return ChatResponse.builder()
+				.from(chatResponse)
+				.generations(ToolExecutionResult.buildGenerations(toolExecutionResult))
+				.build();
+		}
+		if (iteration >= this.maxToolIterations) {
+			throw new IllegalStateException(
+					"The model still requests tools after " + this.maxToolIterations + " tool iterations");
+		}
+		// send the tool results back until the model stops requesting tools
+		return this.call(new Prompt(toolExecutionResult.conversationHistory(), requestPrompt.getOptions()),
+				iteration + 1);
+	}
+
 	@Override
 	public Flux<ChatResponse> stream(Prompt prompt) {
+		return this.stream(prompt, 1);
+	}
+
+	private Flux<ChatResponse> stream(Prompt prompt, int iteration) {
 
 		return Flux.deferContextual(contextView -> {
-			ChatCompletionRequest request = createRequest(prompt, true);
+			Prompt requestPrompt = this.buildRequestPrompt(prompt);
+			ChatCompletionRequest request = createRequest(requestPrompt, true);
+			String tenant = (this.usageMeter != null) ? this.usageMeter.currentTenant() : null;
 
 			var completionChunks = this.qianFanApi.chatCompletionStream(request);
 
@@ -269,28 +339,148 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 
 			observation.parentObservation(contextView.getOrDefault(ObservationThreadLocalAccessor.KEY, null)).start();
 
+			// tool calls are streamed as deltas, each one is emitted once complete
+			StreamingToolCallAssembler toolCallAssembler = new StreamingToolCallAssembler();
+			StringBuilder streamedContent = new StringBuilder();
+			List<AssistantMessage.ToolCall> streamedToolCalls = new ArrayList<>();
+
 			Flux<ChatResponse> chatResponse = completionChunks.map(this::toChatCompletion)
-				.switchMap(chatCompletion -> Mono.just(chatCompletion).map(chatCompletion2 -> {
-				// @formatter:off
-						Map<String, Object> metadata = Map.of(
-								"id", chatCompletion.id(),
-								"role", Role.assistant
-						);
-						// @formatter:on
-
-					String content = chatCompletion.choices().get(0).message().content();
-					var assistantMessage = new AssistantMessage(content, metadata);
-					List<Generation> generations = Collections.singletonList(new Generation(assistantMessage));
-					return new ChatResponse(generations, from(chatCompletion, request.model()));
+				.map(chatCompletion -> this.toStreamedResponse(chatCompletion, request.model(), toolCallAssembler))
+				.concatWith(Flux.defer(() -> {
+					List<AssistantMessage.ToolCall> toolCalls = toolCallAssembler.complete();
+					return toolCalls.isEmpty() ? Flux.empty() : Flux
+						.just(new ChatResponse(List.of(new Generation(new AssistantMessage("", Map.of(), toolCalls)))));
 				}))
+				.doOnNext(response -> {
+					AssistantMessage output = response.getResult().getOutput();
+					if (output.getText() != null) {
+						streamedContent.append(output.getText());
+					}
+					streamedToolCalls.addAll(output.getToolCalls());
+				})
 				.doOnError(observation::error)
 				.doFinally(s -> observation.stop())
 				.contextWrite(ctx -> ctx.put(ObservationThreadLocalAccessor.KEY, observation));
-			return new MessageAggregator().aggregate(chatResponse, observationContext::setResponse);
+			Flux<ChatResponse> aggregatedResponse = new MessageAggregator().aggregate(chatResponse, aggregated -> {
+				observationContext.setResponse(aggregated);
+				if (this.usageMeter != null) {
+					this.usageMeter.record(tenant, UsageMeter.Operation.STREAM, request.model(),
+							aggregated.getMetadata().getUsage());
+				}
+			});
+
+			return aggregatedResponse.concatWith(Flux.defer(() -> {
+				if (streamedToolCalls.isEmpty()) {
+					return Flux.empty();
+				}
+				ChatResponse toolCallResponse = new ChatResponse(List.of(new Generation(
+						new AssistantMessage(streamedContent.toString(), Map.of(), List.copyOf(streamedToolCalls)))));
+				if (!this.toolExecutionEligibilityPredicate.isToolExecutionRequired(requestPrompt.getOptions(),
+						toolCallResponse)) {
+					return Flux.empty();
+				}
+				return this.handleStreamedToolCalls(requestPrompt, toolCallResponse, iteration);
+			}));
 
 		});
 	}
 
+	private ChatResponse toStreamedResponse(ChatCompletion chatCompletion, String model,
+			StreamingToolCallAssembler toolCallAssembler) {
+		// @formatter:off
+		Map<String, Object> metadata = Map.of(
+				"id", (chatCompletion.id() != null) ? chatCompletion.id() : "",
+				"role", Role.assistant
+		);
+		// @formatter:on
+
+		// the chunk carrying the usage has no choices
+		String content = chatCompletion.choices().isEmpty() ? "" : chatCompletion.choices().get(0).message().content();
+		List<AssistantMessage.ToolCall> toolCalls = new ArrayList<>();
+		for (QianFanApi.Choices choice : chatCompletion.choices()) {
+			toolCalls.addAll(toolCallAssembler.accept(choice));
+		}
+		var assistantMessage = new AssistantMessage(content, metadata, toolCalls);
+		List<Generation> generations = Collections.singletonList(new Generation(assistantMessage));
+		return new ChatResponse(generations, from(chatCompletion, model));
+	}
+
+	private Flux<ChatResponse> handleStreamedToolCalls(Prompt requestPrompt, ChatResponse toolCallResponse,
+			int iteration) {
+		// tools may block, keep them off the event loop
+		return Mono.fromCallable(() -> this.toolCallingManager.executeToolCalls(requestPrompt, toolCallResponse))
+			.subscribeOn(Schedulers.boundedElastic())
+			.flatMapMany(toolExecutionResult -> {
+				if (toolExecutionResult.returnDirect()) {
+					return Flux.just(ChatResponse.builder()
+						.from(toolCallResponse)
+						.generations(ToolExecutionResult.buildGenerations(toolExecutionResult))
+						.build());
+				}
+				if (iteration >= this.maxToolIterations) {
+					return Flux.error(new IllegalStateException(
+							"The model still requests tools after " + this.maxToolIterations + " tool iterations"));
+				}
+				return this.stream(new Prompt(toolExecutionResult.conversationHistory(), requestPrompt.getOptions()),
+						iteration + 1);
+			});
+	}
+
+	private ResponseEntity<ChatCompletion> executeChatCompletion(ChatCompletionRequest request, boolean deterministic) {
+		if (this.requestCoalescer == null || !deterministic) {
+			return this.meteredChatCompletion(request);
+		}
+		// only the caller sending the request upstream meters it, the callers joining
+		// it share the same tokens
+		return this.requestCoalescer.execute("chat", request, () -> this.meteredChatCompletion(request));
+	}
+
+	private ResponseEntity<ChatCompletion> meteredChatCompletion(ChatCompletionRequest request) {
+		ResponseEntity<ChatCompletion> completionEntity = this.retryTemplate
+			.execute(ctx -> this.doChatCompletion(request));
+		ChatCompletion chatCompletion = completionEntity.getBody();
+		if (this.usageMeter != null && chatCompletion != null && chatCompletion.usage() != null) {
+			this.usageMeter.record(UsageMeter.Operation.CHAT, request.model(), getDefaultUsage(chatCompletion.usage()));
+		}
+		return completionEntity;
+	}
+
+	private boolean isDeterministic(Prompt prompt, ChatCompletionRequest request) {
+		Boolean deterministic = (prompt.getOptions() instanceof QianFanChatOptions options) ? options.getDeterministic()
+				: null;
+		if (deterministic == null) {
+			deterministic = this.defaultOptions.getDeterministic();
+		}
+		if (deterministic != null) {
+			return deterministic;
+		}
+		return request.temperature() != null && request.temperature() == 0;
+	}
+
+	private boolean isResponseCacheEnabled(Prompt prompt) {
+		Boolean enabled = (prompt.getOptions() instanceof QianFanChatOptions options)
+				? options.getResponseCacheEnabled() : null;
+		if (enabled == null) {
+			enabled = this.defaultOptions.getResponseCacheEnabled();
+		}
+		return enabled == null || enabled;
+	}
+
+	private boolean isStreamUsageEnabled(Prompt prompt) {
+		Boolean enabled = (prompt.getOptions() instanceof QianFanChatOptions options) ? options.getStreamUsage() : null;
+		if (enabled == null) {
+			enabled = this.defaultOptions.getStreamUsage();
+		}
+		return enabled == null || enabled;
+	}
+
+	private ResponseEntity<ChatCompletion> doChatCompletion(ChatCompletionRequest request) {
+		if (this.hedgedRequestExecutor == null) {
+			return this.qianFanApi.chatCompletionEntity(request);
+		}
+		return this.hedgedRequestExecutor.execute("chat", () -> this.qianFanApi.chatCompletionEntity(request));
+	}
+
 	/**
 	 * Convert the ChatCompletionChunk into a ChatCompletion.
 	 * @param chunk the ChatCompletionChunk to convert
@@ -301,52 +491,83 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 		List<QianFanApi.Choices> choices = new ArrayList<>();
 		if (!CollectionUtils.isEmpty(choicesChunk)) {
 			for (QianFanApi.ChoicesChunk ele : choicesChunk) {
-				QianFanApi.Choices choice = new QianFanApi.Choices(ele.index(), null, ele.message(), ele.flag());
+				QianFanApi.Choices choice = new QianFanApi.Choices(ele.index(), ele.finishReason(), ele.message(),
+						ele.flag());
 				choices.add(choice);
 			}
 		}
-		return new ChatCompletion(chunk.id(), chunk.object(), chunk.created(), chunk.result(), null, choices, null);
+		return new ChatCompletion(chunk.id(), chunk.object(), chunk.created(), chunk.result(), null, choices,
+				chunk.usage());
 	}
 
 	/**
 	 * Accessible for testing.
 	 */
 	public ChatCompletionRequest createRequest(Prompt prompt, boolean stream) {
-		var chatCompletionMessages = prompt.getInstructions()
-			.stream()
-			.map(m -> new ChatCompletionMessage(m.getText(), Role.valueOf(m.getMessageType().getValue())))
-			.toList();
-		var systemMessageList = chatCompletionMessages.stream().filter(msg -> msg.role() == Role.system).toList();
-		var userMessageList = chatCompletionMessages.stream().filter(msg -> msg.role() == Role.user).toList();
-
-		if (systemMessageList.size() > 1) {
-			throw new IllegalArgumentException("Only one system message is allowed in the prompt");
+		ChatCompletionRequest request = createUntrimmedRequest(prompt, stream);
+		if (this.contextWindowBudgeter != null) {
+			request = this.contextWindowBudgeter.fit(request);
 		}
+		return request;
+	}
+
+	private ChatCompletionRequest createUntrimmedRequest(Prompt prompt, boolean stream) {
 		List<ChatCompletionMessage> messages = new ArrayList<>();
-		messages.addAll(systemMessageList);
-		messages.addAll(userMessageList);
-		// var systemMessage = systemMessageList.isEmpty() ? null :
-		// systemMessageList.get(0).content();
+		ChatCompletionMessage systemMessage = null;
+		for (Message message : prompt.getInstructions()) {
+			switch (message.getMessageType()) {
+				case SYSTEM -> {
+					if (systemMessage != null) {
+						throw new IllegalArgumentException("Only one system message is allowed in the prompt");
+					}
+					systemMessage = new ChatCompletionMessage(message.getText(), Role.system);
+				}
+				case USER -> messages.add(new ChatCompletionMessage(message.getText(), Role.user));
+				case ASSISTANT -> messages.add(toChatCompletionMessage((AssistantMessage) message));
+				case TOOL -> {
+					for (ToolResponseMessage.ToolResponse response : ((ToolResponseMessage) message).getResponses()) {
+						messages.add(new ChatCompletionMessage(response.responseData(), Role.tool, response.name(),
+								response.id(), null));
+					}
+				}
+			}
+		}
+		if (systemMessage != null) {
+			messages.add(0, systemMessage);
+		}
 		var request = new ChatCompletionRequest(messages, stream);
 
 		if (this.defaultOptions != null) {
-			request = ModelOptionsUtils.merge(this.defaultOptions, request, ChatCompletionRequest.class);
+			request = QianFanOptionsMerger.apply(this.defaultOptions, request);
 		}
 
 		if (prompt.getOptions() != null) {
-			var updatedRuntimeOptions = ModelOptionsUtils.copyToTarget(prompt.getOptions(), ChatOptions.class,
-					QianFanChatOptions.class);
-			request = ModelOptionsUtils.merge(updatedRuntimeOptions, request, ChatCompletionRequest.class);
-
-			List<ToolDefinition> toolDefinitions = DEFAULT_TOOL_CALLING_MANAGER
-				.resolveToolDefinitions((QianFanChatOptions) prompt.getOptions());
-			request = ModelOptionsUtils.merge(
-					QianFanChatOptions.builder().tools(this.getFunctionTools(toolDefinitions)).build(), request,
-					QianFanApi.ChatCompletionRequest.class);
+			QianFanChatOptions runtimeOptions = QianFanOptionsMerger.toQianFanChatOptions(prompt.getOptions());
+			request = QianFanOptionsMerger.apply(runtimeOptions, request);
+
+			List<QianFanApi.FunctionTool> functionTools = this.functionToolCache.getFunctionTools(runtimeOptions,
+					options -> this.getFunctionTools(this.toolCallingManager.resolveToolDefinitions(options)));
+			request = QianFanOptionsMerger.withTools(functionTools, request);
+		}
+		if (stream && isStreamUsageEnabled(prompt)) {
+			request = QianFanOptionsMerger.withStreamOptions(ChatCompletionRequest.StreamOptions.INCLUDE_USAGE,
+					request);
 		}
 		return request;
 	}
 
+	private static ChatCompletionMessage toChatCompletionMessage(AssistantMessage message) {
+		List<QianFanApi.ToolCalls> toolCalls = null;
+		if (message.hasToolCalls()) {
+			toolCalls = message.getToolCalls()
+				.stream()
+				.map(toolCall -> new QianFanApi.ToolCalls(toolCall.id(), toolCall.type(),
+						Map.of("name", toolCall.name(), "arguments", toolCall.arguments())))
+				.toList();
+		}
+		return new ChatCompletionMessage(message.getText(), Role.assistant, null, null, toolCalls);
+	}
+
 	private static ObjectMapper objectMapper = new ObjectMapper();
 
 	private List<QianFanApi.FunctionTool> getFunctionTools(List<ToolDefinition> toolDefinitions) {
@@ -367,22 +588,8 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 	}
 
 	Prompt buildRequestPrompt(Prompt prompt) {
-		QianFanChatOptions runtimeOptions = null;
-		if (prompt.getOptions() != null) {
-			ChatOptions var4 = prompt.getOptions();
-			if (var4 instanceof ToolCallingChatOptions) {
-				ToolCallingChatOptions toolCallingChatOptions = (ToolCallingChatOptions) var4;
-				runtimeOptions = (QianFanChatOptions) ModelOptionsUtils.copyToTarget(toolCallingChatOptions,
-						ToolCallingChatOptions.class, QianFanChatOptions.class);
-			}
-			else {
-				runtimeOptions = (QianFanChatOptions) ModelOptionsUtils.copyToTarget(prompt.getOptions(),
-						ChatOptions.class, QianFanChatOptions.class);
-			}
-		}
-
-		QianFanChatOptions requestOptions = (QianFanChatOptions) ModelOptionsUtils.merge(runtimeOptions,
-				this.defaultOptions, QianFanChatOptions.class);
+		QianFanChatOptions runtimeOptions = QianFanOptionsMerger.toQianFanChatOptions(prompt.getOptions());
+		QianFanChatOptions requestOptions = QianFanOptionsMerger.merge(runtimeOptions, this.defaultOptions);
 		if (runtimeOptions != null) {
 			requestOptions.setInternalToolExecutionEnabled(
 					(Boolean) ModelOptionsUtils.mergeOption(runtimeOptions.getInternalToolExecutionEnabled(),
@@ -393,18 +600,53 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 					this.defaultOptions.getToolCallbacks()));
 			requestOptions.setToolContext(ToolCallingChatOptions.mergeToolContext(runtimeOptions.getToolContext(),
 					this.defaultOptions.getToolContext()));
+			requestOptions.setDeterministic((Boolean) ModelOptionsUtils.mergeOption(runtimeOptions.getDeterministic(),
+					this.defaultOptions.getDeterministic()));
+			requestOptions.setResponseCacheEnabled((Boolean) ModelOptionsUtils
+				.mergeOption(runtimeOptions.getResponseCacheEnabled(), this.defaultOptions.getResponseCacheEnabled()));
+			requestOptions.setStreamUsage((Boolean) ModelOptionsUtils.mergeOption(runtimeOptions.getStreamUsage(),
+					this.defaultOptions.getStreamUsage()));
 		}
 		else {
 			requestOptions.setInternalToolExecutionEnabled(this.defaultOptions.getInternalToolExecutionEnabled());
 			requestOptions.setToolNames(this.defaultOptions.getToolNames());
 			requestOptions.setToolCallbacks(this.defaultOptions.getToolCallbacks());
 			requestOptions.setToolContext(this.defaultOptions.getToolContext());
+			requestOptions.setDeterministic(this.defaultOptions.getDeterministic());
+			requestOptions.setResponseCacheEnabled(this.defaultOptions.getResponseCacheEnabled());
+			requestOptions.setStreamUsage(this.defaultOptions.getStreamUsage());
 		}
 
 		ToolCallingChatOptions.validateToolCallbacks(requestOptions.getToolCallbacks());
 		return new Prompt(prompt.getInstructions(), requestOptions);
 	}
 
+	/**
+	 * Estimate the number of prompt tokens of the prompt, merged with the default
+	 * options, before sending it. The whole conversation is estimated, before the
+	 * {@link #setContextWindowBudgeter(ContextWindowBudgeter) budgeter} trims it. The
+	 * estimate is local and approximate, see {@link QianFanTokenEstimator}.
+	 * @param prompt the prompt.
+	 * @return the estimated number of prompt tokens.
+	 */
+	public int estimatePromptTokens(Prompt prompt) {
+		ChatCompletionRequest request = createUntrimmedRequest(buildRequestPrompt(prompt), false);
+		List<String> contents = new ArrayList<>(request.messages().size());
+		long toolCallTokens = 0;
+		for (ChatCompletionMessage message : request.messages()) {
+			contents.add((message.rawContent() instanceof String content) ? content : null);
+			if (message.toolCalls() != null) {
+				for (QianFanApi.ToolCalls toolCall : message.toolCalls()) {
+					if (toolCall.function() != null) {
+						toolCallTokens += QianFanTokenEstimator.MESSAGE_OVERHEAD_TOKENS
+								+ this.tokenEstimator.estimate(toolCall.function().values());
+					}
+				}
+			}
+		}
+		return (int) Math.min(Integer.MAX_VALUE, this.tokenEstimator.estimateMessages(contents) + toolCallTokens);
+	}
+
 	@Override
 	public ChatOptions getDefaultOptions() {
 		return QianFanChatOptions.fromOptions(this.defaultOptions);
@@ -440,4 +682,86 @@ public class QianFanChatModel implements ChatModel, StreamingChatModel {
 		this.observationConvention = observationConvention;
 	}
 
+	/**
+	 * Enable request hedging for {@link #call(Prompt)}. Streaming calls are never hedged.
+	 * @param hedgedRequestExecutor the executor to use, or {@code null} to disable
+	 * hedging.
+	 */
+	public void setHedgedRequestExecutor(HedgedRequestExecutor hedgedRequestExecutor) {
+		this.hedgedRequestExecutor = hedgedRequestExecutor;
+	}
+
+	/**
+	 * Enable coalescing of concurrent identical {@link #call(Prompt)} requests that are
+	 * deterministic, see {@link QianFanChatOptions#getDeterministic()}. The usage of a
+	 * coalesced request is metered once, for the caller sending it upstream.
+	 * @param requestCoalescer the coalescer to use, or {@code null} to disable
+	 * coalescing.
+	 */
+	public void setRequestCoalescer(RequestCoalescer requestCoalescer) {
+		this.requestCoalescer = requestCoalescer;
+	}
+
+	/**
+	 * Serve repeated {@link #call(Prompt)} requests from a response cache. Individual
+	 * requests opt out with {@link QianFanChatOptions#setResponseCacheEnabled(Boolean)}.
+	 * @param responseCacheTemplate the template to use, or {@code null} to disable
+	 * caching.
+	 */
+	public void setResponseCacheTemplate(ChatResponseCacheTemplate responseCacheTemplate) {
+		this.responseCacheTemplate = responseCacheTemplate;
+	}
+
+	/**
+	 * Trim the oldest turns of conversations exceeding the context window of the model.
+	 * The budgeter sizes the conversations with its own estimator, independently of
+	 * {@link #setTokenEstimator(QianFanTokenEstimator)}.
+	 * @param contextWindowBudgeter the budgeter to use, or {@code null} to send the
+	 * conversations unchanged.
+	 */
+	public void setContextWindowBudgeter(ContextWindowBudgeter contextWindowBudgeter) {
+		this.contextWindowBudgeter = contextWindowBudgeter;
+	}
+
+	/**
+	 * Set the estimator used by {@link #estimatePromptTokens(Prompt)}. A configured
+	 * {@link #setContextWindowBudgeter(ContextWindowBudgeter) budgeter} is not affected:
+	 * create it with the same estimator to have both agree.
+	 * @param tokenEstimator the token estimator.
+	 */
+	public void setTokenEstimator(QianFanTokenEstimator tokenEstimator) {
+		Assert.notNull(tokenEstimator, "tokenEstimator must not be null");
+		this.tokenEstimator = tokenEstimator;
+	}
+
+	/**
+	 * Record the usage of the requests with the given meter.
+	 * @param usageMeter the meter to use, or {@code null} to disable metering.
+	 */
+	public void setUsageMeter(UsageMeter usageMeter) {
+		this.usageMeter = usageMeter;
+	}
+
+	/**
+	 * Set the manager resolving and executing the tools requested by the model. Defaults
+	 * to a {@link ParallelToolCallingManager}, running the tool calls of a response
+	 * concurrently.
+	 * @param toolCallingManager the tool calling manager.
+	 */
+	public void setToolCallingManager(ToolCallingManager toolCallingManager) {
+		Assert.notNull(toolCallingManager, "toolCallingManager must not be null");
+		this.toolCallingManager = toolCallingManager;
+	}
+
+	/**
+	 * Set the maximum number of tool rounds of a single {@link #call(Prompt)}, 10 by
+	 * default. A call still requesting tools after that many rounds fails with an
+	 * {@link IllegalStateException}.
+	 * @param maxToolIterations the maximum number of tool rounds.
+	 */
+	public void setMaxToolIterations(int maxToolIterations) {
+		Assert.isTrue(maxToolIterations > 0, "maxToolIterations must be positive");
+		this.maxToolIterations = maxToolIterations;
+	}
+
 }
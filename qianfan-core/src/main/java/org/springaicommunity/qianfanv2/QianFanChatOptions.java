@@ -85,6 +85,29 @@ public class QianFanChatOptions implements ToolCallingChatOptions {
 	private @JsonProperty("top_p") Double topP;
 	// @formatter:on
 
+	/**
+	 * Whether the response is fully determined by the request, so that concurrent
+	 * identical requests may share a single upstream call. When not set, requests with a
+	 * temperature of 0 are considered deterministic.
+	 */
+	@JsonIgnore
+	private Boolean deterministic;
+
+	/**
+	 * Whether the response of this request may be served from, and stored in, the
+	 * response cache of the chat model. Defaults to {@code true} when a cache is
+	 * configured.
+	 */
+	@JsonIgnore
+	private Boolean responseCacheEnabled;
+
+	/**
+	 * Whether streaming requests ask for the token usage in the final chunk of the
+	 * stream. Defaults to {@code true}.
+	 */
+	@JsonIgnore
+	private Boolean streamUsage;
+
 	@JsonProperty("tools")
 	private List<QianFanApi.FunctionTool> tools;
 
@@ -178,6 +201,9 @@ public class QianFanChatOptions implements ToolCallingChatOptions {
 			.stop(fromOptions.getStop())
 			.temperature(fromOptions.getTemperature())
 			.topP(fromOptions.getTopP())
+			.deterministic(fromOptions.getDeterministic())
+			.responseCacheEnabled(fromOptions.getResponseCacheEnabled())
+			.streamUsage(fromOptions.getStreamUsage())
 			.tools(fromOptions.getTools())
 			.toolChoice(fromOptions.getToolChoice())
 			.toolCallbacks(fromOptions.getToolCallbacks())
@@ -268,6 +294,30 @@ public class QianFanChatOptions implements ToolCallingChatOptions {
 		this.topP = topP;
 	}
 
+	public Boolean getDeterministic() {
+		return this.deterministic;
+	}
+
+	public void setDeterministic(Boolean deterministic) {
+		this.deterministic = deterministic;
+	}
+
+	public Boolean getResponseCacheEnabled() {
+		return this.responseCacheEnabled;
+	}
+
+	public void setResponseCacheEnabled(Boolean responseCacheEnabled) {
+		this.responseCacheEnabled = responseCacheEnabled;
+	}
+
+	public Boolean getStreamUsage() {
+		return this.streamUsage;
+	}
+
+	public void setStreamUsage(Boolean streamUsage) {
+		this.streamUsage = streamUsage;
+	}
+
 	@Override
 	@JsonIgnore
 	public Integer getTopK() {
@@ -425,6 +475,21 @@ public class QianFanChatOptions implements ToolCallingChatOptions {
 			return this;
 		}
 
+		public Builder deterministic(Boolean deterministic) {
+			this.options.deterministic = deterministic;
+			return this;
+		}
+
+		public Builder responseCacheEnabled(Boolean responseCacheEnabled) {
+			this.options.responseCacheEnabled = responseCacheEnabled;
+			return this;
+		}
+
+		public Builder streamUsage(Boolean streamUsage) {
+			this.options.streamUsage = streamUsage;
+			return this;
+		}
+
 		public Builder tools(List<QianFanApi.FunctionTool> tools) {
 			this.options.tools = tools;
 			return this;
@@ -22,7 +22,19 @@ import org.slf4j.LoggerFactory;
 import org.springaicommunity.qianfanv2.api.QianFanApi;
 import org.springaicommunity.qianfanv2.api.QianFanApi.EmbeddingList;
 import org.springaicommunity.qianfanv2.api.QianFanConstants;
+import org.springaicommunity.qianfan.api.EmbeddingModelRegistry;
+import org.springaicommunity.qianfan.cache.RequestCoalescer;
+import org.springaicommunity.qianfan.embedding.CompactEmbedding;
+import org.springaicommunity.qianfan.embedding.DocumentEmbedding;
+import org.springaicommunity.qianfan.embedding.EmbeddingFormat;
+import org.springaicommunity.qianfan.embedding.EmbeddingInputs;
+import org.springaicommunity.qianfan.embedding.QianFanBatchingStrategy;
+import org.springaicommunity.qianfan.embedding.ReactiveEmbeddingPipeline;
+import org.springaicommunity.qianfan.resilience.HedgedRequestExecutor;
+import org.springaicommunity.qianfan.metering.UsageMeter;
+import org.springaicommunity.qianfan.token.QianFanTokenEstimator;
 import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.metadata.EmptyUsage;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.document.MetadataMode;
 import org.springframework.ai.embedding.*;
@@ -35,7 +47,11 @@ import org.springframework.ai.retry.RetryUtils;
 import org.springframework.lang.Nullable;
 import org.springframework.retry.support.RetryTemplate;
 import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -47,6 +63,8 @@ import java.util.List;
  */
 public class QianFanEmbeddingModel extends AbstractEmbeddingModel {
 
+	private static final int MAX_BATCH_SIZE = 16;
+
 	private static final Logger logger = LoggerFactory.getLogger(QianFanEmbeddingModel.class);
 
 	private static final EmbeddingModelObservationConvention DEFAULT_OBSERVATION_CONVENTION = new DefaultEmbeddingModelObservationConvention();
@@ -69,6 +87,47 @@ public class QianFanEmbeddingModel extends AbstractEmbeddingModel {
 	 */
 	private EmbeddingModelObservationConvention observationConvention = DEFAULT_OBSERVATION_CONVENTION;
 
+	/**
+	 * Optional executor used to hedge slow embedding calls.
+	 */
+	private HedgedRequestExecutor hedgedRequestExecutor;
+
+	/**
+	 * Optional coalescer sharing a single upstream call between concurrent identical
+	 * requests.
+	 */
+	private RequestCoalescer requestCoalescer;
+
+	/**
+	 * Estimator used to size requests before they are sent.
+	 */
+	private QianFanTokenEstimator tokenEstimator = QianFanTokenEstimator.DEFAULT;
+
+	/**
+	 * Optional meter recording the token usage and cost of the requests.
+	 */
+	private UsageMeter usageMeter;
+
+	/**
+	 * Optional batching strategy used instead of the one of the callers.
+	 */
+	private BatchingStrategy batchingStrategy;
+
+	/**
+	 * Maximum number of requests in flight of the reactive embedding pipeline.
+	 */
+	private int reactiveConcurrency = 4;
+
+	/**
+	 * Format of the embeddings returned by {@link #embedCompact(List)}.
+	 */
+	private EmbeddingFormat outputFormat = EmbeddingFormat.FLOAT32;
+
+	/**
+	 * Whether blank texts are given a zero vector rather than rejected.
+	 */
+	private boolean zeroVectorsForBlankTexts;
+
 	/**
 	 * Constructor for the QianFanEmbeddingModel class.
 	 * @param qianFanApi The QianFanApi instance to use for making API requests.
@@ -139,10 +198,26 @@ public class QianFanEmbeddingModel extends AbstractEmbeddingModel {
 		return this.embed(document.getFormattedContent(this.metadataMode));
 	}
 
+	@Override
+	public List<float[]> embed(List<Document> documents, EmbeddingOptions options, BatchingStrategy batchingStrategy) {
+		BatchingStrategy strategy = (this.batchingStrategy != null) ? this.batchingStrategy : batchingStrategy;
+		return super.embed(documents, options, strategy);
+	}
+
+	/**
+	 * Return the dimensions of the embeddings of the default model, from the
+	 * {@link EmbeddingModelRegistry} without calling the API for the known models.
+	 */
+	@Override
+	public int dimensions() {
+		return EmbeddingModelRegistry.dimensions(this.defaultOptions.getModel(), super::dimensions);
+	}
+
 	@Override
 	public EmbeddingResponse call(EmbeddingRequest request) {
 		QianFanEmbeddingOptions requestOptions = mergeOptions(request.getOptions(), this.defaultOptions);
-		QianFanApi.EmbeddingRequest apiRequest = new QianFanApi.EmbeddingRequest(request.getInstructions(),
+		EmbeddingInputs inputs = EmbeddingInputs.of(request.getInstructions(), this.zeroVectorsForBlankTexts);
+		QianFanApi.EmbeddingRequest apiRequest = new QianFanApi.EmbeddingRequest(inputs.texts(),
 				requestOptions.getModel(), requestOptions.getUser());
 
 		var observationContext = EmbeddingModelObservationContext.builder()
@@ -154,8 +229,16 @@ public class QianFanEmbeddingModel extends AbstractEmbeddingModel {
 			.observation(this.observationConvention, DEFAULT_OBSERVATION_CONVENTION, () -> observationContext,
 					this.observationRegistry)
 			.observe(() -> {
-				EmbeddingList apiEmbeddingResponse = this.retryTemplate
-					.execute(ctx -> this.qianFanApi.embeddings(apiRequest).getBody());
+				if (inputs.texts().isEmpty()) {
+					// nothing but blank texts, no need to call the API
+					EmbeddingResponse embeddingResponse = new EmbeddingResponse(
+							toEmbeddings(inputs.expand(List.of(), () -> blankDimensions(apiRequest.model()))),
+							new EmbeddingResponseMetadata(apiRequest.model(), new EmptyUsage()));
+					observationContext.setResponse(embeddingResponse);
+					return embeddingResponse;
+				}
+
+				EmbeddingList apiEmbeddingResponse = this.executeEmbeddings(apiRequest);
 
 				if (apiEmbeddingResponse == null) {
 					logger.warn("No embeddings returned for request: {}", request);
@@ -171,20 +254,125 @@ public class QianFanEmbeddingModel extends AbstractEmbeddingModel {
 				var metadata = new EmbeddingResponseMetadata(apiRequest.model(),
 						getDefaultUsage(apiEmbeddingResponse.usage()));
 
-				List<Embedding> embeddings = apiEmbeddingResponse.data()
-					.stream()
-					.map(e -> new Embedding(e.embedding(), e.index()))
-					.toList();
+				List<Embedding> embeddings = toEmbeddings(
+						inputs.expand(toVectors(apiEmbeddingResponse, inputs.texts().size()), () -> 0));
 
 				EmbeddingResponse embeddingResponse = new EmbeddingResponse(embeddings, metadata);
 
 				observationContext.setResponse(embeddingResponse);
+				if (this.usageMeter != null) {
+					this.usageMeter.record(UsageMeter.Operation.EMBEDDING, apiRequest.model(), metadata.getUsage());
+				}
 
 				return embeddingResponse;
 			});
 
 	}
 
+	/**
+	 * Embed the texts and convert the embeddings to the
+	 * {@link #setOutputFormat(EmbeddingFormat) output format}, so that they can be kept
+	 * compactly in caches and indexes.
+	 * @param texts the texts to embed.
+	 * @return the converted embeddings, in order.
+	 */
+	public List<CompactEmbedding> embedCompact(List<String> texts) {
+		List<CompactEmbedding> embeddings = new ArrayList<>(texts.size());
+		for (float[] embedding : this.embed(texts)) {
+			embeddings.add(CompactEmbedding.of(embedding, this.outputFormat));
+		}
+		return embeddings;
+	}
+
+	/**
+	 * Embed a stream of documents without blocking, see
+	 * {@link ReactiveEmbeddingPipeline}. The documents are batched to the limits of the
+	 * default model and up to {@link #setReactiveConcurrency(int) concurrency} requests
+	 * are in flight, the documents being requested from upstream as batches complete.
+	 * @param documents the documents to embed.
+	 * @return the documents along with their embeddings, in order.
+	 */
+	public Flux<DocumentEmbedding> streamEmbeddings(Flux<Document> documents) {
+		String model = this.defaultOptions.getModel();
+		EmbeddingModelRegistry.EmbeddingModelMetadata limits = EmbeddingModelRegistry.get(model);
+		int batchSize = (limits != null) ? limits.maxBatchSize() : MAX_BATCH_SIZE;
+		BatchingStrategy strategy = (this.batchingStrategy != null) ? this.batchingStrategy
+				: new QianFanBatchingStrategy(model);
+		return new ReactiveEmbeddingPipeline(batchSize, strategy, this.reactiveConcurrency, this.metadataMode)
+			.embed(documents, texts -> this.embedReactive(texts, model));
+	}
+
+	private Mono<List<float[]>> embedReactive(List<String> texts, String model) {
+		EmbeddingInputs inputs = EmbeddingInputs.of(texts, this.zeroVectorsForBlankTexts);
+		if (inputs.texts().isEmpty()) {
+			return Mono.fromCallable(() -> inputs.expand(List.of(), () -> blankDimensions(model)));
+		}
+		QianFanApi.EmbeddingRequest apiRequest = new QianFanApi.EmbeddingRequest(inputs.texts(), model,
+				this.defaultOptions.getUser());
+		return this.qianFanApi.embeddingsReactive(apiRequest).map(apiEmbeddingResponse -> {
+			if (apiEmbeddingResponse.errorNsg() != null) {
+				throw new RuntimeException("Embedding failed: error code:" + apiEmbeddingResponse.errorCode()
+						+ ", message:" + apiEmbeddingResponse.errorNsg());
+			}
+			if (this.usageMeter != null && apiEmbeddingResponse.usage() != null) {
+				this.usageMeter.record(UsageMeter.Operation.EMBEDDING, model,
+						getDefaultUsage(apiEmbeddingResponse.usage()));
+			}
+			return inputs.expand(toVectors(apiEmbeddingResponse, inputs.texts().size()), () -> 0);
+		});
+	}
+
+	/**
+	 * Return the embeddings of the response ordered by their index, falling back to their
+	 * position in the response when the index is missing.
+	 */
+	private static List<float[]> toVectors(EmbeddingList apiEmbeddingResponse, int size) {
+		float[][] vectors = new float[size][];
+		List<QianFanApi.Embedding> data = apiEmbeddingResponse.data();
+		for (int i = 0; i < data.size(); i++) {
+			QianFanApi.Embedding embedding = data.get(i);
+			int index = (embedding.index() != null) ? embedding.index() : i;
+			if (index < 0 || index >= size) {
+				throw new IllegalStateException(
+						"Embedding index " + index + " out of range for " + size + " input texts");
+			}
+			vectors[index] = embedding.embedding();
+		}
+		return Arrays.asList(vectors);
+	}
+
+	private static List<Embedding> toEmbeddings(List<float[]> vectors) {
+		List<Embedding> embeddings = new ArrayList<>(vectors.size());
+		for (int i = 0; i < vectors.size(); i++) {
+			embeddings.add(new Embedding(vectors.get(i), i));
+		}
+		return embeddings;
+	}
+
+	/**
+	 * Return the dimensions of the zero vectors of a request holding only blank texts,
+	 * probing the default model when the model of the request is not registered.
+	 */
+	private int blankDimensions(String model) {
+		EmbeddingModelRegistry.EmbeddingModelMetadata metadata = EmbeddingModelRegistry.get(model);
+		return (metadata != null) ? metadata.dimensions() : this.dimensions();
+	}
+
+	private EmbeddingList executeEmbeddings(QianFanApi.EmbeddingRequest apiRequest) {
+		if (this.requestCoalescer == null) {
+			return this.retryTemplate.execute(ctx -> this.doEmbeddings(apiRequest));
+		}
+		return this.requestCoalescer.execute("embedding", apiRequest,
+				() -> this.retryTemplate.execute(ctx -> this.doEmbeddings(apiRequest)));
+	}
+
+	private EmbeddingList doEmbeddings(QianFanApi.EmbeddingRequest apiRequest) {
+		if (this.hedgedRequestExecutor == null) {
+			return this.qianFanApi.embeddings(apiRequest).getBody();
+		}
+		return this.hedgedRequestExecutor.execute("embedding", () -> this.qianFanApi.embeddings(apiRequest).getBody());
+	}
+
 	private DefaultUsage getDefaultUsage(QianFanApi.Usage usage) {
 		return new DefaultUsage(usage.promptTokens(), usage.completionTokens(), usage.totalTokens(), usage);
 	}
@@ -195,8 +383,7 @@ public class QianFanEmbeddingModel extends AbstractEmbeddingModel {
 	 */
 	private QianFanEmbeddingOptions mergeOptions(@Nullable EmbeddingOptions runtimeOptions,
 			QianFanEmbeddingOptions defaultOptions) {
-		var runtimeOptionsForProvider = ModelOptionsUtils.copyToTarget(runtimeOptions, EmbeddingOptions.class,
-				QianFanEmbeddingOptions.class);
+		var runtimeOptionsForProvider = QianFanOptionsMerger.toQianFanEmbeddingOptions(runtimeOptions);
 
 		if (runtimeOptionsForProvider == null) {
 			return defaultOptions;
@@ -208,8 +395,95 @@ public class QianFanEmbeddingModel extends AbstractEmbeddingModel {
 			.build();
 	}
 
+	/**
+	 * Estimate the number of tokens of the texts before embedding them. The estimate is
+	 * local and approximate, see {@link QianFanTokenEstimator}.
+	 * @param texts the texts to embed.
+	 * @return the estimated number of tokens.
+	 */
+	public int estimateTokens(List<String> texts) {
+		return this.tokenEstimator.estimate(texts);
+	}
+
 	public void setObservationConvention(EmbeddingModelObservationConvention observationConvention) {
 		this.observationConvention = observationConvention;
 	}
 
+	/**
+	 * Enable request hedging for {@link #call(EmbeddingRequest)}.
+	 * @param hedgedRequestExecutor the executor to use, or {@code null} to disable
+	 * hedging.
+	 */
+	public void setHedgedRequestExecutor(HedgedRequestExecutor hedgedRequestExecutor) {
+		this.hedgedRequestExecutor = hedgedRequestExecutor;
+	}
+
+	/**
+	 * Enable coalescing of concurrent identical {@link #call(EmbeddingRequest)} requests.
+	 * @param requestCoalescer the coalescer to use, or {@code null} to disable
+	 * coalescing.
+	 */
+	public void setRequestCoalescer(RequestCoalescer requestCoalescer) {
+		this.requestCoalescer = requestCoalescer;
+	}
+
+	/**
+	 * Set the estimator used by {@link #estimateTokens(List)}.
+	 * @param tokenEstimator the token estimator.
+	 */
+	public void setTokenEstimator(QianFanTokenEstimator tokenEstimator) {
+		Assert.notNull(tokenEstimator, "tokenEstimator must not be null");
+		this.tokenEstimator = tokenEstimator;
+	}
+
+	/**
+	 * Record the usage of the requests with the given meter.
+	 * @param usageMeter the meter to use, or {@code null} to disable metering.
+	 */
+	public void setUsageMeter(UsageMeter usageMeter) {
+		this.usageMeter = usageMeter;
+	}
+
+	/**
+	 * Batch the documents of {@link #embed(List, EmbeddingOptions, BatchingStrategy)}
+	 * with the given strategy, typically a {@link QianFanBatchingStrategy} packing them
+	 * to the limits of the model, rather than with the strategy of the caller.
+	 * @param batchingStrategy the strategy to use, or {@code null} to use the one of the
+	 * caller.
+	 */
+	public void setBatchingStrategy(BatchingStrategy batchingStrategy) {
+		this.batchingStrategy = batchingStrategy;
+	}
+
+	/**
+	 * Set the maximum number of requests in flight of {@link #streamEmbeddings(Flux)}, 4
+	 * by default.
+	 * @param reactiveConcurrency the maximum number of concurrent requests.
+	 */
+	public void setReactiveConcurrency(int reactiveConcurrency) {
+		Assert.isTrue(reactiveConcurrency > 0, "reactiveConcurrency must be positive");
+		this.reactiveConcurrency = reactiveConcurrency;
+	}
+
+	/**
+	 * Set the format of the embeddings returned by {@link #embedCompact(List)},
+	 * {@link EmbeddingFormat#FLOAT32} by default.
+	 * @param outputFormat the format of the embeddings.
+	 */
+	public void setOutputFormat(EmbeddingFormat outputFormat) {
+		Assert.notNull(outputFormat, "outputFormat must not be null");
+		this.outputFormat = outputFormat;
+	}
+
+	/**
+	 * Set whether blank texts, which QianFan rejects, are given a zero vector instead of
+	 * failing the request, {@code false} by default. The cosine similarity of a zero
+	 * vector is undefined, so the embeddings of blank texts should be filtered out before
+	 * being added to a vector store.
+	 * @param zeroVectorsForBlankTexts whether to embed blank texts as zero vectors.
+	 */
+	public void setZeroVectorsForBlankTexts(boolean zeroVectorsForBlankTexts) {
+		this.zeroVectorsForBlankTexts = zeroVectorsForBlankTexts;
+	}
+
 }
@@ -21,6 +21,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springaicommunity.qianfanv2.api.QianFanConstants;
 import org.springaicommunity.qianfanv2.api.QianFanImageApi;
+import org.springaicommunity.qianfan.image.ImageBatchExecutor;
+import org.springaicommunity.qianfan.image.ImageBatchResult;
+import org.springaicommunity.qianfan.image.ImagePrefetcher;
+import org.springaicommunity.qianfan.image.StoredImage;
+import org.springaicommunity.qianfan.image.StoredImageMetadata;
+import org.springaicommunity.qianfan.metering.UsageMeter;
 import org.springframework.ai.image.*;
 import org.springframework.ai.image.observation.DefaultImageModelObservationConvention;
 import org.springframework.ai.image.observation.ImageModelObservationContext;
@@ -33,6 +39,7 @@ import org.springframework.lang.Nullable;
 import org.springframework.retry.support.RetryTemplate;
 import org.springframework.util.Assert;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -73,6 +80,26 @@ public class QianFanImageModel implements ImageModel {
 	 */
 	private ImageModelObservationConvention observationConvention = DEFAULT_OBSERVATION_CONVENTION;
 
+	/**
+	 * Optional meter recording the token usage and cost of the requests.
+	 */
+	private UsageMeter usageMeter;
+
+	/**
+	 * Maximum number of images of a request of {@link #callBatch(List)}.
+	 */
+	private int maxImagesPerRequest = 4;
+
+	/**
+	 * Maximum number of requests in flight of {@link #callBatch(List)}.
+	 */
+	private int batchConcurrency = 4;
+
+	/**
+	 * Optional prefetcher downloading the generated images to a local store.
+	 */
+	private ImagePrefetcher imagePrefetcher;
+
 	/**
 	 * Creates an instance of the QianFanImageModel.
 	 * @param qianFanImageApi The QianFanImageApi instance to be used for interacting with
@@ -129,9 +156,27 @@ public class QianFanImageModel implements ImageModel {
 
 	@Override
 	public ImageResponse call(ImagePrompt imagePrompt) {
+		return call(imagePrompt, null);
+	}
+
+	/**
+	 * Generate the images of many prompts concurrently, see {@link ImageBatchExecutor}.
+	 * Every instruction of a prompt is generated, and a prompt asking for more images
+	 * than a request generates is split into several requests.
+	 * @param imagePrompts the prompts.
+	 * @return the outcome of every prompt, in order, holding the images generated by the
+	 * successful requests and the failures of the others.
+	 */
+	public List<ImageBatchResult> callBatch(List<ImagePrompt> imagePrompts) {
+		Integer defaultImageCount = this.defaultOptions.getN();
+		return new ImageBatchExecutor(this.maxImagesPerRequest, this.batchConcurrency).execute(imagePrompts,
+				(defaultImageCount != null) ? defaultImageCount : 1, this::call);
+	}
+
+	private ImageResponse call(ImagePrompt imagePrompt, @Nullable Integer imageCount) {
 		QianFanImageOptions requestImageOptions = mergeOptions(imagePrompt.getOptions(), this.defaultOptions);
 
-		QianFanImageApi.QianFanImageRequest imageRequest = createRequest(imagePrompt, requestImageOptions);
+		QianFanImageApi.QianFanImageRequest imageRequest = createRequest(imagePrompt, requestImageOptions, imageCount);
 
 		var observationContext = ImageModelObservationContext.builder()
 			.imagePrompt(imagePrompt)
@@ -147,21 +192,31 @@ public class QianFanImageModel implements ImageModel {
 					.execute(ctx -> this.qianFanImageApi.createImage(imageRequest));
 
 				ImageResponse imageResponse = convertResponse(imageResponseEntity, imageRequest);
+				if (this.imagePrefetcher != null) {
+					imageResponse = prefetch(imageResponse);
+				}
 
 				observationContext.setResponse(imageResponse);
+				if (this.usageMeter != null) {
+					this.usageMeter.recordImages(imageRequest.model(), imageResponse.getResults().size());
+				}
 
 				return imageResponse;
 			});
 	}
 
 	private QianFanImageApi.QianFanImageRequest createRequest(ImagePrompt imagePrompt,
-			QianFanImageOptions requestImageOptions) {
+			QianFanImageOptions requestImageOptions, @Nullable Integer imageCount) {
 		String instructions = imagePrompt.getInstructions().get(0).getText();
 
-		QianFanImageApi.QianFanImageRequest imageRequest = new QianFanImageApi.QianFanImageRequest(instructions,
-				QianFanImageApi.DEFAULT_IMAGE_MODEL);
-
-		return ModelOptionsUtils.merge(requestImageOptions, imageRequest, QianFanImageApi.QianFanImageRequest.class);
+		QianFanImageApi.QianFanImageRequest imageRequest = QianFanOptionsMerger.apply(requestImageOptions,
+				new QianFanImageApi.QianFanImageRequest(instructions, QianFanImageApi.DEFAULT_IMAGE_MODEL));
+		if (imageCount == null) {
+			return imageRequest;
+		}
+		return new QianFanImageApi.QianFanImageRequest(imageRequest.model(), imageRequest.prompt(),
+				imageRequest.negativePrompt(), imageRequest.size(), imageCount, imageRequest.steps(),
+				imageRequest.seed(), imageRequest.style(), imageRequest.user());
 	}
 
 	private ImageResponse convertResponse(ResponseEntity<QianFanImageApi.QianFanImageResponse> imageResponseEntity,
@@ -180,6 +235,23 @@ public class QianFanImageModel implements ImageModel {
 		return new ImageResponse(imageGenerationList);
 	}
 
+	/**
+	 * Download the generated images to the local store, adding the stored images to the
+	 * metadata of the generations.
+	 */
+	private ImageResponse prefetch(ImageResponse imageResponse) {
+		List<String> urls = imageResponse.getResults().stream().map(result -> result.getOutput().getUrl()).toList();
+		List<StoredImage> storedImages = this.imagePrefetcher.prefetch(urls);
+		List<ImageGeneration> imageGenerationList = new ArrayList<>(urls.size());
+		for (int i = 0; i < urls.size(); i++) {
+			ImageGeneration generation = imageResponse.getResults().get(i);
+			StoredImage storedImage = storedImages.get(i);
+			imageGenerationList.add((storedImage != null)
+					? new ImageGeneration(generation.getOutput(), new StoredImageMetadata(storedImage)) : generation);
+		}
+		return new ImageResponse(imageGenerationList, imageResponse.getMetadata());
+	}
+
 	/**
 	 * Convert the {@link ImageOptions} into {@link QianFanImageOptions}.
 	 * @param runtimeImageOptions the image options to use.
@@ -188,8 +260,7 @@ public class QianFanImageModel implements ImageModel {
 	 */
 	private QianFanImageOptions mergeOptions(@Nullable ImageOptions runtimeImageOptions,
 			QianFanImageOptions defaultOptions) {
-		var runtimeOptionsForProvider = ModelOptionsUtils.copyToTarget(runtimeImageOptions, ImageOptions.class,
-				QianFanImageOptions.class);
+		var runtimeOptionsForProvider = QianFanOptionsMerger.toQianFanImageOptions(runtimeImageOptions);
 
 		if (runtimeOptionsForProvider == null) {
 			return defaultOptions;
@@ -210,4 +281,42 @@ public class QianFanImageModel implements ImageModel {
 		this.observationConvention = observationConvention;
 	}
 
+	/**
+	 * Record the usage of the requests with the given meter.
+	 * @param usageMeter the meter to use, or {@code null} to disable metering.
+	 */
+	public void setUsageMeter(UsageMeter usageMeter) {
+		this.usageMeter = usageMeter;
+	}
+
+	/**
+	 * Set the maximum number of images the model generates in a request, 4 by default.
+	 * Prompts of {@link #callBatch(List)} asking for more images are split.
+	 * @param maxImagesPerRequest the maximum number of images of a request.
+	 */
+	public void setMaxImagesPerRequest(int maxImagesPerRequest) {
+		Assert.isTrue(maxImagesPerRequest > 0, "maxImagesPerRequest must be positive");
+		this.maxImagesPerRequest = maxImagesPerRequest;
+	}
+
+	/**
+	 * Set the maximum number of requests in flight of {@link #callBatch(List)}, 4 by
+	 * default.
+	 * @param batchConcurrency the maximum number of concurrent requests.
+	 */
+	public void setBatchConcurrency(int batchConcurrency) {
+		Assert.isTrue(batchConcurrency > 0, "batchConcurrency must be positive");
+		this.batchConcurrency = batchConcurrency;
+	}
+
+	/**
+	 * Download the generated images to a local store as soon as they are generated, the
+	 * generations holding {@link StoredImageMetadata} along with the URL of the images.
+	 * @param imagePrefetcher the prefetcher to use, or {@code null} to only return the
+	 * URLs.
+	 */
+	public void setImagePrefetcher(ImagePrefetcher imagePrefetcher) {
+		this.imagePrefetcher = imagePrefetcher;
+	}
+
 }
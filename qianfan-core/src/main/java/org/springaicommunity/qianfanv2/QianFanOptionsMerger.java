@@ -0,0 +1,196 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2;
+
+import java.util.List;
+
+import org.springaicommunity.qianfanv2.api.QianFanApi;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionRequest;
+import org.springaicommunity.qianfanv2.api.QianFanImageApi;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.image.ImageOptions;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.lang.Nullable;
+
+/**
+ * Field by field merging of the QianFan options into each other and into the API
+ * requests. Replaces the reflective, map based {@code ModelOptionsUtils.merge} and
+ * {@code ModelOptionsUtils.copyToTarget} on the request path: in every merge a non-null
+ * value of the higher precedence source wins, exactly as with {@code ModelOptionsUtils}.
+ *
+ * @since 1.0
+ */
+final class QianFanOptionsMerger {
+
+	private QianFanOptionsMerger() {
+
+	}
+
+	/**
+	 * Convert portable chat options to {@link QianFanChatOptions}, returning the given
+	 * instance when it already is one.
+	 */
+	@Nullable
+	static QianFanChatOptions toQianFanChatOptions(@Nullable ChatOptions options) {
+		if (options == null || options instanceof QianFanChatOptions) {
+			return (QianFanChatOptions) options;
+		}
+		QianFanChatOptions.Builder builder = QianFanChatOptions.builder()
+			.model(options.getModel())
+			.frequencyPenalty(options.getFrequencyPenalty())
+			.maxTokens(options.getMaxTokens())
+			.presencePenalty(options.getPresencePenalty())
+			.stop(options.getStopSequences())
+			.temperature(options.getTemperature())
+			.topP(options.getTopP());
+		if (options instanceof ToolCallingChatOptions toolCallingOptions) {
+			builder.internalToolExecutionEnabled(toolCallingOptions.getInternalToolExecutionEnabled());
+			if (toolCallingOptions.getToolCallbacks() != null) {
+				builder.toolCallbacks(toolCallingOptions.getToolCallbacks());
+			}
+			if (toolCallingOptions.getToolNames() != null) {
+				builder.toolNames(toolCallingOptions.getToolNames());
+			}
+			if (toolCallingOptions.getToolContext() != null) {
+				builder.toolContext(toolCallingOptions.getToolContext());
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Merge the request parameters of the runtime options over the default options. Only
+	 * the parameters sent to the API are merged, the tool calling settings are left to
+	 * the caller.
+	 */
+	static QianFanChatOptions merge(@Nullable QianFanChatOptions runtime, QianFanChatOptions defaults) {
+		if (runtime == null) {
+			return QianFanChatOptions.builder()
+				.model(defaults.getModel())
+				.frequencyPenalty(defaults.getFrequencyPenalty())
+				.maxTokens(defaults.getMaxTokens())
+				.presencePenalty(defaults.getPresencePenalty())
+				.responseFormat(defaults.getResponseFormat())
+				.stop(defaults.getStop())
+				.temperature(defaults.getTemperature())
+				.topP(defaults.getTopP())
+				.tools(defaults.getTools())
+				.toolChoice(defaults.getToolChoice())
+				.build();
+		}
+		return QianFanChatOptions.builder()
+			.model(pick(runtime.getModel(), defaults.getModel()))
+			.frequencyPenalty(pick(runtime.getFrequencyPenalty(), defaults.getFrequencyPenalty()))
+			.maxTokens(pick(runtime.getMaxTokens(), defaults.getMaxTokens()))
+			.presencePenalty(pick(runtime.getPresencePenalty(), defaults.getPresencePenalty()))
+			.responseFormat(pick(runtime.getResponseFormat(), defaults.getResponseFormat()))
+			.stop(pick(runtime.getStop(), defaults.getStop()))
+			.temperature(pick(runtime.getTemperature(), defaults.getTemperature()))
+			.topP(pick(runtime.getTopP(), defaults.getTopP()))
+			.tools(pick(runtime.getTools(), defaults.getTools()))
+			.toolChoice(pick(runtime.getToolChoice(), defaults.getToolChoice()))
+			.build();
+	}
+
+	/**
+	 * Apply the request parameters of the options to the request.
+	 */
+	static ChatCompletionRequest apply(QianFanChatOptions options, ChatCompletionRequest request) {
+		return new ChatCompletionRequest(request.messages(), pick(options.getModel(), request.model()),
+				pick(options.getFrequencyPenalty(), request.frequencyPenalty()),
+				pick(options.getMaxTokens(), request.maxTokens()),
+				pick(options.getPresencePenalty(), request.presencePenalty()),
+				pick(options.getResponseFormat(), request.responseFormat()), pick(options.getStop(), request.stop()),
+				request.stream(), pick(options.getTemperature(), request.temperature()),
+				pick(options.getTopP(), request.topP()), pick(options.getTools(), request.tools()),
+				pick(options.getToolChoice(), request.toolChoice()), request.streamOptions());
+	}
+
+	/**
+	 * Replace the tools of the request, keeping the request tools when none are given.
+	 */
+	static ChatCompletionRequest withTools(@Nullable List<QianFanApi.FunctionTool> tools,
+			ChatCompletionRequest request) {
+		if (tools == null) {
+			return request;
+		}
+		return new ChatCompletionRequest(request.messages(), request.model(), request.frequencyPenalty(),
+				request.maxTokens(), request.presencePenalty(), request.responseFormat(), request.stop(),
+				request.stream(), request.temperature(), request.topP(), tools, request.toolChoice(),
+				request.streamOptions());
+	}
+
+	/**
+	 * Replace the stream options of the request.
+	 */
+	static ChatCompletionRequest withStreamOptions(@Nullable ChatCompletionRequest.StreamOptions streamOptions,
+			ChatCompletionRequest request) {
+		return new ChatCompletionRequest(request.messages(), request.model(), request.frequencyPenalty(),
+				request.maxTokens(), request.presencePenalty(), request.responseFormat(), request.stop(),
+				request.stream(), request.temperature(), request.topP(), request.tools(), request.toolChoice(),
+				streamOptions);
+	}
+
+	/**
+	 * Convert portable embedding options to {@link QianFanEmbeddingOptions}, returning
+	 * the given instance when it already is one.
+	 */
+	@Nullable
+	static QianFanEmbeddingOptions toQianFanEmbeddingOptions(@Nullable EmbeddingOptions options) {
+		if (options == null || options instanceof QianFanEmbeddingOptions) {
+			return (QianFanEmbeddingOptions) options;
+		}
+		return QianFanEmbeddingOptions.builder().model(options.getModel()).build();
+	}
+
+	/**
+	 * Convert portable image options to {@link QianFanImageOptions}, returning the given
+	 * instance when it already is one. The response format is not carried over: the API
+	 * has no such parameter and always returns the images as URLs, and
+	 * {@code ModelOptionsUtils.copyToTarget} dropped it as well.
+	 */
+	@Nullable
+	static QianFanImageOptions toQianFanImageOptions(@Nullable ImageOptions options) {
+		if (options == null || options instanceof QianFanImageOptions) {
+			return (QianFanImageOptions) options;
+		}
+		return QianFanImageOptions.builder()
+			.N(options.getN())
+			.model(options.getModel())
+			.width(options.getWidth())
+			.height(options.getHeight())
+			.style(options.getStyle())
+			.build();
+	}
+
+	/**
+	 * Apply the request parameters of the options to the image request.
+	 */
+	static QianFanImageApi.QianFanImageRequest apply(QianFanImageOptions options,
+			QianFanImageApi.QianFanImageRequest request) {
+		return new QianFanImageApi.QianFanImageRequest(pick(options.getModel(), request.model()), request.prompt(),
+				request.negativePrompt(), pick(options.getSize(), request.size()), pick(options.getN(), request.n()),
+				request.steps(), request.seed(), pick(options.getStyle(), request.style()),
+				pick(options.getUser(), request.user()));
+	}
+
+	private static <T> T pick(@Nullable T preferred, @Nullable T fallback) {
+		return (preferred != null) ? preferred : fallback;
+	}
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.springaicommunity.qianfan.metering.UsageMeter;
+import org.springaicommunity.qianfanv2.api.QianFanApi;
+import org.springaicommunity.qianfanv2.api.QianFanApi.RerankRequest;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.model.ModelOptionsUtils;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.RetryUtils;
+import org.springframework.lang.Nullable;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * QianFan Rerank Client implementation. Documents are scored by a dedicated reranker
+ * model, which is much cheaper and faster than asking a chat model to rank them. Lists
+ * longer than the limit of the endpoint are split into batches scored concurrently, the
+ * scores of the batches being merged into a single ranking.
+ *
+ * @since 1.0
+ */
+public class QianFanRerankModel {
+
+	private final QianFanApi qianFanApi;
+
+	private final QianFanRerankOptions defaultOptions;
+
+	private final RetryTemplate retryTemplate;
+
+	/**
+	 * Maximum number of documents of a request.
+	 */
+	private int maxBatchSize = RerankRequest.MAX_DOCUMENTS;
+
+	/**
+	 * Maximum number of requests in flight when scoring batches.
+	 */
+	private int concurrency = 4;
+
+	/**
+	 * Optional meter recording the token usage and cost of the requests.
+	 */
+	private UsageMeter usageMeter;
+
+	/**
+	 * Constructor for the QianFanRerankModel class.
+	 * @param qianFanApi The QianFanApi instance to use for making API requests.
+	 */
+	public QianFanRerankModel(QianFanApi qianFanApi) {
+		this(qianFanApi, QianFanRerankOptions.builder().model(QianFanApi.DEFAULT_RERANK_MODEL).build());
+	}
+
+	/**
+	 * Initializes a new instance of the QianFanRerankModel class.
+	 * @param qianFanApi The QianFanApi instance to use for making API requests.
+	 * @param options The default options for QianFan rerank.
+	 */
+	public QianFanRerankModel(QianFanApi qianFanApi, QianFanRerankOptions options) {
+		this(qianFanApi, options, RetryUtils.DEFAULT_RETRY_TEMPLATE);
+	}
+
+	/**
+	 * Initializes a new instance of the QianFanRerankModel class.
+	 * @param qianFanApi The QianFanApi instance to use for making API requests.
+	 * @param options The default options for QianFan rerank.
+	 * @param retryTemplate The RetryTemplate for retrying failed API requests.
+	 */
+	public QianFanRerankModel(QianFanApi qianFanApi, QianFanRerankOptions options, RetryTemplate retryTemplate) {
+		Assert.notNull(qianFanApi, "QianFanApi must not be null");
+		Assert.notNull(options, "options must not be null");
+		Assert.notNull(retryTemplate, "retryTemplate must not be null");
+		this.qianFanApi = qianFanApi;
+		this.defaultOptions = options;
+		this.retryTemplate = retryTemplate;
+	}
+
+	/**
+	 * Rerank documents by their relevance to the query, with the default options.
+	 * @param query the query.
+	 * @param documents the documents to rerank.
+	 * @return the most relevant documents, most relevant first, their score set to the
+	 * relevance score.
+	 */
+	public List<Document> rerank(String query, List<Document> documents) {
+		List<String> texts = new ArrayList<>(documents.size());
+		for (Document document : documents) {
+			texts.add((document.getText() != null) ? document.getText() : "");
+		}
+		List<Document> reranked = new ArrayList<>();
+		for (Result result : call(query, texts, null).results()) {
+			reranked.add(documents.get(result.index()).mutate().score(result.score()).build());
+		}
+		return reranked;
+	}
+
+	/**
+	 * Score documents by their relevance to the query.
+	 * @param query the query.
+	 * @param documents the documents to score.
+	 * @param options the options of the request, overriding the default options.
+	 * @return the scored documents, most relevant first, and the usage of all the
+	 * batches.
+	 */
+	public Response call(String query, List<String> documents, @Nullable QianFanRerankOptions options) {
+		Assert.hasText(query, "query must not be empty");
+		Assert.notNull(documents, "documents must not be null");
+		QianFanRerankOptions requestOptions = mergeOptions(options);
+		if (documents.isEmpty()) {
+			return new Response(List.of(), new DefaultUsage(0, 0, 0));
+		}
+		List<List<String>> batches = new ArrayList<>();
+		for (int from = 0; from < documents.size(); from += this.maxBatchSize) {
+			batches.add(documents.subList(from, Math.min(documents.size(), from + this.maxBatchSize)));
+		}
+		List<QianFanApi.RerankResponse> responses = Flux.range(0, batches.size())
+			.flatMapSequential(i -> Mono.fromCallable(() -> rerankBatch(query, batches.get(i), requestOptions))
+				.subscribeOn(Schedulers.boundedElastic()), this.concurrency)
+			.collectList()
+			.block();
+
+		List<Result> results = new ArrayList<>();
+		int promptTokens = 0;
+		int totalTokens = 0;
+		for (int i = 0; i < responses.size(); i++) {
+			QianFanApi.RerankResponse response = responses.get(i);
+			for (QianFanApi.RerankResult result : response.results()) {
+				int index = i * this.maxBatchSize + result.index();
+				results.add(new Result(index, documents.get(index), result.relevanceScore()));
+			}
+			if (response.usage() != null) {
+				promptTokens += (response.usage().promptTokens() != null) ? response.usage().promptTokens() : 0;
+				totalTokens += (response.usage().totalTokens() != null) ? response.usage().totalTokens() : 0;
+			}
+		}
+		results.sort(Comparator.comparingDouble(Result::score).reversed().thenComparingInt(Result::index));
+		if (requestOptions.getTopN() != null && results.size() > requestOptions.getTopN()) {
+			results = new ArrayList<>(results.subList(0, requestOptions.getTopN()));
+		}
+		Usage usage = new DefaultUsage(promptTokens, 0, totalTokens);
+		if (this.usageMeter != null) {
+			this.usageMeter.record(UsageMeter.Operation.RERANK, requestOptions.getModel(), usage);
+		}
+		return new Response(results, usage);
+	}
+
+	private QianFanApi.RerankResponse rerankBatch(String query, List<String> documents, QianFanRerankOptions options) {
+		// every batch returns its own top N, which holds the top N of the batch overall
+		RerankRequest request = new RerankRequest(options.getModel(), query, documents, options.getTopN(),
+				options.getUser());
+		QianFanApi.RerankResponse response = this.retryTemplate
+			.execute(ctx -> this.qianFanApi.rerank(request).getBody());
+		if (response == null) {
+			throw new NonTransientAiException("Rerank failed: no response returned");
+		}
+		if (response.errorMsg() != null) {
+			throw new NonTransientAiException(
+					"Rerank failed: error code:" + response.errorCode() + ", message:" + response.errorMsg());
+		}
+		return response;
+	}
+
+	private QianFanRerankOptions mergeOptions(@Nullable QianFanRerankOptions options) {
+		if (options == null) {
+			return this.defaultOptions;
+		}
+		return QianFanRerankOptions.builder()
+			.model(ModelOptionsUtils.mergeOption(options.getModel(), this.defaultOptions.getModel()))
+			.topN(ModelOptionsUtils.mergeOption(options.getTopN(), this.defaultOptions.getTopN()))
+			.user(ModelOptionsUtils.mergeOption(options.getUser(), this.defaultOptions.getUser()))
+			.build();
+	}
+
+	/**
+	 * Set the maximum number of documents of a request, the limit of the endpoint by
+	 * default.
+	 * @param maxBatchSize the maximum number of documents of a request.
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		Assert.isTrue(maxBatchSize > 0 && maxBatchSize <= RerankRequest.MAX_DOCUMENTS,
+				"maxBatchSize must be between 1 and " + RerankRequest.MAX_DOCUMENTS);
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Set the maximum number of batches scored concurrently, 4 by default.
+	 * @param concurrency the maximum number of concurrent requests.
+	 */
+	public void setConcurrency(int concurrency) {
+		Assert.isTrue(concurrency > 0, "concurrency must be positive");
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Set the meter recording the token usage and cost of the rerank requests.
+	 * @param usageMeter the meter to use, or {@code null} to disable metering.
+	 */
+	public void setUsageMeter(UsageMeter usageMeter) {
+		this.usageMeter = usageMeter;
+	}
+
+	/**
+	 * The relevance of a document to the query.
+	 *
+	 * @param index the index of the document in the request.
+	 * @param document the document.
+	 * @param score the relevance score of the document, higher is more relevant.
+	 */
+	public record Result(int index, String document, double score) {
+
+	}
+
+	/**
+	 * The response of a rerank call.
+	 *
+	 * @param results the scored documents, most relevant first.
+	 * @param usage the usage of all the requests of the call.
+	 */
+	public record Response(List<Result> results, Usage usage) {
+
+	}
+
+}
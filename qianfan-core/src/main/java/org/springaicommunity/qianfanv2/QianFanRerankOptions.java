@@ -0,0 +1,106 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This class represents the options for QianFan rerank.
+ *
+ * @since 1.0
+ */
+@JsonInclude(Include.NON_NULL)
+public class QianFanRerankOptions {
+
+	// @formatter:off
+	/**
+	 * ID of the model to use.
+	 */
+	private @JsonProperty("model") String model;
+
+	/**
+	 * The number of most relevant documents to return, all of them when unset.
+	 */
+	private @JsonProperty("top_n") Integer topN;
+
+	/**
+	 * A unique identifier representing your end-user, which can help QianFan to
+	 * monitor and detect abuse.
+	 */
+	private @JsonProperty("user") String user;
+	// @formatter:on
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public String getModel() {
+		return this.model;
+	}
+
+	public void setModel(String model) {
+		this.model = model;
+	}
+
+	public Integer getTopN() {
+		return this.topN;
+	}
+
+	public void setTopN(Integer topN) {
+		this.topN = topN;
+	}
+
+	public String getUser() {
+		return this.user;
+	}
+
+	public void setUser(String user) {
+		this.user = user;
+	}
+
+	public static class Builder {
+
+		protected QianFanRerankOptions options;
+
+		public Builder() {
+			this.options = new QianFanRerankOptions();
+		}
+
+		public Builder model(String model) {
+			this.options.setModel(model);
+			return this;
+		}
+
+		public Builder topN(Integer topN) {
+			this.options.setTopN(topN);
+			return this;
+		}
+
+		public Builder user(String user) {
+			this.options.setUser(user);
+			return this;
+		}
+
+		public QianFanRerankOptions build() {
+			return this.options;
+		}
+
+	}
+
+}
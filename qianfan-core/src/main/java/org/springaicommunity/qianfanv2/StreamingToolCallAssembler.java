@@ -0,0 +1,141 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springaicommunity.qianfanv2.api.QianFanApi;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Assembles the tool calls streamed by the chat completion API. A tool call arrives as a
+ * series of deltas: the first carries its id and function name, the following ones
+ * fragments of the arguments. The deltas are accumulated per choice index, and a tool
+ * call is complete as soon as the next tool call of the same choice starts, the choice
+ * finishes, or the stream ends.
+ * <p>
+ * An assembler holds the state of a single stream and is not thread-safe, the deltas of a
+ * stream being delivered sequentially.
+ *
+ * @since 1.0
+ */
+public class StreamingToolCallAssembler {
+
+	private final Map<Integer, PendingToolCall> pending = new HashMap<>();
+
+	/**
+	 * Accumulate the tool call deltas of a streamed choice.
+	 * @param choice the streamed choice.
+	 * @return the tool calls completed by the choice, in order, possibly empty.
+	 */
+	public List<AssistantMessage.ToolCall> accept(QianFanApi.Choices choice) {
+		int choiceIndex = (choice.index() != null) ? choice.index() : 0;
+		List<AssistantMessage.ToolCall> completed = new ArrayList<>();
+		List<QianFanApi.ToolCalls> deltas = (choice.message() != null) ? choice.message().toolCalls() : null;
+		if (!CollectionUtils.isEmpty(deltas)) {
+			for (QianFanApi.ToolCalls delta : deltas) {
+				PendingToolCall current = this.pending.get(choiceIndex);
+				if (current == null || current.isStartedBy(delta)) {
+					if (current != null) {
+						completed.add(current.toToolCall());
+					}
+					current = new PendingToolCall(delta.index());
+					this.pending.put(choiceIndex, current);
+				}
+				current.append(delta);
+			}
+		}
+		if (StringUtils.hasText(choice.finishReason())) {
+			PendingToolCall current = this.pending.remove(choiceIndex);
+			if (current != null) {
+				completed.add(current.toToolCall());
+			}
+		}
+		return completed;
+	}
+
+	/**
+	 * Complete the tool calls still pending when the stream ends.
+	 * @return the completed tool calls, possibly empty.
+	 */
+	public List<AssistantMessage.ToolCall> complete() {
+		List<AssistantMessage.ToolCall> completed = new ArrayList<>();
+		this.pending.keySet().stream().sorted().forEach(index -> completed.add(this.pending.get(index).toToolCall()));
+		this.pending.clear();
+		return completed;
+	}
+
+	private static final class PendingToolCall {
+
+		private final Integer index;
+
+		private String id;
+
+		private String type;
+
+		private String name;
+
+		private final StringBuilder arguments = new StringBuilder();
+
+		PendingToolCall(Integer index) {
+			this.index = index;
+		}
+
+		/**
+		 * Whether the delta starts another tool call: a new index, or without indexes a
+		 * new id.
+		 */
+		boolean isStartedBy(QianFanApi.ToolCalls delta) {
+			if (delta.index() != null && this.index != null) {
+				return !delta.index().equals(this.index);
+			}
+			return delta.id() != null && this.id != null && !delta.id().equals(this.id);
+		}
+
+		void append(QianFanApi.ToolCalls delta) {
+			if (this.id == null) {
+				this.id = delta.id();
+			}
+			if (this.type == null) {
+				this.type = delta.type();
+			}
+			Map<String, String> function = delta.function();
+			if (function != null) {
+				if (this.name == null && StringUtils.hasText(function.get("name"))) {
+					this.name = function.get("name");
+				}
+				if (function.get("arguments") != null) {
+					this.arguments.append(function.get("arguments"));
+				}
+			}
+		}
+
+		AssistantMessage.ToolCall toToolCall() {
+			String toolCallId = (this.id != null) ? this.id : this.name;
+			String toolType = (this.type != null) ? this.type : "function";
+			return new AssistantMessage.ToolCall(toolCallId, toolType, this.name, this.arguments.toString());
+		}
+
+	}
+
+}
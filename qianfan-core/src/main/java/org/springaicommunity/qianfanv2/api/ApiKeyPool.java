@@ -0,0 +1,400 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2.api;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.Assert;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of QianFan API keys shared by a single {@link QianFanApi}. Every request leases
+ * one key according to the configured {@link SelectionStrategy}. A key that hits a quota
+ * or rate limit error for a model is ejected for that model during
+ * {@link Builder#ejectionDuration(Duration)}, while it keeps serving other models.
+ * <p>
+ * The following meters are published, tagged with the {@code pool} name and the key id
+ * (never the key itself):
+ * <ul>
+ * <li>{@code qianfan.apikey.requests} - counter, additionally tagged with {@code model}
+ * and {@code outcome} ({@code success}, {@code quota_exceeded} or {@code error})</li>
+ * <li>{@code qianfan.apikey.in.flight} - gauge of the requests currently using the
+ * key</li>
+ * </ul>
+ *
+ * @since 1.0
+ */
+public class ApiKeyPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(ApiKeyPool.class);
+
+	public static final String REQUESTS_METRIC = "qianfan.apikey.requests";
+
+	public static final String IN_FLIGHT_METRIC = "qianfan.apikey.in.flight";
+
+	static final String REMAINING_REQUESTS_HEADER = "X-Ratelimit-Remaining-Requests";
+
+	/**
+	 * Name of the pool when none is set.
+	 */
+	public static final String DEFAULT_NAME = "default";
+
+	/**
+	 * How a key is selected for a request.
+	 */
+	public enum SelectionStrategy {
+
+		/**
+		 * Rotate through the available keys.
+		 */
+		ROUND_ROBIN,
+
+		/**
+		 * Use the key with the fewest requests in flight.
+		 */
+		LEAST_IN_FLIGHT,
+
+		/**
+		 * Use the key with the most remaining requests for the model, as reported by the
+		 * {@code X-Ratelimit-Remaining-Requests} response header.
+		 */
+		QUOTA_AWARE
+
+	}
+
+	private final List<KeyEntry> entries;
+
+	private final String name;
+
+	private final SelectionStrategy selectionStrategy;
+
+	private final Duration ejectionDuration;
+
+	private final MeterRegistry meterRegistry;
+
+	private final AtomicLong roundRobinCounter = new AtomicLong();
+
+	protected ApiKeyPool(String name, Map<String, String> apiKeys, SelectionStrategy selectionStrategy,
+			Duration ejectionDuration, MeterRegistry meterRegistry) {
+		Assert.hasText(name, "name must not be empty");
+		Assert.notEmpty(apiKeys, "apiKeys must not be empty");
+		Assert.notNull(selectionStrategy, "selectionStrategy must not be null");
+		Assert.notNull(ejectionDuration, "ejectionDuration must not be null");
+		Assert.notNull(meterRegistry, "meterRegistry must not be null");
+		this.name = name;
+		this.selectionStrategy = selectionStrategy;
+		this.ejectionDuration = ejectionDuration;
+		this.meterRegistry = meterRegistry;
+		List<KeyEntry> keyEntries = new ArrayList<>(apiKeys.size());
+		apiKeys.forEach((id, apiKey) -> {
+			Assert.hasText(apiKey, "apiKeys must not contain empty keys");
+			KeyEntry entry = new KeyEntry(id, apiKey);
+			Gauge.builder(IN_FLIGHT_METRIC, entry.inFlight, AtomicInteger::get)
+				.tag("pool", name)
+				.tag("key", id)
+				.register(meterRegistry);
+			keyEntries.add(entry);
+		});
+		this.entries = List.copyOf(keyEntries);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Lease a key for a request to the given model. The lease must be closed when the
+	 * request completes.
+	 * @param model the model the request is sent to.
+	 * @return the lease of the selected key.
+	 */
+	public Lease acquire(String model) {
+		String resolvedModel = String.valueOf(model);
+		long now = System.nanoTime();
+		KeyEntry selected = null;
+		int size = this.entries.size();
+		int offset = (this.selectionStrategy == SelectionStrategy.ROUND_ROBIN)
+				? (int) (this.roundRobinCounter.getAndIncrement() % size) : 0;
+		for (int i = 0; i < size; i++) {
+			KeyEntry candidate = this.entries.get((offset + i) % size);
+			if (candidate.isEjected(resolvedModel, now)) {
+				continue;
+			}
+			if (selected == null || isPreferred(candidate, selected, resolvedModel)) {
+				selected = candidate;
+				if (this.selectionStrategy == SelectionStrategy.ROUND_ROBIN) {
+					break;
+				}
+			}
+		}
+		if (selected == null) {
+			// Every key is ejected for this model, use the one that recovers first.
+			for (KeyEntry candidate : this.entries) {
+				if (selected == null || candidate.ejectedUntil(resolvedModel) < selected.ejectedUntil(resolvedModel)) {
+					selected = candidate;
+				}
+			}
+		}
+		selected.inFlight.incrementAndGet();
+		return new Lease(selected, resolvedModel);
+	}
+
+	private boolean isPreferred(KeyEntry candidate, KeyEntry selected, String model) {
+		if (this.selectionStrategy == SelectionStrategy.QUOTA_AWARE) {
+			long candidateRemaining = candidate.remainingRequests(model);
+			long selectedRemaining = selected.remainingRequests(model);
+			if (candidateRemaining != selectedRemaining) {
+				return candidateRemaining > selectedRemaining;
+			}
+		}
+		return candidate.inFlight.get() < selected.inFlight.get();
+	}
+
+	/**
+	 * Whether the error reports an exhausted quota or rate limit.
+	 * @param error the request error.
+	 * @return {@code true} for quota and rate limit errors.
+	 */
+	public static boolean isQuotaError(Throwable error) {
+		if (error instanceof RestClientResponseException responseException) {
+			return responseException.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value();
+		}
+		if (error instanceof WebClientResponseException responseException) {
+			return responseException.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value();
+		}
+		String message = error.getMessage();
+		return message != null && (message.startsWith("429") || message.contains("rate_limit_exceeded")
+				|| message.contains("quota_exceeded"));
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public List<String> getKeyIds() {
+		return this.entries.stream().map(entry -> entry.id).toList();
+	}
+
+	public SelectionStrategy getSelectionStrategy() {
+		return this.selectionStrategy;
+	}
+
+	private Counter requestCounter(KeyEntry entry, String model, String outcome) {
+		return Counter.builder(REQUESTS_METRIC)
+			.tag("pool", this.name)
+			.tag("key", entry.id)
+			.tag("model", model)
+			.tag("outcome", outcome)
+			.register(this.meterRegistry);
+	}
+
+	/**
+	 * A key leased for a single request.
+	 */
+	public final class Lease implements AutoCloseable {
+
+		private final KeyEntry entry;
+
+		private final String model;
+
+		private boolean closed;
+
+		private Lease(KeyEntry entry, String model) {
+			this.entry = entry;
+			this.model = model;
+		}
+
+		/**
+		 * Set the authorization header of the request to the leased key.
+		 * @param headers the request headers.
+		 */
+		public void applyTo(HttpHeaders headers) {
+			headers.setBearerAuth(this.entry.apiKey);
+		}
+
+		/**
+		 * Record a successful response.
+		 * @param headers the response headers, may be {@code null}.
+		 */
+		public void onSuccess(HttpHeaders headers) {
+			if (headers != null) {
+				String remaining = headers.getFirst(REMAINING_REQUESTS_HEADER);
+				if (remaining != null) {
+					try {
+						this.entry.remainingRequests.put(this.model, Long.parseLong(remaining.trim()));
+					}
+					catch (NumberFormatException ex) {
+						logger.debug("Ignoring invalid {} header: {}", REMAINING_REQUESTS_HEADER, remaining);
+					}
+				}
+			}
+			requestCounter(this.entry, this.model, "success").increment();
+		}
+
+		/**
+		 * Record a failed request, ejecting the key for the model on quota errors.
+		 * @param error the request error.
+		 */
+		public void onError(Throwable error) {
+			if (isQuotaError(error)) {
+				this.entry.ejectedUntil.put(this.model, System.nanoTime() + ApiKeyPool.this.ejectionDuration.toNanos());
+				this.entry.remainingRequests.put(this.model, 0L);
+				logger.warn("QianFan API key '{}' exceeded its quota for model '{}', ejecting it for {}", this.entry.id,
+						this.model, ApiKeyPool.this.ejectionDuration);
+				requestCounter(this.entry, this.model, "quota_exceeded").increment();
+			}
+			else {
+				requestCounter(this.entry, this.model, "error").increment();
+			}
+		}
+
+		public String getKeyId() {
+			return this.entry.id;
+		}
+
+		@Override
+		public void close() {
+			if (!this.closed) {
+				this.closed = true;
+				this.entry.inFlight.decrementAndGet();
+			}
+		}
+
+	}
+
+	private static final class KeyEntry {
+
+		private final String id;
+
+		private final String apiKey;
+
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		private final Map<String, Long> ejectedUntil = new ConcurrentHashMap<>();
+
+		private final Map<String, Long> remainingRequests = new ConcurrentHashMap<>();
+
+		private KeyEntry(String id, String apiKey) {
+			this.id = id;
+			this.apiKey = apiKey;
+		}
+
+		private boolean isEjected(String model, long now) {
+			Long until = this.ejectedUntil.get(model);
+			if (until == null) {
+				return false;
+			}
+			if (now - until >= 0) {
+				this.ejectedUntil.remove(model, until);
+				this.remainingRequests.remove(model);
+				return false;
+			}
+			return true;
+		}
+
+		private long ejectedUntil(String model) {
+			return this.ejectedUntil.getOrDefault(model, Long.MIN_VALUE);
+		}
+
+		private long remainingRequests(String model) {
+			return this.remainingRequests.getOrDefault(model, Long.MAX_VALUE);
+		}
+
+	}
+
+	public static class Builder {
+
+		private final Map<String, String> apiKeys = new LinkedHashMap<>();
+
+		private String name = DEFAULT_NAME;
+
+		private SelectionStrategy selectionStrategy = SelectionStrategy.ROUND_ROBIN;
+
+		private Duration ejectionDuration = Duration.ofSeconds(60);
+
+		private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+		/**
+		 * Set the name of the pool, tagging its meters so that several pools sharing a
+		 * registry do not collide.
+		 */
+		public Builder name(String name) {
+			this.name = name;
+			return this;
+		}
+
+		/**
+		 * Add a key. Its id, used in logs and metrics, is {@code key-<position>}.
+		 */
+		public Builder apiKey(String apiKey) {
+			return apiKey("key-" + this.apiKeys.size(), apiKey);
+		}
+
+		/**
+		 * Add a key with the id used to identify it in logs and metrics.
+		 */
+		public Builder apiKey(String id, String apiKey) {
+			Assert.hasText(id, "id must not be empty");
+			this.apiKeys.put(id, apiKey);
+			return this;
+		}
+
+		public Builder apiKeys(List<String> apiKeys) {
+			Assert.notNull(apiKeys, "apiKeys must not be null");
+			apiKeys.forEach(this::apiKey);
+			return this;
+		}
+
+		public Builder selectionStrategy(SelectionStrategy selectionStrategy) {
+			this.selectionStrategy = selectionStrategy;
+			return this;
+		}
+
+		public Builder ejectionDuration(Duration ejectionDuration) {
+			this.ejectionDuration = ejectionDuration;
+			return this;
+		}
+
+		public Builder meterRegistry(MeterRegistry meterRegistry) {
+			this.meterRegistry = meterRegistry;
+			return this;
+		}
+
+		public ApiKeyPool build() {
+			return new ApiKeyPool(this.name, this.apiKeys, this.selectionStrategy, this.ejectionDuration,
+					this.meterRegistry);
+		}
+
+	}
+
+}
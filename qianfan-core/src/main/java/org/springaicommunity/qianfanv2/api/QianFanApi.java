@@ -19,8 +19,13 @@ package org.springaicommunity.qianfanv2.api;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springaicommunity.qianfan.api.RequestFragments;
+import org.springaicommunity.qianfan.resilience.CircuitBreakerRegistry;
+import org.springframework.ai.model.ModelOptionsUtils;
 import org.springframework.ai.retry.RetryUtils;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
@@ -32,10 +37,14 @@ import reactor.core.publisher.Mono;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 // @formatter:off
 /**
- * Single class implementation of the QianFan Chat Completion API and Embedding API.
+ * Single class implementation of the QianFan Chat Completion API, Embedding API and Rerank API.
  * <a href="https://cloud.baidu.com/doc/WENXINWORKSHOP/index.html">QianFan Docs</a>
  *
  * @author Geng Rong
@@ -46,13 +55,26 @@ public class QianFanApi {
 
 	public static final String DEFAULT_CHAT_MODEL = ChatModel.ERNIE_4_5_Turbo.getValue();
 	public static final String DEFAULT_EMBEDDING_MODEL = EmbeddingModel.EmbeddingV1.getValue();
-//	private static final Predicate<ChatCompletionChunk> SSE_DONE_PREDICATE = ChatCompletionChunk::end;
+	public static final String DEFAULT_RERANK_MODEL = RerankModel.BCE_RERANKER_BASE.getValue();
+	private static final Predicate<String> SSE_DONE_PREDICATE = "[DONE]"::equals;
 
 
+	private static final String CHAT_ENDPOINT = "/chat/completions";
+
+	private static final String EMBEDDINGS_ENDPOINT = "/embeddings";
+
+	private static final String RERANK_ENDPOINT = "/rerankers";
+
 	private final RestClient restClient;
 
 	private final WebClient webClient;
 
+	private final ApiKeyPool apiKeyPool;
+
+	private CircuitBreakerRegistry circuitBreakerRegistry;
+
+	private RequestFragments requestFragments;
+
 	/**
 	 * Create a new chat completion api with default base URL.
 	 *
@@ -106,16 +128,41 @@ public class QianFanApi {
 	 */
 	public QianFanApi(String baseUrl, String apiKey, RestClient.Builder restClientBuilder,
 					WebClient.Builder webClientBuilder, ResponseErrorHandler responseErrorHandler) {
+		this(baseUrl, QianFanUtils.defaultHeaders(apiKey), null, restClientBuilder, webClientBuilder,
+				responseErrorHandler);
+	}
+
+	/**
+	 * Create a new chat completion api that spreads the requests over a pool of api keys.
+	 *
+	 * @param baseUrl api base URL.
+	 * @param apiKeyPool pool of QianFan api keys.
+	 * @param restClientBuilder RestClient builder.
+	 * @param webClientBuilder     WebClient builder.
+	 * @param responseErrorHandler Response error handler.
+	 */
+	public QianFanApi(String baseUrl, ApiKeyPool apiKeyPool, RestClient.Builder restClientBuilder,
+					WebClient.Builder webClientBuilder, ResponseErrorHandler responseErrorHandler) {
+		this(baseUrl, QianFanUtils.defaultHeaders(), apiKeyPool, restClientBuilder, webClientBuilder,
+				responseErrorHandler);
+		Assert.notNull(apiKeyPool, "apiKeyPool must not be null");
+	}
+
+	private QianFanApi(String baseUrl, Consumer<HttpHeaders> defaultHeaders, ApiKeyPool apiKeyPool,
+					RestClient.Builder restClientBuilder, WebClient.Builder webClientBuilder,
+					ResponseErrorHandler responseErrorHandler) {
+
+		this.apiKeyPool = apiKeyPool;
 
 		this.restClient = restClientBuilder
 				.baseUrl(baseUrl)
-				.defaultHeaders(QianFanUtils.defaultHeaders(apiKey))
+				.defaultHeaders(defaultHeaders)
 				.defaultStatusHandler(responseErrorHandler)
 				.build();
 
 		this.webClient = webClientBuilder
 				.baseUrl(baseUrl)
-				.defaultHeaders(QianFanUtils.defaultHeaders(apiKey))
+				.defaultHeaders(defaultHeaders)
 				.build();
 	}
 
@@ -130,11 +177,11 @@ public class QianFanApi {
 		Assert.notNull(chatRequest, "The request body can not be null.");
 		Assert.isTrue(!chatRequest.stream(), "Request must set the stream property to false.");
 
-		return this.restClient.post()
+		return guarded(chatRequest.model(), CHAT_ENDPOINT, () -> withApiKey(chatRequest.model(), auth -> withBody(this.restClient.post()
 				.uri("/chat/completions")
-				.body(chatRequest)
+				.headers(auth), chatRequest)
 				.retrieve()
-				.toEntity(ChatCompletion.class);
+				.toEntity(ChatCompletion.class)));
 	}
 
 	/**
@@ -147,19 +194,27 @@ public class QianFanApi {
 		Assert.notNull(chatRequest, "The request body can not be null.");
 		Assert.isTrue(chatRequest.stream(), "Request must set the stream property to true.");
 
-		return this.webClient.post()
+		return guardedStream(chatRequest.model(), CHAT_ENDPOINT, withApiKeyStream(chatRequest.model(), auth -> withBody(this.webClient.post()
 				.uri("/chat/completions")
-				.body(Mono.just(chatRequest), ChatCompletionRequest.class)
+				.headers(auth), chatRequest)
 				.retrieve()
-				.bodyToFlux(ChatCompletionChunk.class)
-				.takeUntil(chunk -> {
-					if (chunk == null) return false;
-					// 根据你的实际业务逻辑调整这里
-					if("stop".equals(chunk.choices().get(0).finishReason)){
-						return true;
-					}
-					return false;
-				});
+				.bodyToFlux(String.class)
+				.takeUntil(SSE_DONE_PREDICATE)
+				.filter(SSE_DONE_PREDICATE.negate())
+				.map(content -> ModelOptionsUtils.jsonToObject(content, ChatCompletionChunk.class))
+				.takeUntil(chunk -> isLastChunk(chunk, chatRequest.streamOptions()))));
+	}
+
+	/**
+	 * The stream ends with the chunk finishing the completion or, when the usage is
+	 * requested, with the chunk carrying the usage that follows it.
+	 */
+	private static boolean isLastChunk(ChatCompletionChunk chunk,
+			ChatCompletionRequest.StreamOptions streamOptions) {
+		if (streamOptions != null && Boolean.TRUE.equals(streamOptions.includeUsage())) {
+			return chunk.usage() != null;
+		}
+		return !CollectionUtils.isEmpty(chunk.choices()) && "stop".equals(chunk.choices().get(0).finishReason());
 	}
 
 	/**
@@ -181,13 +236,129 @@ public class QianFanApi {
 		Assert.isTrue(!CollectionUtils.isEmpty(embeddingRequest.texts()), "The input list can not be empty.");
 		Assert.isTrue(embeddingRequest.texts().size() <= 16, "The list must be 16 dimensions or less");
 
-		return this.restClient.post()
+		return guarded(embeddingRequest.model(), EMBEDDINGS_ENDPOINT, () -> withApiKey(embeddingRequest.model(), auth -> this.restClient.post()
 				.uri("/embeddings")
+				.headers(auth)
 				.body(embeddingRequest)
 				.retrieve()
-				.toEntity(new ParameterizedTypeReference<>() {
+				.toEntity(new ParameterizedTypeReference<EmbeddingList>() {
+
+				})));
+	}
+
+	/**
+	 * Reactive variant of {@link #embeddings(EmbeddingRequest)}, sending the request with
+	 * the non-blocking {@link WebClient}.
+	 *
+	 * @param embeddingRequest The embedding request.
+	 * @return Returns a {@link Mono} of the {@link EmbeddingList}.
+	 */
+	public Mono<EmbeddingList> embeddingsReactive(EmbeddingRequest embeddingRequest) {
+		Assert.notNull(embeddingRequest, "The request body can not be null.");
+		Assert.isTrue(!CollectionUtils.isEmpty(embeddingRequest.texts()), "The input list can not be empty.");
+		Assert.isTrue(embeddingRequest.texts().size() <= 16, "The list must be 16 dimensions or less");
 
-				});
+		return guardedStream(embeddingRequest.model(), EMBEDDINGS_ENDPOINT, withApiKeyStream(embeddingRequest.model(), auth -> this.webClient.post()
+				.uri("/embeddings")
+				.headers(auth)
+				.bodyValue(embeddingRequest)
+				.retrieve()
+				.bodyToMono(EmbeddingList.class)
+				.flux()))
+			.single();
+	}
+
+	/**
+	 * Scores documents by their relevance to a query with a reranker model.
+	 *
+	 * @param rerankRequest The rerank request.
+	 * @return Returns {@link RerankResponse} with the relevance score of every document.
+	 */
+	public ResponseEntity<RerankResponse> rerank(RerankRequest rerankRequest) {
+		Assert.notNull(rerankRequest, "The request body can not be null.");
+		Assert.hasText(rerankRequest.query(), "The query can not be empty.");
+		Assert.isTrue(!CollectionUtils.isEmpty(rerankRequest.documents()), "The document list can not be empty.");
+		Assert.isTrue(rerankRequest.documents().size() <= RerankRequest.MAX_DOCUMENTS,
+				"The list must be " + RerankRequest.MAX_DOCUMENTS + " documents or less");
+
+		return guarded(rerankRequest.model(), RERANK_ENDPOINT, () -> withApiKey(rerankRequest.model(), auth -> this.restClient.post()
+				.uri(RERANK_ENDPOINT)
+				.headers(auth)
+				.body(rerankRequest)
+				.retrieve()
+				.toEntity(RerankResponse.class)));
+	}
+
+	/**
+	 * Guard the chat and embedding calls with per model circuit breakers. Calls to a
+	 * model whose breaker is open fail fast with a
+	 * {@link org.springaicommunity.qianfan.resilience.CircuitBreakerOpenException}.
+	 *
+	 * @param circuitBreakerRegistry the registry holding the circuit breakers, or {@code null} to disable them.
+	 */
+	public void setCircuitBreakerRegistry(CircuitBreakerRegistry circuitBreakerRegistry) {
+		this.circuitBreakerRegistry = circuitBreakerRegistry;
+	}
+
+	/**
+	 * Splice pre-serialized static fragments, such as a large system prompt or the tool
+	 * schemas, into the chat request bodies instead of serializing them on every request.
+	 *
+	 * @param requestFragments the registered fragments, or {@code null} to serialize the requests as a whole.
+	 */
+	public void setRequestFragments(RequestFragments requestFragments) {
+		this.requestFragments = requestFragments;
+	}
+
+	private RestClient.RequestBodySpec withBody(RestClient.RequestBodySpec request, Object body) {
+		RequestFragments fragments = this.requestFragments;
+		return (fragments != null) ? request.contentType(MediaType.APPLICATION_JSON).body(fragments.write(body))
+				: request.body(body);
+	}
+
+	private WebClient.RequestHeadersSpec<?> withBody(WebClient.RequestBodySpec request, ChatCompletionRequest body) {
+		RequestFragments fragments = this.requestFragments;
+		return (fragments != null)
+				? request.contentType(MediaType.APPLICATION_JSON).body(Mono.fromCallable(() -> fragments.write(body)), byte[].class)
+				: request.body(Mono.just(body), ChatCompletionRequest.class);
+	}
+
+	private <T> T guarded(String model, String endpoint, Supplier<T> call) {
+		CircuitBreakerRegistry registry = this.circuitBreakerRegistry;
+		return (registry != null) ? registry.execute(model, endpoint, call) : call.get();
+	}
+
+	private <T> Flux<T> guardedStream(String model, String endpoint, Flux<T> stream) {
+		CircuitBreakerRegistry registry = this.circuitBreakerRegistry;
+		return (registry != null) ? registry.executeStream(model, endpoint, stream) : stream;
+	}
+
+	private <T> ResponseEntity<T> withApiKey(String model, Function<Consumer<HttpHeaders>, ResponseEntity<T>> call) {
+		if (this.apiKeyPool == null) {
+			return call.apply(headers -> { });
+		}
+		try (ApiKeyPool.Lease lease = this.apiKeyPool.acquire(model)) {
+			try {
+				ResponseEntity<T> response = call.apply(lease::applyTo);
+				lease.onSuccess(response.getHeaders());
+				return response;
+			}
+			catch (RuntimeException ex) {
+				lease.onError(ex);
+				throw ex;
+			}
+		}
+	}
+
+	private <T> Flux<T> withApiKeyStream(String model, Function<Consumer<HttpHeaders>, Flux<T>> call) {
+		if (this.apiKeyPool == null) {
+			return call.apply(headers -> { });
+		}
+		return Flux.using(() -> this.apiKeyPool.acquire(model),
+				lease -> call.apply(lease::applyTo)
+						.doOnComplete(() -> lease.onSuccess(null))
+						.doOnError(lease::onError),
+				ApiKeyPool.Lease::close);
 	}
 
 	/**
@@ -195,18 +366,46 @@ public class QianFanApi {
 	 * <a href="https://cloud.baidu.com/doc/WENXINWORKSHOP/s/Nlks5zkzu#%E5%AF%B9%E8%AF%9Dchat">QianFan Model</a>.
 	 */
 	public enum ChatModel {
-		ERNIE_4_5_Turbo	("ernie-4.5-turbo-128k"),
-		;
+		ERNIE_4_5_Turbo	("ernie-4.5-turbo-128k", 131072),
+		ERNIE_4_5_Turbo_32K	("ernie-4.5-turbo-32k", 32768),
+		ERNIE_Speed_8K	("ernie-speed-8k", 8192),
+		ERNIE_Speed_128K	("ernie-speed-128k", 131072),
+		ERNIE_Lite_8K	("ernie-lite-8k", 8192);
 
 		public final String  value;
 
-		ChatModel(String value) {
+		/**
+		 * Maximum number of tokens of the prompt and the completion together.
+		 */
+		public final int contextWindow;
+
+		ChatModel(String value, int contextWindow) {
 			this.value = value;
+			this.contextWindow = contextWindow;
 		}
 
 		public String getValue() {
 			return this.value;
 		}
+
+		public int getContextWindow() {
+			return this.contextWindow;
+		}
+
+		/**
+		 * Find the model with the given ID.
+		 *
+		 * @param value ID of the model.
+		 * @return the model, or {@code null} when the ID is not a known chat model.
+		 */
+		public static ChatModel fromValue(String value) {
+			for (ChatModel chatModel : values()) {
+				if (chatModel.value.equals(value)) {
+					return chatModel;
+				}
+			}
+			return null;
+		}
 	}
 
 	/**
@@ -246,6 +445,24 @@ public class QianFanApi {
 		}
 	}
 
+	/**
+	 * QianFan Rerank Models.
+	 */
+	public enum RerankModel {
+
+		BCE_RERANKER_BASE("bce-reranker-base");
+
+		public final String value;
+
+		RerankModel(String value) {
+			this.value = value;
+		}
+
+		public String getValue() {
+			return this.value;
+		}
+	}
+
 	/**
 	 * Creates a model response for the given chat conversation.
 	 *
@@ -283,9 +500,20 @@ public class QianFanApi {
 			@JsonProperty("temperature") Double temperature,
 			@JsonProperty("top_p") Double topP,
 			@JsonProperty("tools") List<FunctionTool> tools,
-			@JsonProperty("tool_choice") ToolChoice toolChoice
+			@JsonProperty("tool_choice") ToolChoice toolChoice,
+			@JsonProperty("stream_options") StreamOptions streamOptions
 			) {
 
+		/**
+		 * Create a chat completion request without stream options.
+		 */
+		public ChatCompletionRequest(List<ChatCompletionMessage> messages, String model, Double frequencyPenalty,
+				Integer maxTokens, Double presencePenalty, ResponseFormat responseFormat, List<String> stop,
+				Boolean stream, Double temperature, Double topP, List<FunctionTool> tools, ToolChoice toolChoice) {
+			this(messages, model, frequencyPenalty, maxTokens, presencePenalty, responseFormat, stop, stream,
+					temperature, topP, tools, toolChoice, null);
+		}
+
 		public ChatCompletionRequest(List<ChatCompletionMessage> messages, String model, Double temperature,List<FunctionTool> tools,ToolChoice toolChoice) {
 			this(messages, model, null, null,
 					null, null, null, false, temperature, null,tools,toolChoice);
@@ -340,6 +568,18 @@ public class QianFanApi {
 				@JsonProperty("type") String type) {
 		}
 
+		/**
+		 * Options of a streaming request.
+		 *
+		 * @param includeUsage If set, the token usage of the request is sent in the final chunk of the stream.
+		 */
+		@JsonInclude(Include.NON_NULL)
+		public record StreamOptions(
+				@JsonProperty("include_usage") Boolean includeUsage) {
+
+			public static final StreamOptions INCLUDE_USAGE = new StreamOptions(true);
+		}
+
 		@JsonInclude(Include.NON_NULL)
 		public static enum ToolChoice {
 			@JsonProperty("auto")
@@ -360,11 +600,27 @@ public class QianFanApi {
 	 * @param rawContent The contents of the message. Can be a {@link String}.
 	 * The response message content is always a {@link String}.
 	 * @param role The role of the messages author. Could be one of the {@link Role} types.
+	 * @param name The name of the tool that produced a tool message.
+	 * @param toolCallId The ID of the tool call a tool message responds to.
+	 * @param toolCalls The tool calls requested by an assistant message.
 	 */
 	@JsonInclude(Include.NON_NULL)
 	public record ChatCompletionMessage(
 			@JsonProperty("content") Object rawContent,
-			@JsonProperty("role") Role role) {
+			@JsonProperty("role") Role role,
+			@JsonProperty("name") String name,
+			@JsonProperty("tool_call_id") String toolCallId,
+			@JsonProperty("tool_calls") List<ToolCalls> toolCalls) {
+
+		/**
+		 * Create a chat completion message with the given content and role.
+		 *
+		 * @param content The contents of the message.
+		 * @param role The role of the messages author.
+		 */
+		public ChatCompletionMessage(Object content, Role role) {
+			this(content, role, null, null, null);
+		}
 
 		/**
 		 * Get message content as String.
@@ -476,11 +732,26 @@ public class QianFanApi {
 	}
 
 
+	/**
+	 * A tool call requested by the model. In streamed deltas the call is split over
+	 * several chunks: the id and the function name come first, followed by fragments of
+	 * the arguments, all carrying the same index.
+	 *
+	 * @param id The ID of the tool call.
+	 * @param type The type of the tool, only function is supported.
+	 * @param function The function name and the arguments, or a fragment of them.
+	 * @param index The index of the tool call in streamed deltas.
+	 */
 	@JsonInclude(Include.NON_NULL)
 	public record ToolCalls(
 		@JsonProperty("id") String id,
 		@JsonProperty("type") String type,
-		@JsonProperty("function") Map<String,String> function){
+		@JsonProperty("function") Map<String,String> function,
+		@JsonProperty("index") Integer index){
+
+		public ToolCalls(String id, String type, Map<String, String> function) {
+			this(id, type, function, null);
+		}
 	}
 	@JsonInclude(Include.NON_NULL)
 	public record ChoicesChunk(
@@ -497,6 +768,9 @@ public class QianFanApi {
 	 * @param created The Unix timestamp (in seconds) of when the chat completion was created. Each chunk has the same
 	 * timestamp.
 	 * @param result Result of chat completion message.
+	 * @param choices The completion deltas, empty in the chunk carrying the usage.
+	 * @param usage Usage statistics of the request, only sent in the final chunk when requested with
+	 * {@link ChatCompletionRequest.StreamOptions}.
 	 */
 	@JsonInclude(Include.NON_NULL)
 	public record ChatCompletionChunk(
@@ -504,10 +778,8 @@ public class QianFanApi {
 			@JsonProperty("object") String object,
 			@JsonProperty("created") Long created,
 			@JsonProperty("result") String result,
-//			@JsonProperty("finish_reason") String finishReason,
-//			@JsonProperty("is_end") Boolean end,
-			@JsonProperty("choices") List<ChoicesChunk> choices
-//			@JsonProperty("usage") Usage usage
+			@JsonProperty("choices") List<ChoicesChunk> choices,
+			@JsonProperty("usage") Usage usage
 			) {
 	}
 
@@ -618,6 +890,68 @@ public class QianFanApi {
 		// @formatter:on
 	}
 
+	/**
+	 * Scores documents by their relevance to a query.
+	 *
+	 * @param model ID of the reranker model to use.
+	 * @param query The query to score the documents against.
+	 * @param documents The documents to score, at most {@link #MAX_DOCUMENTS}.
+	 * @param topN The number of most relevant documents to return, all of them when null.
+	 * @param user A unique identifier representing your end-user, which can help QianFan
+	 * to monitor and detect abuse.
+	 */
+	@JsonInclude(Include.NON_NULL)
+	public record RerankRequest(@JsonProperty("model") String model, @JsonProperty("query") String query,
+			@JsonProperty("documents") List<String> documents, @JsonProperty("top_n") Integer topN,
+			@JsonProperty("user") String user) {
+
+		/**
+		 * The maximum number of documents of a request.
+		 */
+		public static final int MAX_DOCUMENTS = 64;
+
+		/**
+		 * Create a rerank request scoring all the documents.
+		 * @param model ID of the reranker model to use.
+		 * @param query The query to score the documents against.
+		 * @param documents The documents to score.
+		 */
+		public RerankRequest(String model, String query, List<String> documents) {
+			this(model, query, documents, null, null);
+		}
+	}
+
+	/**
+	 * The relevance of a document to the query.
+	 *
+	 * @param index The index of the document in the request.
+	 * @param document The document.
+	 * @param relevanceScore The relevance score of the document, higher is more relevant.
+	 */
+	@JsonInclude(Include.NON_NULL)
+	public record RerankResult(@JsonProperty("index") Integer index, @JsonProperty("document") String document,
+			@JsonProperty("relevance_score") Double relevanceScore) {
+	}
+
+	/**
+	 * The response of a rerank request.
+	 *
+	 * @param id A unique identifier of the request.
+	 * @param object The object type, which is always 'rerank_list'.
+	 * @param created The Unix timestamp (in seconds) of when the response was created.
+	 * @param model ID of the model used.
+	 * @param results The documents, sorted by decreasing relevance.
+	 * @param errorCode Error code if any.
+	 * @param errorMsg Error message if any.
+	 * @param usage Usage statistics for the request.
+	 */
+	@JsonInclude(Include.NON_NULL)
+	public record RerankResponse(@JsonProperty("id") String id, @JsonProperty("object") String object,
+			@JsonProperty("created") Long created, @JsonProperty("model") String model,
+			@JsonProperty("results") List<RerankResult> results, @JsonProperty("error_code") String errorCode,
+			@JsonProperty("error_msg") String errorMsg, @JsonProperty("usage") Usage usage) {
+	}
+
 	@JsonInclude(Include.NON_NULL)
 	public record FunctionTool(@JsonProperty("type") String type, @JsonProperty("function") Function function) {
 
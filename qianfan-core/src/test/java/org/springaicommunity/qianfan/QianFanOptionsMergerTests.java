@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import org.springaicommunity.qianfan.api.QianFanApi.ChatCompletionMessage;
+import org.springaicommunity.qianfan.api.QianFanApi.ChatCompletionMessage.Role;
+import org.springaicommunity.qianfan.api.QianFanApi.ChatCompletionRequest;
+import org.springaicommunity.qianfan.api.QianFanApi.ChatCompletionRequest.ResponseFormat;
+import org.springaicommunity.qianfan.api.QianFanImageApi;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.image.ImageOptionsBuilder;
+import org.springframework.ai.model.ModelOptionsUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QianFanOptionsMergerTests {
+
+	private final ChatCompletionRequest request = new ChatCompletionRequest(
+			List.of(new ChatCompletionMessage("hello", Role.USER)), "You are a helpful assistant", "ernie_speed", 0.7);
+
+	@Test
+	public void applyMatchesModelOptionsUtilsMerge() {
+		QianFanChatOptions options = QianFanChatOptions.builder()
+			.model("completions_pro")
+			.temperature(0.2)
+			.maxTokens(128)
+			.stop(List.of("END"))
+			.responseFormat(new ResponseFormat("json_object"))
+			.build();
+
+		assertThat(QianFanOptionsMerger.apply(options, this.request))
+			.isEqualTo(ModelOptionsUtils.merge(options, this.request, ChatCompletionRequest.class));
+	}
+
+	@Test
+	public void nullOptionsKeepRequestValues() {
+		ChatCompletionRequest merged = QianFanOptionsMerger.apply(QianFanChatOptions.builder().build(), this.request);
+
+		assertThat(merged).isEqualTo(this.request);
+	}
+
+	@Test
+	public void portableChatOptionsAreConverted() {
+		QianFanChatOptions options = QianFanOptionsMerger.toQianFanChatOptions(ChatOptions.builder()
+			.model("completions")
+			.temperature(0.0)
+			.topP(0.9)
+			.stopSequences(List.of("STOP"))
+			.build());
+
+		assertThat(options.getModel()).isEqualTo("completions");
+		assertThat(options.getTemperature()).isEqualTo(0.0);
+		assertThat(options.getTopP()).isEqualTo(0.9);
+		assertThat(options.getStop()).containsExactly("STOP");
+		assertThat(QianFanOptionsMerger.toQianFanChatOptions(options)).isSameAs(options);
+	}
+
+	@Test
+	public void imageOptionsApplyToRequest() {
+		QianFanImageOptions options = QianFanOptionsMerger.toQianFanImageOptions(
+				ImageOptionsBuilder.builder().N(2).width(1024).height(768).responseFormat("url").build());
+		QianFanImageApi.QianFanImageRequest imageRequest = new QianFanImageApi.QianFanImageRequest("a cat", "sd_xl");
+
+		QianFanImageApi.QianFanImageRequest merged = QianFanOptionsMerger.apply(options, imageRequest);
+
+		assertThat(options.getResponseFormat()).isNull();
+		assertThat(merged.model()).isEqualTo("sd_xl");
+		assertThat(merged.n()).isEqualTo(2);
+		assertThat(merged.size()).isEqualTo("1024x768");
+		assertThat(merged.prompt()).isEqualTo("a cat");
+	}
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.api;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EmbeddingModelRegistryTests {
+
+	@Test
+	public void knownModelsAreNotProbed() {
+		assertThat(EmbeddingModelRegistry.dimensions(QianFanApi.EmbeddingModel.EMBEDDING_V1.getValue(), () -> {
+			throw new AssertionError("probed");
+		})).isEqualTo(384);
+		assertThat(EmbeddingModelRegistry
+			.dimensions(org.springaicommunity.qianfanv2.api.QianFanApi.EmbeddingModel.bge_large_zh.getValue(), () -> {
+				throw new AssertionError("probed");
+			})).isEqualTo(1024);
+		assertThat(EmbeddingModelRegistry.get("tao-8k").maxBatchSize()).isEqualTo(1);
+	}
+
+	@Test
+	public void unknownModelsAreProbedOnce() {
+		AtomicInteger probes = new AtomicInteger();
+
+		for (int i = 0; i < 3; i++) {
+			assertThat(EmbeddingModelRegistry.dimensions("custom-embedding", () -> {
+				probes.incrementAndGet();
+				return 768;
+			})).isEqualTo(768);
+		}
+
+		assertThat(probes).hasValue(1);
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatRuntimeException;
+
+public class ImageResponseParserTests {
+
+	@Test
+	public void imagesAreDecodedToTheSink() throws Exception {
+		byte[] first = new byte[100_000];
+		byte[] second = new byte[] { 1, 2, 3 };
+		for (int i = 0; i < first.length; i++) {
+			first[i] = (byte) (i * 31);
+		}
+		String body = """
+				{"id":"as-1","created":1700000000,"data":[
+				{"object":"image","b64_image":"%s","index":1},
+				{"index":2,"b64_image":"%s"}],
+				"usage":{"prompt_tokens":0,"total_tokens":0}}
+				""".formatted(Base64.getEncoder().encodeToString(first), Base64.getEncoder().encodeToString(second));
+		List<ByteArrayOutputStream> outputs = new ArrayList<>();
+
+		QianFanImageApi.QianFanImageResponse response = ImageResponseParser
+			.parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), position -> {
+				assertThat(position).isEqualTo(outputs.size());
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+				outputs.add(output);
+				return output;
+			});
+
+		assertThat(response.id()).isEqualTo("as-1");
+		assertThat(response.created()).isEqualTo(1700000000L);
+		assertThat(response.data()).extracting(QianFanImageApi.Data::index).containsExactly(1, 2);
+		assertThat(response.data()).extracting(QianFanImageApi.Data::b64Image).containsOnlyNulls();
+		assertThat(outputs.get(0).toByteArray()).isEqualTo(first);
+		assertThat(outputs.get(1).toByteArray()).isEqualTo(second);
+	}
+
+	@Test
+	public void errorsAreReported() {
+		String body = "{\"error_code\":336003,\"error_msg\":\"prompt is empty\"}";
+
+		assertThatRuntimeException()
+			.isThrownBy(() -> ImageResponseParser.parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)),
+					position -> new ByteArrayOutputStream()))
+			.withMessage("Image generation failed: error code:336003, message:prompt is empty");
+	}
+
+}
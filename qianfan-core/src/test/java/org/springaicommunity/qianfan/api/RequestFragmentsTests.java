@@ -0,0 +1,122 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.Test;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionMessage;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionMessage.Role;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionRequest;
+import org.springaicommunity.qianfanv2.api.QianFanApi.Function;
+import org.springaicommunity.qianfanv2.api.QianFanApi.FunctionTool;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class RequestFragmentsTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	// fragments serialized with indentation are told apart from the rest of the body
+	private final ObjectMapper indentingMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+	private final List<FunctionTool> tools = List.of(new FunctionTool(
+			new Function("Get the weather", "weather", Map.of("type", "object", "properties", Map.of()))));
+
+	@Test
+	public void registeredFragmentsAreSplicedIntoTheRequestBody() throws Exception {
+		ChatCompletionMessage systemMessage = new ChatCompletionMessage("You are a helpful assistant", Role.system);
+		RequestFragments fragments = new RequestFragments(this.indentingMapper);
+		fragments.register(systemMessage);
+		fragments.register(this.tools);
+
+		ChatCompletionRequest request = request("What is the weather in Beijing?");
+		byte[] body = fragments.write(request);
+
+		assertThat(new String(body, StandardCharsets.UTF_8))
+			.contains("\"messages\":[" + this.indentingMapper.writeValueAsString(systemMessage) + ",")
+			.contains("\"tools\":" + this.indentingMapper.writeValueAsString(this.tools));
+		assertThat(this.objectMapper.readTree(body))
+			.isEqualTo(this.objectMapper.readTree(this.objectMapper.writeValueAsBytes(request)));
+	}
+
+	@Test
+	public void requestsAreSerializedAsIsWithoutFragments() throws Exception {
+		ChatCompletionRequest request = request("Hello");
+
+		assertThat(this.objectMapper.readTree(new RequestFragments().write(request)))
+			.isEqualTo(this.objectMapper.readTree(this.objectMapper.writeValueAsBytes(request)));
+	}
+
+	@Test
+	public void registeredFragmentsAreSplicedIntoTheV1ChatRequestBody() throws Exception {
+		QianFanApi.ChatCompletionMessage context = new QianFanApi.ChatCompletionMessage("Beijing is sunny today",
+				QianFanApi.ChatCompletionMessage.Role.USER);
+		RequestFragments fragments = new RequestFragments(this.indentingMapper);
+		fragments.register(context);
+
+		RestClient.Builder restClientBuilder = RestClient.builder();
+		MockRestServiceServer server = MockRestServiceServer.bindTo(restClientBuilder).build();
+		server.expect(requestTo(containsString("/v1/wenxinworkshop/chat/ernie_speed?access_token=token")))
+			.andExpect(method(HttpMethod.POST))
+			.andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+			.andExpect(content()
+				.string(containsString("\"messages\":[" + this.indentingMapper.writeValueAsString(context) + ",")))
+			.andRespond(withSuccess("{\"id\":\"1\",\"result\":\"Sunny\"}", MediaType.APPLICATION_JSON));
+
+		QianFanApi qianFanApi = new QianFanApi("https://qianfan.test", "key", "secret", restClientBuilder) {
+
+			@Override
+			protected String getAccessToken() {
+				return "token";
+			}
+
+		};
+		qianFanApi.setRequestFragments(fragments);
+
+		QianFanApi.ChatCompletionRequest request = new QianFanApi.ChatCompletionRequest(
+				List.of(context,
+						new QianFanApi.ChatCompletionMessage("Will it rain?",
+								QianFanApi.ChatCompletionMessage.Role.USER)),
+				"You are a helpful assistant", QianFanApi.DEFAULT_CHAT_MODEL, 0.7);
+
+		assertThat(qianFanApi.chatCompletionEntity(request).getBody().result()).isEqualTo("Sunny");
+		server.verify();
+	}
+
+	private ChatCompletionRequest request(String question) {
+		return new ChatCompletionRequest(
+				List.of(new ChatCompletionMessage("You are a helpful assistant", Role.system),
+						new ChatCompletionMessage(question, Role.user)),
+				org.springaicommunity.qianfanv2.api.QianFanApi.DEFAULT_CHAT_MODEL, 0.7, this.tools, null);
+	}
+
+}
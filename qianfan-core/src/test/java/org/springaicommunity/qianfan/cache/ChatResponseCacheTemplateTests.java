@@ -0,0 +1,128 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.cache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChatResponseCacheTemplateTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final MutableClock clock = new MutableClock();
+
+	private final InMemoryChatResponseCache cache = new InMemoryChatResponseCache(2, Duration.ofMinutes(5), this.clock);
+
+	private final ChatResponseCacheTemplate template = new ChatResponseCacheTemplate(this.cache, this.meterRegistry);
+
+	@Test
+	public void repeatedRequestIsServedFromCache() {
+		AtomicInteger calls = new AtomicInteger();
+
+		ChatResponse first = this.template.execute(Map.of("q", "hello"), () -> response("hi", calls));
+		ChatResponse second = this.template.execute(Map.of("q", "hello"), () -> response("hi", calls));
+
+		assertThat(calls).hasValue(1);
+		assertThat((Boolean) first.getMetadata().get(ChatResponseCacheTemplate.CACHE_HIT_METADATA)).isFalse();
+		assertThat((Boolean) second.getMetadata().get(ChatResponseCacheTemplate.CACHE_HIT_METADATA)).isTrue();
+		assertThat(second.getResult().getOutput().getText()).isEqualTo("hi");
+		assertThat(hits()).isEqualTo(1);
+	}
+
+	@Test
+	public void expiredAndEvictedResponsesAreNotServed() {
+		AtomicInteger calls = new AtomicInteger();
+		this.template.execute(Map.of("q", "a"), () -> response("a", calls));
+		this.template.execute(Map.of("q", "b"), () -> response("b", calls));
+		this.template.execute(Map.of("q", "a"), () -> response("a", calls));
+		this.template.execute(Map.of("q", "c"), () -> response("c", calls));
+		assertThat(this.cache.size()).isEqualTo(2);
+
+		// "b" was the least recently used entry
+		this.template.execute(Map.of("q", "b"), () -> response("b", calls));
+		assertThat(calls).hasValue(4);
+
+		this.clock.advance(Duration.ofMinutes(6));
+		this.template.execute(Map.of("q", "b"), () -> response("b", calls));
+		assertThat(calls).hasValue(5);
+	}
+
+	@Test
+	public void toolCallResponsesAreNotCached() {
+		AtomicInteger calls = new AtomicInteger();
+		AssistantMessage toolCall = new AssistantMessage("", Map.of(),
+				List.of(new AssistantMessage.ToolCall("id", "function", "weather", "{}")));
+
+		this.template.execute(Map.of("q", "weather"), () -> {
+			calls.incrementAndGet();
+			return new ChatResponse(List.of(new Generation(toolCall)));
+		});
+		this.template.execute(Map.of("q", "weather"), () -> response("sunny", calls));
+
+		assertThat(calls).hasValue(2);
+	}
+
+	private double hits() {
+		return this.meterRegistry.get(ChatResponseCacheTemplate.REQUESTS_METRIC).tag("result", "hit").counter().count();
+	}
+
+	private static ChatResponse response(String text, AtomicInteger calls) {
+		calls.incrementAndGet();
+		return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+	}
+
+	private static final class MutableClock extends Clock {
+
+		private Instant instant = Instant.parse("2024-01-01T00:00:00Z");
+
+		void advance(Duration duration) {
+			this.instant = this.instant.plus(duration);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return this.instant;
+		}
+
+	}
+
+}
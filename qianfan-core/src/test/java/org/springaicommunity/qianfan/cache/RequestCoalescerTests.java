@@ -0,0 +1,128 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.cache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import org.springaicommunity.qianfan.api.QianFanApi;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RequestCoalescerTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final RequestCoalescer coalescer = new RequestCoalescer(this.meterRegistry);
+
+	@Test
+	public void concurrentIdenticalRequestsShareOneCall() throws Exception {
+		int callers = 8;
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger upstreamCalls = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(callers);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < callers; i++) {
+				results.add(executor.submit(() -> this.coalescer.execute("embedding", request("hello"), () -> {
+					upstreamCalls.incrementAndGet();
+					await(release);
+					return "vector";
+				})));
+			}
+			while (recordedRequests() < callers) {
+				Thread.sleep(5);
+			}
+			release.countDown();
+			for (Future<String> result : results) {
+				assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("vector");
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertThat(upstreamCalls).hasValue(1);
+		assertThat(this.coalescer.getInFlightCount()).isZero();
+	}
+
+	@Test
+	public void completedRequestsAreNotReused() {
+		AtomicInteger upstreamCalls = new AtomicInteger();
+		this.coalescer.execute("embedding", request("hello"), upstreamCalls::incrementAndGet);
+		this.coalescer.execute("embedding", request("hello"), upstreamCalls::incrementAndGet);
+
+		assertThat(upstreamCalls).hasValue(2);
+	}
+
+	@Test
+	public void failuresArePropagated() {
+		assertThatThrownBy(() -> this.coalescer.execute("embedding", request("hello"), () -> {
+			throw new IllegalStateException("boom");
+		})).isInstanceOf(IllegalStateException.class).hasMessage("boom");
+		assertThat(this.coalescer.getInFlightCount()).isZero();
+	}
+
+	@Test
+	public void canonicalKeyIgnoresMapOrdering() {
+		Map<String, Object> first = new LinkedHashMap<>();
+		first.put("a", 1);
+		first.put("b", 2);
+		Map<String, Object> second = new LinkedHashMap<>();
+		second.put("b", 2);
+		second.put("a", 1);
+
+		assertThat(RequestKeys.canonicalKey("chat", first)).isEqualTo(RequestKeys.canonicalKey("chat", second));
+		assertThat(RequestKeys.canonicalKey("chat", first)).isNotEqualTo(RequestKeys.canonicalKey("embedding", first));
+		assertThat(RequestKeys.canonicalKey("embedding", request("hello")))
+			.isNotEqualTo(RequestKeys.canonicalKey("embedding", request("world")));
+	}
+
+	private double recordedRequests() {
+		return this.meterRegistry.find(RequestCoalescer.REQUESTS_METRIC)
+			.counters()
+			.stream()
+			.mapToDouble(Counter::count)
+			.sum();
+	}
+
+	private static QianFanApi.EmbeddingRequest request(String text) {
+		return new QianFanApi.EmbeddingRequest(text);
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import org.springaicommunity.qianfan.QianFanChatModel;
+import org.springaicommunity.qianfan.QianFanChatOptions;
+import org.springaicommunity.qianfan.api.QianFanApi;
+import org.springaicommunity.qianfan.api.QianFanApi.ChatCompletion;
+import org.springaicommunity.qianfan.api.QianFanApi.ChatCompletionRequest;
+import org.springaicommunity.qianfan.api.QianFanApi.Usage;
+import org.springaicommunity.qianfan.cache.RequestCoalescer;
+import org.springaicommunity.qianfan.metering.UsageMeter;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.retry.RetryUtils;
+import org.springframework.http.ResponseEntity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class QianFanChatModelTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private @Mock QianFanApi qianFanApi;
+
+	@Test
+	public void coalescedCallsAreMeteredOnce() throws Exception {
+		QianFanChatModel chatModel = new QianFanChatModel(this.qianFanApi,
+				QianFanChatOptions.builder().model("ernie-speed-8k").temperature(0.0).build(),
+				RetryUtils.SHORT_RETRY_TEMPLATE);
+		chatModel.setRequestCoalescer(new RequestCoalescer(this.meterRegistry));
+		chatModel.setUsageMeter(UsageMeter.builder().meterRegistry(this.meterRegistry).build());
+
+		int callers = 4;
+		CountDownLatch release = new CountDownLatch(1);
+		given(this.qianFanApi.chatCompletionEntity(isA(ChatCompletionRequest.class))).willAnswer(invocation -> {
+			release.await(5, TimeUnit.SECONDS);
+			return ResponseEntity.of(Optional
+				.of(new ChatCompletion("id", "chat.completion", 1L, "Response", "normal", new Usage(20, 10, 30))));
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(callers);
+		try {
+			List<Future<ChatResponse>> responses = new ArrayList<>();
+			for (int i = 0; i < callers; i++) {
+				responses.add(executor.submit(() -> chatModel.call(new Prompt("hello"))));
+			}
+			while (coalescedRequests() < callers) {
+				Thread.sleep(5);
+			}
+			release.countDown();
+			for (Future<ChatResponse> response : responses) {
+				assertThat(response.get(5, TimeUnit.SECONDS).getResult().getOutput().getText()).isEqualTo("Response");
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		verify(this.qianFanApi, times(1)).chatCompletionEntity(isA(ChatCompletionRequest.class));
+		assertThat(this.meterRegistry.get(UsageMeter.TOKENS_METRIC).tag("type", "total").counter().count())
+			.isEqualTo(30);
+	}
+
+	private double coalescedRequests() {
+		return this.meterRegistry.find(RequestCoalescer.REQUESTS_METRIC)
+			.counters()
+			.stream()
+			.mapToDouble(Counter::count)
+			.sum();
+	}
+
+}
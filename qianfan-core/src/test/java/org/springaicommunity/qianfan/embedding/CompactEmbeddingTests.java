@@ -0,0 +1,125 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class CompactEmbeddingTests {
+
+	@Test
+	public void normalizedEmbeddingsHaveUnitLength() {
+		CompactEmbedding embedding = CompactEmbedding.of(new float[] { 3f, 4f }, EmbeddingFormat.NORMALIZED_FLOAT32);
+
+		assertThat(embedding.format()).isEqualTo(EmbeddingFormat.NORMALIZED_FLOAT32);
+		assertThat(embedding.toFloatArray()).containsExactly(0.6f, 0.8f);
+	}
+
+	@Test
+	public void float16ConversionMatchesKnownValues() {
+		assertThat(Float16Embedding.toFloat16(1f)).isEqualTo((short) 0x3c00);
+		assertThat(Float16Embedding.toFloat16(-2f)).isEqualTo((short) 0xc000);
+		assertThat(Float16Embedding.toFloat16(65504f)).isEqualTo((short) 0x7bff);
+		assertThat(Float16Embedding.toFloat16(1e6f)).isEqualTo((short) 0x7c00);
+		assertThat(Float16Embedding.toFloat16(0x1p-24f)).isEqualTo((short) 0x0001);
+		assertThat(Float16Embedding.toFloat16(1e-10f)).isEqualTo((short) 0);
+		// 1 + 2^-11 is halfway between 1 and the next half, rounding to even
+		assertThat(Float16Embedding.toFloat16(1f + 0x1p-11f)).isEqualTo((short) 0x3c00);
+		assertThat(Float.isNaN(Float16Embedding.toFloat(Float16Embedding.toFloat16(Float.NaN)))).isTrue();
+	}
+
+	@Test
+	public void float16RoundTripsEveryHalfValue() {
+		for (int bits = 0; bits < 0x10000; bits++) {
+			short half = (short) bits;
+			float value = Float16Embedding.toFloat(half);
+			if (!Float.isNaN(value)) {
+				assertThat(Float16Embedding.toFloat16(value)).isEqualTo(half);
+			}
+		}
+	}
+
+	@Test
+	public void lossyFormatsApproximateTheEmbedding() {
+		float[] embedding = randomEmbedding(1024, 1);
+
+		CompactEmbedding float16 = CompactEmbedding.of(embedding, EmbeddingFormat.FLOAT16);
+		CompactEmbedding int8 = CompactEmbedding.of(embedding, EmbeddingFormat.INT8);
+
+		assertThat(float16.sizeInBytes()).isEqualTo(2048);
+		assertThat(int8.sizeInBytes()).isEqualTo(1028);
+		float step = ((Int8Embedding) int8).scale();
+		float[] halves = float16.toFloatArray();
+		float[] bytes = int8.toFloatArray();
+		for (int i = 0; i < embedding.length; i++) {
+			assertThat(halves[i]).isCloseTo(embedding[i], within(Math.abs(embedding[i]) / 1024 + 1e-7f));
+			assertThat(bytes[i]).isCloseTo(embedding[i], within(step / 2 + 1e-6f));
+		}
+	}
+
+	@Test
+	public void binaryEmbeddingsKeepTheSigns() {
+		BinaryEmbedding first = BinaryEmbedding.of(new float[] { 0.5f, -0.1f, 0.2f, 0f, 0.3f });
+		BinaryEmbedding second = BinaryEmbedding.of(new float[] { 0.4f, 0.1f, 0.2f, -0.2f, -0.3f });
+
+		assertThat(first.sizeInBytes()).isEqualTo(8);
+		assertThat(first.toFloatArray()).containsExactly(1f, -1f, 1f, -1f, 1f);
+		assertThat(first.hammingDistance(second)).isEqualTo(2);
+		assertThat(BinaryEmbedding.of(randomEmbedding(1024, 1)).sizeInBytes()).isEqualTo(128);
+	}
+
+	@Test
+	public void int8DotProductApproximatesTheOriginal() {
+		float[] first = randomEmbedding(1024, 1);
+		float[] second = randomEmbedding(1024, 2);
+		float dot = 0;
+		for (int i = 0; i < first.length; i++) {
+			dot += first[i] * second[i];
+		}
+
+		float quantized = Int8Embedding.of(first).dot(Int8Embedding.of(second));
+
+		assertThat(quantized).isCloseTo(dot, within(0.05f * Math.abs(dot) + 0.5f));
+	}
+
+	@Test
+	public void embeddingsCompareByValue() {
+		float[] embedding = randomEmbedding(64, 1);
+		for (EmbeddingFormat format : EmbeddingFormat.values()) {
+			CompactEmbedding first = CompactEmbedding.of(embedding, format);
+			CompactEmbedding second = CompactEmbedding.of(embedding.clone(), format);
+
+			assertThat(first).isEqualTo(second).hasSameHashCodeAs(second);
+			assertThat(first).isNotEqualTo(CompactEmbedding.of(randomEmbedding(64, 2), format));
+			assertThat(first.toString()).isEqualTo(second.toString());
+		}
+	}
+
+	private static float[] randomEmbedding(int dimensions, long seed) {
+		Random random = new Random(seed);
+		float[] embedding = new float[dimensions];
+		for (int i = 0; i < dimensions; i++) {
+			embedding[i] = (float) random.nextGaussian();
+		}
+		return embedding;
+	}
+
+}
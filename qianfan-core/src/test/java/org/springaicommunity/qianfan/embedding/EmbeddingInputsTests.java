@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+public class EmbeddingInputsTests {
+
+	@Test
+	public void duplicatesAreSentOnceAndFannedBackOut() {
+		EmbeddingInputs inputs = EmbeddingInputs.of(List.of("header", "body", "header", "footer", "body"));
+
+		assertThat(inputs.texts()).containsExactly("header", "body", "footer");
+
+		List<float[]> embeddings = inputs.expand(List.of(new float[] { 1f }, new float[] { 2f }, new float[] { 3f }),
+				() -> 0);
+
+		assertThat(embeddings).hasSize(5);
+		assertThat(embeddings.get(0)).containsExactly(1f);
+		assertThat(embeddings.get(1)).containsExactly(2f);
+		assertThat(embeddings.get(2)).containsExactly(1f).isNotSameAs(embeddings.get(0));
+		assertThat(embeddings.get(3)).containsExactly(3f);
+		assertThat(embeddings.get(4)).containsExactly(2f);
+	}
+
+	@Test
+	public void blankTextsAreRejectedByDefault() {
+		assertThatIllegalArgumentException().isThrownBy(() -> EmbeddingInputs.of(Arrays.asList("text", " ")))
+			.withMessageContaining("index 1");
+		assertThatIllegalArgumentException().isThrownBy(() -> EmbeddingInputs.of(Arrays.asList("text", null)));
+	}
+
+	@Test
+	public void blankTextsAreGivenZeroVectorsOnRequest() {
+		EmbeddingInputs inputs = EmbeddingInputs.of(Arrays.asList("text", " ", null, ""), true);
+
+		assertThat(inputs.texts()).containsExactly("text");
+
+		List<float[]> embeddings = inputs.expand(List.of(new float[] { 1f, 2f }), () -> 0);
+
+		assertThat(embeddings.get(0)).containsExactly(1f, 2f);
+		assertThat(embeddings.subList(1, 4)).allSatisfy(embedding -> assertThat(embedding).containsExactly(0f, 0f));
+	}
+
+	@Test
+	public void requestsOfBlankTextsOnlyUseTheGivenDimensions() {
+		EmbeddingInputs inputs = EmbeddingInputs.of(List.of("", "\n"), true);
+
+		assertThat(inputs.texts()).isEmpty();
+		assertThat(inputs.expand(List.of(), () -> 3)).hasSize(2)
+			.allSatisfy(embedding -> assertThat(embedding).hasSize(3));
+	}
+
+	@Test
+	public void embeddingsMustMatchTheDistinctTexts() {
+		EmbeddingInputs inputs = EmbeddingInputs.of(List.of("a", "b"));
+
+		assertThatIllegalArgumentException().isThrownBy(() -> inputs.expand(List.of(new float[] { 1f }), () -> 0));
+	}
+
+}
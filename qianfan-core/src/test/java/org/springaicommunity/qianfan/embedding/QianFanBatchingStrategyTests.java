@@ -0,0 +1,78 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springaicommunity.qianfan.token.QianFanTokenEstimator;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QianFanBatchingStrategyTests {
+
+	@Test
+	public void batchesAreFilledToTheModelLimit() {
+		List<Document> documents = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			documents.add(new Document("document " + i));
+		}
+
+		List<List<Document>> batches = new QianFanBatchingStrategy("embedding-v1").batch(documents);
+
+		assertThat(batches).extracting(List::size).containsExactly(16, 16, 8);
+		assertThat(batches.get(2).get(7).getText()).isEqualTo("document 39");
+	}
+
+	@Test
+	public void singleTextModelsGetOneDocumentPerBatch() {
+		List<List<Document>> batches = new QianFanBatchingStrategy("tao-8k")
+			.batch(List.of(new Document("a"), new Document("b")));
+
+		assertThat(batches).extracting(List::size).containsExactly(1, 1);
+	}
+
+	@Test
+	public void overLongDocumentsAreTruncatedToTheInputLimit() {
+		QianFanBatchingStrategy strategy = new QianFanBatchingStrategy(16, 100, 0, QianFanTokenEstimator.DEFAULT,
+				MetadataMode.NONE);
+		Document document = new Document("id-1", "长".repeat(1000), Map.of("source", "manual"));
+
+		Document truncated = strategy.batch(List.of(document)).get(0).get(0);
+
+		assertThat(truncated.getId()).isEqualTo("id-1");
+		assertThat(truncated.getMetadata()).containsEntry("source", "manual");
+		assertThat(QianFanTokenEstimator.DEFAULT.estimate(truncated.getText())).isLessThanOrEqualTo(100);
+		assertThat(truncated.getText()).hasSizeGreaterThan(100);
+	}
+
+	@Test
+	public void requestTokenBudgetClosesBatchesEarly() {
+		QianFanBatchingStrategy strategy = new QianFanBatchingStrategy(16, 1000, 100, QianFanTokenEstimator.DEFAULT,
+				MetadataMode.NONE);
+		Document document = new Document("长".repeat(96));
+
+		assertThat(strategy.batch(List.of(document, document, document))).extracting(List::size)
+			.containsExactly(1, 1, 1);
+	}
+
+}
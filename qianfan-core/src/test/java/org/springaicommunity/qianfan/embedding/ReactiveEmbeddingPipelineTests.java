@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springaicommunity.qianfan.token.QianFanTokenEstimator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReactiveEmbeddingPipelineTests {
+
+	@Test
+	public void embeddingsAreEmittedInOrderWithBoundedConcurrency() {
+		ReactiveEmbeddingPipeline pipeline = new ReactiveEmbeddingPipeline(16,
+				new QianFanBatchingStrategy("embedding-v1"), 2, MetadataMode.NONE);
+		List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+
+		List<DocumentEmbedding> results = pipeline.embed(documents(40), texts -> {
+			batchSizes.add(texts.size());
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			List<float[]> embeddings = new ArrayList<>();
+			for (String text : texts) {
+				embeddings.add(new float[] { Float.parseFloat(text.substring("document ".length())) });
+			}
+			// the first batch completes last
+			Duration delay = Duration.ofMillis(batchSizes.size() == 1 ? 100 : 10);
+			return Mono.delay(delay).thenReturn(embeddings).doFinally(signal -> inFlight.decrementAndGet());
+		}).collectList().block();
+
+		assertThat(batchSizes).containsExactly(16, 16, 8);
+		assertThat(maxInFlight.get()).isLessThanOrEqualTo(2);
+		assertThat(results).hasSize(40);
+		for (int i = 0; i < results.size(); i++) {
+			assertThat(results.get(i).document().getText()).isEqualTo("document " + i);
+			assertThat(results.get(i).embedding()).containsExactly((float) i);
+		}
+	}
+
+	@Test
+	public void truncatedDocumentsArePairedWithTheOriginals() {
+		ReactiveEmbeddingPipeline pipeline = new ReactiveEmbeddingPipeline(16,
+				new QianFanBatchingStrategy(16, 10, 0, QianFanTokenEstimator.DEFAULT, MetadataMode.NONE), 1,
+				MetadataMode.NONE);
+		Document document = new Document("长".repeat(100));
+		List<String> sent = new ArrayList<>();
+
+		DocumentEmbedding result = pipeline.embed(Flux.just(document), texts -> {
+			sent.addAll(texts);
+			return Mono.just(List.of(new float[] { 1f }));
+		}).blockFirst();
+
+		assertThat(sent.get(0)).hasSizeLessThan(100);
+		assertThat(result.document()).isSameAs(document);
+	}
+
+	private static Flux<Document> documents(int count) {
+		return Flux.range(0, count).map(i -> new Document("document " + i));
+	}
+
+}
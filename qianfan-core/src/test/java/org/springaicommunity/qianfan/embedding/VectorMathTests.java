@@ -0,0 +1,112 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.ai.document.Document;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class VectorMathTests {
+
+	@Test
+	public void dotAndCosineMatchTheNaiveLoops() {
+		Random random = new Random(7);
+		for (int dimensions : new int[] { 1, 3, 4, 7, 1024 }) {
+			float[] a = randomEmbedding(random, dimensions);
+			float[] b = randomEmbedding(random, dimensions);
+			double dot = 0;
+			double normA = 0;
+			double normB = 0;
+			for (int i = 0; i < dimensions; i++) {
+				dot += a[i] * b[i];
+				normA += a[i] * a[i];
+				normB += b[i] * b[i];
+			}
+
+			assertThat(VectorMath.dot(a, b)).isCloseTo((float) dot, within(1e-2f));
+			assertThat(VectorMath.cosine(a, b)).isCloseTo((float) (dot / Math.sqrt(normA * normB)), within(1e-5f));
+		}
+		assertThat(VectorMath.cosine(new float[] { 0f, 0f }, new float[] { 1f, 0f })).isZero();
+	}
+
+	@Test
+	public void topKOfListsAndPackedRowsAgree() {
+		Random random = new Random(11);
+		float[] query = randomEmbedding(random, 16);
+		List<float[]> candidates = new ArrayList<>();
+		float[] rows = new float[100 * 16];
+		for (int i = 0; i < 100; i++) {
+			float[] candidate = randomEmbedding(random, 16);
+			candidates.add(candidate);
+			System.arraycopy(candidate, 0, rows, i * 16, 16);
+		}
+
+		List<VectorMath.Match> matches = VectorMath.topK(query, candidates, 5);
+
+		assertThat(matches).hasSize(5);
+		assertThat(matches).isEqualTo(VectorMath.topK(query, rows, 5));
+		float best = Float.NEGATIVE_INFINITY;
+		for (float[] candidate : candidates) {
+			best = Math.max(best, VectorMath.cosine(query, candidate));
+		}
+		assertThat(matches.get(0).score()).isEqualTo(best);
+		for (int i = 1; i < matches.size(); i++) {
+			assertThat(matches.get(i).score()).isLessThanOrEqualTo(matches.get(i - 1).score());
+		}
+	}
+
+	@Test
+	public void unboundedTopKReturnsAllTheCandidates() {
+		float[] query = { 1f, 0f };
+		List<float[]> candidates = List.of(new float[] { 0f, 1f }, new float[] { 1f, 0f }, new float[] { 1f, 1f });
+		float[] rows = { 0f, 1f, 1f, 0f, 1f, 1f };
+
+		List<VectorMath.Match> matches = VectorMath.topK(query, candidates, Integer.MAX_VALUE);
+
+		assertThat(matches).extracting(VectorMath.Match::index).containsExactly(1, 2, 0);
+		assertThat(VectorMath.topK(query, rows, Integer.MAX_VALUE)).isEqualTo(matches);
+	}
+
+	@Test
+	public void rerankScoresTheMostSimilarDocuments() {
+		List<DocumentEmbedding> candidates = List.of(
+				new DocumentEmbedding(new Document("east"), new float[] { 1f, 0f }),
+				new DocumentEmbedding(new Document("north"), new float[] { 0f, 1f }),
+				new DocumentEmbedding(new Document("north east"), new float[] { 1f, 1f }));
+
+		List<Document> documents = VectorMath.rerank(new float[] { 0f, 2f }, candidates, 2);
+
+		assertThat(documents).extracting(Document::getText).containsExactly("north", "north east");
+		assertThat(documents.get(0).getScore()).isCloseTo(1.0, within(1e-6));
+	}
+
+	private static float[] randomEmbedding(Random random, int dimensions) {
+		float[] embedding = new float[dimensions];
+		for (int i = 0; i < dimensions; i++) {
+			embedding[i] = (float) random.nextGaussian();
+		}
+		return embedding;
+	}
+
+}
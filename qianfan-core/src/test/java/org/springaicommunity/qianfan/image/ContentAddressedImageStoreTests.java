@@ -0,0 +1,85 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.image;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContentAddressedImageStoreTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void imagesAreAddressedByTheirContent() throws Exception {
+		ContentAddressedImageStore store = new ContentAddressedImageStore(this.directory, 1024);
+
+		StoredImage first = store.store(new ByteArrayInputStream("abc".getBytes()));
+		StoredImage second = store.store(new ByteArrayInputStream("abc".getBytes()));
+
+		assertThat(first.hash()).isEqualTo("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+		assertThat(second).isEqualTo(first);
+		assertThat(Files.readString(first.path())).isEqualTo("abc");
+		assertThat(store.getTotalBytes()).isEqualTo(3);
+		try (var files = Files.list(this.directory)) {
+			assertThat(files).containsExactly(first.path());
+		}
+	}
+
+	@Test
+	public void leastRecentlyUsedImagesAreEvicted() {
+		ContentAddressedImageStore store = new ContentAddressedImageStore(this.directory, 250);
+
+		StoredImage first = store.store(new ByteArrayInputStream(image(1)));
+		StoredImage second = store.store(new ByteArrayInputStream(image(2)));
+		assertThat(store.get(first.hash())).isEqualTo(first);
+		StoredImage third = store.store(new ByteArrayInputStream(image(3)));
+
+		assertThat(store.get(second.hash())).isNull();
+		assertThat(second.path()).doesNotExist();
+		assertThat(first.path()).exists();
+		assertThat(third.path()).exists();
+		assertThat(store.getTotalBytes()).isEqualTo(200);
+	}
+
+	@Test
+	public void existingImagesArePickedUp() {
+		StoredImage stored = new ContentAddressedImageStore(this.directory, 1024)
+			.store(new ByteArrayInputStream(image(1)));
+
+		ContentAddressedImageStore store = new ContentAddressedImageStore(this.directory, 1024);
+
+		assertThat(store.get(stored.hash())).isEqualTo(stored);
+		assertThat(store.get(HexFormat.of().formatHex(new byte[32]))).isNull();
+	}
+
+	private static byte[] image(int seed) {
+		byte[] image = new byte[100];
+		for (int i = 0; i < image.length; i++) {
+			image[i] = (byte) (seed * 31 + i);
+		}
+		return image;
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.ai.image.Image;
+import org.springframework.ai.image.ImageGeneration;
+import org.springframework.ai.image.ImageMessage;
+import org.springframework.ai.image.ImageOptionsBuilder;
+import org.springframework.ai.image.ImagePrompt;
+import org.springframework.ai.image.ImageResponse;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ImageBatchExecutorTests {
+
+	private final List<Integer> requestedCounts = new CopyOnWriteArrayList<>();
+
+	@Test
+	public void largeImageCountsAreSplitAcrossRequests() {
+		ImagePrompt prompt = new ImagePrompt("a cat", ImageOptionsBuilder.builder().N(10).build());
+
+		List<ImageBatchResult> results = new ImageBatchExecutor(4, 2).execute(List.of(prompt), 1, this::generate);
+
+		assertThat(this.requestedCounts).containsExactlyInAnyOrder(4, 4, 2);
+		assertThat(results).singleElement().satisfies(result -> {
+			assertThat(result.isSuccess()).isTrue();
+			assertThat(result.response().getResults()).hasSize(10);
+		});
+	}
+
+	@Test
+	public void resultsAreInOrderWithPartialFailures() {
+		ImagePrompt variants = new ImagePrompt(List.of(new ImageMessage("a dog"), new ImageMessage("broken")));
+		List<ImagePrompt> prompts = List.of(new ImagePrompt("a cat"), variants, new ImagePrompt("broken"));
+
+		List<ImageBatchResult> results = new ImageBatchExecutor(4, 3).execute(prompts, 2, this::generate);
+
+		assertThat(results).extracting(ImageBatchResult::prompt).containsExactlyElementsOf(prompts);
+		assertThat(results.get(0).isSuccess()).isTrue();
+		assertThat(results.get(0).response().getResults()).extracting(result -> result.getOutput().getUrl())
+			.containsExactly("a cat-0", "a cat-1");
+		assertThat(results.get(1).errors()).hasSize(1);
+		assertThat(results.get(1).response().getResults()).extracting(result -> result.getOutput().getUrl())
+			.containsExactly("a dog-0", "a dog-1");
+		assertThat(results.get(2).errors()).singleElement()
+			.satisfies(error -> assertThat(error).hasMessage("generation failed"));
+		assertThat(results.get(2).response().getResults()).isEmpty();
+	}
+
+	private ImageResponse generate(ImagePrompt prompt, Integer imageCount) {
+		this.requestedCounts.add(imageCount);
+		String instruction = prompt.getInstructions().get(0).getText();
+		if (instruction.equals("broken")) {
+			throw new IllegalStateException("generation failed");
+		}
+		List<ImageGeneration> generations = new ArrayList<>();
+		for (int i = 0; i < imageCount; i++) {
+			generations.add(new ImageGeneration(new Image(instruction + "-" + i, null)));
+		}
+		return new ImageResponse(generations);
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.metering;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.ai.chat.metadata.DefaultUsage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class UsageMeterTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final MutableClock clock = new MutableClock();
+
+	private final AtomicReference<String> tenant = new AtomicReference<>("acme");
+
+	private final UsageMeter usageMeter = UsageMeter.builder()
+		.meterRegistry(this.meterRegistry)
+		.pricing(UsagePricing.builder().tokenPrice("ernie-speed-8k", 0.004, 0.008).imagePrice("irag-1.0", 0.14).build())
+		.tenantResolver(this.tenant::get)
+		.window(Duration.ofMinutes(10))
+		.windowBuckets(10)
+		.clock(this.clock)
+		.build();
+
+	@Test
+	public void tokensAndCostArePublishedPerModelOperationAndTenant() {
+		this.usageMeter.record(UsageMeter.Operation.CHAT, "ernie-speed-8k", new DefaultUsage(1000, 500));
+		this.usageMeter.record(UsageMeter.Operation.CHAT, "ernie-speed-8k", new DefaultUsage(1000, 500));
+
+		assertThat(tokens("prompt", "chat")).isEqualTo(2000);
+		assertThat(tokens("completion", "chat")).isEqualTo(1000);
+		assertThat(tokens("total", "chat")).isEqualTo(3000);
+		assertThat(this.meterRegistry.get(UsageMeter.COST_METRIC).tag("tenant", "acme").counter().count())
+			.isCloseTo(0.016, within(1e-9));
+	}
+
+	@Test
+	public void usageIsQueryablePerTenantOverTheRollingWindow() {
+		this.usageMeter.record(UsageMeter.Operation.EMBEDDING, "bge-large-zh", new DefaultUsage(100, 0));
+		this.usageMeter.recordImages("irag-1.0", 2);
+		this.tenant.set("other");
+		this.usageMeter.record(UsageMeter.Operation.STREAM, "ernie-speed-8k", new DefaultUsage(10, 10));
+
+		UsageSnapshot acme = this.usageMeter.getUsage("acme");
+		assertThat(acme.requests()).isEqualTo(2);
+		assertThat(acme.promptTokens()).isEqualTo(100);
+		assertThat(acme.images()).isEqualTo(2);
+		assertThat(acme.cost()).isCloseTo(0.28, within(1e-9));
+		assertThat(this.usageMeter.getUsage("other").totalTokens()).isEqualTo(20);
+		assertThat(this.usageMeter.getUsage("unknown")).isEqualTo(UsageSnapshot.EMPTY);
+
+		this.clock.advance(Duration.ofMinutes(5));
+		this.usageMeter.record("acme", UsageMeter.Operation.CHAT, "ernie-speed-8k", new DefaultUsage(1, 1));
+		assertThat(this.usageMeter.getUsage("acme").requests()).isEqualTo(3);
+
+		this.clock.advance(Duration.ofMinutes(6));
+		assertThat(this.usageMeter.getUsage("acme").requests()).isEqualTo(1);
+	}
+
+	private double tokens(String type, String operation) {
+		return this.meterRegistry.get(UsageMeter.TOKENS_METRIC)
+			.tag("type", type)
+			.tag("operation", operation)
+			.tag("tenant", "acme")
+			.tag("model", "ernie-speed-8k")
+			.counter()
+			.count();
+	}
+
+	private static final class MutableClock extends Clock {
+
+		private Instant instant = Instant.parse("2024-01-01T00:00:00Z");
+
+		void advance(Duration duration) {
+			this.instant = this.instant.plus(duration);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return this.instant;
+		}
+
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.resilience;
+
+import java.time.Duration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CircuitBreakerRegistryTests {
+
+	private SimpleMeterRegistry meterRegistry;
+
+	private CircuitBreakerRegistry registry;
+
+	@BeforeEach
+	public void beforeEach() {
+		this.meterRegistry = new SimpleMeterRegistry();
+		this.registry = CircuitBreakerRegistry.builder()
+			.slidingWindowSize(4)
+			.minimumNumberOfCalls(4)
+			.failureRateThreshold(50)
+			.waitDurationInOpenState(Duration.ZERO)
+			.permittedCallsInHalfOpenState(2)
+			.meterRegistry(this.meterRegistry)
+			.build();
+	}
+
+	@Test
+	public void opensOnFailureRateAndFailsFast() {
+		CircuitBreakerRegistry waitingRegistry = CircuitBreakerRegistry.builder()
+			.slidingWindowSize(4)
+			.minimumNumberOfCalls(4)
+			.failureRateThreshold(50)
+			.waitDurationInOpenState(Duration.ofHours(1))
+			.meterRegistry(this.meterRegistry)
+			.build();
+
+		succeed(waitingRegistry, "model-a");
+		succeed(waitingRegistry, "model-a");
+		fail(waitingRegistry, "model-a");
+		fail(waitingRegistry, "model-a");
+
+		assertThatThrownBy(() -> waitingRegistry.execute("model-a", "/chat", () -> "ok"))
+			.isInstanceOf(CircuitBreakerOpenException.class);
+		assertThatThrownBy(() -> waitingRegistry.executeStream("model-a", "/chat", Flux.just("chunk")).blockLast())
+			.isInstanceOf(CircuitBreakerOpenException.class);
+		succeed(waitingRegistry, "model-b");
+		assertThat(this.meterRegistry.get(CircuitBreakerRegistry.STATE_METRIC).tag("model", "model-a").gauge().value())
+			.isEqualTo(1.0);
+	}
+
+	@Test
+	public void clientErrorsDoNotOpenTheBreaker() {
+		for (int i = 0; i < 4; i++) {
+			assertThatThrownBy(() -> this.registry.execute("model-a", "/chat", () -> {
+				throw new NonTransientAiException("400 - bad request");
+			})).isInstanceOf(NonTransientAiException.class);
+		}
+		assertThat(this.registry.circuitBreaker("model-a", "/chat").getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	public void healthyProbesCloseTheBreaker() {
+		succeed(this.registry, "model-a");
+		succeed(this.registry, "model-a");
+		fail(this.registry, "model-a");
+		fail(this.registry, "model-a");
+		assertThat(this.registry.circuitBreaker("model-a", "/chat").getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+		succeed(this.registry, "model-a");
+		assertThat(this.registry.circuitBreaker("model-a", "/chat").getState())
+			.isEqualTo(CircuitBreaker.State.HALF_OPEN);
+		succeed(this.registry, "model-a");
+		assertThat(this.registry.circuitBreaker("model-a", "/chat").getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	public void failedProbeReopensTheBreaker() {
+		for (int i = 0; i < 4; i++) {
+			this.registry.executeStream("model-a", "/chat", Flux.error(new TransientAiException("500 - error")))
+				.onErrorResume(ex -> Flux.empty())
+				.blockLast();
+		}
+		assertThat(this.registry.circuitBreaker("model-a", "/chat").getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+		succeed(this.registry, "model-a");
+		fail(this.registry, "model-a");
+		assertThat(this.registry.circuitBreaker("model-a", "/chat").getState()).isEqualTo(CircuitBreaker.State.OPEN);
+	}
+
+	private static void succeed(CircuitBreakerRegistry registry, String model) {
+		assertThat(registry.execute(model, "/chat", () -> "ok")).isEqualTo("ok");
+	}
+
+	private static void fail(CircuitBreakerRegistry registry, String model) {
+		assertThatThrownBy(() -> registry.execute(model, "/chat", () -> {
+			throw new TransientAiException("500 - error");
+		})).isInstanceOf(TransientAiException.class);
+	}
+
+}
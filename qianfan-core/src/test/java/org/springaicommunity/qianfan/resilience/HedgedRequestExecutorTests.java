@@ -0,0 +1,156 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.resilience;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class HedgedRequestExecutorTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+	@AfterEach
+	public void afterEach() {
+		this.executorService.shutdownNow();
+	}
+
+	@Test
+	public void fastRequestsAreNotHedged() {
+		AtomicInteger attempts = new AtomicInteger();
+
+		String result = executor(100).execute("chat", () -> {
+			attempts.incrementAndGet();
+			return "primary";
+		});
+
+		assertThat(result).isEqualTo("primary");
+		assertThat(attempts).hasValue(1);
+		assertThat(count(HedgedRequestExecutor.HEDGES_METRIC)).isZero();
+	}
+
+	@Test
+	public void slowRequestsAreHedgedAndTheLoserIsCancelled() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+		CountDownLatch primaryCancelled = new CountDownLatch(1);
+
+		String result = executor(100).execute("chat", () -> {
+			if (attempts.incrementAndGet() == 1) {
+				try {
+					Thread.sleep(10_000);
+				}
+				catch (InterruptedException ex) {
+					primaryCancelled.countDown();
+				}
+				return "primary";
+			}
+			return "hedge";
+		});
+
+		assertThat(result).isEqualTo("hedge");
+		assertThat(attempts).hasValue(2);
+		assertThat(primaryCancelled.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(count(HedgedRequestExecutor.HEDGES_METRIC)).isEqualTo(1);
+		assertThat(count(HedgedRequestExecutor.WINS_METRIC)).isEqualTo(1);
+	}
+
+	@Test
+	public void hedgesAreCappedByTheBudget() {
+		HedgedRequestExecutor executor = executor(5);
+		AtomicInteger attempts = new AtomicInteger();
+
+		for (int i = 0; i < 3; i++) {
+			executor.execute("chat", () -> {
+				attempts.incrementAndGet();
+				sleep(50);
+				return "slow";
+			});
+		}
+
+		// 5% of 3 requests rounds down to no hedge, only the seeded one is sent
+		assertThat(count(HedgedRequestExecutor.HEDGES_METRIC)).isEqualTo(1);
+		assertThat(attempts).hasValue(4);
+	}
+
+	@Test
+	public void noHedgeIsSentWithoutBudget() {
+		AtomicInteger attempts = new AtomicInteger();
+
+		String result = executor(0).execute("chat", () -> {
+			attempts.incrementAndGet();
+			sleep(50);
+			return "primary";
+		});
+
+		assertThat(result).isEqualTo("primary");
+		assertThat(attempts).hasValue(1);
+		assertThat(count(HedgedRequestExecutor.HEDGES_METRIC)).isZero();
+	}
+
+	@Test
+	public void failureIsPropagatedWhenBothAttemptsFail() {
+		AtomicInteger attempts = new AtomicInteger();
+
+		assertThatThrownBy(() -> executor(100).execute("chat", () -> {
+			attempts.incrementAndGet();
+			sleep(50);
+			throw new IllegalStateException("unavailable");
+		})).isInstanceOf(IllegalStateException.class).hasMessage("unavailable");
+		assertThat(attempts).hasValue(2);
+	}
+
+	private HedgedRequestExecutor executor(double budgetPercent) {
+		return HedgedRequestExecutor.builder()
+			.hedgeDelay(Duration.ofMillis(10))
+			.budgetPercent(budgetPercent)
+			.executor(this.executorService)
+			.meterRegistry(this.meterRegistry)
+			.build();
+	}
+
+	private double count(String metric) {
+		return this.meterRegistry.find(metric)
+			.tag("operation", "chat")
+			.counters()
+			.stream()
+			.mapToDouble(Counter::count)
+			.sum();
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
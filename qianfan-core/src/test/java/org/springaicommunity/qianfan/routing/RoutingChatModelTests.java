@@ -0,0 +1,164 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.routing;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RoutingChatModelTests {
+
+	private static final ChatModel FAILING = prompt -> {
+		throw new IllegalStateException("unavailable");
+	};
+
+	@Test
+	public void shortPromptsAreServedByTheCheapestRouteAndLongOnesEscalate() {
+		RoutingChatModel router = RoutingChatModel.builder()
+			.route(route("ernie-4.5-turbo-128k", answering("turbo"), 131072, 0.8))
+			.route(route("ernie-speed-8k", answering("speed"), 8192, 0.1))
+			.completionReserve(512)
+			.build();
+
+		assertThat(text(router.call(new Prompt("Hello")))).isEqualTo("speed");
+		assertThat(text(router.call(new Prompt("你".repeat(20000))))).isEqualTo("turbo");
+	}
+
+	@Test
+	public void failedCallsFallBackToTheNextRoute() {
+		RoutingChatModel router = RoutingChatModel.builder()
+			.route(route("ernie-speed-8k", FAILING, 8192, 0.1))
+			.route(route("ernie-4.5-turbo-32k", answering("turbo"), 32768, 0.8))
+			.build();
+
+		assertThat(text(router.call(new Prompt("Hello")))).isEqualTo("turbo");
+		assertThat(text(router.stream(new Prompt("Hello")).blockLast())).isEqualTo("turbo");
+	}
+
+	@Test
+	public void routesWithAnExhaustedQuotaAreSkipped() {
+		RoutingChatModel router = RoutingChatModel.builder()
+			.route(ModelRoute.builder()
+				.model("ernie-speed-8k")
+				.chatModel(answering("speed"))
+				.price(0.1, 0.1)
+				.requestsPerMinute(1)
+				.build())
+			.route(route("ernie-4.5-turbo-32k", answering("turbo"), 32768, 0.8))
+			.build();
+
+		assertThat(text(router.call(new Prompt("Hello")))).isEqualTo("speed");
+		assertThat(text(router.call(new Prompt("Hello")))).isEqualTo("turbo");
+	}
+
+	@Test
+	public void defaultOptionsDoNotPinTheFirstRoute() {
+		ChatOptions speedOptions = ChatOptions.builder().model("ernie-speed-8k").temperature(0.3).build();
+		RoutingChatModel router = RoutingChatModel.builder()
+			.route(route("ernie-speed-8k", answering("speed", speedOptions), 8192, 0.1))
+			.route(route("ernie-4.5-turbo-128k", answering("turbo"), 131072, 0.8))
+			.completionReserve(512)
+			.build();
+
+		ChatOptions defaultOptions = router.getDefaultOptions();
+		assertThat(defaultOptions.getModel()).isNull();
+		assertThat(defaultOptions.getTemperature()).isEqualTo(0.3);
+		assertThat(text(router.call(new Prompt("Hello", defaultOptions)))).isEqualTo("speed");
+		assertThat(text(router.call(new Prompt("你".repeat(20000), defaultOptions)))).isEqualTo("turbo");
+	}
+
+	@Test
+	public void contextWindowsOfV1ModelsAreKnown() {
+		assertThat(ModelRoute.builder().model("completions_pro").chatModel(answering("pro")).build().getContextWindow())
+			.isEqualTo(8192);
+		assertThat(ModelRoute.builder().model("ernie_speed").chatModel(answering("speed")).build().getContextWindow())
+			.isEqualTo(8192);
+		assertThat(
+				ModelRoute.builder().model("ernie-3.5-128k").chatModel(answering("ernie")).build().getContextWindow())
+			.isEqualTo(131072);
+	}
+
+	@Test
+	public void streamsReleaseTheUnusedReservedTokens() {
+		RoutingChatModel router = RoutingChatModel.builder()
+			.route(ModelRoute.builder()
+				.model("ernie-speed-8k")
+				.chatModel(answering("speed"))
+				.price(0.1, 0.1)
+				.tokensPerMinute(2500)
+				.build())
+			.route(route("ernie-4.5-turbo-32k", answering("turbo"), 32768, 0.8))
+			.build();
+
+		// each stream reserves the 1024 completion tokens but only uses 10
+		for (int i = 0; i < 5; i++) {
+			assertThat(text(router.stream(new Prompt("Hello")).blockLast())).isEqualTo("speed");
+		}
+	}
+
+	private static ModelRoute route(String model, ChatModel chatModel, int contextWindow, double price) {
+		return ModelRoute.builder()
+			.model(model)
+			.chatModel(chatModel)
+			.contextWindow(contextWindow)
+			.price(price, price)
+			.build();
+	}
+
+	private static ChatModel answering(String text) {
+		return answering(text, null);
+	}
+
+	private static ChatModel answering(String text, ChatOptions defaultOptions) {
+		return new ChatModel() {
+
+			@Override
+			public ChatResponse call(Prompt prompt) {
+				return new ChatResponse(List.of(new Generation(new AssistantMessage(text))),
+						ChatResponseMetadata.builder().usage(new DefaultUsage(5, 5)).build());
+			}
+
+			@Override
+			public Flux<ChatResponse> stream(Prompt prompt) {
+				return Flux.just(call(prompt));
+			}
+
+			@Override
+			public ChatOptions getDefaultOptions() {
+				return defaultOptions;
+			}
+
+		};
+	}
+
+	private static String text(ChatResponse response) {
+		return response.getResult().getOutput().getText();
+	}
+
+}
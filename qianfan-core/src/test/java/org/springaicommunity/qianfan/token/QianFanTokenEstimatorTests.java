@@ -0,0 +1,74 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.token;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Calibration of the {@link QianFanTokenEstimator} against the token ratios published for
+ * ERNIE: about 1.6 Chinese characters or 0.75 English words per token.
+ */
+public class QianFanTokenEstimatorTests {
+
+	private final QianFanTokenEstimator estimator = QianFanTokenEstimator.DEFAULT;
+
+	@Test
+	public void chineseTextIsCalibratedToCharactersPerToken() {
+		String text = "千帆大模型平台提供文心一言服务".repeat(100);
+
+		assertThat((double) this.estimator.estimate(text)).isCloseTo(text.length() / 1.6, within(text.length() * 0.05));
+	}
+
+	@Test
+	public void englishTextIsCalibratedToWordsPerToken() {
+		String text = "the quick brown fox jumps over the lazy dog ".repeat(100);
+
+		assertThat((double) this.estimator.estimate(text)).isCloseTo(900 / 0.75, within(900 * 0.1));
+	}
+
+	@Test
+	public void mixedTextCountsEachKindOfCharacter() {
+		// 2 digit groups + 3 CJK characters + 1 word + 1 symbol = 6.175 tokens
+		assertThat(this.estimator.estimate("2024年 千帆 ERNIE!")).isEqualTo(7);
+		assertThat(this.estimator.estimate("   \n\t")).isZero();
+		assertThat(this.estimator.estimate((CharSequence) null)).isZero();
+	}
+
+	@Test
+	public void supplementaryCharactersCountOnce() {
+		assertThat(this.estimator.estimate("😀")).isEqualTo(1);
+	}
+
+	@Test
+	public void messagesIncludeTheirOverhead() {
+		List<String> contents = List.of("hello", "world");
+
+		assertThat(this.estimator.estimateMessages(contents))
+			.isEqualTo(this.estimator.estimate(contents) + 2 * QianFanTokenEstimator.MESSAGE_OVERHEAD_TOKENS);
+	}
+
+	@Test
+	public void longWordsAreSplit() {
+		assertThat(this.estimator.estimate("internationalization")).isGreaterThan(this.estimator.estimate("word"));
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.tool;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ParallelToolCallingManagerTests {
+
+	@Test
+	public void toolCallsRunConcurrentlyAndKeepTheirOrder() {
+		ParallelToolCallingManager manager = ParallelToolCallingManager.builder().build();
+		Prompt prompt = prompt(new SleepingTool("slow", 400), new SleepingTool("fast", 100),
+				new SleepingTool("medium", 300));
+
+		long start = System.nanoTime();
+		ToolExecutionResult result = manager.executeToolCalls(prompt, response("slow", "fast", "medium"));
+		long elapsedMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+		assertThat(elapsedMillis).isLessThan(750);
+		assertThat(result.returnDirect()).isFalse();
+		assertThat(result.conversationHistory()).hasSize(3);
+		ToolResponseMessage toolResponses = (ToolResponseMessage) result.conversationHistory().get(2);
+		assertThat(toolResponses.getResponses()).extracting(ToolResponseMessage.ToolResponse::name)
+			.containsExactly("slow", "fast", "medium");
+		assertThat(toolResponses.getResponses()).extracting(ToolResponseMessage.ToolResponse::responseData)
+			.containsExactly("slow done", "fast done", "medium done");
+	}
+
+	@Test
+	public void toolCallsExceedingTheTimeoutAreAnsweredWithAnError() {
+		ParallelToolCallingManager manager = ParallelToolCallingManager.builder()
+			.toolTimeout(Duration.ofMillis(200))
+			.build();
+		Prompt prompt = prompt(new SleepingTool("hanging", 5000), new SleepingTool("fast", 10));
+
+		ToolExecutionResult result = manager.executeToolCalls(prompt, response("hanging", "fast"));
+
+		ToolResponseMessage toolResponses = (ToolResponseMessage) result.conversationHistory().get(2);
+		assertThat(toolResponses.getResponses()).extracting(ToolResponseMessage.ToolResponse::responseData)
+			.containsExactly("Tool hanging timed out after 200 ms", "fast done");
+	}
+
+	@Test
+	public void failingToolCallCancelsTheOtherToolCalls() throws InterruptedException {
+		ParallelToolCallingManager manager = ParallelToolCallingManager.builder().build();
+		SleepingTool hanging = new SleepingTool("hanging", 5000);
+		Prompt prompt = prompt(new FailingTool("failing"), hanging);
+
+		assertThatThrownBy(() -> manager.executeToolCalls(prompt, response("failing", "hanging")))
+			.isInstanceOf(IllegalStateException.class)
+			.hasMessage("failing failed");
+		assertThat(hanging.interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+	}
+
+	private static Prompt prompt(ToolCallback... toolCallbacks) {
+		return new Prompt(new UserMessage("run the tools"),
+				ToolCallingChatOptions.builder().toolCallbacks(toolCallbacks).build());
+	}
+
+	private static ChatResponse response(String... toolNames) {
+		List<AssistantMessage.ToolCall> toolCalls = Arrays.stream(toolNames)
+			.map(name -> new AssistantMessage.ToolCall("call-" + name, "function", name, "{}"))
+			.toList();
+		return new ChatResponse(List.of(new Generation(new AssistantMessage("", Map.of(), toolCalls))));
+	}
+
+	private static final class SleepingTool implements ToolCallback {
+
+		private final String name;
+
+		private final long sleepMillis;
+
+		private final CountDownLatch interrupted = new CountDownLatch(1);
+
+		SleepingTool(String name, long sleepMillis) {
+			this.name = name;
+			this.sleepMillis = sleepMillis;
+		}
+
+		@Override
+		public ToolDefinition getToolDefinition() {
+			return ToolDefinition.builder().name(this.name).description(this.name).inputSchema("{}").build();
+		}
+
+		@Override
+		public String call(String toolInput) {
+			try {
+				Thread.sleep(this.sleepMillis);
+			}
+			catch (InterruptedException ex) {
+				this.interrupted.countDown();
+				Thread.currentThread().interrupt();
+			}
+			return this.name + " done";
+		}
+
+	}
+
+	private static final class FailingTool implements ToolCallback {
+
+		private final String name;
+
+		FailingTool(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public ToolDefinition getToolDefinition() {
+			return ToolDefinition.builder().name(this.name).description(this.name).inputSchema("{}").build();
+		}
+
+		@Override
+		public String call(String toolInput) {
+			throw new IllegalStateException(this.name + " failed");
+		}
+
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import org.springaicommunity.qianfanv2.api.QianFanApi;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionMessage;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionMessage.Role;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContextWindowBudgeterTests {
+
+	// every message costs 10 tokens plus the 4 tokens message overhead
+	private final ContextWindowBudgeter budgeter = new ContextWindowBudgeter(text -> 10, 0);
+
+	private final ChatCompletionMessage system = new ChatCompletionMessage("system", Role.system);
+
+	@Test
+	public void conversationWithinBudgetIsUnchanged() {
+		List<ChatCompletionMessage> messages = List.of(this.system, user("q1"), assistant("a1"), user("q2"));
+
+		assertThat(this.budgeter.fit(messages, 56)).isSameAs(messages);
+	}
+
+	@Test
+	public void oldestTurnsAreDroppedKeepingTheSystemMessage() {
+		ChatCompletionMessage q2 = user("q2");
+		ChatCompletionMessage a2 = assistant("a2");
+		ChatCompletionMessage q3 = user("q3");
+		List<ChatCompletionMessage> messages = List.of(this.system, user("q1"), assistant("a1"), q2, a2, q3);
+
+		assertThat(this.budgeter.fit(messages, 60)).containsExactly(this.system, q2, a2, q3);
+	}
+
+	@Test
+	public void toolCallsLeaveTogetherWithTheirResponses() {
+		ChatCompletionMessage toolCall = new ChatCompletionMessage("", Role.assistant, null, null,
+				List.of(new QianFanApi.ToolCalls("call-1", "function", Map.of("name", "weather"))));
+		ChatCompletionMessage toolResponse = new ChatCompletionMessage("sunny", Role.tool, "weather", "call-1", null);
+		ChatCompletionMessage q2 = user("q2");
+		List<ChatCompletionMessage> messages = List.of(user("q1"), toolCall, toolResponse, assistant("a1"), q2);
+
+		assertThat(this.budgeter.fit(messages, 20)).containsExactly(q2);
+	}
+
+	@Test
+	public void contextWindowOfKnownAndSuffixedModels() {
+		assertThat(ContextWindowBudgeter.contextWindow("ernie-speed-8k")).isEqualTo(8192);
+		assertThat(ContextWindowBudgeter.contextWindow("ernie-4.5-turbo-128k")).isEqualTo(131072);
+		assertThat(ContextWindowBudgeter.contextWindow("ernie-x1-32k-preview")).isEqualTo(32768);
+		assertThat(ContextWindowBudgeter.contextWindow("deepseek-v3")).isNull();
+	}
+
+	@Test
+	public void completionBudgetIsReservedFromTheContextWindow() {
+		List<ChatCompletionMessage> messages = List.of(user("q1"), assistant("a1"), user("q2"));
+		ChatCompletionRequest request = new ChatCompletionRequest(messages, "ernie-speed-8k", null, 8192 - 20, null,
+				null, null, false, null, null, null, null);
+
+		assertThat(this.budgeter.fit(request).messages()).containsExactly(messages.get(2));
+	}
+
+	private static ChatCompletionMessage user(String text) {
+		return new ChatCompletionMessage(text, Role.user);
+	}
+
+	private static ChatCompletionMessage assistant(String text) {
+		return new ChatCompletionMessage(text, Role.assistant);
+	}
+
+}
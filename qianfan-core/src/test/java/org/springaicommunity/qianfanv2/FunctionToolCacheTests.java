@@ -0,0 +1,120 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import org.springaicommunity.qianfanv2.api.QianFanApi;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FunctionToolCacheTests {
+
+	private final AtomicInteger builds = new AtomicInteger();
+
+	@Test
+	public void identicalToolSetsAreBuiltOnce() {
+		FunctionToolCache cache = new FunctionToolCache();
+		TestTool weather = new TestTool("weather", "{}");
+
+		cache.getFunctionTools(options(Set.of("weather"), weather), this::build);
+		cache.getFunctionTools(options(Set.of("weather"), weather), this::build);
+
+		assertThat(this.builds).hasValue(1);
+		assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void changedSchemasAndNamesAreRebuilt() {
+		FunctionToolCache cache = new FunctionToolCache();
+		TestTool weather = new TestTool("weather", "{}");
+
+		cache.getFunctionTools(options(Set.of("weather"), weather), this::build);
+		weather.inputSchema = "{\"type\":\"object\"}";
+		cache.getFunctionTools(options(Set.of("weather"), weather), this::build);
+		cache.getFunctionTools(options(Set.of("weather", "time"), weather), this::build);
+		cache.getFunctionTools(options(Set.of("weather"), new TestTool("weather", "{\"type\":\"object\"}")),
+				this::build);
+
+		assertThat(this.builds).hasValue(4);
+	}
+
+	@Test
+	public void leastRecentlyUsedToolSetIsEvictedWhenFull() {
+		FunctionToolCache cache = new FunctionToolCache(2);
+		TestTool weather = new TestTool("weather", "{}");
+		TestTool time = new TestTool("time", "{}");
+		TestTool news = new TestTool("news", "{}");
+
+		cache.getFunctionTools(options(Set.of(), weather), this::build);
+		cache.getFunctionTools(options(Set.of(), time), this::build);
+		cache.getFunctionTools(options(Set.of(), weather), this::build);
+		cache.getFunctionTools(options(Set.of(), news), this::build);
+		assertThat(this.builds).hasValue(3);
+		assertThat(cache.size()).isEqualTo(2);
+
+		// weather was used last, time was evicted
+		cache.getFunctionTools(options(Set.of(), weather), this::build);
+		assertThat(this.builds).hasValue(3);
+		cache.getFunctionTools(options(Set.of(), time), this::build);
+		assertThat(this.builds).hasValue(4);
+	}
+
+	private List<QianFanApi.FunctionTool> build(ToolCallingChatOptions options) {
+		this.builds.incrementAndGet();
+		return List.of();
+	}
+
+	private static ToolCallingChatOptions options(Set<String> toolNames, ToolCallback... toolCallbacks) {
+		return QianFanChatOptions.builder().toolNames(toolNames).toolCallbacks(List.of(toolCallbacks)).build();
+	}
+
+	private static final class TestTool implements ToolCallback {
+
+		private final String name;
+
+		private String inputSchema;
+
+		TestTool(String name, String inputSchema) {
+			this.name = name;
+			this.inputSchema = inputSchema;
+		}
+
+		@Override
+		public ToolDefinition getToolDefinition() {
+			return ToolDefinition.builder()
+				.name(this.name)
+				.description(this.name)
+				.inputSchema(this.inputSchema)
+				.build();
+		}
+
+		@Override
+		public String call(String toolInput) {
+			return this.name;
+		}
+
+	}
+
+}
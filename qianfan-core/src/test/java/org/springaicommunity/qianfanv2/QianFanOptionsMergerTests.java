@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionMessage;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionMessage.Role;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionRequest;
+import org.springaicommunity.qianfanv2.api.QianFanImageApi;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.image.ImageOptionsBuilder;
+import org.springframework.ai.model.ModelOptionsUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QianFanOptionsMergerTests {
+
+	private final ChatCompletionRequest request = new ChatCompletionRequest(
+			List.of(new ChatCompletionMessage("hello", Role.user)), false);
+
+	@Test
+	public void applyMatchesModelOptionsUtilsMerge() {
+		QianFanChatOptions options = QianFanChatOptions.builder()
+			.model("ernie-4.5-turbo-128k")
+			.temperature(0.2)
+			.maxTokens(128)
+			.stop(List.of("END"))
+			.build();
+
+		assertThat(QianFanOptionsMerger.apply(options, this.request))
+			.isEqualTo(ModelOptionsUtils.merge(options, this.request, ChatCompletionRequest.class));
+	}
+
+	@Test
+	public void nullOptionsKeepRequestValues() {
+		ChatCompletionRequest merged = QianFanOptionsMerger.apply(QianFanChatOptions.builder().build(), this.request);
+
+		assertThat(merged).isEqualTo(this.request);
+	}
+
+	@Test
+	public void runtimeOptionsTakePrecedenceOverDefaults() {
+		QianFanChatOptions defaults = QianFanChatOptions.builder().model("default").temperature(0.7).topP(0.9).build();
+		QianFanChatOptions runtime = QianFanOptionsMerger
+			.toQianFanChatOptions(ChatOptions.builder().temperature(0.0).stopSequences(List.of("STOP")).build());
+
+		QianFanChatOptions merged = QianFanOptionsMerger.merge(runtime, defaults);
+
+		assertThat(merged.getModel()).isEqualTo("default");
+		assertThat(merged.getTemperature()).isEqualTo(0.0);
+		assertThat(merged.getTopP()).isEqualTo(0.9);
+		assertThat(merged.getStop()).containsExactly("STOP");
+	}
+
+	@Test
+	public void imageOptionsApplyToRequest() {
+		QianFanImageOptions options = QianFanOptionsMerger
+			.toQianFanImageOptions(ImageOptionsBuilder.builder().N(2).width(1024).height(768).build());
+		QianFanImageApi.QianFanImageRequest imageRequest = new QianFanImageApi.QianFanImageRequest("a cat", "irag-1.0");
+
+		QianFanImageApi.QianFanImageRequest merged = QianFanOptionsMerger.apply(options, imageRequest);
+
+		assertThat(merged.model()).isEqualTo("irag-1.0");
+		assertThat(merged.n()).isEqualTo(2);
+		assertThat(merged.size()).isEqualTo("1024x768");
+		assertThat(merged.prompt()).isEqualTo("a cat");
+	}
+
+}
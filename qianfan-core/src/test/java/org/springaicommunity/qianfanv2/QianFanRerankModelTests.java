@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springaicommunity.qianfanv2.api.QianFanApi;
+import org.springaicommunity.qianfanv2.api.QianFanApi.RerankRequest;
+import org.springaicommunity.qianfanv2.api.QianFanApi.RerankResponse;
+import org.springaicommunity.qianfanv2.api.QianFanApi.RerankResult;
+import org.springaicommunity.qianfanv2.api.QianFanApi.Usage;
+
+import org.springframework.ai.document.Document;
+import org.springframework.http.ResponseEntity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.BDDMockito.given;
+
+@ExtendWith(MockitoExtension.class)
+public class QianFanRerankModelTests {
+
+	private @Mock QianFanApi qianFanApi;
+
+	@Test
+	public void batchesAreScoredAndMergedIntoOneRanking() {
+		List<RerankRequest> requests = new CopyOnWriteArrayList<>();
+		given(this.qianFanApi.rerank(isA(RerankRequest.class))).willAnswer(invocation -> {
+			RerankRequest request = invocation.getArgument(0);
+			requests.add(request);
+			List<RerankResult> results = new ArrayList<>();
+			for (int i = 0; i < request.documents().size(); i++) {
+				String document = request.documents().get(i);
+				results.add(new RerankResult(i, document, Double.parseDouble(document.substring(4)) / 1000));
+			}
+			return ResponseEntity.ok(new RerankResponse("id", "rerank_list", 0L, request.model(), results, null, null,
+					new Usage(null, request.documents().size(), request.documents().size())));
+		});
+		List<String> documents = new ArrayList<>();
+		for (int i = 0; i < 150; i++) {
+			documents.add("doc " + ((i * 37) % 150));
+		}
+		QianFanRerankModel rerankModel = new QianFanRerankModel(this.qianFanApi);
+
+		QianFanRerankModel.Response response = rerankModel.call("query", documents,
+				QianFanRerankOptions.builder().topN(3).build());
+
+		assertThat(requests).extracting(request -> request.documents().size()).containsExactlyInAnyOrder(64, 64, 22);
+		assertThat(requests).allSatisfy(request -> {
+			assertThat(request.model()).isEqualTo(QianFanApi.DEFAULT_RERANK_MODEL);
+			assertThat(request.topN()).isEqualTo(3);
+		});
+		assertThat(response.results()).extracting(QianFanRerankModel.Result::document)
+			.containsExactly("doc 149", "doc 148", "doc 147");
+		assertThat(response.results().get(0).index()).isEqualTo(documents.indexOf("doc 149"));
+		assertThat(response.usage().getTotalTokens()).isEqualTo(150);
+	}
+
+	@Test
+	public void documentsAreScoredInPlace() {
+		given(this.qianFanApi.rerank(isA(RerankRequest.class)))
+			.willReturn(ResponseEntity.ok(new RerankResponse("id", "rerank_list", 0L, "bce-reranker-base",
+					List.of(new RerankResult(1, "b", 0.9), new RerankResult(0, "a", 0.2)), null, null, null)));
+		Document first = new Document("a");
+		Document second = new Document("b");
+
+		List<Document> reranked = new QianFanRerankModel(this.qianFanApi).rerank("query", List.of(first, second));
+
+		assertThat(reranked).extracting(Document::getId).containsExactly(second.getId(), first.getId());
+		assertThat(reranked.get(0).getScore()).isEqualTo(0.9);
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springaicommunity.qianfanv2.api.QianFanApi;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StreamingToolCallAssemblerTests {
+
+	private final StreamingToolCallAssembler assembler = new StreamingToolCallAssembler();
+
+	@Test
+	public void toolCallsAreCompletedWhenTheNextOneStartsAndWhenTheChoiceFinishes() {
+		assertThat(this.assembler.accept(delta(null, new QianFanApi.ToolCalls("call-1", "function",
+				Map.of("name", "weather", "arguments", "{\"city\":"), 0))))
+			.isEmpty();
+		assertThat(this.assembler.accept(delta(null, fragment(0, "\"Beijing\"}")))).isEmpty();
+
+		List<AssistantMessage.ToolCall> completed = this.assembler.accept(delta(null,
+				new QianFanApi.ToolCalls("call-2", "function", Map.of("name", "time", "arguments", ""), 1)));
+		assertThat(completed)
+			.containsExactly(new AssistantMessage.ToolCall("call-1", "function", "weather", "{\"city\":\"Beijing\"}"));
+
+		assertThat(this.assembler.accept(delta(null, fragment(1, "{}")))).isEmpty();
+		assertThat(this.assembler.accept(delta("tool_calls")))
+			.containsExactly(new AssistantMessage.ToolCall("call-2", "function", "time", "{}"));
+		assertThat(this.assembler.complete()).isEmpty();
+	}
+
+	@Test
+	public void pendingToolCallsAreCompletedAtTheEndOfTheStream() {
+		this.assembler.accept(delta(null, new QianFanApi.ToolCalls("call-1", null, Map.of("name", "weather"))));
+		this.assembler.accept(delta(null, new QianFanApi.ToolCalls(null, null, Map.of("arguments", "{}"))));
+
+		assertThat(this.assembler.complete())
+			.containsExactly(new AssistantMessage.ToolCall("call-1", "function", "weather", "{}"));
+	}
+
+	private static QianFanApi.ToolCalls fragment(int index, String arguments) {
+		return new QianFanApi.ToolCalls(null, null, Map.of("arguments", arguments), index);
+	}
+
+	private static QianFanApi.Choices delta(String finishReason, QianFanApi.ToolCalls... toolCalls) {
+		return new QianFanApi.Choices(0, finishReason, new QianFanApi.Message(null, "assistant", List.of(toolCalls)),
+				null);
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2.api;
+
+import java.time.Duration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.http.HttpHeaders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ApiKeyPoolTests {
+
+	private static final String MODEL = "ernie-4.5-turbo-128k";
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	public void roundRobinRotatesKeys() {
+		ApiKeyPool pool = pool(ApiKeyPool.SelectionStrategy.ROUND_ROBIN);
+
+		assertThat(leaseAndClose(pool)).isEqualTo("a");
+		assertThat(leaseAndClose(pool)).isEqualTo("b");
+		assertThat(leaseAndClose(pool)).isEqualTo("a");
+	}
+
+	@Test
+	public void leastInFlightAvoidsBusyKeys() {
+		ApiKeyPool pool = pool(ApiKeyPool.SelectionStrategy.LEAST_IN_FLIGHT);
+
+		try (ApiKeyPool.Lease busy = pool.acquire(MODEL)) {
+			try (ApiKeyPool.Lease other = pool.acquire(MODEL)) {
+				assertThat(other.getKeyId()).isNotEqualTo(busy.getKeyId());
+			}
+		}
+		assertThat(this.meterRegistry.get(ApiKeyPool.IN_FLIGHT_METRIC).tag("key", "a").gauge().value()).isZero();
+	}
+
+	@Test
+	public void quotaAwarePrefersKeyWithMostRemainingRequests() {
+		ApiKeyPool pool = pool(ApiKeyPool.SelectionStrategy.QUOTA_AWARE);
+
+		reportRemaining(pool, "a", 5);
+		reportRemaining(pool, "b", 100);
+
+		assertThat(leaseAndClose(pool)).isEqualTo("b");
+	}
+
+	@Test
+	public void quotaErrorEjectsKeyForModelOnly() {
+		ApiKeyPool pool = pool(ApiKeyPool.SelectionStrategy.LEAST_IN_FLIGHT);
+
+		try (ApiKeyPool.Lease lease = pool.acquire(MODEL)) {
+			assertThat(lease.getKeyId()).isEqualTo("a");
+			lease.onError(new NonTransientAiException("429 - rate_limit_exceeded"));
+		}
+
+		for (int i = 0; i < 4; i++) {
+			assertThat(leaseAndClose(pool)).isEqualTo("b");
+		}
+		try (ApiKeyPool.Lease lease = pool.acquire("embedding-v1")) {
+			assertThat(lease.getKeyId()).isEqualTo("a");
+		}
+		assertThat(this.meterRegistry.get(ApiKeyPool.REQUESTS_METRIC)
+			.tag("key", "a")
+			.tag("outcome", "quota_exceeded")
+			.counter()
+			.count()).isEqualTo(1);
+	}
+
+	@Test
+	public void namedPoolsSharingARegistryDoNotCollide() {
+		ApiKeyPool chatPool = ApiKeyPool.builder()
+			.name("chat")
+			.apiKey("a", "key-a")
+			.meterRegistry(this.meterRegistry)
+			.build();
+		ApiKeyPool embeddingPool = ApiKeyPool.builder()
+			.name("embedding")
+			.apiKey("a", "key-a")
+			.meterRegistry(this.meterRegistry)
+			.build();
+
+		try (ApiKeyPool.Lease lease = chatPool.acquire(MODEL)) {
+			assertThat(this.meterRegistry.get(ApiKeyPool.IN_FLIGHT_METRIC).tag("pool", "chat").gauge().value())
+				.isEqualTo(1);
+			assertThat(this.meterRegistry.get(ApiKeyPool.IN_FLIGHT_METRIC).tag("pool", "embedding").gauge().value())
+				.isZero();
+		}
+		assertThat(embeddingPool.getName()).isEqualTo("embedding");
+	}
+
+	private ApiKeyPool pool(ApiKeyPool.SelectionStrategy selectionStrategy) {
+		return ApiKeyPool.builder()
+			.apiKey("a", "key-a")
+			.apiKey("b", "key-b")
+			.selectionStrategy(selectionStrategy)
+			.ejectionDuration(Duration.ofHours(1))
+			.meterRegistry(this.meterRegistry)
+			.build();
+	}
+
+	private static String leaseAndClose(ApiKeyPool pool) {
+		try (ApiKeyPool.Lease lease = pool.acquire(MODEL)) {
+			HttpHeaders headers = new HttpHeaders();
+			lease.applyTo(headers);
+			assertThat(headers.getFirst(HttpHeaders.AUTHORIZATION)).isEqualTo("Bearer key-" + lease.getKeyId());
+			return lease.getKeyId();
+		}
+	}
+
+	private static void reportRemaining(ApiKeyPool pool, String keyId, long remaining) {
+		while (true) {
+			try (ApiKeyPool.Lease lease = pool.acquire(MODEL)) {
+				if (lease.getKeyId().equals(keyId)) {
+					HttpHeaders headers = new HttpHeaders();
+					headers.set(ApiKeyPool.REMAINING_REQUESTS_HEADER, String.valueOf(remaining));
+					lease.onSuccess(headers);
+					return;
+				}
+				lease.onSuccess(null);
+			}
+		}
+	}
+
+}
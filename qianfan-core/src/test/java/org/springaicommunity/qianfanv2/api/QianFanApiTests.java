@@ -0,0 +1,120 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2.api;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionChunk;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionMessage;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionMessage.Role;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionRequest;
+import org.springframework.ai.retry.RetryUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests of {@link QianFanApi} against canned server-sent event streams.
+ */
+public class QianFanApiTests {
+
+	private static final String MODEL = "ernie-speed-8k";
+
+	@Test
+	public void streamEndsWithTheTrailingUsageChunk() {
+		QianFanApi api = api("""
+				data: {"id":"1","choices":[{"index":0,"delta":{"content":"Hel"}}]}
+
+				data: {"id":"1","choices":[{"index":0,"delta":{"content":"lo"},"finish_reason":"stop"}]}
+
+				data: {"id":"1","choices":[],"usage":{"prompt_tokens":3,"completion_tokens":2,"total_tokens":5}}
+
+				data: [DONE]
+
+				""");
+
+		List<ChatCompletionChunk> chunks = api
+			.chatCompletionStream(request(ChatCompletionRequest.StreamOptions.INCLUDE_USAGE))
+			.collectList()
+			.block();
+
+		assertThat(chunks).hasSize(3);
+		assertThat(chunks.get(0).choices().get(0).message().content()).isEqualTo("Hel");
+		assertThat(chunks.get(1).usage()).isNull();
+		assertThat(chunks.get(2).choices()).isEmpty();
+		assertThat(chunks.get(2).usage().totalTokens()).isEqualTo(5);
+	}
+
+	@Test
+	public void streamWithoutUsageEndsOnDone() {
+		QianFanApi api = api("""
+				data: {"id":"1","choices":[{"index":0,"delta":{"content":"Hel"}}]}
+
+				data: {"id":"1","choices":[{"index":0,"delta":{"content":"lo"}}]}
+
+				data: [DONE]
+
+				""");
+
+		List<ChatCompletionChunk> chunks = api.chatCompletionStream(request(null)).collectList().block();
+
+		assertThat(chunks).hasSize(2);
+		assertThat(chunks).allSatisfy(chunk -> assertThat(chunk.usage()).isNull());
+		assertThat(chunks.get(1).choices().get(0).message().content()).isEqualTo("lo");
+	}
+
+	@Test
+	public void streamWithoutUsageEndsOnTheFinishingChunk() {
+		QianFanApi api = api("""
+				data: {"id":"1","choices":[{"index":0,"delta":{"content":"Hello"},"finish_reason":"stop"}]}
+
+				data: {"id":"1","choices":[],"usage":{"prompt_tokens":3,"completion_tokens":1,"total_tokens":4}}
+
+				data: [DONE]
+
+				""");
+
+		List<ChatCompletionChunk> chunks = api.chatCompletionStream(request(null)).collectList().block();
+
+		assertThat(chunks).hasSize(1);
+		assertThat(chunks.get(0).choices().get(0).finishReason()).isEqualTo("stop");
+	}
+
+	private static ChatCompletionRequest request(ChatCompletionRequest.StreamOptions streamOptions) {
+		return new ChatCompletionRequest(List.of(new ChatCompletionMessage("Hello", Role.user)), MODEL, null, null,
+				null, null, null, true, null, null, null, null, streamOptions);
+	}
+
+	private static QianFanApi api(String events) {
+		WebClient.Builder webClientBuilder = WebClient.builder()
+			.exchangeFunction(request -> Mono.just(ClientResponse.create(HttpStatus.OK)
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_EVENT_STREAM_VALUE)
+				.body(events)
+				.build()));
+		return new QianFanApi("https://qianfan.test", "key", RestClient.builder(), webClientBuilder,
+				RetryUtils.DEFAULT_RESPONSE_ERROR_HANDLER);
+	}
+
+}
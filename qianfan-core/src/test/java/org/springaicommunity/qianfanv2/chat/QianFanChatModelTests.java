@@ -0,0 +1,271 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfanv2.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Flux;
+
+import org.springaicommunity.qianfan.cache.RequestCoalescer;
+import org.springaicommunity.qianfan.metering.UsageMeter;
+import org.springaicommunity.qianfan.token.QianFanTokenEstimator;
+import org.springaicommunity.qianfanv2.ContextWindowBudgeter;
+import org.springaicommunity.qianfanv2.QianFanChatModel;
+import org.springaicommunity.qianfanv2.QianFanChatOptions;
+import org.springaicommunity.qianfanv2.api.QianFanApi;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletion;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionChunk;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChatCompletionRequest;
+import org.springaicommunity.qianfanv2.api.QianFanApi.Choices;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ChoicesChunk;
+import org.springaicommunity.qianfanv2.api.QianFanApi.Message;
+import org.springaicommunity.qianfanv2.api.QianFanApi.ToolCalls;
+import org.springaicommunity.qianfanv2.api.QianFanApi.Usage;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.retry.RetryUtils;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+import org.springframework.http.ResponseEntity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class QianFanChatModelTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private @Mock QianFanApi qianFanApi;
+
+	@Test
+	public void coalescedCallsAreMeteredOnce() throws Exception {
+		QianFanChatModel chatModel = new QianFanChatModel(this.qianFanApi,
+				QianFanChatOptions.builder().model("ernie-speed-8k").temperature(0.0).build(),
+				RetryUtils.SHORT_RETRY_TEMPLATE);
+		chatModel.setRequestCoalescer(new RequestCoalescer(this.meterRegistry));
+		chatModel.setUsageMeter(UsageMeter.builder().meterRegistry(this.meterRegistry).build());
+
+		int callers = 4;
+		CountDownLatch release = new CountDownLatch(1);
+		given(this.qianFanApi.chatCompletionEntity(isA(ChatCompletionRequest.class))).willAnswer(invocation -> {
+			release.await(5, TimeUnit.SECONDS);
+			return ResponseEntity.of(Optional.of(completion("Response", new Usage(20, 10, 30))));
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(callers);
+		try {
+			List<Future<ChatResponse>> responses = new ArrayList<>();
+			for (int i = 0; i < callers; i++) {
+				responses.add(executor.submit(() -> chatModel.call(new Prompt("hello"))));
+			}
+			while (coalescedRequests() < callers) {
+				Thread.sleep(5);
+			}
+			release.countDown();
+			for (Future<ChatResponse> response : responses) {
+				assertThat(response.get(5, TimeUnit.SECONDS).getResult().getOutput().getText()).isEqualTo("Response");
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		verify(this.qianFanApi, times(1)).chatCompletionEntity(isA(ChatCompletionRequest.class));
+		assertThat(this.meterRegistry.get(UsageMeter.TOKENS_METRIC).tag("type", "total").counter().count())
+			.isEqualTo(30);
+	}
+
+	@Test
+	public void streamedUsageReachesTheAggregatedResponse() {
+		QianFanChatModel chatModel = new QianFanChatModel(this.qianFanApi,
+				QianFanChatOptions.builder().model("ernie-speed-8k").build());
+		chatModel.setUsageMeter(UsageMeter.builder().meterRegistry(this.meterRegistry).build());
+		given(this.qianFanApi.chatCompletionStream(isA(ChatCompletionRequest.class)))
+			.willReturn(Flux.just(chunk("Hel", null, null), chunk("lo", "stop", null),
+					new ChatCompletionChunk("id", "chat.completion.chunk", 1L, null, List.of(), new Usage(2, 3, 5))));
+
+		List<ChatResponse> responses = chatModel.stream(new Prompt("hello")).collectList().block();
+
+		assertThat(responses).hasSize(3);
+		assertThat(responses.get(0).getResult().getOutput().getText()).isEqualTo("Hel");
+		assertThat(responses.get(2).getMetadata().getUsage().getTotalTokens()).isEqualTo(5);
+		assertThat(this.meterRegistry.get(UsageMeter.TOKENS_METRIC)
+			.tag("type", "total")
+			.tag("operation", "stream")
+			.counter()
+			.count()).isEqualTo(5);
+	}
+
+	@Test
+	public void streamUsageIsRequestedUnlessDisabled() {
+		QianFanChatModel chatModel = new QianFanChatModel(this.qianFanApi,
+				QianFanChatOptions.builder().model("ernie-speed-8k").build());
+		ArgumentCaptor<ChatCompletionRequest> requests = ArgumentCaptor.forClass(ChatCompletionRequest.class);
+		given(this.qianFanApi.chatCompletionStream(requests.capture()))
+			.willAnswer(invocation -> Flux.just(chunk("Hello", "stop", null)));
+
+		chatModel.stream(new Prompt("hello")).blockLast();
+		chatModel.stream(new Prompt("hello", QianFanChatOptions.builder().streamUsage(false).build())).blockLast();
+
+		assertThat(requests.getAllValues().get(0).streamOptions())
+			.isEqualTo(ChatCompletionRequest.StreamOptions.INCLUDE_USAGE);
+		assertThat(requests.getAllValues().get(1).streamOptions()).isNull();
+	}
+
+	@Test
+	public void toolsAreExecutedUntilTheModelAnswers() {
+		WeatherTool weatherTool = new WeatherTool(false);
+		QianFanChatModel chatModel = new QianFanChatModel(this.qianFanApi, toolOptions(weatherTool),
+				RetryUtils.SHORT_RETRY_TEMPLATE);
+		given(this.qianFanApi.chatCompletionEntity(isA(ChatCompletionRequest.class)))
+			.willReturn(ResponseEntity.of(Optional.of(toolCallCompletion())))
+			.willReturn(ResponseEntity.of(Optional.of(completion("It is sunny", null))));
+
+		ChatResponse response = chatModel.call(new Prompt("What is the weather?"));
+
+		assertThat(response.getResult().getOutput().getText()).isEqualTo("It is sunny");
+		assertThat(weatherTool.calls).hasValue(1);
+		verify(this.qianFanApi, times(2)).chatCompletionEntity(isA(ChatCompletionRequest.class));
+	}
+
+	@Test
+	public void returnDirectToolsShortCircuitTheLoop() {
+		WeatherTool weatherTool = new WeatherTool(true);
+		QianFanChatModel chatModel = new QianFanChatModel(this.qianFanApi, toolOptions(weatherTool),
+				RetryUtils.SHORT_RETRY_TEMPLATE);
+		given(this.qianFanApi.chatCompletionEntity(isA(ChatCompletionRequest.class)))
+			.willReturn(ResponseEntity.of(Optional.of(toolCallCompletion())));
+
+		ChatResponse response = chatModel.call(new Prompt("What is the weather?"));
+
+		assertThat(response.getResult().getOutput().getText()).isEqualTo("sunny");
+		verify(this.qianFanApi, times(1)).chatCompletionEntity(isA(ChatCompletionRequest.class));
+	}
+
+	@Test
+	public void toolLoopFailsAfterMaxToolIterations() {
+		WeatherTool weatherTool = new WeatherTool(false);
+		QianFanChatModel chatModel = new QianFanChatModel(this.qianFanApi, toolOptions(weatherTool),
+				RetryUtils.SHORT_RETRY_TEMPLATE);
+		chatModel.setMaxToolIterations(2);
+		given(this.qianFanApi.chatCompletionEntity(isA(ChatCompletionRequest.class)))
+			.willAnswer(invocation -> ResponseEntity.of(Optional.of(toolCallCompletion())));
+
+		assertThatThrownBy(() -> chatModel.call(new Prompt("What is the weather?")))
+			.isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("after 2 tool iterations");
+		assertThat(weatherTool.calls).hasValue(2);
+		verify(this.qianFanApi, times(2)).chatCompletionEntity(isA(ChatCompletionRequest.class));
+	}
+
+	@Test
+	public void estimatedPromptTokensCoverTheWholeConversation() {
+		QianFanChatModel chatModel = new QianFanChatModel(this.qianFanApi,
+				QianFanChatOptions.builder().model("ernie-speed-8k").maxTokens(4096).build());
+		String turn = "天气".repeat(800);
+		Prompt prompt = new Prompt(List.of(new UserMessage(turn), new AssistantMessage(turn), new UserMessage(turn),
+				new AssistantMessage(turn), new UserMessage("明天呢？")));
+		int wholeConversation = new ContextWindowBudgeter(QianFanTokenEstimator.DEFAULT::estimate, 0)
+			.estimate(chatModel.createRequest(prompt, false).messages());
+
+		chatModel.setContextWindowBudgeter(new ContextWindowBudgeter(text -> 1000, 0));
+
+		assertThat(chatModel.createRequest(prompt, false).messages()).hasSizeLessThan(5);
+		assertThat(chatModel.estimatePromptTokens(prompt)).isEqualTo(wholeConversation);
+	}
+
+	private static QianFanChatOptions toolOptions(ToolCallback toolCallback) {
+		return QianFanChatOptions.builder().model("ernie-speed-8k").toolCallbacks(List.of(toolCallback)).build();
+	}
+
+	private static ChatCompletion toolCallCompletion() {
+		ToolCalls toolCall = new ToolCalls("call-1", "function", Map.of("name", "weather", "arguments", "{}"));
+		return new ChatCompletion("id", "chat.completion", 1L, null, null,
+				List.of(new Choices(0, "tool_calls", new Message("", "assistant", List.of(toolCall)), null)), null);
+	}
+
+	private double coalescedRequests() {
+		return this.meterRegistry.find(RequestCoalescer.REQUESTS_METRIC)
+			.counters()
+			.stream()
+			.mapToDouble(Counter::count)
+			.sum();
+	}
+
+	private static ChatCompletionChunk chunk(String content, String finishReason, Usage usage) {
+		return new ChatCompletionChunk("id", "chat.completion.chunk", 1L, null,
+				List.of(new ChoicesChunk(0, new Message(content, "assistant", null), finishReason, null)), usage);
+	}
+
+	private static ChatCompletion completion(String content, Usage usage) {
+		return new ChatCompletion("id", "chat.completion", 1L, null, null,
+				List.of(new Choices(0, "stop", new Message(content, "assistant", null), null)), usage);
+	}
+
+	private static final class WeatherTool implements ToolCallback {
+
+		private final AtomicInteger calls = new AtomicInteger();
+
+		private final boolean returnDirect;
+
+		WeatherTool(boolean returnDirect) {
+			this.returnDirect = returnDirect;
+		}
+
+		@Override
+		public ToolDefinition getToolDefinition() {
+			return ToolDefinition.builder().name("weather").description("Current weather").inputSchema("{}").build();
+		}
+
+		@Override
+		public ToolMetadata getToolMetadata() {
+			return ToolMetadata.builder().returnDirect(this.returnDirect).build();
+		}
+
+		@Override
+		public String call(String toolInput) {
+			this.calls.incrementAndGet();
+			return "sunny";
+		}
+
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.autoconfigure;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springaicommunity.qianfanv2.api.ApiKeyPool;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionOutcome;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.SpringBootCondition;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * The {@link ApiKeyPool} shared by the v2 chat and embedding models, published when
+ * {@code spring.ai.qianfan.api-keys} is set.
+ */
+@Configuration(proxyBeanMethods = false)
+@EnableConfigurationProperties(QianFanConnectionProperties.class)
+class QianFanApiKeyPoolConfiguration {
+
+	@Bean
+	@ConditionalOnMissingBean
+	@Conditional(OnApiKeysCondition.class)
+	ApiKeyPool qianFanApiKeyPool(QianFanConnectionProperties commonProperties,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		return QianFanApiKeyPools.sharedApiKeyPool(commonProperties, meterRegistry);
+	}
+
+	static class OnApiKeysCondition extends SpringBootCondition {
+
+		private static final String API_KEYS_PROPERTY = QianFanConnectionProperties.CONFIG_PREFIX + ".api-keys";
+
+		@Override
+		public ConditionOutcome getMatchOutcome(ConditionContext context, AnnotatedTypeMetadata metadata) {
+			boolean match = Binder.get(context.getEnvironment())
+				.bind(API_KEYS_PROPERTY, Bindable.listOf(String.class))
+				.map(apiKeys -> !apiKeys.isEmpty())
+				.orElse(false);
+			return match ? ConditionOutcome.match(API_KEYS_PROPERTY + " is set")
+					: ConditionOutcome.noMatch(API_KEYS_PROPERTY + " is not set");
+		}
+
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.autoconfigure;
+
+import java.util.List;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springaicommunity.qianfanv2.api.ApiKeyPool;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.util.CollectionUtils;
+
+/**
+ * Resolves the {@link ApiKeyPool} of the v2 models. The models share the pool of the
+ * common {@code spring.ai.qianfan.api-keys}, so that a key ejected by the chat traffic is
+ * also avoided by the embedding traffic, unless they set {@code api-keys} of their own.
+ */
+final class QianFanApiKeyPools {
+
+	private QianFanApiKeyPools() {
+	}
+
+	/**
+	 * Create the pool of the common {@code api-keys}.
+	 * @param commonProperties the common connection properties.
+	 * @param meterRegistry the registry of the pool meters, the global registry being
+	 * used when none is available.
+	 * @return the shared key pool.
+	 */
+	static ApiKeyPool sharedApiKeyPool(QianFanConnectionProperties commonProperties,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		return apiKeyPool(ApiKeyPool.DEFAULT_NAME, commonProperties.getApiKeys(),
+				commonProperties.getApiKeySelectionStrategy(), meterRegistry);
+	}
+
+	/**
+	 * Return the key pool of a model: a pool of its own, named after the model, when it
+	 * sets {@code api-keys}, the shared pool otherwise.
+	 * @param name the name of the pool of the model, tagging its meters.
+	 * @param commonProperties the common connection properties.
+	 * @param properties the properties of the model.
+	 * @param sharedApiKeyPool the shared pool, available when the common {@code api-keys}
+	 * are set.
+	 * @param meterRegistry the registry of the pool meters.
+	 * @return the key pool, or {@code null} when no {@code api-keys} are set.
+	 */
+	static ApiKeyPool apiKeyPool(String name, QianFanConnectionProperties commonProperties,
+			QianFanParentProperties properties, ObjectProvider<ApiKeyPool> sharedApiKeyPool,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+		if (CollectionUtils.isEmpty(properties.getApiKeys())) {
+			return sharedApiKeyPool.getIfAvailable();
+		}
+		ApiKeyPool.SelectionStrategy selectionStrategy = (properties.getApiKeySelectionStrategy() != null)
+				? properties.getApiKeySelectionStrategy() : commonProperties.getApiKeySelectionStrategy();
+		return apiKeyPool(name, properties.getApiKeys(), selectionStrategy, meterRegistry);
+	}
+
+	private static ApiKeyPool apiKeyPool(String name, List<String> apiKeys,
+			ApiKeyPool.SelectionStrategy selectionStrategy, ObjectProvider<MeterRegistry> meterRegistry) {
+		ApiKeyPool.Builder builder = ApiKeyPool.builder().name(name).apiKeys(apiKeys);
+		if (selectionStrategy != null) {
+			builder.selectionStrategy(selectionStrategy);
+		}
+		meterRegistry.ifUnique(builder::meterRegistry);
+		return builder.build();
+	}
+
+}
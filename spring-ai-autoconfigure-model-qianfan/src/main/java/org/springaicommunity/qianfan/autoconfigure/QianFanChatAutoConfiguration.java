@@ -16,12 +16,14 @@
 
 package org.springaicommunity.qianfan.autoconfigure;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.observation.ObservationRegistry;
 
 import org.springframework.ai.chat.observation.ChatModelObservationConvention;
 import org.springframework.ai.model.SpringAIModelProperties;
 import org.springaicommunity.qianfan.QianFanChatModel;
 import org.springaicommunity.qianfan.api.QianFanApi;
+import org.springaicommunity.qianfanv2.api.ApiKeyPool;
 import org.springframework.ai.retry.autoconfigure.SpringAiRetryAutoConfiguration;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
@@ -29,13 +31,16 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.web.client.RestClientAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.reactive.function.client.WebClientAutoConfiguration;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
 import org.springframework.retry.support.RetryTemplate;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 import org.springframework.web.client.ResponseErrorHandler;
 import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
 
 import static org.springaicommunity.qianfan.api.QianFanConstants.PROVIDER_NAME;
 
@@ -45,10 +50,12 @@ import static org.springaicommunity.qianfan.api.QianFanConstants.PROVIDER_NAME;
  * @author Geng Rong
  * @author Ilayaperumal Gopinathan
  */
-@AutoConfiguration(after = { RestClientAutoConfiguration.class, SpringAiRetryAutoConfiguration.class })
+@AutoConfiguration(after = { RestClientAutoConfiguration.class, WebClientAutoConfiguration.class,
+		SpringAiRetryAutoConfiguration.class })
 @ConditionalOnClass(QianFanApi.class)
 @ConditionalOnProperty(name = SpringAIModelProperties.CHAT_MODEL, havingValue = PROVIDER_NAME, matchIfMissing = true)
 @EnableConfigurationProperties({ QianFanConnectionProperties.class, QianFanChatProperties.class })
+@Import(QianFanApiKeyPoolConfiguration.class)
 public class QianFanChatAutoConfiguration {
 
 	@Bean
@@ -80,12 +87,18 @@ public class QianFanChatAutoConfiguration {
 			QianFanConnectionProperties commonProperties, QianFanChatProperties chatProperties,
 			ObjectProvider<RestClient.Builder> restClientBuilderProvider, RetryTemplate retryTemplate,
 			ResponseErrorHandler responseErrorHandler, ObjectProvider<ObservationRegistry> observationRegistry,
-			ObjectProvider<ChatModelObservationConvention> observationConvention) {
+			ObjectProvider<ChatModelObservationConvention> observationConvention,
+			ObjectProvider<WebClient.Builder> webClientBuilderProvider, ObjectProvider<ApiKeyPool> sharedApiKeyPool,
+			ObjectProvider<MeterRegistry> meterRegistry) {
+
+		var apiKeyPool = QianFanApiKeyPools.apiKeyPool("chat", commonProperties, chatProperties, sharedApiKeyPool,
+				meterRegistry);
 
 		var qianFanApi = qianFanApiv2(chatProperties.getBaseUrl(), commonProperties.getBaseUrl(),
 				chatProperties.getApiKey(), commonProperties.getApiKey(), chatProperties.getSecretKey(),
-				commonProperties.getSecretKey(), restClientBuilderProvider.getIfAvailable(RestClient::builder),
-				responseErrorHandler);
+				commonProperties.getSecretKey(), apiKeyPool,
+				restClientBuilderProvider.getIfAvailable(RestClient::builder),
+				webClientBuilderProvider.getIfAvailable(WebClient::builder), responseErrorHandler);
 
 		var chatModel = new org.springaicommunity.qianfanv2.QianFanChatModel(qianFanApi, chatProperties.getOptionsV2(),
 				retryTemplate, observationRegistry.getIfUnique(() -> ObservationRegistry.NOOP));
@@ -113,17 +126,23 @@ public class QianFanChatAutoConfiguration {
 	}
 
 	private org.springaicommunity.qianfanv2.api.QianFanApi qianFanApiv2(String baseUrl, String commonBaseUrl,
-			String apiKey, String commonApiKey, String secretKey, String commonSecretKey,
-			RestClient.Builder restClientBuilder, ResponseErrorHandler responseErrorHandler) {
+			String apiKey, String commonApiKey, String secretKey, String commonSecretKey, ApiKeyPool apiKeyPool,
+			RestClient.Builder restClientBuilder, WebClient.Builder webClientBuilder,
+			ResponseErrorHandler responseErrorHandler) {
 
 		String resolvedBaseUrl = StringUtils.hasText(baseUrl) ? baseUrl : commonBaseUrl;
 		Assert.hasText(resolvedBaseUrl, "QianFan base URL must be set");
 
+		if (apiKeyPool != null) {
+			return new org.springaicommunity.qianfanv2.api.QianFanApi(resolvedBaseUrl, apiKeyPool, restClientBuilder,
+					webClientBuilder, responseErrorHandler);
+		}
+
 		String resolvedApiKey = StringUtils.hasText(apiKey) ? apiKey : commonApiKey;
 		Assert.hasText(resolvedApiKey, "QianFan API key must be set");
 
 		return new org.springaicommunity.qianfanv2.api.QianFanApi(resolvedBaseUrl, resolvedApiKey, restClientBuilder,
-				responseErrorHandler);
+				webClientBuilder, responseErrorHandler);
 	}
 
 }
@@ -16,6 +16,11 @@
 
 package org.springaicommunity.qianfan.autoconfigure;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springaicommunity.qianfanv2.api.ApiKeyPool;
+
 /**
  * @author Geng Rong
  */
@@ -23,6 +28,17 @@ class QianFanParentProperties {
 
 	private String apiKey;
 
+	/**
+	 * Pool of v2 API keys to spread the requests over. Takes precedence over the single
+	 * api key when set.
+	 */
+	private List<String> apiKeys = new ArrayList<>();
+
+	/**
+	 * How a key of the pool is selected for a request.
+	 */
+	private ApiKeyPool.SelectionStrategy apiKeySelectionStrategy;
+
 	private String secretKey;
 
 	private String baseUrl;
@@ -38,6 +54,22 @@ class QianFanParentProperties {
 		this.apiKey = apiKey;
 	}
 
+	public List<String> getApiKeys() {
+		return this.apiKeys;
+	}
+
+	public void setApiKeys(List<String> apiKeys) {
+		this.apiKeys = apiKeys;
+	}
+
+	public ApiKeyPool.SelectionStrategy getApiKeySelectionStrategy() {
+		return this.apiKeySelectionStrategy;
+	}
+
+	public void setApiKeySelectionStrategy(ApiKeyPool.SelectionStrategy apiKeySelectionStrategy) {
+		this.apiKeySelectionStrategy = apiKeySelectionStrategy;
+	}
+
 	public String getSecretKey() {
 		return this.secretKey;
 	}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2023-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.autoconfigure;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import org.springaicommunity.qianfanv2.QianFanChatModel;
+import org.springaicommunity.qianfanv2.QianFanEmbeddingModel;
+import org.springaicommunity.qianfanv2.api.ApiKeyPool;
+import org.springaicommunity.qianfanv2.api.ApiKeyPool.SelectionStrategy;
+import org.springframework.ai.retry.autoconfigure.SpringAiRetryAutoConfiguration;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.web.client.RestClientAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit Tests for {@link QianFanChatAutoConfiguration}.
+ */
+public class QianFanChatAutoConfigurationTests {
+
+	private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+		.withPropertyValues("spring.ai.qianfan.base-url=TEST_BASE_URL", "spring.ai.qianfan.api-key=abc123",
+				"spring.ai.qianfan.secret-key=def123")
+		.withConfiguration(AutoConfigurations.of(SpringAiRetryAutoConfiguration.class,
+				RestClientAutoConfiguration.class, QianFanChatAutoConfiguration.class));
+
+	@Test
+	void apiKeysConfigureTheKeyPool() {
+		this.contextRunner.withPropertyValues(
+		// @formatter:off
+				"spring.ai.qianfan.api-keys=key1,key2,key3",
+				"spring.ai.qianfan.api-key-selection-strategy=QUOTA_AWARE")
+				// @formatter:on
+			.withBean(SimpleMeterRegistry.class, SimpleMeterRegistry::new)
+			.run(context -> {
+				ApiKeyPool apiKeyPool = apiKeyPool(context.getBean(QianFanChatModel.class));
+
+				assertThat(apiKeyPool.getKeyIds()).containsExactly("key-0", "key-1", "key-2");
+				assertThat(apiKeyPool.getSelectionStrategy()).isEqualTo(SelectionStrategy.QUOTA_AWARE);
+				assertThat(context.getBean(MeterRegistry.class).find(ApiKeyPool.IN_FLIGHT_METRIC).gauges()).hasSize(3);
+			});
+	}
+
+	@Test
+	void chatApiKeysTakePrecedenceOverTheCommonOnes() {
+		this.contextRunner.withPropertyValues(
+		// @formatter:off
+				"spring.ai.qianfan.api-keys=key1,key2,key3",
+				"spring.ai.qianfan.api-key-selection-strategy=QUOTA_AWARE",
+				"spring.ai.qianfan.chat.api-keys=chat1,chat2",
+				"spring.ai.qianfan.chat.api-key-selection-strategy=LEAST_IN_FLIGHT")
+				// @formatter:on
+			.run(context -> {
+				ApiKeyPool apiKeyPool = apiKeyPool(context.getBean(QianFanChatModel.class));
+
+				assertThat(apiKeyPool.getName()).isEqualTo("chat");
+				assertThat(apiKeyPool.getKeyIds()).containsExactly("key-0", "key-1");
+				assertThat(apiKeyPool.getSelectionStrategy()).isEqualTo(SelectionStrategy.LEAST_IN_FLIGHT);
+				assertThat(apiKeyPool).isNotSameAs(context.getBean(ApiKeyPool.class));
+			});
+	}
+
+	@Test
+	void chatAndEmbeddingModelsShareTheCommonKeyPool() {
+		this.contextRunner.withPropertyValues("spring.ai.qianfan.api-keys=key1,key2")
+			.withConfiguration(AutoConfigurations.of(QianFanEmbeddingAutoConfiguration.class))
+			.withBean(SimpleMeterRegistry.class, SimpleMeterRegistry::new)
+			.run(context -> {
+				ApiKeyPool apiKeyPool = context.getBean(ApiKeyPool.class);
+
+				assertThat(apiKeyPool(context.getBean(QianFanChatModel.class))).isSameAs(apiKeyPool);
+				assertThat(apiKeyPool(context.getBean(QianFanEmbeddingModel.class))).isSameAs(apiKeyPool);
+				assertThat(context.getBean(MeterRegistry.class).find(ApiKeyPool.IN_FLIGHT_METRIC).gauges()).hasSize(2);
+			});
+	}
+
+	@Test
+	void webClientBuilderBeanIsUsed() {
+		WebClient.Builder webClientBuilder = spy(WebClient.builder());
+		this.contextRunner.withPropertyValues("spring.ai.qianfan.api-keys=key1,key2")
+			.withBean(WebClient.Builder.class, () -> webClientBuilder)
+			.run(context -> {
+				assertThat(context).hasSingleBean(QianFanChatModel.class);
+				verify(webClientBuilder).build();
+			});
+	}
+
+	@Test
+	void selectionStrategyDefaultsToRoundRobin() {
+		this.contextRunner.withPropertyValues("spring.ai.qianfan.chat.api-keys=chat1,chat2").run(context -> {
+			ApiKeyPool apiKeyPool = apiKeyPool(context.getBean(QianFanChatModel.class));
+
+			assertThat(apiKeyPool.getKeyIds()).containsExactly("key-0", "key-1");
+			assertThat(apiKeyPool.getSelectionStrategy()).isEqualTo(SelectionStrategy.ROUND_ROBIN);
+		});
+	}
+
+	@Test
+	void singleApiKeyWithoutApiKeys() {
+		this.contextRunner.run(context -> {
+			assertThat(apiKeyPool(context.getBean(QianFanChatModel.class))).isNull();
+			assertThat(context).doesNotHaveBean(ApiKeyPool.class);
+		});
+	}
+
+	static ApiKeyPool apiKeyPool(Object model) {
+		Object qianFanApi = ReflectionTestUtils.getField(model, "qianFanApi");
+		return (ApiKeyPool) ReflectionTestUtils.getField(qianFanApi, "apiKeyPool");
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2023-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springaicommunity.qianfan.autoconfigure;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import org.springaicommunity.qianfan.QianFanEmbeddingModel;
+import org.springaicommunity.qianfan.api.EmbeddingModelRegistry;
+import org.springaicommunity.qianfan.api.EmbeddingModelRegistry.EmbeddingModelMetadata;
+import org.springaicommunity.qianfan.embedding.QianFanBatchingStrategy;
+import org.springaicommunity.qianfanv2.api.ApiKeyPool;
+import org.springaicommunity.qianfanv2.api.ApiKeyPool.SelectionStrategy;
+import org.springframework.ai.retry.autoconfigure.SpringAiRetryAutoConfiguration;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.web.client.RestClientAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit Tests for {@link QianFanEmbeddingAutoConfiguration}.
+ */
+public class QianFanEmbeddingAutoConfigurationTests {
+
+	@Test
+	void batchingStrategiesFollowTheModelOfEachApiVersion() {
+		EmbeddingModelRegistry.register("test-embedding-v1", new EmbeddingModelMetadata(256, 128, 7));
+		EmbeddingModelRegistry.register("test-embedding-v2", new EmbeddingModelMetadata(256, 128, 3));
+
+		new ApplicationContextRunner().withPropertyValues(
+		// @formatter:off
+				"spring.ai.qianfan.base-url=TEST_BASE_URL",
+				"spring.ai.qianfan.api-key=abc123",
+				"spring.ai.qianfan.secret-key=def123",
+				"spring.ai.qianfan.embedding.options.model=test-embedding-v1",
+				"spring.ai.qianfan.embedding.options-v2.model=test-embedding-v2")
+				// @formatter:on
+			.withConfiguration(AutoConfigurations.of(SpringAiRetryAutoConfiguration.class,
+					RestClientAutoConfiguration.class, QianFanEmbeddingAutoConfiguration.class))
+			.run(context -> {
+				var embeddingModel = context.getBean(QianFanEmbeddingModel.class);
+				var embeddingModelV2 = context.getBean(org.springaicommunity.qianfanv2.QianFanEmbeddingModel.class);
+
+				assertThat(maxBatchSize(embeddingModel)).isEqualTo(7);
+				assertThat(maxBatchSize(embeddingModelV2)).isEqualTo(3);
+			});
+	}
+
+	@Test
+	void embeddingApiKeysConfigureTheKeyPool() {
+		new ApplicationContextRunner().withPropertyValues(
+		// @formatter:off
+				"spring.ai.qianfan.base-url=TEST_BASE_URL",
+				"spring.ai.qianfan.api-key=abc123",
+				"spring.ai.qianfan.secret-key=def123",
+				"spring.ai.qianfan.api-keys=key1,key2,key3",
+				"spring.ai.qianfan.embedding.api-keys=embedding1,embedding2",
+				"spring.ai.qianfan.embedding.api-key-selection-strategy=LEAST_IN_FLIGHT")
+				// @formatter:on
+			.withConfiguration(AutoConfigurations.of(SpringAiRetryAutoConfiguration.class,
+					RestClientAutoConfiguration.class, QianFanEmbeddingAutoConfiguration.class))
+			.withBean(SimpleMeterRegistry.class, SimpleMeterRegistry::new)
+			.run(context -> {
+				ApiKeyPool apiKeyPool = QianFanChatAutoConfigurationTests
+					.apiKeyPool(context.getBean(org.springaicommunity.qianfanv2.QianFanEmbeddingModel.class));
+
+				assertThat(apiKeyPool.getKeyIds()).containsExactly("key-0", "key-1");
+				assertThat(apiKeyPool.getSelectionStrategy()).isEqualTo(SelectionStrategy.LEAST_IN_FLIGHT);
+				assertThat(context.getBean(MeterRegistry.class)
+					.find(ApiKeyPool.IN_FLIGHT_METRIC)
+					.tag("pool", "embedding")
+					.gauges()).hasSize(2);
+			});
+	}
+
+	private static Object maxBatchSize(Object embeddingModel) {
+		Object batchingStrategy = ReflectionTestUtils.getField(embeddingModel, "batchingStrategy");
+		assertThat(batchingStrategy).isInstanceOf(QianFanBatchingStrategy.class);
+		return ReflectionTestUtils.getField(batchingStrategy, "maxBatchSize");
+	}
+
+}